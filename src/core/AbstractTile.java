@@ -1,4 +1,5 @@
 package core;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -9,10 +10,19 @@ public class AbstractTile
 	private int width;
 	private int height;
 	private BufferedImage texture;
+	private CompressedTileStore store;
+	private int storeIndex;
+	private int opacity;
+	private Rectangle opaqueBounds;
 	
 	public static final int DEFAULT_TILE_HEIGHT = 32;
 	public static final int DEFAULT_TILE_WIDTH = 32;
 	
+	// How much of a tile is covered by its image
+	public static final int TRANSPARENT = 0;
+	public static final int OPAQUE = 1;
+	public static final int PARTIAL = 2;
+	
 	/**
 	 * Default Tile constructor. Probably won't be used anyway,
 	 * but it initializes the Tile to default values.
@@ -22,6 +32,8 @@ public class AbstractTile
 		height = DEFAULT_TILE_HEIGHT;
 		width = DEFAULT_TILE_WIDTH;
 		texture = new BufferedImage(DEFAULT_TILE_HEIGHT, DEFAULT_TILE_WIDTH, BufferedImage.TYPE_INT_RGB);
+		opacity = OPAQUE;
+		opaqueBounds = new Rectangle(0, 0, width, height);
 	}
 	
 	/**
@@ -34,6 +46,57 @@ public class AbstractTile
 		height = image.getHeight();
 		width = image.getWidth();
 		texture = image;
+		opacity = OPAQUE;
+		opaqueBounds = new Rectangle(0, 0, width, height);
+	}
+	
+	/**
+	 * Tile constructor for a Tile whose image is kept compressed, and is only
+	 * inflated when it is asked for
+	 * @param store - The store which holds the Tile's compressed image
+	 * @param storeIndex - The index of the Tile's image in the store
+	 * @param width - The width of the Tile
+	 * @param height - The height of the Tile
+	 */
+	public AbstractTile(CompressedTileStore store, int storeIndex, int width, int height)
+	{
+		this.height = height;
+		this.width = width;
+		this.store = store;
+		this.storeIndex = storeIndex;
+		opacity = OPAQUE;
+		opaqueBounds = new Rectangle(0, 0, width, height);
+	}
+	
+	/**
+	 * Sets how much of the Tile is covered by its image, as worked out by the TileSheet
+	 * @param opacity - TRANSPARENT, OPAQUE, or PARTIAL
+	 * @param opaqueBounds - The bounding box of the pixels which aren't fully transparent
+	 */
+	public void setOpacityMask(int opacity, Rectangle opaqueBounds)
+	{
+		this.opacity = opacity;
+		this.opaqueBounds = opaqueBounds;
+	}
+	
+	/**
+	 * Tells how much of the Tile is covered by its image
+	 * @return TRANSPARENT if nothing is drawn, OPAQUE if every pixel is
+	 * fully opaque, or PARTIAL otherwise
+	 */
+	public int getOpacity()
+	{
+		return opacity;
+	}
+	
+	/**
+	 * Gets the bounding box of the pixels which aren't fully transparent,
+	 * so that drawing the Tile can skip its empty edges
+	 * @return The bounding box, which is empty if the Tile is TRANSPARENT
+	 */
+	public Rectangle getOpaqueBounds()
+	{
+		return opaqueBounds;
 	}
 	             
 	/**
@@ -42,6 +105,8 @@ public class AbstractTile
 	 */
 	public BufferedImage getImage()
 	{
+		if (store != null)
+			return store.getImage(storeIndex);
 		return texture;
 	}
 	
@@ -0,0 +1,392 @@
+package core;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import javax.swing.JViewport;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Plays the tile animations of a MapPanel. It keeps an index of which cells are
+ * currently showing an animation, on which layer, bucketed by the chunk of the map
+ * they are in, and runs off a single Swing timer which is only scheduled for the
+ * next time an animation in the visible part of the map changes frame. When it
+ * fires, only the chunks overlapping the visible area are looked at, and only the
+ * cells whose animation actually changed frame are repainted. The timer is stopped
+ * while no visible cell is animated, and started again when the map is scrolled.
+ */
+public class AnimationPlayer implements ActionListener
+{
+	private static final int INITIAL_CHUNK_CAPACITY = 8;
+
+	private MapPanel mapPanel;
+	private Timer timer;
+	private int chunkColumns;
+	private long[][] chunkCells;
+	private TileAnimation[][] chunkAnimations;
+	private int[] chunkSizes;
+	private HashMap<TileAnimation, int[]> cellCounts;
+	private HashMap<TileAnimation, Integer> shownFrames;
+	private HashSet<TileAnimation> changedAnimations;
+	private HashSet<TileAnimation> visibleAnimations;
+	private boolean closed;
+	private long startTime;
+
+	/**
+	 * Creates the animation player for a map
+	 * @param mapPanel - The MapPanel whose cells are to be animated
+	 */
+	public AnimationPlayer(MapPanel mapPanel)
+	{
+		this.mapPanel = mapPanel;
+		cellCounts = new HashMap<TileAnimation, int[]>();
+		shownFrames = new HashMap<TileAnimation, Integer>();
+		changedAnimations = new HashSet<TileAnimation>();
+		visibleAnimations = new HashSet<TileAnimation>();
+		closed = false;
+		startTime = System.currentTimeMillis();
+
+		timer = new Timer(0, this);
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Starts listening for the map being scrolled, so that the timer can be started
+	 * again when animated cells come into view
+	 * @param viewport - The viewport the MapPanel is shown in
+	 */
+	public void setViewport(JViewport viewport)
+	{
+		viewport.addChangeListener(new ViewportChangeListener());
+	}
+
+	/**
+	 * Starts or stops playing when animation mode is turned on or off. While it
+	 * is off, every animated cell shows its base ID.
+	 */
+	public void animationModeChanged()
+	{
+		shownFrames.clear();
+		timer.stop();
+
+		// Every visible animated cell changes what it is showing, the rest are
+		// painted correctly once they are scrolled into view
+		scanVisibleCells(cellCounts.keySet());
+
+		if (isPlaying())
+			schedule(visibleAnimations);
+	}
+
+	/**
+	 * Forgets every animated cell, for when the layers have been rearranged and
+	 * the index is about to be built again
+	 */
+	public void clear()
+	{
+		chunkCells = null;
+		chunkAnimations = null;
+		chunkSizes = null;
+		cellCounts.clear();
+		shownFrames.clear();
+		timer.stop();
+	}
+
+	/**
+	 * Stops the timer for good, for when the map is closed
+	 */
+	public void close()
+	{
+		closed = true;
+		timer.stop();
+	}
+
+	/**
+	 * Updates the index when the animation a cell shows on one of its layers changes
+	 * @param layer - The index of the layer in the map's LayerStack
+	 * @param index - The index of the cell
+	 * @param oldAnimation - The animation the cell was showing, or null
+	 * @param newAnimation - The animation the cell now shows, or null
+	 */
+	public void cellChanged(int layer, int index, TileAnimation oldAnimation, TileAnimation newAnimation)
+	{
+		if (oldAnimation == newAnimation)
+			return;
+
+		if (chunkCells == null)
+			createChunks();
+
+		// The same animation can be on more than one layer of a cell, so the layer goes
+		// in the high half of the key, where a big map with many layers can't overflow it
+		long cell = ((long) layer << 32) | index;
+		int mapWidth = mapPanel.getWidthInTiles();
+		int chunk = ((index / mapWidth) >> ChunkedLayer.CHUNK_SHIFT) * chunkColumns + ((index % mapWidth) >> ChunkedLayer.CHUNK_SHIFT);
+
+		if (oldAnimation != null)
+		{
+			removeCell(chunk, cell);
+
+			int[] count = cellCounts.get(oldAnimation);
+			if (--count[0] == 0)
+			{
+				cellCounts.remove(oldAnimation);
+				shownFrames.remove(oldAnimation);
+			}
+		}
+
+		if (newAnimation != null)
+		{
+			addCell(chunk, cell, newAnimation);
+
+			int[] count = cellCounts.get(newAnimation);
+			if (count == null)
+				cellCounts.put(newAnimation, new int[] { 1 });
+			else
+				count[0]++;
+		}
+
+		if (cellCounts.isEmpty())
+			timer.stop();
+		else if (newAnimation != null && isPlaying() && !timer.isRunning() && isVisible(index))
+			schedule();
+	}
+
+	/**
+	 * Gets the ID which an animation is currently showing
+	 * @param animation - The animation
+	 * @return The ID of the current frame
+	 */
+	public int getCurrentId(TileAnimation animation)
+	{
+		if (!isPlaying())
+			return animation.getBaseId();
+
+		Integer frame = shownFrames.get(animation);
+		if (frame == null)
+		{
+			frame = animation.getFrameAt(System.currentTimeMillis() - startTime);
+			shownFrames.put(animation, frame);
+		}
+
+		return animation.getFrameId(frame);
+	}
+
+	/**
+	 * Called by the timer. Advances each animation on the map and repaints the
+	 * visible cells of those which changed frame.
+	 * @param e - The timer event
+	 */
+	public void actionPerformed(ActionEvent e)
+	{
+		if (!isPlaying())
+			return;
+
+		long time = System.currentTimeMillis() - startTime;
+
+		// Only a handful of distinct animations are on a map, so finding which
+		// of them changed frame is cheap compared to visiting their cells
+		changedAnimations.clear();
+		for (TileAnimation animation : cellCounts.keySet())
+		{
+			int frame = animation.getFrameAt(time);
+			Integer shown = shownFrames.get(animation);
+
+			if (shown == null || shown != frame)
+			{
+				shownFrames.put(animation, frame);
+				changedAnimations.add(animation);
+			}
+		}
+
+		scanVisibleCells(changedAnimations);
+		schedule(visibleAnimations);
+	}
+
+	/**
+	 * Tells whether animations are currently being played
+	 * @return True if the map is open and animation mode is on
+	 */
+	private boolean isPlaying()
+	{
+		return !closed && mapPanel.animationModeEnabled();
+	}
+
+	/**
+	 * Starts the timer so that it fires when the next animation in the visible
+	 * part of the map changes frame
+	 */
+	private void schedule()
+	{
+		scanVisibleCells(null);
+		schedule(visibleAnimations);
+	}
+
+	/**
+	 * Starts the timer so that it fires when the next of some animations changes
+	 * frame, or leaves it stopped if there are none
+	 * @param animations - The animations which are currently visible
+	 */
+	private void schedule(Set<TileAnimation> animations)
+	{
+		if (animations.isEmpty())
+			return;
+
+		long time = System.currentTimeMillis() - startTime;
+		int delay = Integer.MAX_VALUE;
+		for (TileAnimation animation : animations)
+			delay = Math.min(delay, animation.getTimeUntilNextFrame(time));
+
+		timer.setInitialDelay(delay);
+		timer.restart();
+	}
+
+	/**
+	 * Visits the animated cells in the chunks overlapping the visible part of the map,
+	 * collecting the animations which are visible
+	 * @param repaintAnimations - The animations whose visible cells are to be repainted, or null
+	 */
+	private void scanVisibleCells(Set<TileAnimation> repaintAnimations)
+	{
+		visibleAnimations.clear();
+
+		Rectangle visible = mapPanel.getVisibleRect();
+		if (chunkCells == null || visible.isEmpty())
+			return;
+
+		int tileWidth = mapPanel.getTilePanel().getTileSheet().getWidthOfTiles();
+		int tileHeight = mapPanel.getTilePanel().getTileSheet().getHeightOfTiles();
+		int mapWidth = mapPanel.getWidthInTiles();
+
+		// Determine which cells are visible
+		int firstColumn = visible.x / tileWidth;
+		int firstRow = visible.y / tileHeight;
+		int lastColumn = Math.min((visible.x + visible.width - 1) / tileWidth, mapWidth - 1);
+		int lastRow = Math.min((visible.y + visible.height - 1) / tileHeight, mapPanel.getHeightInTiles() - 1);
+
+		for (int chunkY = firstRow >> ChunkedLayer.CHUNK_SHIFT; chunkY <= lastRow >> ChunkedLayer.CHUNK_SHIFT; chunkY++)
+		{
+			for (int chunkX = firstColumn >> ChunkedLayer.CHUNK_SHIFT; chunkX <= lastColumn >> ChunkedLayer.CHUNK_SHIFT; chunkX++)
+			{
+				int chunk = chunkY * chunkColumns + chunkX;
+				long[] cells = chunkCells[chunk];
+				TileAnimation[] animations = chunkAnimations[chunk];
+
+				for (int i = 0; i < chunkSizes[chunk]; i++)
+				{
+					int index = (int) cells[i];
+					int x = index % mapWidth;
+					int y = index / mapWidth;
+
+					if (x < firstColumn || x > lastColumn || y < firstRow || y > lastRow)
+						continue;
+
+					visibleAnimations.add(animations[i]);
+					if (repaintAnimations != null && repaintAnimations.contains(animations[i]))
+						mapPanel.getTile(index).repaint();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether a cell is in the visible part of the map
+	 * @param index - The index of the cell
+	 * @return True if any of the cell can be seen
+	 */
+	private boolean isVisible(int index)
+	{
+		Rectangle visible = mapPanel.getVisibleRect();
+		int tileWidth = mapPanel.getTilePanel().getTileSheet().getWidthOfTiles();
+		int tileHeight = mapPanel.getTilePanel().getTileSheet().getHeightOfTiles();
+		int mapWidth = mapPanel.getWidthInTiles();
+
+		return visible.intersects((index % mapWidth) * tileWidth, (index / mapWidth) * tileHeight, tileWidth, tileHeight);
+	}
+
+	/**
+	 * Creates the empty buckets of animated cells for the current size of the map
+	 */
+	private void createChunks()
+	{
+		chunkColumns = (mapPanel.getWidthInTiles() + ChunkedLayer.CHUNK_SIZE - 1) >> ChunkedLayer.CHUNK_SHIFT;
+		int chunkRows = (mapPanel.getHeightInTiles() + ChunkedLayer.CHUNK_SIZE - 1) >> ChunkedLayer.CHUNK_SHIFT;
+		chunkCells = new long[chunkColumns * chunkRows][];
+		chunkAnimations = new TileAnimation[chunkColumns * chunkRows][];
+		chunkSizes = new int[chunkColumns * chunkRows];
+	}
+
+	/**
+	 * Adds an animated cell to the bucket of its chunk
+	 * @param chunk - The index of the chunk
+	 * @param cell - The layer and index of the cell
+	 * @param animation - The animation the cell shows
+	 */
+	private void addCell(int chunk, long cell, TileAnimation animation)
+	{
+		int size = chunkSizes[chunk];
+
+		if (chunkCells[chunk] == null)
+		{
+			chunkCells[chunk] = new long[INITIAL_CHUNK_CAPACITY];
+			chunkAnimations[chunk] = new TileAnimation[INITIAL_CHUNK_CAPACITY];
+		}
+		else if (size == chunkCells[chunk].length)
+		{
+			long[] cells = new long[size * 2];
+			TileAnimation[] animations = new TileAnimation[size * 2];
+			System.arraycopy(chunkCells[chunk], 0, cells, 0, size);
+			System.arraycopy(chunkAnimations[chunk], 0, animations, 0, size);
+			chunkCells[chunk] = cells;
+			chunkAnimations[chunk] = animations;
+		}
+
+		chunkCells[chunk][size] = cell;
+		chunkAnimations[chunk][size] = animation;
+		chunkSizes[chunk] = size + 1;
+	}
+
+	/**
+	 * Removes an animated cell from the bucket of its chunk, moving the last cell
+	 * of the bucket into its place
+	 * @param chunk - The index of the chunk
+	 * @param cell - The layer and index of the cell
+	 */
+	private void removeCell(int chunk, long cell)
+	{
+		long[] cells = chunkCells[chunk];
+		int last = chunkSizes[chunk] - 1;
+
+		for (int i = 0; i <= last; i++)
+		{
+			if (cells[i] == cell)
+			{
+				cells[i] = cells[last];
+				chunkAnimations[chunk][i] = chunkAnimations[chunk][last];
+				chunkAnimations[chunk][last] = null;
+				chunkSizes[chunk] = last;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * ChangeListener which starts playing again when animated cells are scrolled into view
+	 */
+	class ViewportChangeListener implements ChangeListener
+	{
+		public void stateChanged(ChangeEvent e)
+		{
+			if (!isPlaying() || cellCounts.isEmpty() || timer.isRunning())
+				return;
+
+			// Nothing visible was animated while the timer was stopped, so the
+			// frames which were shown last have gone stale
+			shownFrames.clear();
+			schedule();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A set of rules which picks the right tile for a cell of terrain (such as the
+ * edges and corners where grass meets water) from which of its eight neighbours
+ * are the same terrain. The neighbours are packed into a bitmask, and the rules
+ * are compiled into a 256 entry lookup table from bitmask to tile ID.
+ */
+public class AutoTileRuleSet
+{
+	public static final int NORTH = 1;
+	public static final int NORTH_EAST = 2;
+	public static final int EAST = 4;
+	public static final int SOUTH_EAST = 8;
+	public static final int SOUTH = 16;
+	public static final int SOUTH_WEST = 32;
+	public static final int WEST = 64;
+	public static final int NORTH_WEST = 128;
+	public static final int EDGES = NORTH | EAST | SOUTH | WEST;
+	public static final int ALL_NEIGHBOURS = 255;
+
+	// The offsets of each neighbour, in the same order as the bits above
+	public static final int[] NEIGHBOUR_X = {0, 1, 1, 1, 0, -1, -1, -1};
+	public static final int[] NEIGHBOUR_Y = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+	private String name;
+	private ArrayList<int[]> rules;
+	private boolean[] terrain;
+	private int[] lookup;
+
+	/**
+	 * Creates an empty rule set
+	 * @param name - The name shown for the rule set
+	 */
+	public AutoTileRuleSet(String name)
+	{
+		this.name = name;
+		rules = new ArrayList<int[]>();
+		terrain = new boolean[0];
+		lookup = null;
+	}
+
+	/**
+	 * Creates the common 16 tile rule set, where only the four edge neighbours
+	 * matter and the tiles are laid out in the sheet in order of their edge mask
+	 * (north = 1, east = 2, south = 4, west = 8) starting at firstTileId
+	 * @param name - The name shown for the rule set
+	 * @param firstTileId - The tile ID of the tile with no matching neighbours
+	 * @return The rule set
+	 */
+	public static AutoTileRuleSet createEdgeSet(String name, int firstTileId)
+	{
+		AutoTileRuleSet set = new AutoTileRuleSet(name);
+
+		for (int edges = 0; edges < 16; edges++)
+		{
+			int required = 0;
+			if ((edges & 1) != 0) required |= NORTH;
+			if ((edges & 2) != 0) required |= EAST;
+			if ((edges & 4) != 0) required |= SOUTH;
+			if ((edges & 8) != 0) required |= WEST;
+
+			set.addRule(required, EDGES, firstTileId + edges);
+		}
+
+		return set;
+	}
+
+	/**
+	 * Gets the name of this rule set
+	 * @return The name of this rule set
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Adds a rule. A cell matches the rule when the neighbours selected by
+	 * care are the same terrain exactly where required has bits set. Rules
+	 * are tried in the order they were added. The rule's tile is also
+	 * counted as part of the terrain.
+	 * @param required - Which of the cared about neighbours must be the same terrain
+	 * @param care - Which neighbours the rule looks at
+	 * @param tileId - The tile to use when the rule matches
+	 */
+	public void addRule(int required, int care, int tileId)
+	{
+		rules.add(new int[] {required & care & ALL_NEIGHBOURS, care & ALL_NEIGHBOURS, tileId});
+		addTerrainTile(tileId);
+		lookup = null;
+	}
+
+	/**
+	 * Gets all of the rules in the order they are tried
+	 * @return Each rule as {required, care, tileId}
+	 */
+	public ArrayList<int[]> getRules()
+	{
+		return rules;
+	}
+
+	/**
+	 * Marks a tile as part of this rule set's terrain without it being the result of a rule
+	 * @param tileId - The tile ID to add
+	 */
+	public void addTerrainTile(int tileId)
+	{
+		if (tileId < 0)
+			return;
+		if (tileId >= terrain.length)
+			terrain = Arrays.copyOf(terrain, Math.max(tileId + 1, terrain.length * 2));
+		terrain[tileId] = true;
+	}
+
+	/**
+	 * Tells whether a tile is part of this rule set's terrain. Flipped
+	 * tiles count as the tile they are a flip of.
+	 * @param tileId - The tile ID to check
+	 * @return True if the tile is part of the terrain
+	 */
+	public boolean isTerrain(int tileId)
+	{
+		tileId = TileTransform.getBaseId(tileId);
+		return tileId >= 0 && tileId < terrain.length && terrain[tileId];
+	}
+
+	/**
+	 * Gets every tile ID which is part of this rule set's terrain
+	 * @return The terrain tile IDs in ascending order
+	 */
+	public ArrayList<Integer> getTerrainTiles()
+	{
+		ArrayList<Integer> temp = new ArrayList<Integer>();
+		for (int i = 0; i < terrain.length; i++)
+		{
+			if (terrain[i])
+				temp.add(i);
+		}
+		return temp;
+	}
+
+	/**
+	 * Gets the tile for a cell with the specified neighbours
+	 * @param mask - Which neighbours are the same terrain
+	 * @return The tile ID, or -1 if no rule matches
+	 */
+	public int getTile(int mask)
+	{
+		int[] table = lookup;
+		if (table == null)
+			table = compile();
+		return table[mask & ALL_NEIGHBOURS];
+	}
+
+	/**
+	 * Builds the lookup table by running the rules for every possible bitmask
+	 * @return The lookup table
+	 */
+	private int[] compile()
+	{
+		int[] table = new int[ALL_NEIGHBOURS + 1];
+
+		for (int mask = 0; mask <= ALL_NEIGHBOURS; mask++)
+		{
+			table[mask] = -1;
+			for (int[] rule : rules)
+			{
+				if (((mask ^ rule[0]) & rule[1]) == 0)
+				{
+					table[mask] = rule[2];
+					break;
+				}
+			}
+		}
+
+		lookup = table;
+		return table;
+	}
+
+	/**
+	 * Gets the name of this rule set, so it can be shown in lists
+	 */
+	public String toString()
+	{
+		return name;
+	}
+}
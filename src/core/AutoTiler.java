@@ -0,0 +1,230 @@
+package core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Applies an AutoTileRuleSet to the tile layer of a map. Cells outside of the
+ * map count as the same terrain, so terrain running off the edge of the map
+ * doesn't get a border.
+ *
+ * The cells are read through a CellReader, so the same code works on a copied
+ * array of IDs and on a live layer of a LayerStack.
+ */
+public class AutoTiler
+{
+	/**
+	 * Reads the IDs of the cells of a tile layer
+	 */
+	public interface CellReader
+	{
+		/**
+		 * Gets the ID of a cell
+		 * @param index - The row major index of the cell
+		 * @return The tile ID of the cell
+		 */
+		public int get(int index);
+	}
+
+	/**
+	 * Computes the neighbour bitmask of a cell
+	 * @param layer - The tile layer IDs, in row major order
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param set - The rule set whose terrain is matched
+	 * @return The bitmask of neighbours which are the same terrain
+	 */
+	public static int computeMask(int[] layer, int width, int height, int x, int y, AutoTileRuleSet set)
+	{
+		return computeMask(new ArrayReader(layer), width, height, x, y, set);
+	}
+
+	/**
+	 * Computes the neighbour bitmask of a cell
+	 * @param cells - The reader of the tile layer
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param set - The rule set whose terrain is matched
+	 * @return The bitmask of neighbours which are the same terrain
+	 */
+	public static int computeMask(CellReader cells, int width, int height, int x, int y, AutoTileRuleSet set)
+	{
+		int mask = 0;
+
+		for (int i = 0; i < 8; i++)
+		{
+			int nx = x + AutoTileRuleSet.NEIGHBOUR_X[i];
+			int ny = y + AutoTileRuleSet.NEIGHBOUR_Y[i];
+
+			if (nx < 0 || ny < 0 || nx >= width || ny >= height || set.isTerrain(cells.get(ny * width + nx)))
+				mask |= 1 << i;
+		}
+
+		return mask;
+	}
+
+	/**
+	 * Works out which tile a cell should have
+	 * @param layer - The tile layer IDs, in row major order
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param index - The row major index of the cell
+	 * @param set - The rule set to apply
+	 * @return The tile ID the cell should have, which is its current one if it isn't terrain or no rule matches
+	 */
+	public static int retile(int[] layer, int width, int height, int index, AutoTileRuleSet set)
+	{
+		return retile(new ArrayReader(layer), width, height, index, set);
+	}
+
+	/**
+	 * Works out which tile a cell of a live layer should have, reading the cell and
+	 * its neighbours straight from the stack so that nothing is copied
+	 * @param layers - The layers of the map
+	 * @param layer - The index of the tile layer
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param index - The row major index of the cell
+	 * @param set - The rule set to apply
+	 * @return The tile ID the cell should have, which is its current one if it isn't terrain or no rule matches
+	 */
+	public static int retile(LayerStack layers, int layer, int width, int height, int index, AutoTileRuleSet set)
+	{
+		return retile(new LayerReader(layers, layer), width, height, index, set);
+	}
+
+	/**
+	 * Works out which tile a cell should have
+	 * @param cells - The reader of the tile layer
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param index - The row major index of the cell
+	 * @param set - The rule set to apply
+	 * @return The tile ID the cell should have, which is its current one if it isn't terrain or no rule matches
+	 */
+	public static int retile(CellReader cells, int width, int height, int index, AutoTileRuleSet set)
+	{
+		int current = cells.get(index);
+		if (!set.isTerrain(current))
+			return current;
+
+		int tile = set.getTile(computeMask(cells, width, height, index % width, index / width, set));
+		return (tile < 0) ? current : tile;
+	}
+
+	/**
+	 * Applies a rule set to every cell of a layer in place, splitting the rows
+	 * across the common ForkJoinPool. Every tile a rule can produce is part of the
+	 * terrain, so the result doesn't depend on the order the cells are done in.
+	 * @param layer - The tile layer IDs, in row major order
+	 * @param width - The width of the map in tiles
+	 * @param height - The height of the map in tiles
+	 * @param set - The rule set to apply
+	 * @return The number of cells which changed
+	 */
+	public static int retileAll(int[] layer, int width, int height, AutoTileRuleSet set)
+	{
+		// Compile the lookup table up front rather than in every worker
+		set.getTile(0);
+		return ForkJoinPool.commonPool().invoke(new RetileTask(layer, width, height, 0, height, set));
+	}
+
+	/**
+	 * Reads the cells of a tile layer from an array of IDs
+	 */
+	static class ArrayReader implements CellReader
+	{
+		private int[] layer;
+
+		ArrayReader(int[] layer)
+		{
+			this.layer = layer;
+		}
+
+		public int get(int index)
+		{
+			return layer[index];
+		}
+	}
+
+	/**
+	 * Reads the cells of a tile layer straight from a LayerStack
+	 */
+	static class LayerReader implements CellReader
+	{
+		private LayerStack layers;
+		private int layer;
+
+		LayerReader(LayerStack layers, int layer)
+		{
+			this.layers = layers;
+			this.layer = layer;
+		}
+
+		public int get(int index)
+		{
+			return layers.get(layer, index);
+		}
+	}
+
+	/**
+	 * Retiles a band of rows, splitting it in half until it is small enough to do directly
+	 */
+	static class RetileTask extends RecursiveTask<Integer>
+	{
+		private static final long serialVersionUID = 2941470337518396012L;
+		private static final int THRESHOLD = 32;
+		private int[] layer;
+		private int width, height;
+		private int firstRow, lastRow;
+		private AutoTileRuleSet set;
+
+		/**
+		 * Creates a task which retiles rows [firstRow, lastRow)
+		 * @param layer - The tile layer IDs
+		 * @param width - The width of the map in tiles
+		 * @param height - The height of the map in tiles
+		 * @param firstRow - The first row to retile
+		 * @param lastRow - One past the last row to retile
+		 * @param set - The rule set to apply
+		 */
+		RetileTask(int[] layer, int width, int height, int firstRow, int lastRow, AutoTileRuleSet set)
+		{
+			this.layer = layer;
+			this.width = width;
+			this.height = height;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+			this.set = set;
+		}
+
+		protected Integer compute()
+		{
+			if (lastRow - firstRow > THRESHOLD)
+			{
+				int middle = (firstRow + lastRow) >>> 1;
+				RetileTask top = new RetileTask(layer, width, height, firstRow, middle, set);
+				RetileTask bottom = new RetileTask(layer, width, height, middle, lastRow, set);
+				top.fork();
+				return bottom.compute() + top.join();
+			}
+
+			int changed = 0;
+			CellReader cells = new ArrayReader(layer);
+			for (int index = firstRow * width; index < lastRow * width; index++)
+			{
+				int tile = retile(cells, width, height, index, set);
+				if (tile != layer[index])
+				{
+					layer[index] = tile;
+					changed++;
+				}
+			}
+			return changed;
+		}
+	}
+}
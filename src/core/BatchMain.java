@@ -0,0 +1,617 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import export.MapRenderer;
+import export.PackedAtlas;
+import export.RuntimeMapExporter;
+import export.StripImageExporter;
+import runtime.RuntimeMap;
+
+/**
+ * Command line entry point which converts, exports and validates whole directories
+ * of maps without a display. Maps are read with MapIO.readProject, so nothing touches
+ * Swing, and several maps are processed at once. A manifest records a hash of the
+ * contents of each map which was processed without problems, along with the settings
+ * it was processed with, and maps which haven't changed since are skipped.
+ *
+ * The files the batch writes are never read back in as maps, and the output directory
+ * isn't searched. Two maps whose outputs would be the same files, such as m1.tmf and
+ * m1.tmz in one directory, are rejected before any work starts rather than racing.
+ */
+public class BatchMain
+{
+	public static final String MANIFEST_NAME = "batch.manifest";
+	public static final String IMAGE_SUFFIX = "-map.png";
+	private static final String MANIFEST_HEADER = "# tilemapper batch manifest";
+	private static final String USAGE =
+			"Usage: BatchMain [options] <maps or directories>\n" +
+			"  -o <directory>  Write everything under this directory instead of next to each map\n" +
+			"  -j <threads>    How many maps to process at once, the number of cores by default\n" +
+			"  --tmf           Convert to uncompressed XML (.tmf)\n" +
+			"  --tmz           Convert to XML compressed with gzip (.tmz)\n" +
+			"  --runtime       Export the runtime map (.tmr) and its atlas of the tiles it uses\n" +
+			"  --image         Export an image of the visible tile and object layers (" + IMAGE_SUFFIX + ")\n" +
+			"  --validate      Check each map for problems\n" +
+			"  --force         Process maps even if they haven't changed";
+
+	private File outputDirectory;
+	private int threads;
+	private boolean tmf, tmz, runtime, image, validate, force;
+	private List<File> inputs;
+	private Map<String, String> manifest;
+
+	/**
+	 * Runs the batch tool
+	 * @param args - The options and the maps or directories of maps to process
+	 */
+	public static void main(String[] args)
+	{
+		// Nothing is shown, and there may be no display to show it on
+		System.setProperty("java.awt.headless", "true");
+		System.exit(new BatchMain().run(args));
+	}
+
+	/**
+	 * Creates a batch tool with the default options
+	 */
+	public BatchMain()
+	{
+		threads = Runtime.getRuntime().availableProcessors();
+		inputs = new ArrayList<File>();
+	}
+
+	/**
+	 * Processes every map found in the inputs
+	 * @param args - The options and the maps or directories of maps to process
+	 * @return The exit code: 0 if every map was processed and valid, 1 if any failed, 2 if the arguments are wrong
+	 */
+	public int run(String[] args)
+	{
+		if (!parseArguments(args))
+		{
+			System.err.println(USAGE);
+			return 2;
+		}
+
+		long start = System.nanoTime();
+		List<File[]> found = new ArrayList<File[]>();
+		for (File input : inputs)
+		{
+			if (input.isDirectory())
+				findMaps(input, outputDirectory, found);
+			else
+				found.add(new File[] { input, (outputDirectory == null) ? input.getAbsoluteFile().getParentFile() : outputDirectory });
+		}
+
+		List<File[]> maps = new ArrayList<File[]>();
+		int rejected = claimOutputs(found, maps);
+
+		File manifestFile = new File((outputDirectory == null) ? new File(".") : outputDirectory, MANIFEST_NAME);
+		manifest = readManifest(manifestFile);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<MapResult> completion = new ExecutorCompletionService<MapResult>(executor);
+		for (File[] map : maps)
+			completion.submit(new MapTask(map[0], map[1]));
+
+		int skipped = 0, failed = rejected;
+		try
+		{
+			for (int i = 0; i < maps.size(); i++)
+			{
+				MapResult result = completion.take().get();
+				System.out.println(result.report);
+				if (result.skipped)
+				{
+					skipped++;
+					continue;
+				}
+
+				// Maps with problems are left out so that they are looked at again next time
+				synchronized (manifest)
+				{
+					if (result.manifestEntry == null)
+						manifest.remove(result.key);
+					else
+						manifest.put(result.key, result.manifestEntry);
+				}
+				if (result.manifestEntry == null)
+					failed++;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+		catch (ExecutionException e)
+		{
+			e.printStackTrace();
+			return 1;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		try
+		{
+			writeManifest(manifestFile);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.out.println("Error writing the manifest " + manifestFile);
+		}
+
+		int total = maps.size() + rejected;
+		System.out.println(total + " maps: " + (total - skipped - failed) + " processed, " + skipped + " unchanged, " 
+				+ failed + " failed, in " + (System.nanoTime() - start) / 1000000 + " ms on " + threads + " threads");
+		return (failed == 0) ? 0 : 1;
+	}
+
+	/**
+	 * Reads the options and inputs
+	 * @param args - The command line arguments
+	 * @return True if they make sense
+	 */
+	private boolean parseArguments(String[] args)
+	{
+		for (int i = 0; i < args.length; i++)
+		{
+			String arg = args[i];
+			if (arg.equals("-o") && i + 1 < args.length)
+				outputDirectory = new File(args[++i]);
+			else if (arg.equals("-j") && i + 1 < args.length)
+			{
+				try
+				{
+					threads = Math.max(1, Integer.parseInt(args[++i]));
+				}
+				catch (NumberFormatException e)
+				{
+					return false;
+				}
+			}
+			else if (arg.equals("--tmf"))
+				tmf = true;
+			else if (arg.equals("--tmz"))
+				tmz = true;
+			else if (arg.equals("--runtime"))
+				runtime = true;
+			else if (arg.equals("--image"))
+				image = true;
+			else if (arg.equals("--validate"))
+				validate = true;
+			else if (arg.equals("--force"))
+				force = true;
+			else if (arg.startsWith("-"))
+				return false;
+			else
+				inputs.add(new File(arg));
+		}
+
+		return !inputs.isEmpty() && (tmf || tmz || runtime || image || validate);
+	}
+
+	/**
+	 * Finds the maps in a directory and the directories below it, leaving out the output directory
+	 * @param directory - The directory to search
+	 * @param output - The directory its outputs go in, or null to put them next to the maps
+	 * @param maps - The list to add each map and its output directory to
+	 */
+	private void findMaps(File directory, File output, List<File[]> maps)
+	{
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (file.isDirectory())
+			{
+				// Outputs written inside the tree being searched aren't maps to process
+				if (outputDirectory == null || !getPath(file).equals(getPath(outputDirectory)))
+					findMaps(file, (output == null) ? null : new File(output, name), maps);
+			}
+			else if (name.endsWith(MapIO.FILE_EXTENSION) || name.endsWith(MapIO.COMPRESSED_EXTENSION))
+				maps.add(new File[] { file, (output == null) ? directory : output });
+		}
+	}
+
+	/**
+	 * Picks the maps to process. The maps are taken in order of their paths, and each
+	 * claims the files it will write. A map which is one of those files is left out,
+	 * since it was written by the batch, and a map which would write a file another
+	 * map has claimed is rejected.
+	 * @param found - Every map found, each with its output directory
+	 * @param maps - The list to add the maps to process to
+	 * @return The number of maps rejected
+	 */
+	private int claimOutputs(List<File[]> found, List<File[]> maps)
+	{
+		Collections.sort(found, new Comparator<File[]>()
+		{
+			public int compare(File[] a, File[] b)
+			{
+				return getPath(a[0]).compareTo(getPath(b[0]));
+			}
+		});
+
+		Map<File, File> claimed = new HashMap<File, File>();
+		int rejected = 0;
+		for (File[] map : found)
+		{
+			File file = getPath(map[0]);
+			if (claimed.containsKey(file))
+				continue;
+
+			File owner = null;
+			List<File> outputs = getOutputs(map[0], map[1]);
+			for (File output : outputs)
+			{
+				File claimant = claimed.get(getPath(output));
+				if (claimant != null)
+					owner = claimant;
+			}
+			if (owner != null)
+			{
+				System.out.println(map[0].getPath() + ": rejected, it would write the same files as " + owner.getPath());
+				rejected++;
+				continue;
+			}
+
+			claimed.put(file, map[0]);
+			for (File output : outputs)
+				claimed.put(getPath(output), map[0]);
+			maps.add(map);
+		}
+		return rejected;
+	}
+
+	/**
+	 * Gets the absolute path of a file with any . and .. taken out, for comparing files
+	 * @param file - The file
+	 * @return The normalized absolute file
+	 */
+	private static File getPath(File file)
+	{
+		return file.getAbsoluteFile().toPath().normalize().toFile();
+	}
+
+	/**
+	 * Describes the options which affect what is written for each map, so that
+	 * changing them processes every map again
+	 * @return The settings string stored in the manifest
+	 */
+	private String getSettings()
+	{
+		return (tmf ? "tmf," : "") + (tmz ? "tmz," : "") + (runtime ? "runtime," : "") + (image ? "image," : "") 
+				+ (validate ? "validate," : "") + ((outputDirectory == null) ? "" : outputDirectory.getAbsolutePath());
+	}
+
+	/**
+	 * Gets the name of a map without its extension
+	 * @param file - The map file
+	 * @return The name the outputs are given
+	 */
+	private static String getBaseName(File file)
+	{
+		String name = file.getName();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	/**
+	 * Gets the files which processing a map writes
+	 * @param file - The map file
+	 * @param output - The directory the outputs go in
+	 * @return The output files
+	 */
+	private List<File> getOutputs(File file, File output)
+	{
+		String name = getBaseName(file);
+		List<File> outputs = new ArrayList<File>();
+		if (tmf)
+			outputs.add(new File(output, name + MapIO.FILE_EXTENSION));
+		if (tmz)
+			outputs.add(new File(output, name + MapIO.COMPRESSED_EXTENSION));
+		if (runtime)
+		{
+			File runtimeFile = new File(output, name + RuntimeMap.EXTENSION);
+			outputs.add(runtimeFile);
+			outputs.add(PackedAtlas.getImageFile(runtimeFile));
+		}
+		if (image)
+			outputs.add(new File(output, name + IMAGE_SUFFIX));
+		return outputs;
+	}
+
+	/**
+	 * Processes one map, unless it and the settings are the same as when it was last processed
+	 * @param file - The map file
+	 * @param output - The directory the outputs go in
+	 * @return What happened
+	 */
+	private MapResult processMap(File file, File output)
+	{
+		MapResult result = new MapResult();
+		result.key = file.getAbsolutePath();
+		StringBuilder report = new StringBuilder(file.getPath()).append(": ");
+		long fileStart = System.nanoTime();
+		long start = fileStart;
+
+		try
+		{
+			String entry = Long.toHexString(hashContents(file)) + " " + Long.toHexString(hashString(getSettings()));
+			report.append("hash ").append(lap(start)).append(" ms");
+
+			List<File> outputs = getOutputs(file, output);
+			boolean outputsExist = true;
+			for (File outputFile : outputs)
+				outputsExist &= outputFile.isFile();
+
+			synchronized (manifest)
+			{
+				result.skipped = !force && outputsExist && entry.equals(manifest.get(result.key));
+			}
+			if (result.skipped)
+			{
+				result.report = report.append(", unchanged").toString();
+				return result;
+			}
+
+			start = System.nanoTime();
+			MapProject project = MapIO.readProject(file);
+			report.append(", load ").append(lap(start)).append(" ms");
+			output.mkdirs();
+
+			List<String> problems = Collections.emptyList();
+			if (validate)
+			{
+				start = System.nanoTime();
+				problems = new MapValidator(project).validate();
+				report.append(", validate ").append(lap(start)).append(" ms");
+			}
+
+			String name = getBaseName(file);
+			File tmfFile = new File(output, name + MapIO.FILE_EXTENSION);
+			if (tmf && !isSameFile(file, tmfFile))
+			{
+				start = System.nanoTime();
+				MapIO.writeProject(project, tmfFile);
+				report.append(", tmf ").append(lap(start)).append(" ms");
+			}
+			File tmzFile = new File(output, name + MapIO.COMPRESSED_EXTENSION);
+			if (tmz && !isSameFile(file, tmzFile))
+			{
+				start = System.nanoTime();
+				MapIO.writeProject(project, tmzFile);
+				report.append(", tmz ").append(lap(start)).append(" ms");
+			}
+
+			MapData map = (runtime || image) ? project.getMapData() : null;
+			if (runtime)
+			{
+				start = System.nanoTime();
+				new RuntimeMapExporter(map, true, PackedAtlas.DEFAULT_PADDING).export(new File(output, name + RuntimeMap.EXTENSION));
+				report.append(", runtime ").append(lap(start)).append(" ms");
+			}
+			if (image)
+			{
+				start = System.nanoTime();
+				MapRenderer renderer = new MapRenderer(map, MapRenderer.TILE_LAYER | MapRenderer.OBJECT_LAYER);
+				new StripImageExporter(renderer).export(new File(output, name + IMAGE_SUFFIX).getPath());
+				report.append(", image ").append(lap(start)).append(" ms");
+			}
+
+			report.append(", total ").append(lap(fileStart)).append(" ms");
+			if (problems.isEmpty())
+				result.manifestEntry = entry;
+			else
+			{
+				report.append(", ").append(problems.size()).append((problems.size() == 1) ? " problem" : " problems");
+				for (String problem : problems)
+					report.append("\n    ").append(problem);
+			}
+		}
+		catch (Exception e)
+		{
+			report.append(", failed: ").append(e);
+		}
+
+		result.report = report.toString();
+		return result;
+	}
+
+	/**
+	 * Gets how long it has been since a time
+	 * @param start - The time from System.nanoTime
+	 * @return The milliseconds since then
+	 */
+	private static long lap(long start)
+	{
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Tells whether two paths are the same file, so that converting a map never overwrites it
+	 * @param a - One file
+	 * @param b - The other
+	 * @return True if they are the same
+	 */
+	private static boolean isSameFile(File a, File b)
+	{
+		return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+	}
+
+	/**
+	 * Hashes the contents of a file
+	 * @param file - The file
+	 * @return An FNV-1a hash of its bytes
+	 * @throws IOException If the file can't be read
+	 */
+	private static long hashContents(File file) throws IOException
+	{
+		long hash = 0xcbf29ce484222325L;
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			int read;
+			while ((read = in.read(buffer)) > 0)
+			{
+				for (int i = 0; i < read; i++)
+				{
+					hash ^= buffer[i] & 0xFF;
+					hash *= 0x100000001b3L;
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return hash;
+	}
+
+	/**
+	 * Hashes a string
+	 * @param text - The string
+	 * @return An FNV-1a hash of its characters
+	 */
+	private static long hashString(String text)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++)
+		{
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Reads the manifest of previous runs
+	 * @param file - The manifest file
+	 * @return The hashes and settings of each map, by absolute path, which is empty if there is no usable manifest
+	 */
+	private static Map<String, String> readManifest(File file)
+	{
+		Map<String, String> entries = new HashMap<String, String>();
+		if (!file.isFile())
+			return entries;
+
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new FileReader(file));
+			if (!MANIFEST_HEADER.equals(reader.readLine()))
+				return entries;
+
+			// Each line is the content hash, the settings hash and the path, which may hold spaces
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.split(" ", 3);
+				if (parts.length == 3)
+					entries.put(parts[2], parts[0] + " " + parts[1]);
+			}
+		}
+		catch (IOException e)
+		{
+			entries.clear();
+		}
+		finally
+		{
+			try
+			{
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes the manifest, keeping the entries of maps which weren't part of this run
+	 * @param file - The manifest file
+	 * @throws IOException If the manifest can't be written
+	 */
+	private void writeManifest(File file) throws IOException
+	{
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try
+		{
+			writer.println(MANIFEST_HEADER);
+			for (Map.Entry<String, String> entry : manifest.entrySet())
+				writer.println(entry.getValue() + " " + entry.getKey());
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * What happened to one map
+	 */
+	static class MapResult
+	{
+		String key;
+		String report;
+		boolean skipped;
+		String manifestEntry;
+	}
+
+	/**
+	 * Processes one map on a thread of the pool
+	 */
+	class MapTask implements Callable<MapResult>
+	{
+		private File file, output;
+
+		/**
+		 * Creates a task for a map
+		 * @param file - The map file
+		 * @param output - The directory its outputs go in
+		 */
+		MapTask(File file, File output)
+		{
+			this.file = file;
+			this.output = output;
+		}
+
+		public MapResult call()
+		{
+			return processMap(file, output);
+		}
+	}
+}
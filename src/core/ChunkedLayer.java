@@ -0,0 +1,721 @@
+package core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Stores one layer of IDs for a whole map in square chunks of cells. Each chunk
+ * keeps a small palette of the IDs used in it and packs every cell as an index into
+ * that palette, using as few bits as the palette needs: none when the whole chunk
+ * is one ID, then 1, 2, 4 or 8 bits. When a new ID doesn't fit, the chunk first drops
+ * palette entries which are no longer used, and only then repacks at the next width.
+ * A chunk with more than 256 different IDs falls back to a plain array of them.
+ *
+ * Getting and setting a cell is constant time. Setting searches the chunk's palette,
+ * which never has more than 256 entries. Replacing an ID rewrites the palettes rather
+ * than the cells, so chunks which don't use the ID are skipped after a glance.
+ */
+public class ChunkedLayer
+{
+	public static final int CHUNK_SHIFT = 5;
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int CELLS_PER_CHUNK = CHUNK_SIZE * CHUNK_SIZE;
+	private static final int MAX_PACKED_BITS = 8;
+	private static final int UNPACKED = 32;
+
+	// Rough size of the object headers and fields of a chunk, for reporting
+	private static final int CHUNK_OVERHEAD = 48;
+
+	private int width, height;
+	private int chunksAcross, chunksDown;
+	private Chunk[] chunks;
+
+	/**
+	 * Creates a layer with every cell set to the same ID
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @param fill - The ID every cell starts as, such as -1 for empty
+	 */
+	public ChunkedLayer(int width, int height, int fill)
+	{
+		this.width = width;
+		this.height = height;
+		chunksAcross = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+		chunksDown = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+		chunks = new Chunk[chunksAcross * chunksDown];
+
+		for (int i = 0; i < chunks.length; i++)
+			chunks[i] = new Chunk(fill);
+	}
+
+	/**
+	 * Creates a layer holding the IDs of an array
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @param ids - The IDs of the cells, in row major order
+	 */
+	public ChunkedLayer(int width, int height, int[] ids)
+	{
+		this(width, height, ids, 0);
+	}
+
+	/**
+	 * Creates a layer holding the IDs of part of an array
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @param ids - The array holding the IDs of the cells, in row major order
+	 * @param offset - The index in the array of the first cell
+	 */
+	public ChunkedLayer(int width, int height, int[] ids, int offset)
+	{
+		this(width, height, (width * height > 0) ? ids[offset] : -1);
+
+		for (int i = 0; i < width * height; i++)
+			set(i % width, i / width, ids[offset + i]);
+	}
+
+	/**
+	 * Creates a copy of another layer which shares none of its chunks
+	 * @param layer - The layer to copy
+	 */
+	public ChunkedLayer(ChunkedLayer layer)
+	{
+		width = layer.width;
+		height = layer.height;
+		chunksAcross = layer.chunksAcross;
+		chunksDown = layer.chunksDown;
+		chunks = new Chunk[layer.chunks.length];
+
+		for (int i = 0; i < chunks.length; i++)
+			chunks[i] = new Chunk(layer.chunks[i]);
+	}
+
+	/**
+	 * Gets the width of the layer
+	 * @return The width in cells
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the layer
+	 * @return The height in cells
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the ID of a cell
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return The ID of the cell
+	 */
+	public int get(int x, int y)
+	{
+		return chunks[(y >> CHUNK_SHIFT) * chunksAcross + (x >> CHUNK_SHIFT)].get(((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK));
+	}
+
+	/**
+	 * Gets the ID of a cell
+	 * @param index - The row major index of the cell
+	 * @return The ID of the cell
+	 */
+	public int get(int index)
+	{
+		return get(index % width, index / width);
+	}
+
+	/**
+	 * Sets the ID of a cell, repacking its chunk if the ID is new to it and doesn't fit
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param id - The ID to set the cell to
+	 */
+	public void set(int x, int y, int id)
+	{
+		chunks[(y >> CHUNK_SHIFT) * chunksAcross + (x >> CHUNK_SHIFT)].set(((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK), id);
+	}
+
+	/**
+	 * Sets the ID of a cell
+	 * @param index - The row major index of the cell
+	 * @param id - The ID to set the cell to
+	 */
+	public void set(int index, int id)
+	{
+		set(index % width, index / width, id);
+	}
+
+	/**
+	 * Creates a copy of this layer for a map of another size, with the cells moved
+	 * by an offset. Cells moved off the map are dropped and cells moved onto it are
+	 * set to the fill ID. Each new chunk is gathered from whole rows of the old chunks
+	 * and packed once, and when the offset is a whole number of chunks the chunks
+	 * which stay on the map are copied as they are.
+	 * @param newWidth - The width of the new layer
+	 * @param newHeight - The height of the new layer
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @param fill - The ID of the cells moved onto the map
+	 * @return The new layer
+	 */
+	public ChunkedLayer resize(int newWidth, int newHeight, int offsetX, int offsetY, int fill)
+	{
+		ChunkedLayer layer = new ChunkedLayer(newWidth, newHeight, fill);
+		boolean aligned = ((offsetX | offsetY) & CHUNK_MASK) == 0;
+		int[] cells = new int[CELLS_PER_CHUNK];
+
+		for (int chunkY = 0; chunkY < layer.chunksDown; chunkY++)
+		{
+			for (int chunkX = 0; chunkX < layer.chunksAcross; chunkX++)
+			{
+				// The cells of the new chunk which are on the new map
+				int x0 = chunkX << CHUNK_SHIFT;
+				int y0 = chunkY << CHUNK_SHIFT;
+				int x1 = Math.min(x0 + CHUNK_SIZE, newWidth);
+				int y1 = Math.min(y0 + CHUNK_SIZE, newHeight);
+
+				// The ones of those which come from this layer
+				int fromX = Math.max(x0, offsetX);
+				int fromY = Math.max(y0, offsetY);
+				int toX = Math.min(x1, width + offsetX);
+				int toY = Math.min(y1, height + offsetY);
+				if (fromX >= toX || fromY >= toY)
+					continue;
+
+				int index = chunkY * layer.chunksAcross + chunkX;
+				if (aligned && fromX == x0 && fromY == y0 && toX == x1 && toY == y1)
+				{
+					layer.chunks[index] = new Chunk(chunks[((y0 - offsetY) >> CHUNK_SHIFT) * chunksAcross + ((x0 - offsetX) >> CHUNK_SHIFT)]);
+					continue;
+				}
+
+				Arrays.fill(cells, fill);
+				for (int y = fromY; y < toY; y++)
+					readRow(fromX - offsetX, y - offsetY, toX - fromX, cells, ((y & CHUNK_MASK) << CHUNK_SHIFT) | (fromX & CHUNK_MASK));
+				layer.chunks[index] = new Chunk(cells);
+			}
+		}
+		return layer;
+	}
+
+	/**
+	 * Creates a copy of this layer with the cells moved by an offset, where the
+	 * cells moved off one edge come back on at the other. Like resize, the new chunks
+	 * are gathered from rows of the old ones, or copied whole when the chunks line up.
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @return The new layer
+	 */
+	public ChunkedLayer wrap(int offsetX, int offsetY)
+	{
+		int fill = get(0, 0);
+		ChunkedLayer layer = new ChunkedLayer(width, height, fill);
+		boolean aligned = ((offsetX | offsetY | width | height) & CHUNK_MASK) == 0;
+		int[] cells = new int[CELLS_PER_CHUNK];
+
+		for (int chunkY = 0; chunkY < chunksDown; chunkY++)
+		{
+			for (int chunkX = 0; chunkX < chunksAcross; chunkX++)
+			{
+				int x0 = chunkX << CHUNK_SHIFT;
+				int y0 = chunkY << CHUNK_SHIFT;
+				int x1 = Math.min(x0 + CHUNK_SIZE, width);
+				int y1 = Math.min(y0 + CHUNK_SIZE, height);
+
+				int index = chunkY * chunksAcross + chunkX;
+				if (aligned)
+				{
+					int sourceX = Math.floorMod(x0 - offsetX, width) >> CHUNK_SHIFT;
+					int sourceY = Math.floorMod(y0 - offsetY, height) >> CHUNK_SHIFT;
+					layer.chunks[index] = new Chunk(chunks[sourceY * chunksAcross + sourceX]);
+					continue;
+				}
+
+				Arrays.fill(cells, fill);
+				for (int y = y0; y < y1; y++)
+				{
+					int sourceY = Math.floorMod(y - offsetY, height);
+
+					// A row of the chunk comes from at most two runs of the old row, split where it wraps
+					for (int x = x0; x < x1;)
+					{
+						int sourceX = Math.floorMod(x - offsetX, width);
+						int count = Math.min(x1 - x, width - sourceX);
+						readRow(sourceX, sourceY, count, cells, ((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK));
+						x += count;
+					}
+				}
+				layer.chunks[index] = new Chunk(cells);
+			}
+		}
+		return layer;
+	}
+
+	/**
+	 * Copies a run of cells of a row out into an array, a chunk at a time
+	 * @param x - The column of the first cell, where the whole run is on the map
+	 * @param y - The row of the cells
+	 * @param length - The number of cells to copy
+	 * @param ids - The array to copy the IDs into
+	 * @param offset - The index in the array of the first cell
+	 */
+	private void readRow(int x, int y, int length, int[] ids, int offset)
+	{
+		while (length > 0)
+		{
+			int count = Math.min(length, CHUNK_SIZE - (x & CHUNK_MASK));
+			chunks[(y >> CHUNK_SHIFT) * chunksAcross + (x >> CHUNK_SHIFT)].getRow(((y & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK), count, ids, offset);
+			x += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Counts the cells which don't hold an empty ID of a type of layer
+	 * @param type - The LayerStack type which says which IDs are empty
+	 * @return The number of cells with something on them
+	 */
+	public int countFilled(int type)
+	{
+		int filled = 0;
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				if (!LayerStack.isEmptyId(type, get(x, y)))
+					filled++;
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * Replaces every use of a tile or object with another, keeping the flips of each
+	 * cell. The chunks are rewritten in parallel, in runs of chunks on the common ForkJoinPool.
+	 * @param fromId - The base ID to replace
+	 * @param toId - The base ID to replace it with, or a negative ID to erase it
+	 * @return The number of cells which were changed
+	 */
+	public int replaceBaseId(int fromId, int toId)
+	{
+		return ForkJoinPool.commonPool().invoke(new ReplaceTask(0, chunks.length, fromId, toId));
+	}
+
+	/**
+	 * Copies every cell of the layer out into an array
+	 * @return The IDs of the cells, in row major order
+	 */
+	public int[] toArray()
+	{
+		int[] ids = new int[width * height];
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+				ids[y * width + x] = get(x, y);
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets roughly how many bytes this layer takes up
+	 * @return The bytes used by the chunks, their palettes and packed cells
+	 */
+	public long getMemoryUsage()
+	{
+		long bytes = (long) chunks.length * 4;
+		for (Chunk chunk : chunks)
+			bytes += chunk.getMemoryUsage();
+		return bytes;
+	}
+
+	/**
+	 * Gets how many bits each cell of a chunk is packed into
+	 * @param chunkX - The column of the chunk
+	 * @param chunkY - The row of the chunk
+	 * @return 0 if the chunk is all one ID, 1 to 8 if it is packed, or 32 if it isn't
+	 */
+	public int getBitsPerCell(int chunkX, int chunkY)
+	{
+		return chunks[chunkY * chunksAcross + chunkX].bits;
+	}
+
+	/**
+	 * A square of cells with its own palette
+	 */
+	private static class Chunk
+	{
+		private int[] palette;
+		private int paletteSize;
+		private int bits;
+		private long[] words;
+		private int[] ids;
+
+		/**
+		 * Creates a chunk with every cell set to the same ID, which needs no bits at all
+		 * @param fill - The ID of every cell
+		 */
+		public Chunk(int fill)
+		{
+			palette = new int[] {fill};
+			paletteSize = 1;
+			bits = 0;
+		}
+
+		/**
+		 * Creates a copy of another chunk
+		 * @param chunk - The chunk to copy
+		 */
+		public Chunk(Chunk chunk)
+		{
+			palette = chunk.palette.clone();
+			paletteSize = chunk.paletteSize;
+			bits = chunk.bits;
+			if (chunk.words != null)
+				words = chunk.words.clone();
+			if (chunk.ids != null)
+				ids = chunk.ids.clone();
+		}
+
+		/**
+		 * Creates a chunk holding a whole chunk's worth of IDs, packed at the width
+		 * its palette needs without repacking on the way
+		 * @param cells - The IDs of the cells, in row major order within the chunk
+		 */
+		public Chunk(int[] cells)
+		{
+			palette = new int[1];
+			int[] indexes = new int[CELLS_PER_CHUNK];
+			int last = 0;
+			for (int cell = 0; cell < CELLS_PER_CHUNK; cell++)
+			{
+				// Neighbouring cells often hold the same ID, so try the last one first
+				int id = cells[cell];
+				if (paletteSize == 0 || palette[last] != id)
+				{
+					last = findInPalette(id);
+					if (last < 0)
+					{
+						if (paletteSize == 1 << MAX_PACKED_BITS)
+						{
+							// Too many different IDs to be worth packing
+							ids = cells.clone();
+							bits = UNPACKED;
+							palette = new int[0];
+							paletteSize = 0;
+							return;
+						}
+
+						last = paletteSize++;
+						if (last == palette.length)
+							palette = Arrays.copyOf(palette, Math.min(1 << MAX_PACKED_BITS, palette.length * 2));
+						palette[last] = id;
+					}
+				}
+				indexes[cell] = last;
+			}
+
+			bits = 0;
+			while ((1 << bits) < paletteSize)
+				bits = (bits == 0) ? 1 : bits * 2;
+			if (bits == 0)
+				return;
+
+			// Fill each word at once, since the bit widths all divide 64
+			int perWord = 64 / bits;
+			words = new long[CELLS_PER_CHUNK / perWord];
+			for (int word = 0; word < words.length; word++)
+			{
+				long packed = 0;
+				for (int i = 0; i < perWord; i++)
+					packed |= (long) indexes[word * perWord + i] << (i * bits);
+				words[word] = packed;
+			}
+		}
+
+		/**
+		 * Gets the ID of a cell
+		 * @param cell - The index of the cell within the chunk
+		 * @return The ID of the cell
+		 */
+		public int get(int cell)
+		{
+			if (bits == 0)
+				return palette[0];
+			if (bits == UNPACKED)
+				return ids[cell];
+			return palette[getIndex(cell)];
+		}
+
+		/**
+		 * Copies the IDs of a run of cells out into an array
+		 * @param cell - The index of the first cell within the chunk
+		 * @param count - The number of cells, which don't run past the end of the chunk's row
+		 * @param ids - The array to copy the IDs into
+		 * @param offset - The index in the array of the first cell
+		 */
+		public void getRow(int cell, int count, int[] ids, int offset)
+		{
+			if (bits == 0)
+				Arrays.fill(ids, offset, offset + count, palette[0]);
+			else if (bits == UNPACKED)
+				System.arraycopy(this.ids, cell, ids, offset, count);
+			else
+			{
+				int mask = (1 << bits) - 1;
+				int bit = cell * bits;
+				for (int i = 0; i < count; i++, bit += bits)
+					ids[offset + i] = palette[(int) (words[bit >>> 6] >>> (bit & 63)) & mask];
+			}
+		}
+
+		/**
+		 * Sets the ID of a cell
+		 * @param cell - The index of the cell within the chunk
+		 * @param id - The ID to set the cell to
+		 */
+		public void set(int cell, int id)
+		{
+			if (bits == UNPACKED)
+			{
+				ids[cell] = id;
+				return;
+			}
+
+			int index = findInPalette(id);
+			if (index < 0)
+			{
+				// Make room for the new ID, then add it
+				if (paletteSize == (1 << bits))
+					makeRoom();
+				if (bits == UNPACKED)
+				{
+					ids[cell] = id;
+					return;
+				}
+
+				index = paletteSize++;
+				if (index == palette.length)
+					palette = Arrays.copyOf(palette, Math.min(1 << MAX_PACKED_BITS, palette.length * 2));
+				palette[index] = id;
+			}
+
+			if (bits != 0)
+				setIndex(cell, index);
+		}
+
+		/**
+		 * Replaces a base ID, keeping the flips of each cell. Packed chunks only have
+		 * their palette rewritten, and the cells are only looked at to count them.
+		 * @param fromId - The base ID to replace
+		 * @param toId - The base ID to replace it with, or a negative ID to erase it
+		 * @param columns - The number of columns of the chunk which are on the map
+		 * @param rows - The number of rows of the chunk which are on the map
+		 * @return The number of cells on the map which were changed
+		 */
+		public int replaceBaseId(int fromId, int toId, int columns, int rows)
+		{
+			int replaced = 0;
+
+			if (bits == UNPACKED)
+			{
+				for (int cell = 0; cell < CELLS_PER_CHUNK; cell++)
+				{
+					int id = ids[cell];
+					if (id >= 0 && (id & TileTransform.ID_MASK) == fromId)
+					{
+						ids[cell] = (toId < 0) ? toId : toId | (id & TileTransform.FLAG_MASK);
+						if ((cell & CHUNK_MASK) < columns && (cell >> CHUNK_SHIFT) < rows)
+							replaced++;
+					}
+				}
+				return replaced;
+			}
+
+			// The palette may hold the ID more than once, with different flips
+			boolean[] matching = null;
+			for (int i = 0; i < paletteSize; i++)
+			{
+				int id = palette[i];
+				if (id >= 0 && (id & TileTransform.ID_MASK) == fromId)
+				{
+					if (matching == null)
+						matching = new boolean[paletteSize];
+					matching[i] = true;
+					palette[i] = (toId < 0) ? toId : toId | (id & TileTransform.FLAG_MASK);
+				}
+			}
+			if (matching == null)
+				return 0;
+
+			for (int y = 0; y < rows; y++)
+			{
+				for (int x = 0; x < columns; x++)
+				{
+					if (matching[(bits == 0) ? 0 : getIndex((y << CHUNK_SHIFT) | x)])
+						replaced++;
+				}
+			}
+			return replaced;
+		}
+
+		/**
+		 * Gets roughly how many bytes this chunk takes up
+		 * @return The bytes of the chunk, its palette, and its cells
+		 */
+		public long getMemoryUsage()
+		{
+			long bytes = CHUNK_OVERHEAD + palette.length * 4;
+			if (words != null)
+				bytes += words.length * 8;
+			if (ids != null)
+				bytes += ids.length * 4;
+			return bytes;
+		}
+
+		/**
+		 * Finds an ID in the palette
+		 * @param id - The ID to look for
+		 * @return The index of the ID in the palette, or -1 if it isn't in it
+		 */
+		private int findInPalette(int id)
+		{
+			for (int i = 0; i < paletteSize; i++)
+			{
+				if (palette[i] == id)
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Reads the palette index of a packed cell
+		 * @param cell - The index of the cell within the chunk
+		 * @return The palette index stored for the cell
+		 */
+		private int getIndex(int cell)
+		{
+			int bit = cell * bits;
+			return (int) (words[bit >>> 6] >>> (bit & 63)) & ((1 << bits) - 1);
+		}
+
+		/**
+		 * Writes the palette index of a packed cell. The bit widths are all powers of
+		 * two, so a cell never straddles two words.
+		 * @param cell - The index of the cell within the chunk
+		 * @param index - The palette index to store
+		 */
+		private void setIndex(int cell, int index)
+		{
+			int bit = cell * bits;
+			long mask = (long) ((1 << bits) - 1) << (bit & 63);
+			words[bit >>> 6] = (words[bit >>> 6] & ~mask) | ((long) index << (bit & 63));
+		}
+
+		/**
+		 * Frees up a palette entry, either by dropping the IDs no cell uses any more
+		 * or by repacking the cells at the next bit width
+		 */
+		private void makeRoom()
+		{
+			int[] cells = new int[CELLS_PER_CHUNK];
+			int[] uses = new int[paletteSize];
+			for (int i = 0; i < CELLS_PER_CHUNK; i++)
+			{
+				cells[i] = (bits == 0) ? 0 : getIndex(i);
+				uses[cells[i]]++;
+			}
+
+			// Drop the unused entries, keeping the rest in order
+			int[] remap = new int[paletteSize];
+			int used = 0;
+			for (int i = 0; i < paletteSize; i++)
+			{
+				if (uses[i] > 0)
+				{
+					palette[used] = palette[i];
+					remap[i] = used++;
+				}
+			}
+
+			int newBits = bits;
+			if (used == paletteSize)
+				newBits = (bits == 0) ? 1 : bits * 2;
+			paletteSize = used;
+
+			if (newBits > MAX_PACKED_BITS)
+			{
+				// Too many different IDs to be worth packing
+				ids = new int[CELLS_PER_CHUNK];
+				for (int i = 0; i < CELLS_PER_CHUNK; i++)
+					ids[i] = palette[cells[i]];
+				bits = UNPACKED;
+				words = null;
+				palette = new int[0];
+				paletteSize = 0;
+				return;
+			}
+
+			bits = newBits;
+			words = new long[CELLS_PER_CHUNK * bits / 64];
+			for (int i = 0; i < CELLS_PER_CHUNK; i++)
+				setIndex(i, remap[cells[i]]);
+		}
+	}
+
+	/**
+	 * Replaces a base ID in a run of chunks, splitting the run in half until it is
+	 * small enough to do directly
+	 */
+	class ReplaceTask extends RecursiveTask<Integer>
+	{
+		private static final long serialVersionUID = -3480731547361289476L;
+		private static final int THRESHOLD = 64;
+		private int first, last;
+		private int fromId, toId;
+
+		/**
+		 * Creates a task which replaces the ID in chunks [first, last)
+		 * @param first - The first chunk to look at
+		 * @param last - One past the last chunk to look at
+		 * @param fromId - The base ID to replace
+		 * @param toId - The base ID to replace it with
+		 */
+		ReplaceTask(int first, int last, int fromId, int toId)
+		{
+			this.first = first;
+			this.last = last;
+			this.fromId = fromId;
+			this.toId = toId;
+		}
+
+		protected Integer compute()
+		{
+			if (last - first > THRESHOLD)
+			{
+				int middle = (first + last) >>> 1;
+				ReplaceTask right = new ReplaceTask(middle, last, fromId, toId);
+				right.fork();
+				int replaced = new ReplaceTask(first, middle, fromId, toId).compute();
+				return replaced + right.join();
+			}
+
+			int replaced = 0;
+			for (int i = first; i < last; i++)
+			{
+				// Chunks on the right and bottom edges may hang off the map
+				int columns = Math.min(CHUNK_SIZE, width - ((i % chunksAcross) << CHUNK_SHIFT));
+				int rows = Math.min(CHUNK_SIZE, height - ((i / chunksAcross) << CHUNK_SHIFT));
+				replaced += chunks[i].replaceBaseId(fromId, toId, columns, rows);
+			}
+			return replaced;
+		}
+	}
+}
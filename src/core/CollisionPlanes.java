@@ -0,0 +1,591 @@
+package core;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The collision flags of a map packed as bitplanes: one bit per cell for each flag,
+ * with every row starting on a new long so that a row can be worked on a word at
+ * a time. LayerStack keeps each of its flag layers in planes. Saved maps hold a
+ * mask of the flags set on each cell, so a layer is split into planes with fromLayer
+ * and put back together with toIds.
+ *
+ * Filling, clearing, counting and combining planes all work on 64 cells at once,
+ * and mergeRectangles covers the set cells of a plane with as few rectangles as
+ * greedy meshing finds, for physics engines which would rather load a few bodies
+ * than one per cell.
+ */
+public class CollisionPlanes
+{
+	public static final int SOLID = 1;
+	public static final int ONE_WAY = 2;
+	public static final int WATER = 4;
+	public static final int HAZARD = 8;
+	public static final int FLAG_COUNT = 4;
+	public static final int ALL_FLAGS = (1 << FLAG_COUNT) - 1;
+	private static final String[] FLAG_NAMES = {"solid", "one-way", "water", "hazard"};
+
+	private int width, height;
+	private int wordsPerRow;
+	private long[][] planes;
+
+	/**
+	 * Creates planes with no flags set
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 */
+	public CollisionPlanes(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		wordsPerRow = (width + 63) >>> 6;
+		planes = new long[FLAG_COUNT][wordsPerRow * height];
+	}
+
+	/**
+	 * Creates a copy of other planes
+	 * @param planes - The planes to copy
+	 */
+	public CollisionPlanes(CollisionPlanes planes)
+	{
+		width = planes.width;
+		height = planes.height;
+		wordsPerRow = planes.wordsPerRow;
+		this.planes = new long[FLAG_COUNT][];
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+			this.planes[flag] = planes.planes[flag].clone();
+	}
+
+	/**
+	 * Splits the flag masks of a collision layer into planes
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @param ids - The flag masks of the cells, in row major order
+	 * @return The planes holding the flags
+	 */
+	public static CollisionPlanes fromLayer(int width, int height, int[] ids)
+	{
+		CollisionPlanes planes = new CollisionPlanes(width, height);
+		for (int y = 0; y < height; y++)
+		{
+			int row = y * planes.wordsPerRow;
+			for (int x = 0; x < width; x++)
+			{
+				int mask = ids[y * width + x] & ALL_FLAGS;
+				long bit = 1L << x;
+
+				// Only touch the planes of the flags which are set
+				while (mask != 0)
+				{
+					int flag = Integer.numberOfTrailingZeros(mask);
+					planes.planes[flag][row + (x >>> 6)] |= bit;
+					mask &= mask - 1;
+				}
+			}
+		}
+		return planes;
+	}
+
+	/**
+	 * Gets the bit of a flag
+	 * @param flag - The index of the flag, from 0 to FLAG_COUNT - 1
+	 * @return SOLID, ONE_WAY, WATER or HAZARD
+	 */
+	public static int getFlagBit(int flag)
+	{
+		return 1 << flag;
+	}
+
+	/**
+	 * Gets the name a flag is saved as
+	 * @param flag - The index of the flag, from 0 to FLAG_COUNT - 1
+	 * @return "solid", "one-way", "water" or "hazard"
+	 */
+	public static String getFlagName(int flag)
+	{
+		return FLAG_NAMES[flag];
+	}
+
+	/**
+	 * Gets the width of the planes
+	 * @return The width in cells
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the planes
+	 * @return The height in cells
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets how many longs each row of a plane takes up
+	 * @return The number of words per row
+	 */
+	public int getWordsPerRow()
+	{
+		return wordsPerRow;
+	}
+
+	/**
+	 * Gets the words of a plane, for searches which read it a lot
+	 * @param flag - The index of the flag
+	 * @return The words of the plane, row by row, which must not be changed
+	 */
+	public long[] getWords(int flag)
+	{
+		return planes[flag];
+	}
+
+	/**
+	 * Tells whether a flag is set on a cell
+	 * @param flag - The index of the flag
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return True if the flag is set
+	 */
+	public boolean get(int flag, int x, int y)
+	{
+		// Shifts only use the low six bits of x, which is its bit within the word
+		return (planes[flag][y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Sets or clears a flag on a cell
+	 * @param flag - The index of the flag
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param value - True to set the flag
+	 */
+	public void set(int flag, int x, int y, boolean value)
+	{
+		if (value)
+			planes[flag][y * wordsPerRow + (x >>> 6)] |= 1L << x;
+		else
+			planes[flag][y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	/**
+	 * Gets all of the flags set on a cell
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return The mask of flag bits, such as SOLID | WATER
+	 */
+	public int getFlags(int x, int y)
+	{
+		int mask = 0;
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+		{
+			if (get(flag, x, y))
+				mask |= 1 << flag;
+		}
+		return mask;
+	}
+
+	/**
+	 * Sets all of the flags of a cell at once
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param mask - The mask of flag bits to set, with the rest cleared
+	 */
+	public void setFlags(int x, int y, int mask)
+	{
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+			set(flag, x, y, (mask & (1 << flag)) != 0);
+	}
+
+	/**
+	 * Sets or clears a flag on a rectangle of cells
+	 * @param flag - The index of the flag
+	 * @param area - The rectangle of cells, which is clipped to the map
+	 * @param value - True to set the flag
+	 */
+	public void fill(int flag, Rectangle area, boolean value)
+	{
+		int x0 = Math.max(0, area.x);
+		int x1 = Math.min(width, area.x + area.width);
+		for (int y = Math.max(0, area.y); y < Math.min(height, area.y + area.height); y++)
+		{
+			if (value)
+				setSpan(planes[flag], y, x0, x1);
+			else
+				clearSpan(planes[flag], y, x0, x1);
+		}
+	}
+
+	/**
+	 * Clears a flag from every cell
+	 * @param flag - The index of the flag
+	 */
+	public void clear(int flag)
+	{
+		Arrays.fill(planes[flag], 0L);
+	}
+
+	/**
+	 * Sets a flag on every cell which has another flag set, in these or other planes
+	 * @param flag - The index of the flag to set
+	 * @param other - The planes to read from, which must be the same size
+	 * @param otherFlag - The index of the flag to read
+	 */
+	public void or(int flag, CollisionPlanes other, int otherFlag)
+	{
+		long[] dest = planes[flag];
+		long[] source = other.planes[otherFlag];
+		for (int i = 0; i < dest.length; i++)
+			dest[i] |= source[i];
+	}
+
+	/**
+	 * Clears a flag from every cell which doesn't have another flag set
+	 * @param flag - The index of the flag to clear
+	 * @param other - The planes to read from, which must be the same size
+	 * @param otherFlag - The index of the flag to read
+	 */
+	public void and(int flag, CollisionPlanes other, int otherFlag)
+	{
+		long[] dest = planes[flag];
+		long[] source = other.planes[otherFlag];
+		for (int i = 0; i < dest.length; i++)
+			dest[i] &= source[i];
+	}
+
+	/**
+	 * Clears a flag from every cell which has another flag set
+	 * @param flag - The index of the flag to clear
+	 * @param other - The planes to read from, which must be the same size
+	 * @param otherFlag - The index of the flag to read
+	 */
+	public void andNot(int flag, CollisionPlanes other, int otherFlag)
+	{
+		long[] dest = planes[flag];
+		long[] source = other.planes[otherFlag];
+		for (int i = 0; i < dest.length; i++)
+			dest[i] &= ~source[i];
+	}
+
+	/**
+	 * Counts the cells a flag is set on
+	 * @param flag - The index of the flag
+	 * @return The number of cells
+	 */
+	public int count(int flag)
+	{
+		int count = 0;
+		for (long word : planes[flag])
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/**
+	 * Counts the cells which have any flag set
+	 * @return The number of cells
+	 */
+	public int countFlagged()
+	{
+		int count = 0;
+		for (int i = 0; i < wordsPerRow * height; i++)
+		{
+			long word = 0;
+			for (int flag = 0; flag < FLAG_COUNT; flag++)
+				word |= planes[flag][i];
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a copy of these planes for a map of another size, with the cells moved
+	 * by an offset. Cells moved off the map are dropped and cells moved onto it have
+	 * no flags. Each row is copied a word at a time, shifting the bits across words.
+	 * @param newWidth - The width of the new planes
+	 * @param newHeight - The height of the new planes
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @return The new planes
+	 */
+	public CollisionPlanes resize(int newWidth, int newHeight, int offsetX, int offsetY)
+	{
+		CollisionPlanes moved = new CollisionPlanes(newWidth, newHeight);
+
+		// The part of each row which stays on the map
+		int firstX = Math.max(0, -offsetX);
+		int lastX = Math.min(width, newWidth - offsetX);
+		if (firstX >= lastX)
+			return moved;
+
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+		{
+			for (int y = Math.max(0, -offsetY); y < Math.min(height, newHeight - offsetY); y++)
+			{
+				copySpan(planes[flag], y * wordsPerRow, firstX, moved.planes[flag], (y + offsetY) * moved.wordsPerRow, 
+						firstX + offsetX, lastX - firstX);
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Creates a copy of these planes with the cells moved by an offset, where the
+	 * cells moved off one edge come back on at the other
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @return The new planes
+	 */
+	public CollisionPlanes wrap(int offsetX, int offsetY)
+	{
+		CollisionPlanes moved = new CollisionPlanes(width, height);
+		if (width == 0 || height == 0)
+			return moved;
+
+		// Each row is split where it wraps: the left part moves right and the rest comes back on at the left
+		int shift = Math.floorMod(offsetX, width);
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+		{
+			for (int y = 0; y < height; y++)
+			{
+				int row = y * wordsPerRow;
+				int newRow = Math.floorMod(y + offsetY, height) * wordsPerRow;
+				copySpan(planes[flag], row, 0, moved.planes[flag], newRow, shift, width - shift);
+				copySpan(planes[flag], row, width - shift, moved.planes[flag], newRow, 0, shift);
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Hashes a plane along with the size of the map, so that anything worked out
+	 * from the plane can tell whether it has to be worked out again
+	 * @param flag - The index of the flag
+	 * @return The FNV-1a style hash of the plane's words
+	 */
+	public long hash(int flag)
+	{
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ width) * 0x100000001b3L;
+		hash = (hash ^ height) * 0x100000001b3L;
+		for (long word : planes[flag])
+		{
+			hash = (hash ^ (word & 0xFFFFFFFFL)) * 0x100000001b3L;
+			hash = (hash ^ (word >>> 32)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Puts the planes back together into the flag masks of a collision layer
+	 * @return The flag masks of the cells, in row major order
+	 */
+	public int[] toIds()
+	{
+		int[] ids = new int[width * height];
+		for (int flag = 0; flag < FLAG_COUNT; flag++)
+		{
+			long[] plane = planes[flag];
+			for (int y = 0; y < height; y++)
+			{
+				for (int word = 0; word < wordsPerRow; word++)
+				{
+					// Only visit the set bits of each word
+					long bits = plane[y * wordsPerRow + word];
+					while (bits != 0)
+					{
+						ids[y * width + (word << 6) + Long.numberOfTrailingZeros(bits)] |= 1 << flag;
+						bits &= bits - 1;
+					}
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets how many bytes the planes take up
+	 * @return The bytes used by the words of every plane
+	 */
+	public long getMemoryUsage()
+	{
+		return (long) FLAG_COUNT * wordsPerRow * height * 8;
+	}
+
+	/**
+	 * Covers the cells a flag is set on with rectangles using greedy meshing. From
+	 * the first set cell left, each rectangle is made as wide as the run of set cells
+	 * there, then as tall as the rows below have that whole run set, and its cells are
+	 * taken out before looking for the next one. The runs are found and checked a word
+	 * at a time.
+	 * @param flag - The index of the flag
+	 * @return The rectangles in cells, which don't overlap
+	 */
+	public List<Rectangle> mergeRectangles(int flag)
+	{
+		ArrayList<Rectangle> rectangles = new ArrayList<Rectangle>();
+		long[] left = planes[flag].clone();
+
+		for (int y = 0; y < height; y++)
+		{
+			for (int word = 0; word < wordsPerRow; word++)
+			{
+				int index = y * wordsPerRow + word;
+				while (left[index] != 0)
+				{
+					int x0 = (word << 6) + Long.numberOfTrailingZeros(left[index]);
+					int x1 = findRunEnd(left, y, x0);
+
+					int y1 = y + 1;
+					while (y1 < height && isSpanSet(left, y1, x0, x1))
+						y1++;
+
+					for (int row = y; row < y1; row++)
+						clearSpan(left, row, x0, x1);
+					rectangles.add(new Rectangle(x0, y, x1 - x0, y1 - y));
+				}
+			}
+		}
+
+		return rectangles;
+	}
+
+	/**
+	 * Finds where a run of set bits ends
+	 * @param plane - The plane to look in
+	 * @param y - The row of the run
+	 * @param x0 - The column of the first bit of the run, which is set
+	 * @return The column just past the last set bit of the run
+	 */
+	private int findRunEnd(long[] plane, int y, int x0)
+	{
+		int x = x0;
+		while (x < width)
+		{
+			int bit = x & 63;
+
+			// Count the ones from this bit up by counting the zeros of the inverse
+			long inverse = ~(plane[y * wordsPerRow + (x >>> 6)] >>> bit);
+			int ones = Math.min(64 - bit, Long.numberOfTrailingZeros(inverse));
+			x += ones;
+			if (bit + ones < 64)
+				break;
+		}
+		return Math.min(x, width);
+	}
+
+	/**
+	 * Copies a span of a row of a plane into a row of another plane of the same flag,
+	 * whose span is still clear. Each word of the new row is read as 64 bits starting
+	 * at any column of the old row, and when both spans start on a word the words
+	 * are copied as they are.
+	 * @param source - The plane to copy from, which has the same words per row as these planes
+	 * @param sourceRow - The index of the first word of the row to copy from
+	 * @param sourceX - The first column of the span to copy
+	 * @param dest - The plane to copy to
+	 * @param destRow - The index of the first word of the row to copy to
+	 * @param destX - The column the span starts at in the new row
+	 * @param length - The number of columns to copy
+	 */
+	private void copySpan(long[] source, int sourceRow, int sourceX, long[] dest, int destRow, int destX, int length)
+	{
+		if (length <= 0)
+			return;
+
+		int end = destX + length;
+		int word = destX >>> 6;
+		if (((sourceX | destX) & 63) == 0)
+		{
+			System.arraycopy(source, sourceRow + (sourceX >>> 6), dest, destRow + word, length >>> 6);
+			word += length >>> 6;
+		}
+
+		for (; word <= (end - 1) >>> 6; word++)
+		{
+			// The column of the old row which lands on the first bit of this word
+			int column = (word << 6) - destX + sourceX;
+			long bits = (column >= 0) ? readWord(source, sourceRow, column) : readWord(source, sourceRow, 0) << -column;
+			dest[destRow + word] |= bits & getSpanMask(word, destX, end);
+		}
+	}
+
+	/**
+	 * Reads the 64 bits of a row which start at a column, as one word
+	 * @param plane - The plane to read from
+	 * @param row - The index of the first word of the row
+	 * @param x - The column of the first bit
+	 * @return The bits, with the first column in the lowest bit
+	 */
+	private long readWord(long[] plane, int row, int x)
+	{
+		int word = x >>> 6;
+		int bit = x & 63;
+		long bits = plane[row + word] >>> bit;
+		if (bit != 0 && word + 1 < wordsPerRow)
+			bits |= plane[row + word + 1] << (64 - bit);
+		return bits;
+	}
+
+	/**
+	 * Gets the mask of the bits of a word which are in a span of columns
+	 * @param word - The index of the word within its row
+	 * @param x0 - The first column of the span
+	 * @param x1 - The column just past the span
+	 * @return The mask of the bits in the span
+	 */
+	private static long getSpanMask(int word, int x0, int x1)
+	{
+		int low = Math.max(0, x0 - (word << 6));
+		int high = Math.min(64, x1 - (word << 6));
+		return (-1L << low) & (-1L >>> (64 - high));
+	}
+
+	/**
+	 * Tells whether every bit of a span of a row is set
+	 * @param plane - The plane to look in
+	 * @param y - The row
+	 * @param x0 - The first column of the span
+	 * @param x1 - The column just past the span
+	 * @return True if the whole span is set
+	 */
+	private boolean isSpanSet(long[] plane, int y, int x0, int x1)
+	{
+		for (int word = x0 >>> 6; word <= (x1 - 1) >>> 6; word++)
+		{
+			long mask = getSpanMask(word, x0, x1);
+			if ((plane[y * wordsPerRow + word] & mask) != mask)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sets every bit of a span of a row
+	 * @param plane - The plane to change
+	 * @param y - The row
+	 * @param x0 - The first column of the span
+	 * @param x1 - The column just past the span
+	 */
+	private void setSpan(long[] plane, int y, int x0, int x1)
+	{
+		for (int word = x0 >>> 6; x0 < x1 && word <= (x1 - 1) >>> 6; word++)
+			plane[y * wordsPerRow + word] |= getSpanMask(word, x0, x1);
+	}
+
+	/**
+	 * Clears every bit of a span of a row
+	 * @param plane - The plane to change
+	 * @param y - The row
+	 * @param x0 - The first column of the span
+	 * @param x1 - The column just past the span
+	 */
+	private void clearSpan(long[] plane, int y, int x0, int x1)
+	{
+		for (int word = x0 >>> 6; x0 < x1 && word <= (x1 - 1) >>> 6; word++)
+			plane[y * wordsPerRow + word] &= ~getSpanMask(word, x0, x1);
+	}
+}
@@ -0,0 +1,209 @@
+package core;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps the pixels of a huge tile sheet deflated in memory, one block per tile,
+ * so that only the tiles which are actually drawn are ever held as images. Tiles
+ * are inflated when the palette or the map asks for them, and kept in a least
+ * recently used cache which is bounded by the bytes of the images it holds.
+ *
+ * The blocks hold the tiles exactly as they were cut from the sheet, so that the
+ * sheet can be put back together for saving. The transparent color of objects is
+ * made see through as they are inflated.
+ */
+public class CompressedTileStore
+{
+	public static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+	private int tileWidth, tileHeight;
+	private int transparentRGB;
+	private ArrayList<byte[]> blocks;
+	private ArrayList<Boolean> objectFlags;
+	private LinkedHashMap<Integer, BufferedImage> cache;
+	private long cacheBytes, maxCacheBytes, compressedBytes;
+	private long hits, misses;
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] buffer;
+
+	/**
+	 * Creates an empty store for tiles of the specified size
+	 * @param tileWidth - The width of each tile
+	 * @param tileHeight - The height of each tile
+	 * @param transparentRGB - The RGB color which is transparent in objects
+	 * @param maxCacheBytes - The most bytes of inflated images to keep at once
+	 */
+	public CompressedTileStore(int tileWidth, int tileHeight, int transparentRGB, long maxCacheBytes)
+	{
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.transparentRGB = transparentRGB & 0x00FFFFFF;
+		this.maxCacheBytes = maxCacheBytes;
+		blocks = new ArrayList<byte[]>();
+		objectFlags = new ArrayList<Boolean>();
+		cache = new LinkedHashMap<Integer, BufferedImage>(64, 0.75f, true);
+		deflater = new Deflater(Deflater.BEST_SPEED);
+		inflater = new Inflater();
+		buffer = new byte[tileWidth * tileHeight * 4];
+	}
+
+	/**
+	 * Deflates a tile and adds it to the store
+	 * @param pixels - The ARGB pixels of the tile as cut from the sheet, in row major order
+	 * @param isObject - True if the tile is an object, whose transparent color is see through
+	 * @return The index of the tile in the store
+	 */
+	public synchronized int add(int[] pixels, boolean isObject)
+	{
+		ByteBuffer.wrap(buffer).asIntBuffer().put(pixels);
+
+		deflater.reset();
+		deflater.setInput(buffer);
+		deflater.finish();
+
+		// Tiles which don't compress can come out a little larger than they went in
+		byte[] output = new byte[buffer.length + 64];
+		int length = 0;
+		while (!deflater.finished())
+		{
+			if (length == output.length)
+				output = Arrays.copyOf(output, output.length * 2);
+			length += deflater.deflate(output, length, output.length - length);
+		}
+
+		byte[] block = Arrays.copyOf(output, length);
+		blocks.add(block);
+		objectFlags.add(isObject);
+		compressedBytes += block.length;
+		return blocks.size() - 1;
+	}
+
+	/**
+	 * Gets the image of a tile, inflating it if it isn't in the cache
+	 * @param index - The index of the tile in the store
+	 * @return The ARGB image of the tile
+	 */
+	public synchronized BufferedImage getImage(int index)
+	{
+		BufferedImage image = cache.get(index);
+		if (image != null)
+		{
+			hits++;
+			return image;
+		}
+		misses++;
+
+		image = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		getRawPixels(index, pixels);
+
+		if (objectFlags.get(index))
+		{
+			for (int i = 0; i < pixels.length; i++)
+			{
+				if ((pixels[i] & 0x00FFFFFF) == transparentRGB)
+					pixels[i] = 0x00FFFFFF;
+			}
+		}
+
+		cache.put(index, image);
+		cacheBytes += pixels.length * 4;
+		evict();
+		return image;
+	}
+
+	/**
+	 * Inflates a tile exactly as it was cut from the sheet, without going through the cache
+	 * @param index - The index of the tile in the store
+	 * @param pixels - The array to inflate the ARGB pixels into
+	 */
+	public synchronized void getRawPixels(int index, int[] pixels)
+	{
+		inflater.reset();
+		inflater.setInput(blocks.get(index));
+		try
+		{
+			int length = 0;
+			while (length < buffer.length && !inflater.finished())
+				length += inflater.inflate(buffer, length, buffer.length - length);
+		}
+		catch (DataFormatException e)
+		{
+			// The blocks are only ever written by this class
+			throw new IllegalStateException("Corrupt tile block " + index, e);
+		}
+
+		ByteBuffer.wrap(buffer).asIntBuffer().get(pixels, 0, tileWidth * tileHeight);
+	}
+
+	/**
+	 * Gets the number of tiles in the store
+	 * @return The number of tiles
+	 */
+	public synchronized int size()
+	{
+		return blocks.size();
+	}
+
+	/**
+	 * Gets how many of the images asked for were already in the cache
+	 * @return The cache hit rate, from 0 to 1
+	 */
+	public synchronized double getHitRate()
+	{
+		long requests = hits + misses;
+		return (requests == 0) ? 0 : (double) hits / requests;
+	}
+
+	/**
+	 * Gets how many bytes the deflated blocks take up
+	 * @return The number of bytes of compressed tiles
+	 */
+	public synchronized long getCompressedBytes()
+	{
+		return compressedBytes;
+	}
+
+	/**
+	 * Gets how many bytes of inflated images are in the cache
+	 * @return The number of bytes of cached images
+	 */
+	public synchronized long getCachedBytes()
+	{
+		return cacheBytes;
+	}
+
+	/**
+	 * Gets how many bytes the store currently keeps in memory
+	 * @return The bytes of the compressed tiles and the cached images together
+	 */
+	public synchronized long getResidentBytes()
+	{
+		return compressedBytes + cacheBytes;
+	}
+
+	/**
+	 * Drops the least recently used images until the cache fits its budget. The
+	 * most recent image always stays, even if a single tile is over the budget.
+	 */
+	private void evict()
+	{
+		Iterator<Map.Entry<Integer, BufferedImage>> entries = cache.entrySet().iterator();
+		while (cacheBytes > maxCacheBytes && cache.size() > 1)
+		{
+			entries.next();
+			entries.remove();
+			cacheBytes -= tileWidth * tileHeight * 4;
+		}
+	}
+}
@@ -0,0 +1,691 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * An ordered stack of named layers, from the bottom one up. Each layer has a type,
+ * which says what its IDs mean: tile IDs, object IDs, or flags such as collision.
+ * Each layer can also be hidden.
+ *
+ * The layers are kept as a structure of arrays rather than as an object per layer.
+ * The IDs of each tile and object layer are held in a ChunkedLayer, which packs the
+ * cells of each chunk into a few bits, so a map costs far less than an int per cell
+ * per layer. Flag layers are held in CollisionPlanes, a bit per cell for each flag,
+ * which the collision tools and path finder work on directly. Flags which the planes
+ * don't have a bit for are dropped, and counted so that they can be reported.
+ * The stack also counts how many cells of each layer aren't empty, so that the
+ * painters can ask for only the visible layers with something on them and never
+ * touch the rest.
+ */
+public class LayerStack
+{
+	public static final int TILE = 0;
+	public static final int OBJECT = 1;
+	public static final int FLAG = 2;
+	public static final int TYPE_COUNT = 3;
+	public static final int ALL_TYPES = (1 << TYPE_COUNT) - 1;
+	private static final String[] TYPE_NAMES = {"tile", "object", "flag"};
+
+	private int width, height;
+	private int cellCount;
+	private int layerCount;
+	private String[] names;
+	private int[] types;
+	private boolean[] visible;
+	private int[] filledCounts;
+	private ChunkedLayer[] cells;
+	private CollisionPlanes[] flagPlanes;
+	private int[] droppedFlagCounts;
+	private int[] firstDroppedFlags;
+
+	// The drawn layers for each combination of types, worked out when first asked for
+	private int[][] drawnLayers;
+
+	/**
+	 * Creates an empty stack for a map
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 */
+	public LayerStack(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		cellCount = width * height;
+		names = new String[4];
+		types = new int[4];
+		visible = new boolean[4];
+		filledCounts = new int[4];
+		cells = new ChunkedLayer[4];
+		flagPlanes = new CollisionPlanes[4];
+		droppedFlagCounts = new int[4];
+		firstDroppedFlags = new int[4];
+		drawnLayers = new int[ALL_TYPES + 1][];
+	}
+
+	/**
+	 * Creates the stack every new map starts with: a tile layer, an object
+	 * layer over it, and a collision layer on top
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @return The new stack
+	 */
+	public static LayerStack createDefault(int width, int height)
+	{
+		LayerStack stack = new LayerStack(width, height);
+		stack.addLayer("Tiles", TILE);
+		stack.addLayer("Objects", OBJECT);
+		stack.addLayer("Collision", FLAG);
+		return stack;
+	}
+
+	/**
+	 * Gets the ID of an empty cell of a type of layer
+	 * @param type - TILE, OBJECT or FLAG
+	 * @return -1 for tiles and objects, or 0 for flags
+	 */
+	public static int getEmptyId(int type)
+	{
+		return (type == FLAG) ? 0 : -1;
+	}
+
+	/**
+	 * Tells whether an ID draws nothing on a type of layer. Object 0 is the eraser.
+	 * @param type - TILE, OBJECT or FLAG
+	 * @param id - The ID to check
+	 * @return True if the ID leaves the cell empty
+	 */
+	public static boolean isEmptyId(int type, int id)
+	{
+		if (type == TILE)
+			return id < 0;
+		if (type == OBJECT)
+			return id <= 0;
+		return id == 0;
+	}
+
+	/**
+	 * Gets the name a type of layer is saved as
+	 * @param type - TILE, OBJECT or FLAG
+	 * @return "tile", "object" or "flag"
+	 */
+	public static String getTypeName(int type)
+	{
+		return TYPE_NAMES[type];
+	}
+
+	/**
+	 * Gets the type of layer a name is saved as
+	 * @param name - "tile", "object" or "flag"
+	 * @return TILE, OBJECT or FLAG
+	 */
+	public static int parseType(String name)
+	{
+		for (int i = 0; i < TYPE_NAMES.length; i++)
+		{
+			if (TYPE_NAMES[i].equals(name))
+				return i;
+		}
+		throw new IllegalArgumentException("Unknown layer type " + name);
+	}
+
+	/**
+	 * Gets the width of the map the layers cover
+	 * @return The width in cells
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the map the layers cover
+	 * @return The height in cells
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the number of cells in each layer
+	 * @return The number of cells of the map
+	 */
+	public int getCellCount()
+	{
+		return cellCount;
+	}
+
+	/**
+	 * Gets the number of layers in the stack
+	 * @return The number of layers
+	 */
+	public int getLayerCount()
+	{
+		return layerCount;
+	}
+
+	/**
+	 * Adds an empty layer to the top of the stack
+	 * @param name - The name of the layer
+	 * @param type - TILE, OBJECT or FLAG
+	 * @return The index of the new layer
+	 */
+	public int addLayer(String name, int type)
+	{
+		if (type < 0 || type >= TYPE_COUNT)
+			throw new IllegalArgumentException("Unknown layer type " + type);
+
+		if (layerCount == names.length)
+		{
+			int capacity = names.length * 2;
+			names = Arrays.copyOf(names, capacity);
+			types = Arrays.copyOf(types, capacity);
+			visible = Arrays.copyOf(visible, capacity);
+			filledCounts = Arrays.copyOf(filledCounts, capacity);
+			cells = Arrays.copyOf(cells, capacity);
+			flagPlanes = Arrays.copyOf(flagPlanes, capacity);
+			droppedFlagCounts = Arrays.copyOf(droppedFlagCounts, capacity);
+			firstDroppedFlags = Arrays.copyOf(firstDroppedFlags, capacity);
+		}
+
+		// An empty layer is a single ID per chunk, or planes with no flags set
+		int layer = layerCount++;
+		if (type == FLAG)
+			flagPlanes[layer] = new CollisionPlanes(width, height);
+		else
+			cells[layer] = new ChunkedLayer(width, height, getEmptyId(type));
+		droppedFlagCounts[layer] = 0;
+
+		names[layer] = name;
+		types[layer] = type;
+		visible[layer] = true;
+		filledCounts[layer] = 0;
+		layersChanged();
+		return layer;
+	}
+
+	/**
+	 * Removes a layer, moving the layers above it down one
+	 * @param layer - The index of the layer
+	 */
+	public void removeLayer(int layer)
+	{
+		int above = layerCount - layer - 1;
+		System.arraycopy(names, layer + 1, names, layer, above);
+		System.arraycopy(types, layer + 1, types, layer, above);
+		System.arraycopy(visible, layer + 1, visible, layer, above);
+		System.arraycopy(filledCounts, layer + 1, filledCounts, layer, above);
+		System.arraycopy(cells, layer + 1, cells, layer, above);
+		System.arraycopy(flagPlanes, layer + 1, flagPlanes, layer, above);
+		System.arraycopy(droppedFlagCounts, layer + 1, droppedFlagCounts, layer, above);
+		System.arraycopy(firstDroppedFlags, layer + 1, firstDroppedFlags, layer, above);
+
+		layerCount--;
+		names[layerCount] = null;
+		cells[layerCount] = null;
+		flagPlanes[layerCount] = null;
+		layersChanged();
+	}
+
+	/**
+	 * Moves a layer up or down the stack
+	 * @param layer - The index of the layer
+	 * @param position - The index the layer should end up at
+	 */
+	public void moveLayer(int layer, int position)
+	{
+		if (layer == position)
+			return;
+
+		String name = names[layer];
+		int type = types[layer];
+		boolean shown = visible[layer];
+		int filled = filledCounts[layer];
+		ChunkedLayer ids = cells[layer];
+		CollisionPlanes planes = flagPlanes[layer];
+		int dropped = droppedFlagCounts[layer];
+		int firstDropped = firstDroppedFlags[layer];
+
+		// Shift the layers in between over by one, then put the layer back in its new place
+		int from = Math.min(layer, position);
+		int to = Math.max(layer, position);
+		int shift = (layer < position) ? 1 : 0;
+		int count = to - from;
+		System.arraycopy(names, from + shift, names, from + 1 - shift, count);
+		System.arraycopy(types, from + shift, types, from + 1 - shift, count);
+		System.arraycopy(visible, from + shift, visible, from + 1 - shift, count);
+		System.arraycopy(filledCounts, from + shift, filledCounts, from + 1 - shift, count);
+		System.arraycopy(cells, from + shift, cells, from + 1 - shift, count);
+		System.arraycopy(flagPlanes, from + shift, flagPlanes, from + 1 - shift, count);
+		System.arraycopy(droppedFlagCounts, from + shift, droppedFlagCounts, from + 1 - shift, count);
+		System.arraycopy(firstDroppedFlags, from + shift, firstDroppedFlags, from + 1 - shift, count);
+
+		names[position] = name;
+		types[position] = type;
+		visible[position] = shown;
+		filledCounts[position] = filled;
+		cells[position] = ids;
+		flagPlanes[position] = planes;
+		droppedFlagCounts[position] = dropped;
+		firstDroppedFlags[position] = firstDropped;
+		layersChanged();
+	}
+
+	/**
+	 * Gets the name of a layer
+	 * @param layer - The index of the layer
+	 * @return The name of the layer
+	 */
+	public String getName(int layer)
+	{
+		return names[layer];
+	}
+
+	/**
+	 * Sets the name of a layer
+	 * @param layer - The index of the layer
+	 * @param name - The new name of the layer
+	 */
+	public void setName(int layer, String name)
+	{
+		names[layer] = name;
+	}
+
+	/**
+	 * Gets the type of a layer
+	 * @param layer - The index of the layer
+	 * @return TILE, OBJECT or FLAG
+	 */
+	public int getType(int layer)
+	{
+		return types[layer];
+	}
+
+	/**
+	 * Tells whether a layer is shown
+	 * @param layer - The index of the layer
+	 * @return True if the layer is visible
+	 */
+	public boolean isVisible(int layer)
+	{
+		return visible[layer];
+	}
+
+	/**
+	 * Shows or hides a layer
+	 * @param layer - The index of the layer
+	 * @param shown - True to show the layer
+	 */
+	public void setVisible(int layer, boolean shown)
+	{
+		if (visible[layer] == shown)
+			return;
+		visible[layer] = shown;
+		layersChanged();
+	}
+
+	/**
+	 * Gets the number of cells of a layer which aren't empty
+	 * @param layer - The index of the layer
+	 * @return The number of cells with something on them
+	 */
+	public int getFilledCount(int layer)
+	{
+		return filledCounts[layer];
+	}
+
+	/**
+	 * Finds the bottom layer of a type
+	 * @param type - TILE, OBJECT or FLAG
+	 * @return The index of the layer, or -1 if there are no layers of the type
+	 */
+	public int findLayer(int type)
+	{
+		for (int i = 0; i < layerCount; i++)
+		{
+			if (types[i] == type)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Counts the layers of the same type below a layer, which tells layers of
+	 * the same type apart when they are drawn
+	 * @param layer - The index of the layer
+	 * @return The number of layers of the same type below it
+	 */
+	public int getTypeOrdinal(int layer)
+	{
+		int ordinal = 0;
+		for (int i = 0; i < layer; i++)
+		{
+			if (types[i] == types[layer])
+				ordinal++;
+		}
+		return ordinal;
+	}
+
+	/**
+	 * Gets the ID of a cell of a layer
+	 * @param layer - The index of the layer
+	 * @param index - The row major index of the cell
+	 * @return The ID of the cell
+	 */
+	public int get(int layer, int index)
+	{
+		CollisionPlanes planes = flagPlanes[layer];
+		if (planes != null)
+			return planes.getFlags(index % width, index / width);
+		return cells[layer].get(index);
+	}
+
+	/**
+	 * Sets the ID of a cell of a layer
+	 * @param layer - The index of the layer
+	 * @param index - The row major index of the cell
+	 * @param id - The ID to set the cell to, which on a flag layer is a mask of CollisionPlanes flags
+	 * @return The ID the cell had before
+	 */
+	public int set(int layer, int index, int id)
+	{
+		int old = get(layer, index);
+		CollisionPlanes planes = flagPlanes[layer];
+		if (planes != null)
+		{
+			id &= CollisionPlanes.ALL_FLAGS;
+			planes.setFlags(index % width, index / width, id);
+		}
+		else
+			cells[layer].set(index, id);
+
+		// Keep count of the cells with something on them
+		int type = types[layer];
+		boolean wasEmpty = isEmptyId(type, old);
+		boolean isEmpty = isEmptyId(type, id);
+		if (wasEmpty != isEmpty)
+		{
+			filledCounts[layer] += wasEmpty ? 1 : -1;
+
+			// The layer started or stopped being drawn
+			if (filledCounts[layer] == (wasEmpty ? 1 : 0))
+				layersChanged();
+		}
+
+		return old;
+	}
+
+	/**
+	 * Copies the IDs of a layer out into an array
+	 * @param layer - The index of the layer
+	 * @return The IDs of the cells, in row major order
+	 */
+	public int[] copyLayer(int layer)
+	{
+		if (flagPlanes[layer] != null)
+			return flagPlanes[layer].toIds();
+		return cells[layer].toArray();
+	}
+
+	/**
+	 * Replaces all of the IDs of a layer at once
+	 * @param layer - The index of the layer
+	 * @param ids - The IDs of the cells, in row major order
+	 */
+	public void setLayer(int layer, int[] ids)
+	{
+		if (types[layer] == FLAG)
+		{
+			setFlagLayer(layer, ids);
+			return;
+		}
+		cells[layer] = new ChunkedLayer(width, height, ids);
+
+		int filled = 0;
+		for (int id : ids)
+		{
+			if (!isEmptyId(types[layer], id))
+				filled++;
+		}
+		filledCounts[layer] = filled;
+		layersChanged();
+	}
+
+	/**
+	 * Replaces all of the flags of a flag layer at once, counting the cells which
+	 * had flags the planes can't hold
+	 * @param layer - The index of the layer
+	 * @param ids - The flag masks of the cells, in row major order
+	 */
+	private void setFlagLayer(int layer, int[] ids)
+	{
+		flagPlanes[layer] = CollisionPlanes.fromLayer(width, height, ids);
+		filledCounts[layer] = flagPlanes[layer].countFlagged();
+		droppedFlagCounts[layer] = 0;
+
+		for (int i = 0; i < cellCount; i++)
+		{
+			if ((ids[i] & ~CollisionPlanes.ALL_FLAGS) != 0 && droppedFlagCounts[layer]++ == 0)
+				firstDroppedFlags[layer] = i;
+		}
+		layersChanged();
+	}
+
+	/**
+	 * Gets the planes a flag layer is kept in, so that flags can be worked on a word
+	 * of cells at a time. Call planesChanged after changing them.
+	 * @param layer - The index of the layer
+	 * @return The planes of the layer, or null if it isn't a flag layer
+	 */
+	public CollisionPlanes getPlanes(int layer)
+	{
+		return flagPlanes[layer];
+	}
+
+	/**
+	 * Counts the cells with flags on again after the planes of a flag layer have been changed
+	 * @param layer - The index of the layer
+	 */
+	public void planesChanged(int layer)
+	{
+		boolean wasEmpty = filledCounts[layer] == 0;
+		filledCounts[layer] = flagPlanes[layer].countFlagged();
+		if (wasEmpty != (filledCounts[layer] == 0))
+			layersChanged();
+	}
+
+	/**
+	 * Gets the number of cells of a flag layer whose flags were dropped when they were
+	 * set, because the planes have no bit for some of them
+	 * @param layer - The index of the layer
+	 * @return The number of cells, which is 0 for tile and object layers
+	 */
+	public int getDroppedFlagCount(int layer)
+	{
+		return droppedFlagCounts[layer];
+	}
+
+	/**
+	 * Gets the first cell of a flag layer whose flags were dropped
+	 * @param layer - The index of the layer
+	 * @return The row major index of the cell, if getDroppedFlagCount isn't 0, or -1
+	 * if the map has since been cropped and the cell is no longer on it
+	 */
+	public int getFirstDroppedFlag(int layer)
+	{
+		return firstDroppedFlags[layer];
+	}
+
+	/**
+	 * Replaces every use of a tile or object on a layer with another, keeping the
+	 * flips of each cell. Only the palettes of the chunks using the ID are rewritten.
+	 * @param layer - The index of the layer
+	 * @param fromId - The base ID to replace
+	 * @param toId - The base ID to replace it with, or an empty ID to erase it
+	 * @return The number of cells which were changed
+	 */
+	public int replaceBaseId(int layer, int fromId, int toId)
+	{
+		int type = types[layer];
+		if (type == FLAG || fromId == toId || isEmptyId(type, fromId))
+			return 0;
+
+		// Erased cells don't keep their flips
+		if (isEmptyId(type, toId))
+			toId = getEmptyId(type);
+		int replaced = cells[layer].replaceBaseId(fromId, toId);
+
+		// Erasing the ID leaves those cells empty
+		if (replaced > 0 && isEmptyId(type, toId))
+		{
+			filledCounts[layer] -= replaced;
+			if (filledCounts[layer] == 0)
+				layersChanged();
+		}
+		return replaced;
+	}
+
+	/**
+	 * Creates a copy of this stack for a map of another size, with the cells moved
+	 * by an offset. Cells moved off the map are dropped and cells moved onto it are
+	 * empty, so this resizes, crops and shifts maps.
+	 * @param newWidth - The width of the new map
+	 * @param newHeight - The height of the new map
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @return The new stack, with the same layers as this one
+	 */
+	public LayerStack resize(int newWidth, int newHeight, int offsetX, int offsetY)
+	{
+		LayerStack stack = copyLayers(newWidth, newHeight);
+
+		for (int layer = 0; layer < layerCount; layer++)
+		{
+			if (flagPlanes[layer] != null)
+			{
+				stack.flagPlanes[layer] = flagPlanes[layer].resize(newWidth, newHeight, offsetX, offsetY);
+				stack.filledCounts[layer] = stack.flagPlanes[layer].countFlagged();
+				continue;
+			}
+			stack.cells[layer] = cells[layer].resize(newWidth, newHeight, offsetX, offsetY, getEmptyId(types[layer]));
+			stack.filledCounts[layer] = stack.cells[layer].countFilled(types[layer]);
+		}
+
+		// The flags were dropped as the cells were read, so they stay counted, but the first cell moves
+		for (int layer = 0; layer < layerCount; layer++)
+		{
+			int first = firstDroppedFlags[layer];
+			if (droppedFlagCounts[layer] == 0 || first < 0)
+				continue;
+
+			int x = first % width + offsetX;
+			int y = first / width + offsetY;
+			stack.firstDroppedFlags[layer] = (x >= 0 && y >= 0 && x < newWidth && y < newHeight) ? y * newWidth + x : -1;
+		}
+		return stack;
+	}
+
+	/**
+	 * Creates a copy of this stack with the cells moved by an offset, where the
+	 * cells moved off one edge of the map come back on at the other.
+	 * @param offsetX - How many cells right each cell moves, which may be negative
+	 * @param offsetY - How many cells down each cell moves, which may be negative
+	 * @return The new stack, with the same layers as this one
+	 */
+	public LayerStack wrap(int offsetX, int offsetY)
+	{
+		LayerStack stack = copyLayers(width, height);
+
+		for (int layer = 0; layer < layerCount; layer++)
+		{
+			if (flagPlanes[layer] != null)
+				stack.flagPlanes[layer] = flagPlanes[layer].wrap(offsetX, offsetY);
+			else
+				stack.cells[layer] = cells[layer].wrap(offsetX, offsetY);
+			stack.filledCounts[layer] = filledCounts[layer];
+
+			int first = firstDroppedFlags[layer];
+			if (droppedFlagCounts[layer] > 0 && first >= 0)
+				stack.firstDroppedFlags[layer] = Math.floorMod(first / width + offsetY, height) * width + Math.floorMod(first % width + offsetX, width);
+		}
+		return stack;
+	}
+
+	/**
+	 * Creates a stack with the same layers as this one, and the same counts of
+	 * dropped flags, but no cells yet
+	 * @param newWidth - The width of the new stack in cells
+	 * @param newHeight - The height of the new stack in cells
+	 * @return The new stack
+	 */
+	private LayerStack copyLayers(int newWidth, int newHeight)
+	{
+		LayerStack stack = new LayerStack(newWidth, newHeight);
+		stack.layerCount = layerCount;
+		stack.names = Arrays.copyOf(names, names.length);
+		stack.types = Arrays.copyOf(types, types.length);
+		stack.visible = Arrays.copyOf(visible, visible.length);
+		stack.filledCounts = new int[filledCounts.length];
+		stack.cells = new ChunkedLayer[cells.length];
+		stack.flagPlanes = new CollisionPlanes[cells.length];
+		stack.droppedFlagCounts = Arrays.copyOf(droppedFlagCounts, cells.length);
+		stack.firstDroppedFlags = Arrays.copyOf(firstDroppedFlags, cells.length);
+		return stack;
+	}
+
+	/**
+	 * Copies the chunks of a tile or object layer, for a snapshot which mustn't change
+	 * along with the stack
+	 * @param layer - The index of the layer
+	 * @return The copy of the layer
+	 */
+	public ChunkedLayer copyChunks(int layer)
+	{
+		return new ChunkedLayer(cells[layer]);
+	}
+
+	/**
+	 * Copies the planes of a flag layer, for a snapshot which mustn't change along with the stack
+	 * @param layer - The index of the layer
+	 * @return The copy of the planes
+	 */
+	public CollisionPlanes copyPlanes(int layer)
+	{
+		return new CollisionPlanes(flagPlanes[layer]);
+	}
+
+	/**
+	 * Gets the layers which are drawn: those which are visible, have something
+	 * on them, and are of one of the types asked for. Hidden and empty layers
+	 * are left out, so they cost nothing to paint.
+	 * @param typeMask - The types to include, as a mask of 1 << type
+	 * @return The indexes of the layers, from the bottom one up. The array is shared and must not be changed.
+	 */
+	public int[] getDrawnLayers(int typeMask)
+	{
+		int[] layers = drawnLayers[typeMask & ALL_TYPES];
+		if (layers != null)
+			return layers;
+
+		int count = 0;
+		layers = new int[layerCount];
+		for (int i = 0; i < layerCount; i++)
+		{
+			if (visible[i] && filledCounts[i] > 0 && (typeMask & (1 << types[i])) != 0)
+				layers[count++] = i;
+		}
+
+		layers = Arrays.copyOf(layers, count);
+		drawnLayers[typeMask & ALL_TYPES] = layers;
+		return layers;
+	}
+
+	/**
+	 * Forgets the drawn layers, for when a layer is added, moved, shown,
+	 * hidden, or becomes empty or not
+	 */
+	private void layersChanged()
+	{
+		Arrays.fill(drawnLayers, null);
+	}
+}
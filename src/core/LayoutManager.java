@@ -16,8 +16,10 @@ public class LayoutManager
 	private JScrollPane tilePanelScrollPane;
 	private JScrollPane objectPanelScrollPane;
 	private JScrollPane mapPanelScrollPane;
+	private MiniMap miniMap;
 	
 	private final float TILE_PANEL_RATIO = 0.25f;	
+	private final int MINIMAP_HEIGHT = 180;
 	
 	/**
 	 * Constructs a new LayoutManager
@@ -59,12 +61,21 @@ public class LayoutManager
 		// Create the map panel
 		mapPanelScrollPane = new JScrollPane(mapPanel);
 		mapPanelScrollPane.setBorder(BorderFactory.createTitledBorder("Map"));
+		
+		// Create the minimap of the map panel
+		miniMap = new MiniMap(mapPanel, mapPanelScrollPane);
+		miniMap.setBorder(BorderFactory.createTitledBorder("Overview"));
+		miniMap.setMinimumSize(new Dimension((int)(parentFrame.getWidth() * TILE_PANEL_RATIO), MINIMAP_HEIGHT));
+		miniMap.setPreferredSize(new Dimension((int)(parentFrame.getWidth() * TILE_PANEL_RATIO), MINIMAP_HEIGHT));
+		mapPanel.setMiniMap(miniMap);
+		mapPanel.getAnimationPlayer().setViewport(mapPanelScrollPane.getViewport());
+		mapPanel.setFrameRate(parentFrame.getMenuPanel().getViewMenu().getFrameRate());
 				
 		// Declare the constraints for the GridBagLayout
 		GridBagConstraints c = new GridBagConstraints();
 		c.weightx = 1;
 		c.weighty = 1;
-		c.gridheight = 2;
+		c.gridheight = 3;
 		c.gridx = 0;
 		c.gridy = 0;
 		c.fill = GridBagConstraints.BOTH;
@@ -90,6 +101,13 @@ public class LayoutManager
 		parentFrame.add(tilePanelScrollPane, c);
 		parentFrame.validate();
 		
+		// Update constraints for the minimap, which keeps its height
+		c.weighty = 0;
+		c.gridy = 2;
+		
+		parentFrame.add(miniMap, c);
+		parentFrame.validate();
+		
 		// Enable map dependent menu buttons
 		parentFrame.getMenuPanel().setMapDependentItems(true);
 		parentFrame.repaint();
@@ -100,6 +118,9 @@ public class LayoutManager
 	 */
 	public void clearExistingLayout()
 	{
+		// The old map's animations no longer need to be played
+		mapPanel.getAnimationPlayer().close();
+		
 		objectPanelScrollPane.removeAll();
 		tilePanelScrollPane.removeAll();
 		mapPanelScrollPane.removeAll();
@@ -107,6 +128,7 @@ public class LayoutManager
 		parentFrame.remove(objectPanelScrollPane);
 		parentFrame.remove(tilePanelScrollPane);
 		parentFrame.remove(mapPanelScrollPane);
+		parentFrame.remove(miniMap);
 	}
 	
 }
\ No newline at end of file
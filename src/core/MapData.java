@@ -0,0 +1,322 @@
+package core;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A snapshot of the layer data of a map which does not depend on any of the
+ * Swing components. Exporters work from this so that they never have to touch
+ * the MapTiles (or create images for them) while rendering. Every layer of the
+ * map's LayerStack is kept, in the same order, as a copy of its storage: a
+ * ChunkedLayer which packs each cell into a few bits, or the CollisionPlanes of
+ * a flag layer. The freely placed objects are kept as a copy.
+ */
+public class MapData
+{
+	private TileSheet tileSheet;
+	private int widthInTiles, heightInTiles;
+	private String[] layerNames;
+	private int[] layerTypes;
+	private boolean[] layerVisible;
+	private int[] filledCounts;
+	private ChunkedLayer[] layers;
+	private CollisionPlanes[] flagPlanes;
+	private PlacedObjects placedObjects;
+
+	/**
+	 * Constructs a snapshot of a map which only has the default tile, object and collision layers
+	 * @param tileSheet - The TileSheet which the layer IDs refer to
+	 * @param widthInTiles - The width of the map in tiles
+	 * @param heightInTiles - The height of the map in tiles
+	 * @param tileLayer - The tile layer IDs, one per cell in row major order
+	 * @param objectLayer - The object layer IDs, one per cell in row major order
+	 * @param collisionLayer - The collision flags, one per cell in row major order
+	 */
+	public MapData(TileSheet tileSheet, int widthInTiles, int heightInTiles, int[] tileLayer, int[] objectLayer, byte[] collisionLayer)
+	{
+		this(tileSheet, widthInTiles, heightInTiles, createDefaultLayers(widthInTiles, heightInTiles, tileLayer, objectLayer, collisionLayer));
+	}
+
+	/**
+	 * Constructs a snapshot of all of the layers of a map
+	 * @param tileSheet - The TileSheet which the layer IDs refer to
+	 * @param widthInTiles - The width of the map in tiles
+	 * @param heightInTiles - The height of the map in tiles
+	 * @param stack - The layers of the map, which are copied
+	 */
+	public MapData(TileSheet tileSheet, int widthInTiles, int heightInTiles, LayerStack stack)
+	{
+		this(tileSheet, widthInTiles, heightInTiles, stack, new PlacedObjects(widthInTiles * tileSheet.getWidthOfTiles(), heightInTiles * tileSheet.getHeightOfTiles()));
+	}
+
+	/**
+	 * Constructs a snapshot of all of the layers and placed objects of a map
+	 * @param tileSheet - The TileSheet which the layer IDs refer to
+	 * @param widthInTiles - The width of the map in tiles
+	 * @param heightInTiles - The height of the map in tiles
+	 * @param stack - The layers of the map, which are copied
+	 * @param placedObjects - The placed objects of the map, which must not be changed afterwards
+	 */
+	public MapData(TileSheet tileSheet, int widthInTiles, int heightInTiles, LayerStack stack, PlacedObjects placedObjects)
+	{
+		this.placedObjects = placedObjects;
+		this.tileSheet = tileSheet;
+		this.widthInTiles = widthInTiles;
+		this.heightInTiles = heightInTiles;
+
+		int count = stack.getLayerCount();
+		layerNames = new String[count];
+		layerTypes = new int[count];
+		layerVisible = new boolean[count];
+		filledCounts = new int[count];
+		layers = new ChunkedLayer[count];
+		flagPlanes = new CollisionPlanes[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			layerNames[i] = stack.getName(i);
+			layerTypes[i] = stack.getType(i);
+			layerVisible[i] = stack.isVisible(i);
+			filledCounts[i] = stack.getFilledCount(i);
+			if (layerTypes[i] == LayerStack.FLAG)
+				flagPlanes[i] = stack.copyPlanes(i);
+			else
+				layers[i] = stack.copyChunks(i);
+		}
+	}
+
+	/**
+	 * Builds the default layers out of the arrays of the old three layer maps
+	 * @param widthInTiles - The width of the map in tiles
+	 * @param heightInTiles - The height of the map in tiles
+	 * @param tileLayer - The tile layer IDs
+	 * @param objectLayer - The object layer IDs
+	 * @param collisionLayer - The collision flags
+	 * @return The stack holding the three layers
+	 */
+	private static LayerStack createDefaultLayers(int widthInTiles, int heightInTiles, int[] tileLayer, int[] objectLayer, byte[] collisionLayer)
+	{
+		LayerStack stack = LayerStack.createDefault(widthInTiles, heightInTiles);
+		int[] flags = new int[collisionLayer.length];
+		for (int i = 0; i < flags.length; i++)
+			flags[i] = collisionLayer[i];
+
+		stack.setLayer(0, tileLayer);
+		stack.setLayer(1, objectLayer);
+		stack.setLayer(2, flags);
+		return stack;
+	}
+
+	/**
+	 * Gets the TileSheet which the layer IDs refer to
+	 * @return The TileSheet of this map
+	 */
+	public TileSheet getTileSheet()
+	{
+		return tileSheet;
+	}
+
+	/**
+	 * Gets the width of the map in number of tiles
+	 * @return The number of tiles wide that this map is
+	 */
+	public int getWidthInTiles()
+	{
+		return widthInTiles;
+	}
+
+	/**
+	 * Gets the height of the map in number of tiles
+	 * @return The number of tiles high that this map is
+	 */
+	public int getHeightInTiles()
+	{
+		return heightInTiles;
+	}
+
+	/**
+	 * Gets the objects placed freely on the map
+	 * @return The placed objects, which must not be changed
+	 */
+	public PlacedObjects getPlacedObjects()
+	{
+		return placedObjects;
+	}
+
+	/**
+	 * Gets the number of layers of the map
+	 * @return The number of layers
+	 */
+	public int getLayerCount()
+	{
+		return layers.length;
+	}
+
+	/**
+	 * Gets the name of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return The name of the layer
+	 */
+	public String getLayerName(int layer)
+	{
+		return layerNames[layer];
+	}
+
+	/**
+	 * Gets the type of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return LayerStack.TILE, OBJECT or FLAG
+	 */
+	public int getLayerType(int layer)
+	{
+		return layerTypes[layer];
+	}
+
+	/**
+	 * Tells whether a layer was shown when the snapshot was taken
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return True if the layer is visible
+	 */
+	public boolean isLayerVisible(int layer)
+	{
+		return layerVisible[layer];
+	}
+
+	/**
+	 * Tells whether a layer has nothing on it
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return True if every cell of the layer is empty
+	 */
+	public boolean isLayerEmpty(int layer)
+	{
+		return filledCounts[layer] == 0;
+	}
+
+	/**
+	 * Gets the layers which are drawn: those which are visible, have something
+	 * on them, and are of one of the types asked for
+	 * @param typeMask - The types to include, as a mask of 1 << type
+	 * @return The indexes of the layers, from the bottom one up
+	 */
+	public int[] getDrawnLayers(int typeMask)
+	{
+		int count = 0;
+		int[] drawn = new int[layers.length];
+		for (int i = 0; i < layers.length; i++)
+		{
+			if (layerVisible[i] && filledCounts[i] > 0 && (typeMask & (1 << layerTypes[i])) != 0)
+				drawn[count++] = i;
+		}
+		return Arrays.copyOf(drawn, count);
+	}
+
+	/**
+	 * Gets the ID of a cell of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @param index - The row major index of the cell
+	 * @return The ID, which is empty as LayerStack.isEmptyId says if nothing is on the cell
+	 */
+	public int getLayerId(int layer, int index)
+	{
+		return getLayerId(layer, index % widthInTiles, index / widthInTiles);
+	}
+
+	/**
+	 * Gets the ID of a cell of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return The ID, which is empty as LayerStack.isEmptyId says if nothing is on the cell
+	 */
+	public int getLayerId(int layer, int x, int y)
+	{
+		if (flagPlanes[layer] != null)
+			return flagPlanes[layer].getFlags(x, y);
+		return layers[layer].get(x, y);
+	}
+
+	/**
+	 * Finds the layer which collision is read from, which is the bottom flag layer
+	 * @return The index of the layer, or -1 if the map has no flag layers
+	 */
+	public int getCollisionLayer()
+	{
+		for (int i = 0; i < layers.length; i++)
+		{
+			if (layerTypes[i] == LayerStack.FLAG)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells whether the cell at the specified index is collidable
+	 * @param index - The row major index of the cell
+	 * @return True if the cell is solid on the collision layer
+	 */
+	public boolean isCollidable(int index)
+	{
+		int layer = getCollisionLayer();
+		return layer >= 0 && flagPlanes[layer].get(0, index % widthInTiles, index / widthInTiles);
+	}
+
+	/**
+	 * Gets the flags of the collision layer as bitplanes
+	 * @return The planes, which are empty if the map has no flag layers and must not be changed
+	 */
+	public CollisionPlanes getCollisionPlanes()
+	{
+		int layer = getCollisionLayer();
+		if (layer < 0)
+			return new CollisionPlanes(widthInTiles, heightInTiles);
+		return flagPlanes[layer];
+	}
+
+	/**
+	 * Gets roughly how many bytes the layers take up
+	 * @return The bytes used by all of the packed layers and flag planes
+	 */
+	public long getLayerMemoryUsage()
+	{
+		long bytes = 0;
+		for (int i = 0; i < layers.length; i++)
+			bytes += (flagPlanes[i] != null) ? flagPlanes[i].getMemoryUsage() : layers[i].getMemoryUsage();
+		return bytes;
+	}
+
+	/**
+	 * Describes how much memory the packed layers use
+	 * @return A one line description of the memory usage
+	 */
+	public String describeLayerMemoryUsage()
+	{
+		long cells = Math.max(1, (long) layers.length * widthInTiles * heightInTiles);
+		return String.format("Map layers: %d layers, %d KB packed, %.2f bytes per cell (%d KB unpacked).", layers.length,
+				getLayerMemoryUsage() / 1024, (double) getLayerMemoryUsage() / cells, cells * 4 / 1024);
+	}
+
+	/**
+	 * Gets the image drawn on a cell of a tile or object layer. Object IDs
+	 * are offset by one since ID 0 is the erase tile of the object panel.
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @param index - The row major index of the cell
+	 * @return The image, flipped as the cell's ID says, or null if the cell has none
+	 */
+	public BufferedImage getImage(int layer, int index)
+	{
+		int id = TileTransform.getBaseId(getLayerId(layer, index));
+		int flags = TileTransform.getFlags(getLayerId(layer, index));
+
+		AbstractTile tile = null;
+		if (layerTypes[layer] == LayerStack.TILE && id >= 0 && id < tileSheet.tiles.size())
+			tile = tileSheet.tiles.get(id);
+		else if (layerTypes[layer] == LayerStack.OBJECT && id > 0 && id <= tileSheet.objects.size())
+			tile = tileSheet.objects.get(id - 1);
+
+		if (tile == null)
+			return null;
+		if (flags != 0)
+			return TileTransform.transform(tile.getImage(), flags);
+		return tile.getImage();
+	}
+}
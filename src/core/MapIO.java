@@ -1,10 +1,10 @@
 package core;
 
 import java.awt.Color;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.io.*;
 
 import org.jdom2.*;
@@ -14,10 +14,19 @@ import org.jdom2.output.*;
 
 /**
  * Handles loading and saving maps. Also handles Base64 encoding and decoding
- * for the tile sheet image.
+ * for the tile sheet image. Each layer of a map is saved as a layer element
+ * holding its name, type and visibility, with the IDs of its cells as text.
+ * Maps saved before there were named layers, with a tile element per cell,
+ * are loaded into the default tile, object and collision layers. Freely
+ * placed objects are saved as object elements with their properties.
+ * Maps are read into and written from a MapProject, which needs no frame, and
+ * .tmz files are the same XML compressed with gzip.
  */
 public class MapIO 
 {
+	public static final String FILE_EXTENSION = ".tmf";
+	public static final String COMPRESSED_EXTENSION = ".tmz";
+	
 	/*
 	 * Information about Base64 can be found at http://en.wikipedia.org/wiki/Base64
 	 */
@@ -180,75 +189,16 @@ public class MapIO
 	 */
 	public static void loadProjectAsXML(String fileName, MapperFrame parentFrame)
 	{
-		SAXBuilder parser = new SAXBuilder();
-		
 		try
 		{
-			Document doc = parser.build(new File(fileName));
-			Element root = doc.getRootElement();
-			
-			// Get tilesheet_image
-			Element tilesheet_image = root.getChild("tilesheet_image");
-			String tileSheetOriginal = tilesheet_image.getText();
-			
-			// Get map width and height
-			Element map_width = root.getChild("map_width");
-			Element map_height = root.getChild("map_height");
-			
-			int mapWidth = Integer.parseInt(map_width.getText());
-			int mapHeight = Integer.parseInt(map_height.getText());
-			
-			// Get tile width and height
-			Element tile_width = root.getChild("tile_width");
-			Element tile_height = root.getChild("tile_height");
-			
-			int tileWidth = Integer.parseInt(tile_width.getText());
-			int tileHeight = Integer.parseInt(tile_height.getText());
-			
-			// Get transparent color
-			Element transparent_color = root.getChild("transparent_color");
-			
-			Element eRed = transparent_color.getChild("red");
-			Element eGreen = transparent_color.getChild("green");
-			Element eBlue= transparent_color.getChild("blue");
-			
-			int red = Integer.parseInt(eRed.getText());
-			int green = Integer.parseInt(eGreen.getText());
-			int blue = Integer.parseInt(eBlue.getText());
-			
-			// Get tile, object, and collision layer data
-			ArrayList<Integer> tilesLayerData = new ArrayList<Integer>();
-			ArrayList<Integer> objectsLayerData = new ArrayList<Integer>();
-			ArrayList<Byte> collisionLayerData = new ArrayList<Byte>(); 
-			
-			List<Element> list = root.getChildren("tile");
-			
-			// Iterate through each tile element
-			for (int i = 0; i < list.size(); i++)
-			{
-				// Get the value of each ID
-				int tileLayerID = Integer.parseInt((list.get(i)).getChild("tile_layer_id").getText());
-				int objectLayerID = Integer.parseInt((list.get(i)).getChild("object_layer_id").getText());
-				byte collisionLayerID = Byte.parseByte(list.get(i).getChild("collision_layer_id").getText());
-				
-				// Add them to the list
-				tilesLayerData.add(tileLayerID);
-				objectsLayerData.add(objectLayerID);
-				collisionLayerData.add(collisionLayerID);
-			}
-			
-			// Convert Base64 string to the image
-			byte[] imageBytes = MapIO.base64Decode(tileSheetOriginal.toCharArray());
-			InputStream in = new ByteArrayInputStream(imageBytes);
-			BufferedImage decodedImage = ImageIO.read(in);
-						
-			// Create the tile sheet from the variables that have been read
-			TileSheet sheet = new TileSheet(decodedImage, tileWidth, tileHeight, new Color(red, green, blue));
+			MapProject project = readProject(new File(fileName));
+			TileSheet sheet = project.getTileSheet();
+			System.out.println(sheet.describeMemoryUsage());
 						
 			// Create the map, tile, and object panels					
 			TilePanel tilePanel = new TilePanel(sheet, false);
 			TilePanel objectPanel = new TilePanel(sheet, true);
-			MapPanel mapPanel = new MapPanel(parentFrame, mapWidth, mapHeight, tilePanel, objectPanel);
+			MapPanel mapPanel = new MapPanel(parentFrame, project.getWidthInTiles(), project.getHeightInTiles(), tilePanel, objectPanel);
 						
 			// Assign the panels to the main frame
 			parentFrame.setTilePanel(tilePanel);
@@ -279,8 +229,9 @@ public class MapIO
 			// Initialize the new layout
 			manager.initializeLayout();
 						
-			// Set tiles and object data to the MapPanel
-			mapPanel.setLayerData(tilesLayerData, objectsLayerData, collisionLayerData);
+			// Set the layers and placed objects to the MapPanel
+			mapPanel.setLayerStack(project.getLayers());
+			mapPanel.setPlacedObjects(project.getPlacedObjects());
 		}
 		catch (Exception e)
 		{
@@ -288,12 +239,148 @@ public class MapIO
 		}
 	}
 	
+	/**
+	 * Reads a map file without touching any of the Swing components, so that maps
+	 * can be processed where there is no display. Files compressed with gzip, as
+	 * the .tmz files writeProject makes, are read too.
+	 * @param file - The .tmf or .tmz file to read
+	 * @return The project held in the file
+	 * @throws IOException If the file can't be read
+	 * @throws JDOMException If the file isn't well formed XML
+	 */
+	public static MapProject readProject(File file) throws IOException, JDOMException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try
+		{
+			// Look for the gzip magic number rather than trusting the extension
+			in.mark(2);
+			int first = in.read();
+			int second = in.read();
+			in.reset();
+			if (first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == (GZIPInputStream.GZIP_MAGIC >>> 8))
+				in = new GZIPInputStream(in, 1 << 16);
+			
+			return readProject(new SAXBuilder().build(in).getRootElement());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads a project from the root element of a map file
+	 * @param root - The map element
+	 * @return The project
+	 * @throws IOException If the tile sheet image can't be decoded
+	 */
+	private static MapProject readProject(Element root) throws IOException
+	{
+		// Get tilesheet_image
+		Element tilesheet_image = root.getChild("tilesheet_image");
+		String tileSheetOriginal = tilesheet_image.getText();
+		
+		// Get map width and height
+		Element map_width = root.getChild("map_width");
+		Element map_height = root.getChild("map_height");
+		
+		int mapWidth = Integer.parseInt(map_width.getText());
+		int mapHeight = Integer.parseInt(map_height.getText());
+		
+		// Get tile width and height
+		Element tile_width = root.getChild("tile_width");
+		Element tile_height = root.getChild("tile_height");
+		
+		int tileWidth = Integer.parseInt(tile_width.getText());
+		int tileHeight = Integer.parseInt(tile_height.getText());
+		
+		// Get transparent color
+		Element transparent_color = root.getChild("transparent_color");
+		
+		Element eRed = transparent_color.getChild("red");
+		Element eGreen = transparent_color.getChild("green");
+		Element eBlue= transparent_color.getChild("blue");
+		
+		int red = Integer.parseInt(eRed.getText());
+		int green = Integer.parseInt(eGreen.getText());
+		int blue = Integer.parseInt(eBlue.getText());
+		
+		// Get the layers and placed objects
+		LayerStack layers = readLayers(root, mapWidth, mapHeight);
+		PlacedObjects placedObjects = readPlacedObjects(root, mapWidth * tileWidth, mapHeight * tileHeight);
+		
+		// Convert Base64 string to the image bytes, which the tile sheet keeps so they can be saved as they are
+		byte[] imageBytes = MapIO.base64Decode(tileSheetOriginal.toCharArray());
+					
+		// Create the tile sheet from the variables that have been read
+		TileSheet sheet = new TileSheet(imageBytes, tileWidth, tileHeight, new Color(red, green, blue));
+		readAutoTileSets(root, sheet);
+		readAnimations(root, sheet);
+		
+		return new MapProject(sheet, mapWidth, mapHeight, layers, placedObjects);
+	}
+	
 	/**
 	 * Exports the currently open map to a .map file
 	 * @param filePath - The file path to write the project to
 	 * @param frame - The MapperFrame in use
 	 */
 	public static void exportProjectAsXML(String filePath, MapperFrame frame)
+	{
+		MapPanel mapPanel = frame.getMapPanel();
+		MapProject project = new MapProject(frame.getTilePanel().getTileSheet(), mapPanel.getWidthInTiles(), 
+				mapPanel.getHeightInTiles(), mapPanel.getLayerStack(), mapPanel.getPlacedObjects());
+		
+		// Check to see if the .map extension doesn't already exist on the file
+		if (!filePath.contains(FILE_EXTENSION) && !filePath.endsWith(COMPRESSED_EXTENSION))
+			// If it doesn't, add it
+			filePath += FILE_EXTENSION;
+		
+		try 
+		{
+			writeProject(project, new File(filePath));
+		}
+		catch (Exception e) 
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes a map file without touching any of the Swing components. Files with
+	 * the .tmz extension are compressed with gzip.
+	 * @param project - The project to write
+	 * @param file - The file to write it to
+	 * @throws IOException If the file can't be written
+	 */
+	public static void writeProject(MapProject project, File file) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try
+		{
+			if (file.getName().endsWith(COMPRESSED_EXTENSION))
+			{
+				GZIPOutputStream compressed = new GZIPOutputStream(out, 1 << 16);
+				writeProject(project, compressed);
+				compressed.finish();
+			}
+			else
+				writeProject(project, out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	/**
+	 * Writes a project as XML to a stream
+	 * @param project - The project to write
+	 * @param out - The stream to write it to
+	 * @throws IOException If the project can't be written
+	 */
+	public static void writeProject(MapProject project, OutputStream out) throws IOException
 	{
 		String xml =
                 "<map>" +
@@ -311,6 +398,7 @@ public class MapIO
                 "</map>";
 
         SAXBuilder builder = new SAXBuilder();
+        TileSheet sheet = project.getTileSheet();
         try 
         {
         	
@@ -320,28 +408,30 @@ public class MapIO
             // Get root 
             Element map = document.getRootElement();
             
-            // Calculate original tilesheet image
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    		ImageIO.write(frame.getTilePanel().getTileSheet().getRawImage(), "png", baos);
-    		char[] encodedImage = MapIO.base64Encode(baos.toByteArray());
+            // Store the original tilesheet image as it was loaded
+    		char[] encodedImage = MapIO.base64Encode(sheet.getEncodedImage());
     		
     		// Store it
             Element tilesheet_image = map.getChild("tilesheet_image");
             tilesheet_image.setText(new String(encodedImage));
 
+            // Store the auto-tile rule sets right after the tile sheet they belong to
+            map.addContent(map.indexOf(tilesheet_image) + 1, createAutoTileSetsElement(sheet));
+            map.addContent(map.indexOf(tilesheet_image) + 2, createAnimationsElement(sheet));
+            
             // Calculate map width and height
             Element map_width = map.getChild("map_width");
-            map_width.setText(frame.getMapPanel().getWidthInTiles() + "");
+            map_width.setText(project.getWidthInTiles() + "");
             
             Element map_height = map.getChild("map_height");
-            map_height.setText(frame.getMapPanel().getHeightInTiles() + "");
+            map_height.setText(project.getHeightInTiles() + "");
             
             // Calculate tile width and height
             Element tile_width = map.getChild("tile_width");
-            tile_width.setText(frame.getTilePanel().getTileSheet().getWidthOfTiles() + "");
+            tile_width.setText(sheet.getWidthOfTiles() + "");
             
             Element tile_height = map.getChild("tile_height");
-            tile_height.setText(frame.getTilePanel().getTileSheet().getHeightOfTiles() + "");
+            tile_height.setText(sheet.getHeightOfTiles() + "");
             
             // Calculate transparent color
             Element transparent_color = map.getChild("transparent_color");
@@ -349,60 +439,348 @@ public class MapIO
             Element green = transparent_color.getChild("green");
             Element blue = transparent_color.getChild("blue");
             
-            Color transparent = frame.getTilePanel().getTileSheet().getTransparentColor();
+            Color transparent = sheet.getTransparentColor();
             red.setText(transparent.getRed() + "");
             green.setText(transparent.getGreen() + "");
             blue.setText(transparent.getBlue() + "");
             
-            // Get object and tile layer data
-            ArrayList<Integer> tileIDs = frame.getMapPanel().getTileLayerData();
-            ArrayList<Integer> objectIDs = frame.getMapPanel().getObjectLayerData();
-            ArrayList<Byte> collisionIDs = frame.getMapPanel().getCollisionLayerData();
-            
-    		for(int i = 0; i < tileIDs.size(); i++)
-    		{
-    			// Create a tile element
-    			Element tempTile = new Element("tile");
-    			
-    			// Tile layer data
-    			Element tile_layer_id = new Element("tile_layer_id");
-    			tile_layer_id.setText(tileIDs.get(i) + "");
-    			
-    			// Object layer data
-    			Element object_layer_id = new Element("object_layer_id");
-    			object_layer_id.setText(objectIDs.get(i) + "");
-    			
-    			// Collision layer data
-    			Element collision_layer_id = new Element("collision_layer_id");
-    			collision_layer_id.setText(collisionIDs.get(i) + "");
-    			
-    			// Add attributes to tile element
-    			tempTile.addContent(tile_layer_id);
-    			tempTile.addContent(object_layer_id);
-    			tempTile.addContent(collision_layer_id);
-    			
-    			// Add tile element to map
-    			map.addContent(tempTile);
-    		}
+            // Store every layer, from the bottom one up
+            map.addContent(createLayersElement(project.getLayers(), project.getWidthInTiles()));
+            map.addContent(createPlacedObjectsElement(project.getPlacedObjects()));
              
             // Output the file
-            FileWriter file;
-			
-			// Check to see if the .map extension doesn't already exist on the file
-			if (!filePath.contains(".tmf"))
-				// If it doesn't, add it
-				file = new FileWriter(filePath + ".tmf");
-			else
-				// Otherwise, don't add it
-				file = new FileWriter(filePath);
-			
             XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-            outputter.output(document, file);
+            outputter.output(document, out);
+            out.flush();
         } 
-            
-        catch (Exception e) 
+        catch (JDOMException e) 
         {
-            e.printStackTrace();
+        	// The template above is always well formed
+            throw new IOException(e);
         }
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Creates the element which stores all of the layers of a map
+	 * @param stack - The layers to store
+	 * @param width - The width of the map, which each row of IDs is broken at
+	 * @return The layers element
+	 */
+	private static Element createLayersElement(LayerStack stack, int width)
+	{
+		Element layers = new Element("layers");
+		
+		for (int layer = 0; layer < stack.getLayerCount(); layer++)
+		{
+			Element layerElement = new Element("layer");
+			layerElement.setAttribute("name", stack.getName(layer));
+			layerElement.setAttribute("type", LayerStack.getTypeName(stack.getType(layer)));
+			layerElement.setAttribute("visible", stack.isVisible(layer) + "");
+			
+			// One line of IDs per row of the map
+			StringBuilder ids = new StringBuilder(stack.getCellCount() * 3);
+			for (int i = 0; i < stack.getCellCount(); i++)
+			{
+				if (i % width == 0)
+					ids.append('\n');
+				else
+					ids.append(' ');
+				ids.append(stack.get(layer, i));
+			}
+			ids.append('\n');
+			
+			layerElement.setText(ids.toString());
+			layers.addContent(layerElement);
+		}
+		
+		return layers;
+	}
+	
+	/**
+	 * Creates the element which stores the freely placed objects of a map
+	 * @param objects - The objects to store
+	 * @return The placed_objects element, with the objects in the order they are drawn
+	 */
+	private static Element createPlacedObjectsElement(PlacedObjects objects)
+	{
+		Element placed = new Element("placed_objects");
+		
+		for (MapObject object : objects.getObjects())
+		{
+			Element objectElement = new Element("object");
+			objectElement.setAttribute("type", object.getType());
+			objectElement.setAttribute("x", object.getX() + "");
+			objectElement.setAttribute("y", object.getY() + "");
+			objectElement.setAttribute("width", object.getWidth() + "");
+			objectElement.setAttribute("height", object.getHeight() + "");
+			
+			for (Map.Entry<String, String> property : object.getProperties().entrySet())
+			{
+				Element propertyElement = new Element("property");
+				propertyElement.setAttribute("name", property.getKey());
+				propertyElement.setAttribute("value", property.getValue());
+				objectElement.addContent(propertyElement);
+			}
+			
+			placed.addContent(objectElement);
+		}
+		
+		return placed;
+	}
+	
+	/**
+	 * Reads the freely placed objects of a map. Maps saved before there were
+	 * placed objects have none.
+	 * @param root - The root element of the map
+	 * @param mapWidth - The width of the map in pixels
+	 * @param mapHeight - The height of the map in pixels
+	 * @return The placed objects, in the order they were saved
+	 */
+	private static PlacedObjects readPlacedObjects(Element root, int mapWidth, int mapHeight)
+	{
+		PlacedObjects objects = new PlacedObjects(mapWidth, mapHeight);
+		Element placed = root.getChild("placed_objects");
+		if (placed == null)
+			return objects;
+		
+		for (Element objectElement : placed.getChildren("object"))
+		{
+			MapObject object = new MapObject(objectElement.getAttributeValue("type"), 
+					Integer.parseInt(objectElement.getAttributeValue("x")), Integer.parseInt(objectElement.getAttributeValue("y")), 
+					Integer.parseInt(objectElement.getAttributeValue("width")), Integer.parseInt(objectElement.getAttributeValue("height")));
+			
+			for (Element propertyElement : objectElement.getChildren("property"))
+				object.getProperties().put(propertyElement.getAttributeValue("name"), propertyElement.getAttributeValue("value"));
+			
+			objects.add(object);
+		}
+		
+		return objects;
+	}
+	
+	/**
+	 * Reads the layers of a map. Maps saved before there were named layers are read
+	 * into the default tile, object and collision layers.
+	 * @param root - The root element of the map
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @return The layers of the map
+	 */
+	private static LayerStack readLayers(Element root, int width, int height)
+	{
+		Element layers = root.getChild("layers");
+		if (layers == null)
+			return readTileElements(root, width, height);
+		
+		LayerStack stack = new LayerStack(width, height);
+		int[] ids = new int[width * height];
+		
+		for (Element layerElement : layers.getChildren("layer"))
+		{
+			int layer = stack.addLayer(layerElement.getAttributeValue("name"), LayerStack.parseType(layerElement.getAttributeValue("type")));
+			stack.setVisible(layer, !"false".equals(layerElement.getAttributeValue("visible")));
+			
+			parseIds(layerElement.getText(), ids);
+			stack.setLayer(layer, ids);
+		}
+		
+		return stack;
+	}
+	
+	/**
+	 * Reads the layers of a map saved with a tile element per cell
+	 * @param root - The root element of the map
+	 * @param width - The width of the map in cells
+	 * @param height - The height of the map in cells
+	 * @return The default tile, object and collision layers
+	 */
+	private static LayerStack readTileElements(Element root, int width, int height)
+	{
+		int cellCount = width * height;
+		int[] tileIds = new int[cellCount];
+		int[] objectIds = new int[cellCount];
+		int[] collisionIds = new int[cellCount];
+		
+		List<Element> list = root.getChildren("tile");
+		
+		// Iterate through each tile element
+		for (int i = 0; i < list.size() && i < cellCount; i++)
+		{
+			tileIds[i] = Integer.parseInt(list.get(i).getChild("tile_layer_id").getText());
+			objectIds[i] = Integer.parseInt(list.get(i).getChild("object_layer_id").getText());
+			collisionIds[i] = Byte.parseByte(list.get(i).getChild("collision_layer_id").getText());
+		}
+		
+		LayerStack stack = LayerStack.createDefault(width, height);
+		stack.setLayer(0, tileIds);
+		stack.setLayer(1, objectIds);
+		stack.setLayer(2, collisionIds);
+		return stack;
+	}
+	
+	/**
+	 * Parses the whitespace separated IDs of a layer without splitting the text into strings
+	 * @param text - The text of the layer element
+	 * @param ids - The array to read the IDs into, which must have a place for every cell
+	 */
+	private static void parseIds(String text, int[] ids)
+	{
+		int count = 0;
+		int i = 0;
+		int length = text.length();
+		
+		while (count < ids.length)
+		{
+			// Skip to the start of the next ID
+			while (i < length && Character.isWhitespace(text.charAt(i)))
+				i++;
+			if (i == length)
+				throw new IllegalArgumentException("Layer has " + count + " IDs but the map has " + ids.length + " cells");
+			
+			boolean negative = text.charAt(i) == '-';
+			if (negative)
+				i++;
+			
+			int value = 0;
+			int start = i;
+			for (; i < length && !Character.isWhitespace(text.charAt(i)); i++)
+			{
+				int digit = text.charAt(i) - '0';
+				if (digit < 0 || digit > 9)
+					throw new NumberFormatException("Bad layer ID at " + start);
+				value = value * 10 + digit;
+			}
+			if (i == start)
+				throw new NumberFormatException("Bad layer ID at " + start);
+			
+			ids[count++] = negative ? -value : value;
+		}
+	}
+	
+	/**
+	 * Creates the element which stores all of a TileSheet's auto-tile rule sets
+	 * @param sheet - The TileSheet whose rule sets are to be stored
+	 * @return The autotile_sets element
+	 */
+	private static Element createAutoTileSetsElement(TileSheet sheet)
+	{
+		Element autotile_sets = new Element("autotile_sets");
+		
+		for (AutoTileRuleSet set : sheet.getAutoTileSets())
+		{
+			Element autotile_set = new Element("autotile_set");
+			autotile_set.setAttribute("name", set.getName());
+			
+			// Terrain tiles which aren't the result of any rule
+			StringBuilder terrain = new StringBuilder();
+			for (int id : set.getTerrainTiles())
+				terrain.append(id).append(' ');
+			Element terrain_tiles = new Element("terrain");
+			terrain_tiles.setText(terrain.toString().trim());
+			autotile_set.addContent(terrain_tiles);
+			
+			for (int[] rule : set.getRules())
+			{
+				Element ruleElement = new Element("rule");
+				ruleElement.setAttribute("required", rule[0] + "");
+				ruleElement.setAttribute("care", rule[1] + "");
+				ruleElement.setAttribute("tile", rule[2] + "");
+				autotile_set.addContent(ruleElement);
+			}
+			
+			autotile_sets.addContent(autotile_set);
+		}
+		
+		return autotile_sets;
+	}
+	
+	/**
+	 * Reads the auto-tile rule sets stored in a map, if there are any, into a TileSheet
+	 * @param root - The root element of the map
+	 * @param sheet - The TileSheet to add the rule sets to
+	 */
+	private static void readAutoTileSets(Element root, TileSheet sheet)
+	{
+		Element autotile_sets = root.getChild("autotile_sets");
+		if (autotile_sets == null)
+			return;
+		
+		for (Element autotile_set : autotile_sets.getChildren("autotile_set"))
+		{
+			AutoTileRuleSet set = new AutoTileRuleSet(autotile_set.getAttributeValue("name"));
+			
+			String terrain = autotile_set.getChildText("terrain");
+			if (terrain != null && terrain.trim().length() > 0)
+			{
+				for (String id : terrain.trim().split("\\s+"))
+					set.addTerrainTile(Integer.parseInt(id));
+			}
+			
+			for (Element rule : autotile_set.getChildren("rule"))
+			{
+				set.addRule(Integer.parseInt(rule.getAttributeValue("required")),
+						Integer.parseInt(rule.getAttributeValue("care")),
+						Integer.parseInt(rule.getAttributeValue("tile")));
+			}
+			
+			sheet.addAutoTileSet(set);
+		}
+	}
+	
+	/**
+	 * Creates the element which stores all of a TileSheet's tile animations
+	 * @param sheet - The TileSheet whose animations are to be stored
+	 * @return The animations element
+	 */
+	private static Element createAnimationsElement(TileSheet sheet)
+	{
+		Element animations = new Element("animations");
+		
+		for (TileAnimation animation : sheet.getAnimations())
+		{
+			Element animationElement = new Element("animation");
+			animationElement.setAttribute("layer", animation.isObjectLayer() ? "object" : "tile");
+			animationElement.setAttribute("id", animation.getBaseId() + "");
+			
+			for (int i = 0; i < animation.getFrameCount(); i++)
+			{
+				Element frame = new Element("frame");
+				frame.setAttribute("id", animation.getFrameId(i) + "");
+				frame.setAttribute("duration", animation.getFrameDuration(i) + "");
+				animationElement.addContent(frame);
+			}
+			
+			animations.addContent(animationElement);
+		}
+		
+		return animations;
+	}
+	
+	/**
+	 * Reads the tile animations stored in a map, if there are any, into a TileSheet
+	 * @param root - The root element of the map
+	 * @param sheet - The TileSheet to add the animations to
+	 */
+	private static void readAnimations(Element root, TileSheet sheet)
+	{
+		Element animations = root.getChild("animations");
+		if (animations == null)
+			return;
+		
+		for (Element animationElement : animations.getChildren("animation"))
+		{
+			List<Element> frames = animationElement.getChildren("frame");
+			int[] ids = new int[frames.size()];
+			int[] durations = new int[frames.size()];
+			
+			for (int i = 0; i < ids.length; i++)
+			{
+				ids[i] = Integer.parseInt(frames.get(i).getAttributeValue("id"));
+				durations[i] = Integer.parseInt(frames.get(i).getAttributeValue("duration"));
+			}
+			
+			sheet.addAnimation(new TileAnimation("object".equals(animationElement.getAttributeValue("layer")),
+					Integer.parseInt(animationElement.getAttributeValue("id")), ids, durations));
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package core;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+
+/**
+ * An object which is placed freely on the map rather than in a cell, such as an
+ * NPC, a trigger or a pickup. It has a position and size in map pixels, a type,
+ * and any number of named properties. Its position and size can only be changed
+ * through the PlacedObjects which holds it, so that its spatial index stays right.
+ */
+public class MapObject
+{
+	private String type;
+	private int x, y, width, height;
+	private LinkedHashMap<String, String> properties;
+
+	// The order the object was placed in, and the last query which found it
+	long order;
+	int queryMark;
+
+	/**
+	 * Creates an object with no properties
+	 * @param type - The type of the object, such as "npc"
+	 * @param x - The x coordinate of its left edge, in map pixels
+	 * @param y - The y coordinate of its top edge, in map pixels
+	 * @param width - Its width in pixels
+	 * @param height - Its height in pixels
+	 */
+	public MapObject(String type, int x, int y, int width, int height)
+	{
+		this.type = type;
+		this.x = x;
+		this.y = y;
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+		properties = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Creates a copy of an object and its properties, which isn't in any PlacedObjects
+	 * @return The copy
+	 */
+	public MapObject copy()
+	{
+		MapObject copy = new MapObject(type, x, y, width, height);
+		copy.properties.putAll(properties);
+		return copy;
+	}
+
+	/**
+	 * Gets the type of the object
+	 * @return The type, such as "npc"
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Sets the type of the object
+	 * @param type - The new type
+	 */
+	public void setType(String type)
+	{
+		this.type = type;
+	}
+
+	/**
+	 * Gets the x coordinate of the object's left edge
+	 * @return The x coordinate in map pixels
+	 */
+	public int getX()
+	{
+		return x;
+	}
+
+	/**
+	 * Gets the y coordinate of the object's top edge
+	 * @return The y coordinate in map pixels
+	 */
+	public int getY()
+	{
+		return y;
+	}
+
+	/**
+	 * Gets the width of the object
+	 * @return The width in pixels
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the object
+	 * @return The height in pixels
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the area the object covers
+	 * @return A new rectangle in map pixels
+	 */
+	public Rectangle getBounds()
+	{
+		return new Rectangle(x, y, width, height);
+	}
+
+	/**
+	 * Tells whether a point is on the object
+	 * @param px - The x coordinate in map pixels
+	 * @param py - The y coordinate in map pixels
+	 * @return True if the point is inside the object
+	 */
+	public boolean contains(int px, int py)
+	{
+		return px >= x && py >= y && px < x + width && py < y + height;
+	}
+
+	/**
+	 * Tells whether the object overlaps a rectangle
+	 * @param left - The left edge of the rectangle
+	 * @param top - The top edge of the rectangle
+	 * @param right - The right edge of the rectangle, which is outside of it
+	 * @param bottom - The bottom edge of the rectangle, which is outside of it
+	 * @return True if they overlap
+	 */
+	public boolean intersects(int left, int top, int right, int bottom)
+	{
+		return x < right && y < bottom && x + width > left && y + height > top;
+	}
+
+	/**
+	 * Gets the properties of the object, in the order they were added
+	 * @return The map of property names to values, which can be changed
+	 */
+	public LinkedHashMap<String, String> getProperties()
+	{
+		return properties;
+	}
+
+	/**
+	 * Moves and resizes the object. Only PlacedObjects calls this, since it has to
+	 * take the object out of its index first.
+	 * @param x - The new x coordinate of its left edge
+	 * @param y - The new y coordinate of its top edge
+	 * @param width - The new width
+	 * @param height - The new height
+	 */
+	void setBounds(int x, int y, int width, int height)
+	{
+		this.x = x;
+		this.y = y;
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+	}
+}
@@ -1,7 +1,17 @@
 package core;
 
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Stroke;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import javax.swing.ImageIcon;
 import javax.swing.JPanel;
 import javax.swing.SpringLayout;
@@ -9,19 +19,69 @@ import util.SpringUtilities;
 
 /**
  * This panel holds all of the MapTiles which can be drawn to. It 
- * displays the map that is currently being drawn on.
+ * displays the map that is currently being drawn on. The IDs of every
+ * layer are kept in a LayerStack rather than in the MapTiles, and the
+ * tile panel, object panel and collision mode each draw to the layer of
+ * their type which was last chosen to be edited. Objects which are placed
+ * freely rather than in cells are kept in a PlacedObjects, and only those
+ * in the area being repainted are drawn over the tiles.
+ *
+ * Resizing, cropping and shifting the map build a new LayerStack and keep
+ * the old one to undo back to, and reuse the MapTiles rather than creating
+ * the panel again.
+ *
+ * The path preview shows how far every cell is from a start cell, and the path
+ * to a target cell, over the solid flags of the collision layer being edited.
+ * The PathFinder keeps its own copy of the flags, which is kept up to date as
+ * flags are toggled, and the search is run again at most once per repaint.
  */
 public class MapPanel extends JPanel 
 {
 	private static final long serialVersionUID = 6810863879602201457L;
+	private static final int UNDO_LIMIT = 4;
+	private static final Color[] DISTANCE_COLORS = createDistanceColors(32);
 	private MapperFrame parentFrame;
 	private TilePanel tilePanel, objectPanel;
 	private int xTiles, yTiles;
 	private ArrayList<MapTile> tiles;
-	private ArrayList<Integer> projectedTileIndexes;
+	private LayerStack layers;
+	private int[] editLayers;
 	private SpringLayout springLayout;
 	private boolean objectPanelSelectedLast;
 	private int drawCount;
+	private int brushFlags;
+	private AutoTileRuleSet autoTileSet;
+	private ArrayList<Integer> strokeIndexes;
+	private AnimationPlayer animationPlayer;
+	private MiniMap miniMap;
+	private RepaintScheduler repaintScheduler;
+	private int hoverIndex;
+	private PlacedObjects placedObjects;
+	private MapObject selectedObject, hoverObject;
+	private int dragOffsetX, dragOffsetY;
+	private String placementType;
+	private ArrayList<MapObject> visibleObjects;
+	private HashMap<String, Color> objectTypeColors;
+	private TileUsageIndex tileUsage;
+	private int[] highlightedUses;
+	private int highlightedType, highlightedId, highlightedVersion;
+	private ImageIcon blankIcon;
+	private Rectangle cellSelection;
+	private int selectionAnchor;
+	private ArrayList<MapState> undoStates;
+	private PathFinder pathFinder;
+	private int pathStart, pathTarget;
+	private int furthestDistance;
+	private boolean pathFound;
+	private boolean pathPlanesChanged, pathPreviewChanged;
+	private final Color collisionColor = new Color(255, 0, 0, 145);
+	private final Color hoverColor = new Color(120, 255, 120, 145);
+	private final Color selectedObjectColor = Color.WHITE;
+	private final Color useHighlightColor = new Color(255, 0, 255, 110);
+	private final Color cellSelectionColor = new Color(0, 255, 255, 60);
+	private final Color unreachableColor = new Color(0, 0, 0, 130);
+	private final Stroke pathStroke = new BasicStroke(3f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+	private final float BRUSH_PREVIEW_ALPHA = 0.5f;
 	
 	/**
 	 * Constructs the panel which tiles are to be drawn to
@@ -34,14 +94,33 @@ public class MapPanel extends JPanel
 		// Setup initial attributes
 		this.parentFrame = parentFrame;
 		tiles = new ArrayList<MapTile>();
-		projectedTileIndexes = new ArrayList<Integer>();
+		strokeIndexes = new ArrayList<Integer>();
+		animationPlayer = new AnimationPlayer(this);
+		repaintScheduler = new RepaintScheduler(this);
+		hoverIndex = -1;
+		undoStates = new ArrayList<MapState>();
+		pathStart = pathTarget = -1;
+		pathPlanesChanged = true;
 		this.tilePanel = tilePanel;
 		this.objectPanel = objectPanel;
 		this.xTiles = xTiles;
 		this.yTiles = yTiles;
 		
+		// Every map starts with a tile, object and collision layer
+		layers = LayerStack.createDefault(xTiles, yTiles);
+		editLayers = new int[LayerStack.TYPE_COUNT];
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
+			editLayers[type] = layers.findLayer(type);
+		tileUsage = new TileUsageIndex(layers);
+		
+		placedObjects = new PlacedObjects(xTiles * tilePanel.getTileSheet().getWidthOfTiles(), yTiles * tilePanel.getTileSheet().getHeightOfTiles());
+		placementType = "object";
+		visibleObjects = new ArrayList<MapObject>();
+		objectTypeColors = new HashMap<String, Color>();
+		
 		objectPanelSelectedLast = false;
 		drawCount = 1;
+		brushFlags = 0;
 		
 		springLayout = new SpringLayout();
 		setLayout(springLayout);
@@ -60,6 +139,7 @@ public class MapPanel extends JPanel
 			tiles.add(tile);
 			add(tile);
 		}
+		blankIcon = temp;
 		
 		// Force the layout to become a compact grid
 		SpringUtilities.makeGrid(this, //parent
@@ -114,83 +194,306 @@ public class MapPanel extends JPanel
 		objectPanelSelectedLast = flag;
 	}
 	
+	public MapTile getTile(int index)
+	{
+		return tiles.get(index);
+	}
+	
 	/**
-	 * Gets the height of the currently displayed map in number of tiles
-	 * @return The number of tiles high that this map panel displays
+	 * Takes a snapshot of all of the layers of this map for use by the exporters
+	 * @return The MapData holding a packed copy of every layer
 	 */
-	public int getHeightInTiles()
+	public MapData getMapData()
 	{
-		return yTiles;
+		return new MapData(tilePanel.getTileSheet(), xTiles, yTiles, layers, placedObjects.copy());
+	}
+	
+	/**
+	 * Gets the freely placed objects of this map
+	 * @return The PlacedObjects of this map
+	 */
+	public PlacedObjects getPlacedObjects()
+	{
+		return placedObjects;
+	}
+	
+	/**
+	 * Used when loading maps, this replaces all of the placed objects at once
+	 * @param objects - The objects to show
+	 */
+	public void setPlacedObjects(PlacedObjects objects)
+	{
+		placedObjects = objects;
+		selectedObject = hoverObject = null;
+		repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Gets the layers of this map
+	 * @return The LayerStack holding the IDs of every layer
+	 */
+	public LayerStack getLayerStack()
+	{
+		return layers;
+	}
+
+	/**
+	 * Used when loading maps, this replaces all of the layers at once and then
+	 * repaints them so that the loaded map can be shown
+	 * @param stack - The layers to show, which must have a cell for every MapTile
+	 */
+	public void setLayerStack(LayerStack stack)
+	{
+		layers = stack;
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
+			editLayers[type] = layers.findLayer(type);
+		tileUsage = new TileUsageIndex(layers);
+		
+		layersChanged();
 	}
 	
 	/**
-	 * Gets the data about which tiles are collidable and which aren't
-	 * @return The ArrayList<Byte> of collision layer data
+	 * Gets the ID of a cell of a layer
+	 * @param layer - The index of the layer
+	 * @param index - The index of the cell
+	 * @return The ID of the cell
 	 */
-	public ArrayList<Byte> getCollisionLayerData()
+	public int getLayerId(int layer, int index)
 	{
-		ArrayList<Byte> temp = new ArrayList<Byte>();
+		return layers.get(layer, index);
+	}
+	
+	/**
+	 * Sets the ID of a cell of a layer, keeping the animations and the minimap up to
+	 * date. The cell isn't repainted, so that drawing many cells can repaint once.
+	 * @param layer - The index of the layer, or -1 to do nothing
+	 * @param index - The index of the cell
+	 * @param id - The ID to set the cell to
+	 */
+	public void setLayerId(int layer, int index, int id)
+	{
+		if (layer < 0)
+			return;
+		
+		int old = layers.set(layer, index, id);
+		if (old == id)
+			return;
+		mapEdited();
 		
-		for (int i = 0; i < tiles.size(); i++)
-			temp.add(tiles.get(i).getCollidable());
+		// Keep the animation player's index of animated cells up to date
+		int type = layers.getType(layer);
+		if (type != LayerStack.FLAG)
+		{
+			TileSheet sheet = tilePanel.getTileSheet();
+			boolean objectLayer = (type == LayerStack.OBJECT);
+			animationPlayer.cellChanged(layer, index, sheet.getAnimation(objectLayer, old), sheet.getAnimation(objectLayer, id));
 			
-		return temp;
+			// The palette dims the tiles which aren't used
+			if (tileUsage.cellChanged(layer, index, old, id) && unusedTilesShown())
+				getPanel(type).repaint();
+		}
+		
+		// Only the solid flag blocks the path preview. The path finder searches the
+		// layer's own planes, so only the preview has to be worked out again.
+		else if (layer == editLayers[LayerStack.FLAG] && ((old ^ id) & CollisionPlanes.SOLID) != 0 && pathFinder != null)
+			pathPreviewChanged();
+		
+		cellChanged(index);
+	}
+	
+	/**
+	 * Gets the index of where each tile and object is used on the map
+	 * @return The TileUsageIndex of this map
+	 */
+	public TileUsageIndex getTileUsage()
+	{
+		return tileUsage;
 	}
 	
 	/**
-	 * Gets the object layer IDs of all of the MapTiles
-	 * @return The id of the object tile drawn to the MapTile
+	 * Replaces every use of a tile or object with another on every layer of its type.
+	 * Each layer is rewritten in parallel and the map is repainted once at the end.
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param fromId - The base ID to replace
+	 * @param toId - The base ID to replace it with, or an empty ID to erase it
+	 * @return The number of cells which were changed
 	 */
-	public ArrayList<Integer> getObjectLayerData()
+	public int replaceAll(int type, int fromId, int toId)
 	{
-		ArrayList<Integer> temp = new ArrayList<Integer>();
+		int replaced = 0;
+		for (int layer = 0; layer < layers.getLayerCount(); layer++)
+		{
+			if (layers.getType(layer) == type)
+				replaced += layers.replaceBaseId(layer, fromId, toId);
+		}
+		if (replaced == 0)
+			return 0;
 		
-		for (int i = 0; i < tiles.size(); i++)
-			temp.add(tiles.get(i).getObjectLayerId());
+		mapEdited();
+		tileUsage.replaced(type, fromId, toId);
 		
-		return temp;
+		// Only rescan the animated cells if either ID is animated
+		TileSheet sheet = tilePanel.getTileSheet();
+		if (sheet.getAnimation(type == LayerStack.OBJECT, fromId) != null || sheet.getAnimation(type == LayerStack.OBJECT, toId) != null)
+			refreshAnimations();
+		if (miniMap != null)
+			miniMap.rebuild();
+		getPanel(type).repaint();
+		repaintScheduler.repaintAll();
+		return replaced;
 	}
 	
-	public MapTile getTile(int index)
+	/**
+	 * Gets the panel which holds the tiles or objects drawn on a type of layer
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @return The tile panel or the object panel
+	 */
+	private TilePanel getPanel(int type)
 	{
-		return tiles.get(index);
+		return (type == LayerStack.OBJECT) ? objectPanel : tilePanel;
+	}
+	
+	/**
+	 * Repaints the map if the uses of the selected tile are highlighted, for when another tile is selected
+	 */
+	public void selectedTileChanged()
+	{
+		if (usesHighlighted())
+			repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Gets the layer which a type of brush draws to
+	 * @param type - LayerStack.TILE, OBJECT or FLAG
+	 * @return The index of the layer, or -1 if there are no layers of the type
+	 */
+	public int getEditLayer(int type)
+	{
+		return editLayers[type];
+	}
+	
+	/**
+	 * Makes a layer the one which the brush of its type draws to
+	 * @param layer - The index of the layer
+	 */
+	public void setEditLayer(int layer)
+	{
+		editLayers[layers.getType(layer)] = layer;
+		if (layers.getType(layer) == LayerStack.FLAG)
+			pathPlanesChanged();
+	}
+	
+	/**
+	 * Gets the types of layers which the View menu shows
+	 * @return The types shown, as a mask of 1 << type
+	 */
+	public int getShownLayerTypes()
+	{
+		int types = 0;
+		if (tileModeEnabled())
+			types |= 1 << LayerStack.TILE;
+		if (objectModeEnabled())
+			types |= 1 << LayerStack.OBJECT;
+		if (collisionModeEnabled())
+			types |= 1 << LayerStack.FLAG;
+		return types;
+	}
+	
+	/**
+	 * Gets the layers the MapTiles paint: those which are visible, have something
+	 * on them, and are of a type the View menu shows
+	 * @return The indexes of the layers, from the bottom one up. The array is shared and must not be changed.
+	 */
+	public int[] getDrawnLayers()
+	{
+		return layers.getDrawnLayers(getShownLayerTypes());
+	}
+	
+	/**
+	 * Adds an empty layer to the top of the map and makes it the one its type draws to
+	 * @param name - The name of the layer
+	 * @param type - LayerStack.TILE, OBJECT or FLAG
+	 */
+	public void addLayer(String name, int type)
+	{
+		editLayers[type] = layers.addLayer(name, type);
+		mapEdited();
+		layersChanged();
 	}
+	
 	/**
-	 * Gets the tile layer IDs of all of the MapTiles
-	 * @return The id of the tile drawn to the MapTile
+	 * Removes a layer from the map
+	 * @param layer - The index of the layer
 	 */
-	public ArrayList<Integer> getTileLayerData()
+	public void removeLayer(int layer)
 	{
-		ArrayList<Integer> temp = new ArrayList<Integer>();
+		layers.removeLayer(layer);
+		mapEdited();
 		
-		for (int i = 0; i < tiles.size(); i++)
-			temp.add(tiles.get(i).getTileLayerId());
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
+		{
+			if (editLayers[type] == layer)
+				editLayers[type] = layers.findLayer(type);
+			else if (editLayers[type] > layer)
+				editLayers[type]--;
+		}
 		
-		return temp;
+		layersChanged();
 	}
 	
 	/**
-	 * Used when loading maps, this sets the layer data for both the tile and object layers
-	 * and then repaints them so that the loaded map can be shown
-	 * @param tileLayer - The ArrayList<Integer> of tile data to set
-	 * @param objectLayer - The ArrayList<Integer> of object data to set
+	 * Moves a layer up or down the map's stack of layers
+	 * @param layer - The index of the layer
+	 * @param position - The index the layer should end up at
 	 */
-	public void setLayerData(ArrayList<Integer> tileLayer, ArrayList<Integer> objectLayer, ArrayList<Byte> collisionLayer)
+	public void moveLayer(int layer, int position)
 	{
-		for (int i = 0; i < tiles.size(); i++)
+		if (position < 0 || position >= layers.getLayerCount() || position == layer)
+			return;
+		mapEdited();
+		
+		layers.moveLayer(layer, position);
+		
+		// The layers in between move over by one
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
 		{
-			MapTile currentTile = tiles.get(i);
-			
-			// Set the object and tile layer data
-			currentTile.setObjectLayerId(objectLayer.get(i));
-			currentTile.setTileLayerId(tileLayer.get(i));
-			
-			// Set the collision layer data
-			currentTile.setCollidable(collisionLayer.get(i));
-			
-			// Redraw
-			currentTile.repaint();
+			int edit = editLayers[type];
+			if (edit == layer)
+				editLayers[type] = position;
+			else if (layer < position && edit > layer && edit <= position)
+				editLayers[type]--;
+			else if (layer > position && edit >= position && edit < layer)
+				editLayers[type]++;
 		}
+		
+		layersChanged();
+	}
+	
+	/**
+	 * Shows or hides a layer
+	 * @param layer - The index of the layer
+	 * @param visible - True to show the layer
+	 */
+	public void setLayerVisible(int layer, boolean visible)
+	{
+		layers.setVisible(layer, visible);
+		if (miniMap != null)
+			miniMap.rebuild();
+		repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Rebuilds everything which depends on the order of the layers, then repaints
+	 */
+	private void layersChanged()
+	{
+		tileUsage.rebuild();
+		pathPlanesChanged = true;
+		pathPreviewChanged = true;
+		refreshAnimations();
+		if (miniMap != null)
+			miniMap.rebuild();
+		repaintScheduler.repaintAll();
 	}
 	
 	/**
@@ -202,6 +505,15 @@ public class MapPanel extends JPanel
 		return xTiles;
 	}
 	
+	/**
+	 * Gets the height of the currently displayed map in number of tiles
+	 * @return The number of tiles high that this map panel displays
+	 */
+	public int getHeightInTiles()
+	{
+		return yTiles;
+	}
+	
 	/**
 	 * Gets the total number of tiles in the map panel
 	 * @return The total number of tiles in the map panel.
@@ -248,57 +560,1212 @@ public class MapPanel extends JPanel
 	}
 	
 	/**
-	 * Repaints all of the tiles on the map panel
+	 * Tells whether or not every use of the selected tile is highlighted
+	 * @return Whether or not the uses are highlighted
+	 */
+	public boolean usesHighlighted()
+	{
+		return parentFrame.getMenuPanel().getViewMenu().getHighlightUsesMode();
+	}
+	
+	/**
+	 * Tells whether or not the tile panels dim the tiles which aren't used on the map
+	 * @return Whether or not unused tiles are shown
+	 */
+	public boolean unusedTilesShown()
+	{
+		return parentFrame.getMenuPanel().getViewMenu().getUnusedTilesMode();
+	}
+	
+	/**
+	 * Tells whether or not the placed objects are shown
+	 * @return Whether or not the placed objects are shown
+	 */
+	public boolean placedObjectsShown()
+	{
+		return parentFrame.getMenuPanel().getViewMenu().getPlacedObjectMode();
+	}
+	
+	/**
+	 * Tells whether clicking the map places and moves objects rather than drawing tiles
+	 * @return Whether or not placement mode is enabled
+	 */
+	public boolean placementModeEnabled()
+	{
+		return parentFrame.getMenuPanel().getDrawMenu().getPlacementMode();
+	}
+	
+	/**
+	 * Tells whether or not animated tiles are being played
+	 * @return Whether or not animation mode is enabled
+	 */
+	public boolean animationModeEnabled()
+	{
+		return parentFrame.getMenuPanel().getViewMenu().getAnimationMode();
+	}
+	
+	/**
+	 * Tells whether or not the distances from the path start and the path to the target are shown
+	 * @return Whether or not the path preview is shown
+	 */
+	public boolean pathPreviewShown()
+	{
+		return parentFrame.getMenuPanel().getViewMenu().getPathPreviewMode();
+	}
+	
+	/**
+	 * Repaints all of the tiles on the map panel in the next frame
 	 */
 	public void repaintAllTiles()
 	{
-		for(MapTile t : tiles)
-			t.repaint();
+		repaintScheduler.repaintAll();
 	}
 	
 	/**
-	 * Repaints all of the tiles that are projected to be drawn to,
-	 * used with the multi-draw function
+	 * Repaints a single tile in the next frame
+	 * @param index - The index of the tile
 	 */
-	public void repaintProjectedTiles()
+	public void repaintTile(int index)
 	{
-		for (int i : projectedTileIndexes)
-			tiles.get(i).setHovered(false);
-		for (int i : projectedTileIndexes)
-			tiles.get(i).repaint();
+		repaintScheduler.addDirtyRegion(tiles.get(index).getBounds());
 	}
 	
 	/**
-	 * Erases all projected indexes
+	 * Repaints a rectangle of tiles in the next frame
+	 * @param index - The index of the top left tile
+	 * @param width - The number of tiles across
+	 * @param height - The number of tiles down
 	 */
-	public void clearProjectedIndexes()
+	public void repaintTiles(int index, int width, int height)
 	{
-		projectedTileIndexes.clear();
+		int x = index % xTiles;
+		int y = index / xTiles;
+		int right = Math.min(xTiles, x + width) - 1;
+		int bottom = Math.min(yTiles, y + height) - 1;
+		
+		if (right < x || bottom < y)
+			return;
+		
+		Rectangle area = tiles.get(index).getBounds();
+		area.add(tiles.get(bottom * xTiles + right).getBounds());
+		repaintScheduler.addDirtyRegion(area);
 	}
 	
 	/**
-	 * Adds an index to the projected indexes tracker
-	 * @param index - The index to be added
+	 * Gets the scheduler which paces the repaints of this map
+	 * @return The RepaintScheduler of this map
 	 */
-	public void addToProjectedIndexes(int index)
+	public RepaintScheduler getRepaintScheduler()
 	{
-		projectedTileIndexes.add(index);
+		return repaintScheduler;
 	}
 	
 	/**
-	 * Sets the draw count for use with multi-draw
-	 * @param count - The amount of tiles to draw (count x count) at a time
+	 * Sets how many times per second the map and its minimap may be repainted
+	 * @param framesPerSecond - The highest number of repaints per second
 	 */
-	public void setDrawCount(int count)
+	public void setFrameRate(int framesPerSecond)
 	{
-		drawCount = count;
+		repaintScheduler.setFrameRate(framesPerSecond);
+		if (miniMap != null)
+			miniMap.getRepaintScheduler().setFrameRate(framesPerSecond);
 	}
 	
-	/** Gets the draw count for use with multi-draw
-	 * @return The amount of tiles to draw (count x count) at a time
+	/**
+	 * Sets which tile the mouse is over, moving the brush preview there
+	 * @param index - The index of the tile, or -1 if the mouse isn't over the map
 	 */
-	public int getDrawCount()
+	public void setHoverIndex(int index)
 	{
-		return drawCount;
+		if (index == hoverIndex)
+			return;
+		
+		repaintHoverArea();
+		hoverIndex = index;
+		repaintHoverArea();
+	}
+	
+	/**
+	 * Gets which tile the mouse is over
+	 * @return The index of the tile, or -1 if the mouse isn't over the map
+	 */
+	public int getHoverIndex()
+	{
+		return hoverIndex;
+	}
+	
+	/**
+	 * Repaints the area covered by the brush preview in the next frame
+	 */
+	private void repaintHoverArea()
+	{
+		if (hoverIndex < 0)
+			return;
+		
+		if (collisionModeEnabled())
+			repaintTile(hoverIndex);
+		else
+			repaintTiles(hoverIndex, getBrushWidth(), getBrushHeight());
+	}
+	
+	/**
+	 * Paints the tiles, then the hover and brush preview over the top of them
+	 * @param g - The graphics context to draw in
+	 */
+	public void paint(Graphics g)
+	{
+		super.paint(g);
+		
+		if (usesHighlighted())
+			paintUseHighlights((Graphics2D) g);
+		
+		if (cellSelection != null)
+			paintCellSelection((Graphics2D) g);
+		
+		if (pathPreviewShown() && pathStart >= 0)
+			paintPathPreview((Graphics2D) g);
+		
+		if (placedObjectsShown() || placementModeEnabled())
+			paintPlacedObjects((Graphics2D) g);
+		
+		if (hoverIndex >= 0)
+			paintHoverOverlay((Graphics2D) g);
+	}
+	
+	/**
+	 * Shades the selected rectangle of cells and outlines it
+	 * @param g - The graphics context to draw in
+	 */
+	private void paintCellSelection(Graphics2D g)
+	{
+		Rectangle bounds = getCellSelectionBounds();
+		g.setColor(cellSelectionColor);
+		g.fill(bounds);
+		g.setColor(Color.CYAN);
+		g.drawRect(bounds.x, bounds.y, bounds.width - 1, bounds.height - 1);
+	}
+	
+	/**
+	 * Gets the area the selected cells cover on the panel
+	 * @return The rectangle in pixels
+	 */
+	private Rectangle getCellSelectionBounds()
+	{
+		int tileWidth = tilePanel.getTileSheet().getWidthOfTiles();
+		int tileHeight = tilePanel.getTileSheet().getHeightOfTiles();
+		return new Rectangle(cellSelection.x * tileWidth, cellSelection.y * tileHeight, cellSelection.width * tileWidth, cellSelection.height * tileHeight);
+	}
+	
+	/**
+	 * Starts selecting a rectangle of cells at a cell
+	 * @param index - The index of the cell the selection starts at
+	 */
+	public void startCellSelection(int index)
+	{
+		selectionAnchor = index;
+		setCellSelection(new Rectangle(index % xTiles, index / xTiles, 1, 1));
+	}
+	
+	/**
+	 * Stretches the selection from the cell it started at to another cell
+	 * @param index - The index of the cell at the opposite corner
+	 */
+	public void extendCellSelection(int index)
+	{
+		Rectangle selection = new Rectangle(selectionAnchor % xTiles, selectionAnchor / xTiles, 1, 1);
+		selection.add(new Rectangle(index % xTiles, index / xTiles, 1, 1));
+		setCellSelection(selection);
+	}
+	
+	/**
+	 * Gets the selected rectangle of cells
+	 * @return The rectangle in cells, or null if nothing is selected
+	 */
+	public Rectangle getCellSelection()
+	{
+		return cellSelection;
+	}
+	
+	/**
+	 * Selects a rectangle of cells, repainting the old and new selections
+	 * @param selection - The rectangle in cells, or null to select nothing
+	 */
+	public void setCellSelection(Rectangle selection)
+	{
+		if (cellSelection != null)
+			repaintScheduler.addDirtyRegion(getCellSelectionBounds());
+		cellSelection = selection;
+		if (cellSelection != null)
+			repaintScheduler.addDirtyRegion(getCellSelectionBounds());
+	}
+	
+	/**
+	 * Resizes the map, keeping a side, corner or the middle of it in place
+	 * @param width - The new width in cells
+	 * @param height - The new height in cells
+	 * @param anchorX - 0 to keep the left side in place, 1 the middle, or 2 the right side
+	 * @param anchorY - 0 to keep the top in place, 1 the middle, or 2 the bottom
+	 */
+	public void resizeMap(int width, int height, int anchorX, int anchorY)
+	{
+		int offsetX = (width - xTiles) * anchorX / 2;
+		int offsetY = (height - yTiles) * anchorY / 2;
+		changeMap(layers.resize(width, height, offsetX, offsetY), width, height, offsetX, offsetY, false);
+	}
+	
+	/**
+	 * Crops the map to the selected rectangle of cells
+	 */
+	public void cropToSelection()
+	{
+		if (cellSelection == null)
+			return;
+		
+		Rectangle area = cellSelection;
+		changeMap(layers.resize(area.width, area.height, -area.x, -area.y), area.width, area.height, -area.x, -area.y, false);
+	}
+	
+	/**
+	 * Moves everything on the map by a number of cells
+	 * @param offsetX - How many cells right to move, which may be negative
+	 * @param offsetY - How many cells down to move, which may be negative
+	 * @param wrap - True to bring what is moved off one edge back on at the other
+	 */
+	public void shiftMap(int offsetX, int offsetY, boolean wrap)
+	{
+		LayerStack stack = wrap ? layers.wrap(offsetX, offsetY) : layers.resize(xTiles, yTiles, offsetX, offsetY);
+		changeMap(stack, xTiles, yTiles, offsetX, offsetY, wrap);
+	}
+	
+	/**
+	 * Replaces the layers after a resize, crop or shift, moving the placed objects to
+	 * match, and remembers the map as it was so that the change can be undone
+	 * @param stack - The new layers
+	 * @param width - The new width in cells
+	 * @param height - The new height in cells
+	 * @param offsetX - How many cells right the cells were moved
+	 * @param offsetY - How many cells down the cells were moved
+	 * @param wrap - True if cells moved off one edge came back on at the other
+	 */
+	private void changeMap(LayerStack stack, int width, int height, int offsetX, int offsetY, boolean wrap)
+	{
+		undoStates.add(new MapState(layers, xTiles, yTiles, placedObjects));
+		if (undoStates.size() > UNDO_LIMIT)
+			undoStates.remove(0);
+		
+		int tileWidth = tilePanel.getTileSheet().getWidthOfTiles();
+		int tileHeight = tilePanel.getTileSheet().getHeightOfTiles();
+		setMapState(stack, width, height, placedObjects.shift(offsetX * tileWidth, offsetY * tileHeight, width * tileWidth, height * tileHeight, wrap));
+	}
+	
+	/**
+	 * Tells whether there is a resize, crop or shift to undo
+	 * @return True if undo would change the map
+	 */
+	public boolean canUndo()
+	{
+		return !undoStates.isEmpty();
+	}
+	
+	/**
+	 * Puts the map back to how it was before the last resize, crop or shift
+	 */
+	public void undo()
+	{
+		if (undoStates.isEmpty())
+			return;
+		
+		MapState state = undoStates.remove(undoStates.size() - 1);
+		setMapState(state.layers, state.width, state.height, state.placedObjects);
+	}
+	
+	/**
+	 * Forgets the resizes, crops and shifts there are to undo, since any other
+	 * edit would be thrown away by undoing them
+	 */
+	private void mapEdited()
+	{
+		if (!undoStates.isEmpty())
+			undoStates.clear();
+	}
+	
+	/**
+	 * Shows a map of a new size, layers and placed objects
+	 * @param stack - The layers
+	 * @param width - The width in cells
+	 * @param height - The height in cells
+	 * @param objects - The placed objects
+	 */
+	private void setMapState(LayerStack stack, int width, int height, PlacedObjects objects)
+	{
+		if (width != xTiles || height != yTiles)
+			setGridSize(width, height);
+		
+		layers = stack;
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
+		{
+			if (editLayers[type] >= layers.getLayerCount() || (editLayers[type] >= 0 && layers.getType(editLayers[type]) != type))
+				editLayers[type] = layers.findLayer(type);
+		}
+		tileUsage = new TileUsageIndex(layers);
+		
+		placedObjects = objects;
+		selectedObject = hoverObject = null;
+		hoverIndex = -1;
+		cellSelection = null;
+		pathStart = pathTarget = -1;
+		strokeIndexes.clear();
+		
+		if (miniMap != null)
+			miniMap.mapResized();
+		layersChanged();
+	}
+	
+	/**
+	 * Changes how many MapTiles the panel holds and lays them out again. The tiles
+	 * there are already are kept, since each only knows the index of its cell.
+	 * @param width - The new width in cells
+	 * @param height - The new height in cells
+	 */
+	private void setGridSize(int width, int height)
+	{
+		int count = width * height;
+		for (int i = tiles.size() - 1; i >= count; i--)
+		{
+			tiles.remove(i);
+			remove(i);
+		}
+		for (int i = tiles.size(); i < count; i++)
+		{
+			MapTile tile = new MapTile(blankIcon, this, i);
+			tiles.add(tile);
+			add(tile);
+		}
+		
+		xTiles = width;
+		yTiles = height;
+		
+		// The old constraints chain each tile to the one before it, so start over
+		springLayout = new SpringLayout();
+		setLayout(springLayout);
+		SpringUtilities.makeGrid(this, yTiles, xTiles, 0, 0, 0, 0);
+		revalidate();
+	}
+	
+	/**
+	 * Creates the colors distances are shaded with, from green for the cells nearest
+	 * the start through yellow to red for the furthest
+	 * @param count - The number of colors
+	 * @return The colors, nearest first
+	 */
+	private static Color[] createDistanceColors(int count)
+	{
+		Color[] colors = new Color[count];
+		for (int i = 0; i < count; i++)
+		{
+			Color color = Color.getHSBColor(0.33f * (count - 1 - i) / (count - 1), 1f, 1f);
+			colors[i] = new Color(color.getRed(), color.getGreen(), color.getBlue(), 110);
+		}
+		return colors;
+	}
+	
+	/**
+	 * Sets the cell the path preview measures distances from
+	 * @param index - The index of the cell, or -1 to hide the preview
+	 */
+	public void setPathStart(int index)
+	{
+		pathStart = index;
+		pathPreviewChanged();
+	}
+	
+	/**
+	 * Sets the cell the path preview finds a path to. Setting the target it already
+	 * has takes it away again.
+	 * @param index - The index of the cell, or -1 for no target
+	 */
+	public void setPathTarget(int index)
+	{
+		pathTarget = (index == pathTarget) ? -1 : index;
+		pathPreviewChanged();
+	}
+	
+	/**
+	 * Gets the path finder of the preview, which searches the planes of the collision layer being edited
+	 * @return The PathFinder, whose planes are up to date
+	 */
+	public PathFinder getPathFinder()
+	{
+		int layer = editLayers[LayerStack.FLAG];
+		if (pathFinder == null || pathPlanesChanged || (layer >= 0 && pathFinder.getPlanes() != layers.getPlanes(layer)))
+		{
+			CollisionPlanes planes = (layer < 0) ? new CollisionPlanes(xTiles, yTiles) : layers.getPlanes(layer);
+			if (pathFinder == null)
+				pathFinder = new PathFinder(planes);
+			else
+				pathFinder.setPlanes(planes);
+			pathPlanesChanged = false;
+			pathPreviewChanged = true;
+		}
+		return pathFinder;
+	}
+	
+	/**
+	 * Makes the path preview search again the next time it's painted
+	 */
+	private void pathPreviewChanged()
+	{
+		pathPreviewChanged = true;
+		if (pathPreviewShown())
+			repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Makes the path preview search the planes of the collision layer being edited again
+	 */
+	private void pathPlanesChanged()
+	{
+		pathPlanesChanged = true;
+		pathPreviewChanged();
+	}
+	
+	/**
+	 * Shades each cell in the area being repainted by how far it is from the path
+	 * start, darkens the cells which can't be reached from it, and draws the path
+	 * to the target. The searches are only run again once something has changed.
+	 * @param g - The graphics context to draw in
+	 */
+	private void paintPathPreview(Graphics2D g)
+	{
+		PathFinder finder = getPathFinder();
+		if (pathPreviewChanged)
+		{
+			furthestDistance = finder.computeDistances(pathStart);
+			pathFound = pathTarget >= 0 && finder.findPath(pathStart, pathTarget);
+			pathPreviewChanged = false;
+		}
+		
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = getVisibleRect();
+		int tileWidth = tilePanel.getTileSheet().getWidthOfTiles();
+		int tileHeight = tilePanel.getTileSheet().getHeightOfTiles();
+		int firstColumn = Math.max(0, clip.x / tileWidth);
+		int lastColumn = Math.min(xTiles - 1, (clip.x + clip.width) / tileWidth);
+		int firstRow = Math.max(0, clip.y / tileHeight);
+		int lastRow = Math.min(yTiles - 1, (clip.y + clip.height) / tileHeight);
+		
+		int[] distances = finder.getDistances();
+		int scale = Math.max(1, furthestDistance);
+		for (int y = firstRow; y <= lastRow; y++)
+		{
+			for (int x = firstColumn; x <= lastColumn; x++)
+			{
+				int distance = distances[y * xTiles + x];
+				if (distance >= 0)
+					g.setColor(DISTANCE_COLORS[(int) ((long) distance * (DISTANCE_COLORS.length - 1) / scale)]);
+				else if (finder.isWalkable(x, y))
+					g.setColor(unreachableColor);
+				else
+					continue;
+				g.fillRect(x * tileWidth, y * tileHeight, tileWidth, tileHeight);
+			}
+		}
+		
+		// The path only turns at the cells it's made of, so it's drawn as lines between their centers
+		Stroke oldStroke = g.getStroke();
+		g.setStroke(pathStroke);
+		g.setColor(Color.WHITE);
+		if (pathFound)
+		{
+			int[] path = finder.getPath();
+			for (int i = 1; i < finder.getPathLength(); i++)
+			{
+				g.drawLine((path[i - 1] % xTiles) * tileWidth + tileWidth / 2, (path[i - 1] / xTiles) * tileHeight + tileHeight / 2, 
+						(path[i] % xTiles) * tileWidth + tileWidth / 2, (path[i] / xTiles) * tileHeight + tileHeight / 2);
+			}
+		}
+		g.setStroke(oldStroke);
+		
+		g.drawOval((pathStart % xTiles) * tileWidth + 2, (pathStart / xTiles) * tileHeight + 2, tileWidth - 5, tileHeight - 5);
+		if (pathTarget >= 0)
+		{
+			g.setColor(pathFound ? Color.WHITE : Color.RED);
+			g.drawRect((pathTarget % xTiles) * tileWidth + 2, (pathTarget / xTiles) * tileHeight + 2, tileWidth - 5, tileHeight - 5);
+		}
+	}
+	
+	/**
+	 * Highlights every cell which uses the tile or object selected last, in the rows
+	 * being repainted. The uses come from the TileUsageIndex and are only looked up
+	 * again once the selection or the map has changed.
+	 * @param g - The graphics context to draw in
+	 */
+	private void paintUseHighlights(Graphics2D g)
+	{
+		int type = objectPanelSelectedLast ? LayerStack.OBJECT : LayerStack.TILE;
+		int id = getSelectedPanel().getSelectedTileIndex();
+		if (highlightedUses == null || type != highlightedType || id != highlightedId || tileUsage.getVersion() != highlightedVersion)
+		{
+			highlightedUses = tileUsage.getUses(type, id);
+			highlightedType = type;
+			highlightedId = id;
+			highlightedVersion = tileUsage.getVersion();
+		}
+		
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = getVisibleRect();
+		int tileHeight = tilePanel.getTileSheet().getHeightOfTiles();
+		int firstRow = Math.max(0, clip.y / tileHeight);
+		int lastRow = Math.min(yTiles - 1, (clip.y + clip.height) / tileHeight);
+		
+		// The uses are in order, so the ones in the clip's rows are a single run
+		int start = Arrays.binarySearch(highlightedUses, firstRow * xTiles);
+		if (start < 0)
+			start = -start - 1;
+		
+		g.setColor(useHighlightColor);
+		for (int i = start; i < highlightedUses.length && highlightedUses[i] < (lastRow + 1) * xTiles; i++)
+		{
+			Rectangle bounds = tiles.get(highlightedUses[i]).getBounds();
+			if (g.hitClip(bounds.x, bounds.y, bounds.width, bounds.height))
+				g.fill(bounds);
+		}
+	}
+	
+	/**
+	 * Paints the placed objects which are in the area being repainted, each as a box
+	 * in the color of its type with its type written in it
+	 * @param g - The graphics context to draw in
+	 */
+	private void paintPlacedObjects(Graphics2D g)
+	{
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = getVisibleRect();
+		
+		visibleObjects.clear();
+		placedObjects.query(clip, visibleObjects);
+		FontMetrics metrics = g.getFontMetrics();
+		
+		for (MapObject object : visibleObjects)
+		{
+			Color color = getObjectTypeColor(object.getType());
+			g.setColor(color);
+			g.fillRect(object.getX(), object.getY(), object.getWidth(), object.getHeight());
+			
+			// Outline the object under the cursor and the selected one more brightly
+			g.setColor((object == selectedObject) ? selectedObjectColor : (object == hoverObject) ? hoverColor : color.darker());
+			g.drawRect(object.getX(), object.getY(), object.getWidth() - 1, object.getHeight() - 1);
+			
+			// Only write the type in objects big enough to hold it
+			if (object.getHeight() > metrics.getAscent() && object.getWidth() > metrics.stringWidth(object.getType()) + 4)
+			{
+				g.setColor(Color.WHITE);
+				g.drawString(object.getType(), object.getX() + 2, object.getY() + metrics.getAscent());
+			}
+		}
+	}
+	
+	/**
+	 * Gets the color objects of a type are drawn in, so that types can be told apart
+	 * @param type - The type of object
+	 * @return A translucent color which is always the same for the type
+	 */
+	private Color getObjectTypeColor(String type)
+	{
+		Color color = objectTypeColors.get(type);
+		if (color == null)
+		{
+			int rgb = Color.HSBtoRGB((type.hashCode() & 0xFF) / 255f, 0.7f, 0.85f);
+			color = new Color((rgb & 0x00FFFFFF) | 0x90000000, true);
+			objectTypeColors.put(type, color);
+		}
+		return color;
+	}
+	
+	/**
+	 * Handles the mouse being pressed on the map in placement mode. Pressing on an
+	 * object selects it so that it can be dragged, and pressing anywhere else places
+	 * a new object of the last used type there, a tile in size.
+	 * @param x - The x coordinate in map pixels
+	 * @param y - The y coordinate in map pixels
+	 */
+	public void placementPressed(int x, int y)
+	{
+		mapEdited();
+		MapObject object = placedObjects.getObjectAt(x, y);
+		if (object == null)
+		{
+			int width = tilePanel.getTileSheet().getWidthOfTiles();
+			int height = tilePanel.getTileSheet().getHeightOfTiles();
+			object = new MapObject(placementType, x - width / 2, y - height / 2, width, height);
+			placedObjects.add(object);
+		}
+		
+		setSelectedObject(object);
+		dragOffsetX = x - object.getX();
+		dragOffsetY = y - object.getY();
+		repaintObject(object);
+	}
+	
+	/**
+	 * Handles the mouse being dragged on the map in placement mode, which moves the selected object
+	 * @param x - The x coordinate in map pixels
+	 * @param y - The y coordinate in map pixels
+	 */
+	public void placementDragged(int x, int y)
+	{
+		if (selectedObject == null)
+			return;
+		
+		repaintObject(selectedObject);
+		placedObjects.setBounds(selectedObject, x - dragOffsetX, y - dragOffsetY, selectedObject.getWidth(), selectedObject.getHeight());
+		repaintObject(selectedObject);
+	}
+	
+	/**
+	 * Handles the mouse moving over the map in placement mode, which highlights the object under it
+	 * @param x - The x coordinate in map pixels
+	 * @param y - The y coordinate in map pixels
+	 */
+	public void placementMoved(int x, int y)
+	{
+		MapObject object = placedObjects.getObjectAt(x, y);
+		if (object == hoverObject)
+			return;
+		
+		repaintObject(hoverObject);
+		hoverObject = object;
+		repaintObject(hoverObject);
+	}
+	
+	/**
+	 * Gets the placed object which was last clicked on
+	 * @return The selected object, or null if none is selected
+	 */
+	public MapObject getSelectedObject()
+	{
+		return selectedObject;
+	}
+	
+	/**
+	 * Selects a placed object
+	 * @param object - The object to select, or null to select none
+	 */
+	public void setSelectedObject(MapObject object)
+	{
+		repaintObject(selectedObject);
+		selectedObject = object;
+		repaintObject(selectedObject);
+	}
+	
+	/**
+	 * Changes the selected object, and makes its type the one new objects are placed as
+	 * @param type - The new type
+	 * @param width - The new width in pixels
+	 * @param height - The new height in pixels
+	 */
+	public void editSelectedObject(String type, int width, int height)
+	{
+		if (selectedObject == null)
+			return;
+		mapEdited();
+		
+		repaintObject(selectedObject);
+		selectedObject.setType(type);
+		placedObjects.setBounds(selectedObject, selectedObject.getX(), selectedObject.getY(), width, height);
+		placementType = type;
+		repaintObject(selectedObject);
+	}
+	
+	/**
+	 * Takes the selected object off the map
+	 */
+	public void deleteSelectedObject()
+	{
+		if (selectedObject == null)
+			return;
+		mapEdited();
+		
+		repaintObject(selectedObject);
+		placedObjects.remove(selectedObject);
+		if (hoverObject == selectedObject)
+			hoverObject = null;
+		selectedObject = null;
+	}
+	
+	/**
+	 * Stops showing the brush preview and object highlight, for when placement mode is turned on or off
+	 */
+	public void placementModeChanged()
+	{
+		setHoverIndex(-1);
+		repaintObject(hoverObject);
+		hoverObject = null;
+		repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Repaints the area of a placed object in the next frame
+	 * @param object - The object, or null to do nothing
+	 */
+	private void repaintObject(MapObject object)
+	{
+		if (object != null)
+			repaintScheduler.addDirtyRegion(object.getX(), object.getY(), object.getWidth(), object.getHeight());
+	}
+	
+	/**
+	 * Paints the preview of what the brush will draw at the tile the mouse is over. In
+	 * collision mode this is just the hovered tile tinted with the collision color.
+	 * @param g - The graphics context to draw in
+	 */
+	private void paintHoverOverlay(Graphics2D g)
+	{
+		if (collisionModeEnabled())
+		{
+			g.setColor(collisionColor);
+			g.fill(tiles.get(hoverIndex).getBounds());
+			return;
+		}
+		
+		TilePanel panel = objectPanelSelectedLast ? objectPanel : tilePanel;
+		int brushWidth = getBrushWidth();
+		int brushHeight = getBrushHeight();
+		int x = hoverIndex % xTiles;
+		int y = hoverIndex / xTiles;
+		
+		// Tiles are drawn faded to show what would be drawn
+		Graphics2D faded = (Graphics2D) g.create();
+		faded.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, BRUSH_PREVIEW_ALPHA));
+		g.setColor(hoverColor);
+		
+		for (int j = 0; j < brushHeight && y + j < yTiles; j++)
+		{
+			for (int i = 0; i < brushWidth && x + i < xTiles; i++)
+			{
+				Rectangle bounds = tiles.get(hoverIndex + i + j * xTiles).getBounds();
+				if (!g.hitClip(bounds.x, bounds.y, bounds.width, bounds.height))
+					continue;
+				
+				int id = getBrushId(i, j);
+				if (id >= 0)
+					faded.drawImage(panel.getTileImage(id), bounds.x, bounds.y, this);
+				g.fill(bounds);
+			}
+		}
+		
+		faded.dispose();
+	}
+	
+	/**
+	 * Sets the draw count for use with multi-draw
+	 * @param count - The amount of tiles to draw (count x count) at a time
+	 */
+	public void setDrawCount(int count)
+	{
+		drawCount = count;
+	}
+	
+	/** Gets the draw count for use with multi-draw
+	 * @return The amount of tiles to draw (count x count) at a time
+	 */
+	public int getDrawCount()
+	{
+		return drawCount;
+	}
+	
+	/**
+	 * Gets the player which animates the animated tiles of this map
+	 * @return The AnimationPlayer of this map
+	 */
+	public AnimationPlayer getAnimationPlayer()
+	{
+		return animationPlayer;
+	}
+	
+	/**
+	 * Sets the minimap which gives an overview of this map
+	 * @param miniMap - The MiniMap to keep up to date as cells are drawn to
+	 */
+	public void setMiniMap(MiniMap miniMap)
+	{
+		this.miniMap = miniMap;
+	}
+	
+	/**
+	 * Gets the minimap which gives an overview of this map
+	 * @return The MiniMap of this map, or null if it isn't shown
+	 */
+	public MiniMap getMiniMap()
+	{
+		return miniMap;
+	}
+	
+	/**
+	 * Called whenever an ID of one of the layers of a cell changes
+	 * @param index - The index of the cell which changed
+	 */
+	public void cellChanged(int index)
+	{
+		if (miniMap != null)
+			miniMap.updateCell(index);
+	}
+	
+	/**
+	 * Refreshes which animation every cell shows, for when the animations
+	 * of the tile sheet or the order of the layers have been changed
+	 */
+	public void refreshAnimations()
+	{
+		TileSheet sheet = tilePanel.getTileSheet();
+		animationPlayer.clear();
+		
+		for (int layer = 0; layer < layers.getLayerCount(); layer++)
+		{
+			int type = layers.getType(layer);
+			if (type == LayerStack.FLAG || layers.getFilledCount(layer) == 0)
+				continue;
+			
+			for (int i = 0; i < tiles.size(); i++)
+			{
+				TileAnimation animation = sheet.getAnimation(type == LayerStack.OBJECT, layers.get(layer, i));
+				if (animation != null)
+					animationPlayer.cellChanged(layer, i, null, animation);
+			}
+		}
+		
+		repaint();
+	}
+	
+	/**
+	 * Draws an ID of the brush to a cell, on the layer of the panel selected last
+	 * @param index - The index of the cell
+	 * @param id - The tile or object ID to draw
+	 */
+	public void drawToCell(int index, int id)
+	{
+		if (objectPanelSelectedLast)
+			setLayerId(editLayers[LayerStack.OBJECT], index, id);
+		else
+		{
+			setLayerId(editLayers[LayerStack.TILE], index, id);
+			addToStroke(index);
+		}
+	}
+	
+	/**
+	 * Toggles the selected collision flag on a cell of the flag layer which collision mode edits
+	 * @param index - The index of the cell
+	 */
+	public void toggleFlag(int index)
+	{
+		int layer = editLayers[LayerStack.FLAG];
+		if (layer < 0)
+			return;
+		
+		setLayerId(layer, index, layers.get(layer, index) ^ getCollisionFlag());
+		repaintTile(index);
+	}
+	
+	/**
+	 * Gets the collision flag which collision mode toggles
+	 * @return CollisionPlanes.SOLID, ONE_WAY, WATER or HAZARD
+	 */
+	public int getCollisionFlag()
+	{
+		return parentFrame.getMenuPanel().getDrawMenu().getCollisionFlag();
+	}
+	
+	/**
+	 * Clears the selected collision flag from every cell of the flag layer being edited,
+	 * a word of cells at a time in the layer's own planes, and leaves the other flags
+	 * of each cell alone
+	 */
+	public void clearCollisionFlag()
+	{
+		int layer = editLayers[LayerStack.FLAG];
+		if (layer < 0)
+			return;
+		
+		CollisionPlanes planes = layers.getPlanes(layer);
+		int flag = Integer.numberOfTrailingZeros(getCollisionFlag());
+		if (planes.count(flag) == 0)
+			return;
+		mapEdited();
+		
+		planes.clear(flag);
+		layers.planesChanged(layer);
+		flagsChanged(layer);
+	}
+	
+	/**
+	 * Repaints what shows the flags of a layer after they were changed in bulk. The
+	 * tile usage, animations and minimap don't depend on flags, so they are left alone.
+	 * @param layer - The index of the flag layer
+	 */
+	private void flagsChanged(int layer)
+	{
+		if (layer == editLayers[LayerStack.FLAG])
+			pathPreviewChanged();
+		if (collisionModeEnabled() && layers.isVisible(layer))
+			repaintScheduler.repaintAll();
+	}
+	
+	/**
+	 * Gets the width of the area drawn to at once. This is the width of the rectangle of
+	 * tiles selected in the last used panel, or the draw count if only one tile is selected.
+	 * @return The number of cells across that are drawn to at once
+	 */
+	public int getBrushWidth()
+	{
+		TilePanel panel = getSelectedPanel();
+		if (isSingleTileBrush(panel))
+			return drawCount;
+		return isBrushTransposed() ? panel.getBrushHeight() : panel.getBrushWidth();
+	}
+	
+	/**
+	 * Gets the height of the area drawn to at once. This is the height of the rectangle of
+	 * tiles selected in the last used panel, or the draw count if only one tile is selected.
+	 * @return The number of cells down that are drawn to at once
+	 */
+	public int getBrushHeight()
+	{
+		TilePanel panel = getSelectedPanel();
+		if (isSingleTileBrush(panel))
+			return drawCount;
+		return isBrushTransposed() ? panel.getBrushWidth() : panel.getBrushHeight();
+	}
+	
+	/**
+	 * Gets the ID drawn to a cell of the area drawn to at once. When the brush is
+	 * flipped, the selected rectangle of tiles is flipped as a whole, and each ID
+	 * is given the brush's flip flags.
+	 * @param x - The column within the brush
+	 * @param y - The row within the brush
+	 * @return The ID to draw, or -1 if nothing is drawn there
+	 */
+	public int getBrushId(int x, int y)
+	{
+		TilePanel panel = getSelectedPanel();
+		int id;
+		
+		if (isSingleTileBrush(panel))
+			id = panel.getSelectedTileIndex();
+		else
+		{
+			int source = TileTransform.getSourcePoint(brushFlags, x, y, getBrushWidth(), getBrushHeight());
+			id = panel.getBrushId(source & 0xFFFF, source >>> 16);
+		}
+		
+		// The eraser is never flipped
+		if (objectPanelSelectedLast && id == 0)
+			return id;
+		return TileTransform.setFlags(id, brushFlags);
+	}
+	
+	/**
+	 * Gets how the brush is flipped
+	 * @return The TileTransform flip flags given to everything drawn
+	 */
+	public int getBrushFlags()
+	{
+		return brushFlags;
+	}
+	
+	/**
+	 * Sets how the brush is flipped
+	 * @param flags - The TileTransform flip flags to give everything drawn
+	 */
+	public void setBrushFlags(int flags)
+	{
+		// The preview of the old brush may cover a different area than the new one
+		repaintHoverArea();
+		brushFlags = flags & TileTransform.FLAG_MASK;
+		repaintHoverArea();
+	}
+	
+	/**
+	 * Mirrors the brush from left to right
+	 */
+	public void flipBrushHorizontally()
+	{
+		setBrushFlags(brushFlags ^ TileTransform.FLIP_HORIZONTAL);
+	}
+	
+	/**
+	 * Mirrors the brush from top to bottom
+	 */
+	public void flipBrushVertically()
+	{
+		setBrushFlags(brushFlags ^ TileTransform.FLIP_VERTICAL);
+	}
+	
+	/**
+	 * Turns the brush a quarter turn clockwise. Tiles which aren't square can only be flipped.
+	 */
+	public void rotateBrush()
+	{
+		TileSheet sheet = tilePanel.getTileSheet();
+		if (sheet.getWidthOfTiles() == sheet.getHeightOfTiles())
+			setBrushFlags(TileTransform.rotateClockwise(brushFlags));
+	}
+	
+	/**
+	 * Tells whether the selected rectangle of tiles is drawn with its rows and columns swapped
+	 * @return True if the brush has a diagonal flip
+	 */
+	private boolean isBrushTransposed()
+	{
+		return (brushFlags & TileTransform.FLIP_DIAGONAL) != 0;
+	}
+	
+	/**
+	 * Gets the panel whose selection is currently drawn with
+	 * @return The object panel if it was selected last, otherwise the tile panel
+	 */
+	private TilePanel getSelectedPanel()
+	{
+		return objectPanelSelectedLast ? objectPanel : tilePanel;
+	}
+	
+	/**
+	 * Tells whether only a single tile is selected in a panel
+	 * @param panel - The panel to check
+	 * @return True if the selection is a single tile
+	 */
+	private boolean isSingleTileBrush(TilePanel panel)
+	{
+		return panel.getBrushWidth() == 1 && panel.getBrushHeight() == 1;
+	}
+	
+	/**
+	 * Sets the auto-tile rule set which is applied to the tile layer after each stroke
+	 * @param set - The rule set to apply, or null to turn auto-tiling off
+	 */
+	public void setAutoTileSet(AutoTileRuleSet set)
+	{
+		autoTileSet = set;
+	}
+	
+	/**
+	 * Gets the auto-tile rule set which is applied to the tile layer after each stroke
+	 * @return The rule set, or null if auto-tiling is off
+	 */
+	public AutoTileRuleSet getAutoTileSet()
+	{
+		return autoTileSet;
+	}
+	
+	/**
+	 * Records that a tile layer cell was drawn to during the current stroke
+	 * @param index - The index of the cell
+	 */
+	public void addToStroke(int index)
+	{
+		if (autoTileSet != null && editLayers[LayerStack.TILE] >= 0)
+			strokeIndexes.add(index);
+	}
+	
+	/**
+	 * Ends the current stroke. If auto-tiling is on, the cells drawn to during
+	 * the stroke and their neighbours are retiled all at once.
+	 */
+	public void finishStroke()
+	{
+		if (autoTileSet == null || strokeIndexes.isEmpty())
+		{
+			strokeIndexes.clear();
+			return;
+		}
+		
+		// Gather the edited cells and their neighbours, then sort them to drop the repeats,
+		// so the work only depends on the size of the stroke and not of the map
+		int[] affected = new int[strokeIndexes.size() * 9];
+		int count = 0;
+		for (int index : strokeIndexes)
+		{
+			int x = index % xTiles;
+			int y = index / xTiles;
+			
+			for (int ny = Math.max(0, y - 1); ny <= Math.min(yTiles - 1, y + 1); ny++)
+			{
+				for (int nx = Math.max(0, x - 1); nx <= Math.min(xTiles - 1, x + 1); nx++)
+					affected[count++] = ny * xTiles + nx;
+			}
+		}
+		strokeIndexes.clear();
+		
+		Arrays.sort(affected, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (unique == 0 || affected[unique - 1] != affected[i])
+				affected[unique++] = affected[i];
+		}
+		
+		// Work out every new tile before changing any of them
+		int tileLayer = editLayers[LayerStack.TILE];
+		int[] results = new int[unique];
+		for (int i = 0; i < unique; i++)
+			results[i] = AutoTiler.retile(layers, tileLayer, xTiles, yTiles, affected[i], autoTileSet);
+		
+		for (int i = 0; i < unique; i++)
+		{
+			int index = affected[i];
+			if (layers.get(tileLayer, index) != results[i])
+			{
+				setLayerId(tileLayer, index, results[i]);
+				repaintTile(index);
+			}
+		}
+	}
+	
+	/**
+	 * Applies the current auto-tile rule set to every cell of the tile layer
+	 * @return The number of cells which changed
+	 */
+	public int autoTileAll()
+	{
+		int tileLayer = editLayers[LayerStack.TILE];
+		if (autoTileSet == null || tileLayer < 0)
+			return 0;
+		
+		int[] layer = layers.copyLayer(tileLayer);
+		int changed = AutoTiler.retileAll(layer, xTiles, yTiles, autoTileSet);
+		
+		// Only touch the cells which actually changed, then repaint once
+		if (changed > 0)
+		{
+			for (int i = 0; i < tiles.size(); i++)
+			{
+				if (layers.get(tileLayer, i) != layer[i])
+					setLayerId(tileLayer, i, layer[i]);
+			}
+			repaintScheduler.repaintAll();
+		}
+		
+		return changed;
+	}
+	
+	/**
+	 * The layers, size and placed objects of the map before a resize, crop or shift
+	 */
+	static class MapState
+	{
+		final LayerStack layers;
+		final int width, height;
+		final PlacedObjects placedObjects;
+		
+		MapState(LayerStack layers, int width, int height, PlacedObjects placedObjects)
+		{
+			this.layers = layers;
+			this.width = width;
+			this.height = height;
+			this.placedObjects = placedObjects;
+		}
 	}
-}
\ No newline at end of file
+}
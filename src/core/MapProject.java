@@ -0,0 +1,85 @@
+package core;
+
+/**
+ * Everything a map file holds, read without any of the Swing components: the tile
+ * sheet, the size of the map, its layers and its freely placed objects. MapIO reads
+ * and writes these, and the editor and the batch tool both start from one.
+ */
+public class MapProject
+{
+	private TileSheet tileSheet;
+	private int widthInTiles, heightInTiles;
+	private LayerStack layers;
+	private PlacedObjects placedObjects;
+
+	/**
+	 * Creates a project from the parts of a map
+	 * @param tileSheet - The TileSheet which the layer IDs refer to
+	 * @param widthInTiles - The width of the map in tiles
+	 * @param heightInTiles - The height of the map in tiles
+	 * @param layers - The layers of the map
+	 * @param placedObjects - The freely placed objects of the map
+	 */
+	public MapProject(TileSheet tileSheet, int widthInTiles, int heightInTiles, LayerStack layers, PlacedObjects placedObjects)
+	{
+		this.tileSheet = tileSheet;
+		this.widthInTiles = widthInTiles;
+		this.heightInTiles = heightInTiles;
+		this.layers = layers;
+		this.placedObjects = placedObjects;
+	}
+
+	/**
+	 * Gets the tile sheet of the map
+	 * @return The TileSheet
+	 */
+	public TileSheet getTileSheet()
+	{
+		return tileSheet;
+	}
+
+	/**
+	 * Gets the width of the map
+	 * @return The width in tiles
+	 */
+	public int getWidthInTiles()
+	{
+		return widthInTiles;
+	}
+
+	/**
+	 * Gets the height of the map
+	 * @return The height in tiles
+	 */
+	public int getHeightInTiles()
+	{
+		return heightInTiles;
+	}
+
+	/**
+	 * Gets the layers of the map
+	 * @return The LayerStack
+	 */
+	public LayerStack getLayers()
+	{
+		return layers;
+	}
+
+	/**
+	 * Gets the freely placed objects of the map
+	 * @return The PlacedObjects
+	 */
+	public PlacedObjects getPlacedObjects()
+	{
+		return placedObjects;
+	}
+
+	/**
+	 * Takes a snapshot of the map for the exporters
+	 * @return The MapData
+	 */
+	public MapData getMapData()
+	{
+		return new MapData(tileSheet, widthInTiles, heightInTiles, layers, placedObjects.copy());
+	}
+}
@@ -2,28 +2,29 @@ package core;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
 import java.awt.image.BufferedImage;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 
 /**
- * This represents a tile which is drawn to the MapPanel. It stores information such as the
- * image currently drawn to it (both object and tile layers).
+ * This represents a tile which is drawn to the MapPanel. The IDs drawn to it on each
+ * layer are kept in the MapPanel's LayerStack, and it paints whichever layers are
+ * visible and have something on them, from the bottom one up. The images are looked
+ * up from the tile panels whenever it is painted, so that cells don't keep tiles of
+ * a compressed sheet inflated.
  */
 public class MapTile extends JLabel
 {
 	private static final long serialVersionUID = 7815646574424440259L;
-	private final Color collisionColor = new Color(255, 0, 0, 145);
-	private final Color hoverColor = new Color(120, 255, 120, 145);
+	
+	// Solid, one-way, water and hazard cells each get their own color
+	private static final Color[] FLAG_COLORS = {new Color(255, 0, 0, 145), new Color(255, 200, 0, 145), 
+		new Color(0, 90, 255, 145), new Color(190, 0, 255, 145)};
 	private MapPanel parentMapPanel;
-	private Image tileLayer, objectLayer;
 	private int index;
-	private int objectLayerID, tileLayerID;
-	private boolean collidable;
-	private boolean hovered;
 	
 	
 	/**
@@ -36,30 +37,12 @@ public class MapTile extends JLabel
 	{
 		super(image);
 		this.index = index;
-		objectLayerID = tileLayerID = -1;
-		collidable = false; 
 		parentMapPanel = mapPanel;
-		addMouseListener(new MapTileListener());
+		MapTileListener listener = new MapTileListener();
+		addMouseListener(listener);
+		addMouseMotionListener(listener);
 	}
 	
-	/**
-	 * Gets the object layer id of this tile
-	 * @return The object layer id of this tile
-	 */
-	public int getObjectLayerId()
-	{
-		return objectLayerID;
-	}
-	
-	/**
-	 * Gets the tile layer id of this tile
-	 * @return The tile layer id of this tile
-	 */
-	public int getTileLayerId()
-	{
-		return tileLayerID;
-	}
-
 	/**
 	 * Gets the image which is currently shown on this MapTile
 	 * @return The image which is currently shown on this MapTile
@@ -71,58 +54,73 @@ public class MapTile extends JLabel
 		
 		BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 		Graphics g = temp.getGraphics();
+		LayerStack layers = parentMapPanel.getLayerStack();
 		
-		if (tileLayer != null)
-			g.drawImage(tileLayer, 0, 0, this);
-		if (objectLayer != null)
-			g.drawImage(objectLayer, 0, 0, this);
+		for (int layer : layers.getDrawnLayers((1 << LayerStack.TILE) | (1 << LayerStack.OBJECT)))
+		{
+			int id = layers.get(layer, index);
+			if (layers.getType(layer) == LayerStack.OBJECT)
+			{
+				if (!LayerStack.isEmptyId(LayerStack.OBJECT, id))
+					g.drawImage(parentMapPanel.getObjectPanel().getTileImage(id), 0, 0, this);
+			}
+			else if (!LayerStack.isEmptyId(LayerStack.TILE, id))
+				g.drawImage(parentMapPanel.getTilePanel().getTileImage(id), 0, 0, this);
+		}
 		
 		return temp;
 	}
 	
 	/**
-	 * Sets the object layer's image
-	 * @param image - The image to set the object layer to
-	 */
-	public void setObjectLayer(Image image)
-	{
-		objectLayer = image;
-	}
-	
-	/**
-	 * Sets the tile layer's image
-	 * @param image - The image to set the tile layer to
-	 */
-	public void setTileLayer(Image image)
-	{
-		tileLayer = image;
-	}
-	
-	/**
-	 * Draws the actual tile by drawing the tile layer followed by the object layer
+	 * Draws the actual tile by drawing each of the drawn layers from the bottom one up
 	 * @param g - The graphics context to draw in
 	 */
 	public void paintComponent(Graphics g)
 	{
-		super.paintComponent(g);
-		
-		// Paint the two tile layers
-		if (parentMapPanel.tileModeEnabled())
-			g.drawImage(tileLayer, 0, 0, this);
+		TileSheet sheet = parentMapPanel.getTilePanel().getTileSheet();
+		LayerStack layers = parentMapPanel.getLayerStack();
+		int[] drawn = parentMapPanel.getDrawnLayers();
 		
-		if (parentMapPanel.objectModeEnabled())
-			g.drawImage(objectLayer, 0, 0, this);
-		
-		// Draw red tile to show collision mode
-		if (parentMapPanel.collisionModeEnabled() && collidable)
+		// Nothing under the top opaque image shows, so start drawing from there
+		int first = 0;
+		boolean covered = false;
+		for (int i = drawn.length - 1; i >= 0 && !covered; i--)
 		{
-			g.setColor(collisionColor);
-			g.fillRect(0, 0, getWidth(), getHeight());
+			int type = layers.getType(drawn[i]);
+			if (type != LayerStack.FLAG && sheet.getOpacity(type == LayerStack.OBJECT, getShownId(drawn[i], sheet)) == AbstractTile.OPAQUE)
+			{
+				first = i;
+				covered = true;
+			}
 		}
-		else if (hovered)
+		
+		// The blank tile only shows if nothing opaque is drawn over it
+		if (!covered)
+			super.paintComponent(g);
+		
+		for (int i = first; i < drawn.length; i++)
 		{
-			g.setColor(hoverColor);
-			g.fillRect(0, 0, getWidth(), getHeight());
+			int layer = drawn[i];
+			int type = layers.getType(layer);
+			
+			// Tint the cells which are set on flag layers, such as collision
+			if (type == LayerStack.FLAG)
+			{
+				// A cell with several flags is drawn in the color of the lowest one
+				int flags = layers.get(layer, index);
+				if (flags != 0)
+				{
+					g.setColor(FLAG_COLORS[Integer.numberOfTrailingZeros(flags) % FLAG_COLORS.length]);
+					g.fillRect(0, 0, getWidth(), getHeight());
+				}
+				continue;
+			}
+			
+			// Skip images which draw nothing
+			int id = getShownId(layer, sheet);
+			boolean objectLayer = (type == LayerStack.OBJECT);
+			if (sheet.getOpacity(objectLayer, id) != AbstractTile.TRANSPARENT)
+				g.drawImage((objectLayer ? parentMapPanel.getObjectPanel() : parentMapPanel.getTilePanel()).getTileImage(id), 0, 0, this);
 		}
 		
 		// Draw grid if grid mode is enabled
@@ -131,29 +129,19 @@ public class MapTile extends JLabel
 	}
 	
 	/**
-	 * Sets the object layer id of this tile
-	 * @param id - The id to set this tile to
+	 * Works out which ID a layer of this cell is showing, including the current
+	 * frame of its animation if it has one, keeping its flips
+	 * @param layer - The index of the tile or object layer
+	 * @param sheet - The TileSheet of the map
+	 * @return The ID to draw
 	 */
-	public void setObjectLayerId(int id)
+	private int getShownId(int layer, TileSheet sheet)
 	{
-		objectLayerID = id;
-		
-		if (id != -1 && id != 0)
-			objectLayer = parentMapPanel.getObjectPanel().getTileImage(id);
-		else
-			objectLayer = null;
-	}
-	
-	/**
-	 * Sets the tile layer id of this tile
-	 * @param id - The id to set this tile to
-	 */
-	public void setTileLayerId(int id)
-	{
-		tileLayerID = id;
-		
-		if (id != -1)
-			tileLayer = parentMapPanel.getTilePanel().getTileImage(id);
+		int id = parentMapPanel.getLayerId(layer, index);
+		TileAnimation animation = sheet.getAnimation(parentMapPanel.getLayerStack().getType(layer) == LayerStack.OBJECT, id);
+		if (animation == null)
+			return id;
+		return TileTransform.setFlags(parentMapPanel.getAnimationPlayer().getCurrentId(animation), TileTransform.getFlags(id));
 	}
 
 	/**
@@ -162,178 +150,144 @@ public class MapTile extends JLabel
 	private void drawTile()
 	{
 		// Determine which tile should be drawn and then draw it
-		if (parentMapPanel.objectPanelSelectedLast())
-			setObjectLayerId(parentMapPanel.getObjectPanel().getSelectedTileIndex());
-		else
-			setTileLayerId(parentMapPanel.getTilePanel().getSelectedTileIndex());
-		
-		repaint();
+		parentMapPanel.drawToCell(index, parentMapPanel.getBrushId(0, 0));
+		parentMapPanel.repaintTile(index);
 	}
 	
 	/**
-	 * Draws multiple tiles at once, for use with the multi-draw function
-	 * @param totalTiles - Width or Height of the grid of tiles to be drawn
+	 * Draws multiple tiles at once, either the selected tile repeated for the draw
+	 * count or the selected rectangle of tiles, with this tile as the top left
 	 */
-	private void drawTiles(int totalTiles)
+	private void drawTiles()
 	{
+		int brushWidth = parentMapPanel.getBrushWidth();
+		int brushHeight = parentMapPanel.getBrushHeight();
+		int x = index % parentMapPanel.getWidthInTiles();
+		
 		// Iterate through each tile after the originally clicked tile
-		for(int i = 0; i < totalTiles; i++)
+		for(int i = 0; i < brushWidth; i++)
 		{
+			// Don't wrap around onto the next row
+			if (x + i >= parentMapPanel.getWidthInTiles())
+				break;
+			
 			// Draw the remaining rows
-			for (int j = 0; j < totalTiles; j++)
+			for (int j = 0; j < brushHeight; j++)
 			{
 				// Calculate where each tile is
 				int currentIndex = index + i + (j * parentMapPanel.getWidthInTiles());
 				// Check to make sure that the tile index isn't out of bounds
 				if (currentIndex >= parentMapPanel.getTotalNumberOfTiles())
-					return;
+					break;
+				
+				int id = parentMapPanel.getBrushId(i, j);
+				if (id < 0)
+					continue;
 			
 				// Determine which tile should be drawn and then draw it
-				if (parentMapPanel.objectPanelSelectedLast())
-					parentMapPanel.getTile(currentIndex).setObjectLayerId(parentMapPanel.getObjectPanel().getSelectedTileIndex());
-				else
-					parentMapPanel.getTile(currentIndex).setTileLayerId(parentMapPanel.getTilePanel().getSelectedTileIndex());
-			
-				// Redraw
-				parentMapPanel.getTile(currentIndex).repaint();
+				parentMapPanel.drawToCell(currentIndex, id);
 			}
 		}
-	}
-	
-	/**
-	 * Applies a transparent color to the map tile that is currently being hovered over
-	 */
-	private void applyHoverColor()
-	{
-		// Repaint all the old projected tiles
-		parentMapPanel.repaintProjectedTiles();
-		
-		// Clear the index list
-		parentMapPanel.clearProjectedIndexes();
-
-		// Determine which tiles should have the hover color applied to them
-		int drawCount = parentMapPanel.getDrawCount();
 		
-		for (int i = 0; i < drawCount; i++)
-		{
-			for (int j = 0; j < drawCount; j++)
-			{
-				// Calculate where each tile is
-				int currentIndex = index + i + (j * parentMapPanel.getWidthInTiles());
-				// Check to make sure that the tile index isn't out of bounds
-				if (!(currentIndex >= parentMapPanel.getTotalNumberOfTiles()))
-				{
-					parentMapPanel.getTile(currentIndex).setHovered(true);
-					parentMapPanel.getTile(currentIndex).repaint();
-					parentMapPanel.addToProjectedIndexes(currentIndex);
-				}
-			}
-		}
-	}
-	
-	/**
-	 * Simple function to determine if a tile is collidable or not
-	 * @return If 1, collidable. If 0, not collidable.
-	 */
-	public byte getCollidable()
-	{
-		if (collidable)
-			return 1;
-		else
-			return 0;
-	}
-	/**
-	 * Sets whether or not a tile is collidable
-	 * @param flag - Whether or not the tile is collidable
-	 */
-	public void setCollidable(byte flag)
-	{
-		if (flag == 0)
-			collidable = false;
-		else
-			collidable = true;
+		// Redraw the whole area at once
+		parentMapPanel.repaintTiles(index, brushWidth, brushHeight);
 	}
 	
 	/**
-	 * Sets whether or not the tile is being hovered over
-	 * @param flag - Whether or not the tile is being hovered over
+	 * Specialized MouseListener for this class. In placement mode the mouse moves
+	 * placed objects instead of drawing, so its position is passed on to the MapPanel.
 	 */
-	public void setHovered(boolean flag)
-	{
-		hovered = flag;
-	}
-	
-	/**
-	 * Specialized MouseListener for this class
-	 */
-	class MapTileListener implements MouseListener
+	class MapTileListener implements MouseListener, MouseMotionListener
 	{
 		public void mouseEntered(MouseEvent e) 
 		{	
+			// Placed objects are dragged in map pixels rather than by cell
+			if (parentMapPanel.placementModeEnabled())
+				return;
 			
-			if (e.getModifiers() == 16)	// If the mouse button is down as the mouse enters
+			// Dragging with shift held stretches the cell selection instead of drawing
+			if (e.isShiftDown() && (e.getModifiersEx() & MouseEvent.BUTTON1_DOWN_MASK) != 0)
+				parentMapPanel.extendCellSelection(index);
+			else if (e.getModifiers() == 16)	// If the mouse button is down as the mouse enters
 			{
 				// Check to see if collision mode isn't on
 				if (!parentMapPanel.collisionModeEnabled())
 				{
-					// Calculate draw count
-					int drawCount = parentMapPanel.getDrawCount();
-					
-					// If it's only 1, call single tile draw method
-					if (drawCount == 1)
+					// If the brush is only 1 tile, call single tile draw method
+					if (parentMapPanel.getBrushWidth() == 1 && parentMapPanel.getBrushHeight() == 1)
 						drawTile();
 					// Otherwise, draw multiple tiles
 					else
-						drawTiles(drawCount);
-					applyHoverColor();
+						drawTiles();
 				}
 	
-				// If it is on, and clicked, toggle the collidable bool
+				// If it is on, and clicked, toggle the flag being edited
 				else
-					collidable = !collidable;
-				repaint();
-				
-			}
-			else
-			{
-				if (parentMapPanel.collisionModeEnabled())
-				{
-					Graphics g = getGraphics();
-					g.setColor(collisionColor);
-					g.fillRect(0, 0, getWidth(), getHeight());
-				}
-				else
-					applyHoverColor();
+					parentMapPanel.toggleFlag(index);
 			}
+			
+			// Move the hover and brush preview, which the MapPanel draws over the tiles
+			parentMapPanel.setHoverIndex(index);
 		}
 
 		public void mousePressed(MouseEvent e) 
 		{
 			// Only execute if it's a left click
-			if (e.getButton() == MouseEvent.BUTTON1)
+			if (e.getButton() == MouseEvent.BUTTON1 && parentMapPanel.placementModeEnabled())
+				parentMapPanel.placementPressed(getX() + e.getX(), getY() + e.getY());
+			else if (e.getButton() == MouseEvent.BUTTON1 && e.isShiftDown())
+				parentMapPanel.startCellSelection(index);
+			else if (e.getButton() == MouseEvent.BUTTON1)
 			{
 				// Check to see if collision mode isn't on
 				if (!parentMapPanel.collisionModeEnabled())
 				{
-					// Calculate draw count
-					int drawCount = parentMapPanel.getDrawCount();
-					// If it's only 1, call single tile draw method
-					if (drawCount == 1)
+					// If the brush is only 1 tile, call single tile draw method
+					if (parentMapPanel.getBrushWidth() == 1 && parentMapPanel.getBrushHeight() == 1)
 						drawTile();
 					// Otherwise, draw multiple tiles
 					else
-						drawTiles(drawCount);
+						drawTiles();
 				}
 				
-				// If it is on, and clicked, toggle the collidable bool
+				// If it is on, and clicked, toggle the flag being edited
 				else
-					collidable = !collidable;
-				repaint();
+					parentMapPanel.toggleFlag(index);
+			}
+			
+			// Right clicks move the start and target of the path preview
+			else if (e.getButton() == MouseEvent.BUTTON3 && parentMapPanel.pathPreviewShown())
+			{
+				if (e.isShiftDown())
+					parentMapPanel.setPathTarget(index);
+				else
+					parentMapPanel.setPathStart(index);
 			}
 		}
 		
 		public void mouseClicked(MouseEvent e) {}
-		public void mouseExited(MouseEvent e) {repaint();}
-		public void mouseReleased(MouseEvent e) {}
+		public void mouseExited(MouseEvent e) 
+		{
+			// Hide the preview unless the mouse has already entered another tile
+			if (parentMapPanel.getHoverIndex() == index)
+				parentMapPanel.setHoverIndex(-1);
+		}
+		public void mouseReleased(MouseEvent e) 
+		{
+			// Auto-tile everything drawn since the mouse was pressed
+			if (e.getButton() == MouseEvent.BUTTON1 && !parentMapPanel.placementModeEnabled())
+				parentMapPanel.finishStroke();
+		}
+		public void mouseDragged(MouseEvent e)
+		{
+			// Drags go to the tile the mouse was pressed on, so its position gives the map position
+			if (parentMapPanel.placementModeEnabled())
+				parentMapPanel.placementDragged(getX() + e.getX(), getY() + e.getY());
+		}
+		public void mouseMoved(MouseEvent e)
+		{
+			if (parentMapPanel.placementModeEnabled())
+				parentMapPanel.placementMoved(getX() + e.getX(), getY() + e.getY());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks a map for data which the editor wouldn't have made and which would break
+ * a game loading it: cells using tiles or objects which the tile sheet doesn't
+ * have, collision cells with flags which don't exist, diagonal flips of tiles which
+ * aren't square, and placed objects which are empty or off the map.
+ */
+public class MapValidator
+{
+	private MapProject project;
+	private ArrayList<String> problems;
+
+	/**
+	 * Creates a validator for a map
+	 * @param project - The map to check
+	 */
+	public MapValidator(MapProject project)
+	{
+		this.project = project;
+	}
+
+	/**
+	 * Checks every layer and placed object of the map
+	 * @return A description of each problem found, which is empty if the map is valid
+	 */
+	public List<String> validate()
+	{
+		problems = new ArrayList<String>();
+		LayerStack layers = project.getLayers();
+		int width = project.getWidthInTiles();
+		int height = project.getHeightInTiles();
+
+		if (width <= 0 || height <= 0)
+			problems.add("The map is " + width + "x" + height + " cells");
+		if (layers.getCellCount() != width * height)
+			problems.add("The layers have " + layers.getCellCount() + " cells, but the map has " + (width * height));
+		if (!problems.isEmpty())
+			return problems;
+
+		for (int layer = 0; layer < layers.getLayerCount(); layer++)
+			checkLayer(layer);
+		checkPlacedObjects();
+
+		return problems;
+	}
+
+	/**
+	 * Checks the IDs of one layer, reporting how many cells have each kind of problem
+	 * and where the first one is
+	 * @param layer - The index of the layer
+	 */
+	private void checkLayer(int layer)
+	{
+		LayerStack layers = project.getLayers();
+		TileSheet sheet = project.getTileSheet();
+		int type = layers.getType(layer);
+		int width = project.getWidthInTiles();
+		boolean square = sheet.getWidthOfTiles() == sheet.getHeightOfTiles();
+		int limit = (type == LayerStack.TILE) ? sheet.tiles.size() - 1 : (type == LayerStack.OBJECT) ? sheet.objects.size() : CollisionPlanes.ALL_FLAGS;
+
+		int missing = 0, firstMissing = -1;
+		int flipped = 0, firstFlipped = -1;
+		for (int i = 0; i < layers.getCellCount(); i++)
+		{
+			int id = layers.get(layer, i);
+			if (LayerStack.isEmptyId(type, id))
+				continue;
+
+			int base = (type == LayerStack.FLAG) ? id : TileTransform.getBaseId(id);
+			if (base < 0 || base > limit)
+			{
+				if (missing++ == 0)
+					firstMissing = i;
+			}
+			else if (type != LayerStack.FLAG && !square && (TileTransform.getFlags(id) & TileTransform.FLIP_DIAGONAL) != 0)
+			{
+				if (flipped++ == 0)
+					firstFlipped = i;
+			}
+		}
+
+		// Flag layers can't hold unknown flags, so those were counted as the layer was read
+		if (type == LayerStack.FLAG && layers.getDroppedFlagCount(layer) > 0)
+		{
+			missing = layers.getDroppedFlagCount(layer);
+			firstMissing = layers.getFirstDroppedFlag(layer);
+		}
+
+		String name = "Layer '" + layers.getName(layer) + "': ";
+		if (missing > 0)
+		{
+			String what = (type == LayerStack.TILE) ? "tiles the sheet doesn't have" : (type == LayerStack.OBJECT) ? "objects the sheet doesn't have" : "unknown collision flags";
+			problems.add(name + missing + " cells use " + what + ", the first at " + describeCell(firstMissing, width));
+		}
+		if (flipped > 0)
+			problems.add(name + flipped + " cells flip tiles which aren't square diagonally, the first at " + describeCell(firstFlipped, width));
+	}
+
+	/**
+	 * Checks that every placed object has an area and is at least partly on the map
+	 */
+	private void checkPlacedObjects()
+	{
+		int mapWidth = project.getWidthInTiles() * project.getTileSheet().getWidthOfTiles();
+		int mapHeight = project.getHeightInTiles() * project.getTileSheet().getHeightOfTiles();
+
+		for (MapObject object : project.getPlacedObjects().getObjects())
+		{
+			String name = "Placed object '" + object.getType() + "' at " + object.getX() + "," + object.getY() + ": ";
+			if (object.getWidth() <= 0 || object.getHeight() <= 0)
+				problems.add(name + "it is " + object.getWidth() + "x" + object.getHeight() + " pixels");
+			else if (!object.intersects(0, 0, mapWidth, mapHeight))
+				problems.add(name + "it is entirely off the map");
+		}
+	}
+
+	/**
+	 * Describes where a cell is
+	 * @param index - The row major index of the cell
+	 * @param width - The width of the map
+	 * @return The column and row of the cell
+	 */
+	private static String describeCell(int index, int width)
+	{
+		// Only the first dropped flag of a flag layer can have been cropped off the map
+		if (index < 0)
+			return "a cell since cropped off the map";
+		return (index % width) + "," + (index / width);
+	}
+}
@@ -0,0 +1,262 @@
+package core;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * A small overview of the whole map which shows which part of it is currently
+ * in view. The map is kept as an image with one pixel per cell, colored with the
+ * average colors of the tiles and objects on the cell's visible layers, and only the pixels of cells that
+ * are drawn to get updated. Repaints are paced by a RepaintScheduler, so drawing to
+ * many cells at once only repaints the minimap once per frame. Clicking or dragging
+ * on it scrolls the map there.
+ */
+public class MiniMap extends JPanel
+{
+	private static final long serialVersionUID = -3175406851627924803L;
+	private static final int MAX_SCALE = 4;
+	private final Color viewportColor = new Color(255, 255, 255, 200);
+	private MapPanel mapPanel;
+	private JViewport viewport;
+	private BufferedImage image;
+	private int[] pixels;
+	private int xTiles, yTiles;
+	private RepaintScheduler repaintScheduler;
+
+	/**
+	 * Creates the minimap of a map
+	 * @param mapPanel - The MapPanel to show an overview of
+	 * @param scrollPane - The JScrollPane the MapPanel is shown in
+	 */
+	public MiniMap(MapPanel mapPanel, JScrollPane scrollPane)
+	{
+		this.mapPanel = mapPanel;
+		viewport = scrollPane.getViewport();
+		xTiles = mapPanel.getWidthInTiles();
+		yTiles = mapPanel.getHeightInTiles();
+
+		image = new BufferedImage(xTiles, yTiles, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		repaintScheduler = new RepaintScheduler(this);
+
+		setBackground(Color.DARK_GRAY);
+		setPreferredSize(new Dimension(160, 160));
+
+		// Move the viewport rectangle whenever the map is scrolled
+		viewport.addChangeListener(new ViewportChangeListener());
+
+		MiniMapMouseListener listener = new MiniMapMouseListener();
+		addMouseListener(listener);
+		addMouseMotionListener(listener);
+
+		rebuild();
+	}
+
+	/**
+	 * Makes the minimap the new size of the map, for when the map has been resized.
+	 * It is recolored by the next rebuild.
+	 */
+	public void mapResized()
+	{
+		xTiles = mapPanel.getWidthInTiles();
+		yTiles = mapPanel.getHeightInTiles();
+		image = new BufferedImage(xTiles, yTiles, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Recolors every cell of the minimap from the map
+	 */
+	public void rebuild()
+	{
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = getCellColor(i);
+		repaint();
+	}
+
+	/**
+	 * Gets the scheduler which paces the repaints of this minimap
+	 * @return The RepaintScheduler of this minimap
+	 */
+	public RepaintScheduler getRepaintScheduler()
+	{
+		return repaintScheduler;
+	}
+
+	/**
+	 * Recolors a single cell, for when it has been drawn to
+	 * @param index - The index of the cell
+	 */
+	public void updateCell(int index)
+	{
+		int color = getCellColor(index);
+		if (pixels[index] == color)
+			return;
+		pixels[index] = color;
+
+		Rectangle area = getMapArea();
+		double scaleX = (double) area.width / xTiles;
+		double scaleY = (double) area.height / yTiles;
+		int x = index % xTiles;
+		int y = index / xTiles;
+
+		int left = area.x + (int) Math.floor(x * scaleX);
+		int top = area.y + (int) Math.floor(y * scaleY);
+		int right = area.x + (int) Math.ceil((x + 1) * scaleX);
+		int bottom = area.y + (int) Math.ceil((y + 1) * scaleY);
+
+		// The viewport outline may be drawn over the cell too
+		repaintScheduler.addDirtyRegion(left - 1, top - 1, right - left + 2, bottom - top + 2);
+	}
+
+	/**
+	 * Draws the map overview and the rectangle showing what part of the map is in view
+	 * @param g - The graphics context to draw in
+	 */
+	public void paintComponent(Graphics g)
+	{
+		super.paintComponent(g);
+
+		Rectangle area = getMapArea();
+		Graphics2D g2 = (Graphics2D) g;
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g2.drawImage(image, area.x, area.y, area.width, area.height, null);
+
+		// Outline the part of the map which is in view
+		Rectangle view = viewport.getViewRect();
+		double scaleX = (double) area.width / (xTiles * getTileWidth());
+		double scaleY = (double) area.height / (yTiles * getTileHeight());
+		g2.setColor(viewportColor);
+		g2.drawRect(area.x + (int) (view.x * scaleX), area.y + (int) (view.y * scaleY),
+				Math.max(1, (int) (view.width * scaleX) - 1), Math.max(1, (int) (view.height * scaleY) - 1));
+	}
+
+	/**
+	 * Gets the color a cell is shown with
+	 * @param index - The index of the cell
+	 * @return The RGB color of the cell
+	 */
+	private int getCellColor(int index)
+	{
+		TileSheet sheet = mapPanel.getTilePanel().getTileSheet();
+		LayerStack layers = mapPanel.getLayerStack();
+		int red = 0, green = 0, blue = 0;
+
+		// Each visible tile and object layer over black, from the bottom one up
+		for (int layer : layers.getDrawnLayers((1 << LayerStack.TILE) | (1 << LayerStack.OBJECT)))
+		{
+			int color = sheet.getAverageColor(layers.getType(layer) == LayerStack.OBJECT, layers.get(layer, index));
+			int alpha = color >>> 24;
+			if (alpha == 0)
+				continue;
+
+			red = (red * (255 - alpha) + ((color >> 16) & 0xFF) * alpha) / 255;
+			green = (green * (255 - alpha) + ((color >> 8) & 0xFF) * alpha) / 255;
+			blue = (blue * (255 - alpha) + (color & 0xFF) * alpha) / 255;
+		}
+
+		return red << 16 | green << 8 | blue;
+	}
+
+	/**
+	 * Works out where the map overview is drawn. Small maps get a whole number of
+	 * pixels per cell, and large ones are shrunk to fit.
+	 * @return The area of this panel the map overview covers
+	 */
+	private Rectangle getMapArea()
+	{
+		Insets insets = getInsets();
+		int availableWidth = Math.max(1, getWidth() - insets.left - insets.right);
+		int availableHeight = Math.max(1, getHeight() - insets.top - insets.bottom);
+
+		double scale = Math.min((double) availableWidth / xTiles, (double) availableHeight / yTiles);
+		if (scale >= 1)
+			scale = Math.min(MAX_SCALE, Math.floor(scale));
+
+		int width = Math.max(1, (int) (xTiles * scale));
+		int height = Math.max(1, (int) (yTiles * scale));
+
+		return new Rectangle(insets.left + (availableWidth - width) / 2, insets.top + (availableHeight - height) / 2, width, height);
+	}
+
+	/**
+	 * Scrolls the map so that the point of the minimap is in the middle of the view
+	 * @param p - The point on the minimap
+	 */
+	private void scrollTo(Point p)
+	{
+		Rectangle area = getMapArea();
+		Dimension extent = viewport.getExtentSize();
+		Dimension size = viewport.getViewSize();
+
+		int x = (int) ((double) (p.x - area.x) / area.width * xTiles * getTileWidth()) - extent.width / 2;
+		int y = (int) ((double) (p.y - area.y) / area.height * yTiles * getTileHeight()) - extent.height / 2;
+		x = Math.max(0, Math.min(x, size.width - extent.width));
+		y = Math.max(0, Math.min(y, size.height - extent.height));
+
+		viewport.setViewPosition(new Point(x, y));
+	}
+
+	/**
+	 * Gets the width of a cell of the map in pixels
+	 * @return The width of the tiles of the map
+	 */
+	private int getTileWidth()
+	{
+		return mapPanel.getTilePanel().getTileSheet().getWidthOfTiles();
+	}
+
+	/**
+	 * Gets the height of a cell of the map in pixels
+	 * @return The height of the tiles of the map
+	 */
+	private int getTileHeight()
+	{
+		return mapPanel.getTilePanel().getTileSheet().getHeightOfTiles();
+	}
+
+	/**
+	 * ChangeListener which redraws the viewport rectangle when the map is scrolled
+	 */
+	class ViewportChangeListener implements ChangeListener
+	{
+		public void stateChanged(ChangeEvent e)
+		{
+			repaintScheduler.repaintAll();
+		}
+	}
+
+	/**
+	 * Mouse listener which scrolls the map to where the minimap is clicked or dragged to
+	 */
+	class MiniMapMouseListener extends MouseAdapter
+	{
+		public void mousePressed(MouseEvent e)
+		{
+			if (SwingUtilities.isLeftMouseButton(e))
+				scrollTo(e.getPoint());
+		}
+
+		public void mouseDragged(MouseEvent e)
+		{
+			if (SwingUtilities.isLeftMouseButton(e))
+				scrollTo(e.getPoint());
+		}
+	}
+}
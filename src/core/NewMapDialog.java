@@ -267,6 +267,7 @@ public class NewMapDialog extends JDialog
 		// Create a new TileSheet 
 		TileSheet sheet = new TileSheet(new File(selectedFilePath), (Integer)xSize.getValue(), (Integer)ySize.getValue(), transparentColor);
 		System.out.println("You chose to open this file: " + selectedFilePath);
+		System.out.println(sheet.describeMemoryUsage());
 		
 		// Create the map, tile, and object panels					
 		TilePanel tilePanel = new TilePanel(sheet, false);
@@ -0,0 +1,511 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Finds paths and distances over the collision flags of a map, for checking in the
+ * editor whether areas can be reached. A cell can be walked on unless its solid flag
+ * is set. Moves go to any of the eight neighbouring cells, but a diagonal move can't
+ * cut the corner of a solid cell, so the cells reachable from a start are the same
+ * as with only moving up, down, left and right.
+ *
+ * findPath runs A* with jump point search, which skips along straight and diagonal
+ * lines instead of adding every cell on them to the open list. computeDistances fills
+ * in how many steps each cell is from a start with a breadth first search. Every array
+ * either of them needs is kept between searches, and the arrays are only cleared by
+ * moving on to the next search's marks, so searching allocates nothing.
+ */
+public class PathFinder
+{
+	public static final int STRAIGHT_COST = 1000;
+	public static final int DIAGONAL_COST = 1414;
+	private static final int SOLID_FLAG = 0;
+
+	private CollisionPlanes planes;
+	private long[] solid;
+	private int wordsPerRow;
+	private int width, height;
+	private int targetX, targetY;
+
+	// Kept between searches
+	private int[] distances;
+	private int[] queue;
+	private int[] costs, scores, parents, marks, heapIndexes;
+	private int mark;
+	private int heapSize;
+	private int[] path;
+	private int pathLength, pathCost;
+
+	/**
+	 * Creates a path finder for the collision flags of a map
+	 * @param planes - The collision flags, which are read by every search
+	 */
+	public PathFinder(CollisionPlanes planes)
+	{
+		setPlanes(planes);
+	}
+
+	/**
+	 * Changes the collision flags searched over, keeping the arrays if the size is the same
+	 * @param planes - The collision flags
+	 */
+	public void setPlanes(CollisionPlanes planes)
+	{
+		this.planes = planes;
+		solid = planes.getWords(SOLID_FLAG);
+		wordsPerRow = planes.getWordsPerRow();
+		if (planes.getWidth() == width && planes.getHeight() == height)
+			return;
+
+		width = planes.getWidth();
+		height = planes.getHeight();
+		distances = null;
+		queue = null;
+		costs = scores = parents = marks = heapIndexes = null;
+		path = new int[16];
+		pathLength = 0;
+	}
+
+	/**
+	 * Gets the collision flags searched over
+	 * @return The planes, which can be changed between searches
+	 */
+	public CollisionPlanes getPlanes()
+	{
+		return planes;
+	}
+
+	/**
+	 * Tells whether a cell can be walked on
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return True if the cell is on the map and isn't solid
+	 */
+	public boolean isWalkable(int x, int y)
+	{
+		return x >= 0 && y >= 0 && x < width && y < height && (solid[y * wordsPerRow + (x >>> 6)] & (1L << x)) == 0;
+	}
+
+	/**
+	 * Tells whether a cell on the map can be walked on, without checking that it's on the map
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return True if the cell isn't solid
+	 */
+	private boolean isOpen(int x, int y)
+	{
+		return (solid[y * wordsPerRow + (x >>> 6)] & (1L << x)) == 0;
+	}
+
+	/**
+	 * Works out how many steps up, down, left and right each cell is from a start
+	 * @param start - The index of the start cell
+	 * @return The distance of the furthest cell, or -1 if the start is solid
+	 */
+	public int computeDistances(int start)
+	{
+		if (distances == null)
+			distances = new int[width * height];
+		if (queue == null)
+			queue = new int[width * height];
+		Arrays.fill(distances, -1);
+
+		if (!isWalkable(start % width, start / width))
+			return -1;
+
+		int head = 0, tail = 0;
+		queue[tail++] = start;
+		distances[start] = 0;
+
+		while (head < tail)
+		{
+			int index = queue[head++];
+			int x = index % width;
+			int y = index / width;
+			int next = distances[index] + 1;
+
+			if (x > 0 && distances[index - 1] < 0 && isOpen(x - 1, y))
+			{
+				distances[index - 1] = next;
+				queue[tail++] = index - 1;
+			}
+			if (x < width - 1 && distances[index + 1] < 0 && isOpen(x + 1, y))
+			{
+				distances[index + 1] = next;
+				queue[tail++] = index + 1;
+			}
+			if (y > 0 && distances[index - width] < 0 && isOpen(x, y - 1))
+			{
+				distances[index - width] = next;
+				queue[tail++] = index - width;
+			}
+			if (y < height - 1 && distances[index + width] < 0 && isOpen(x, y + 1))
+			{
+				distances[index + width] = next;
+				queue[tail++] = index + width;
+			}
+		}
+
+		// The last cell taken off the queue is the furthest
+		return distances[queue[tail - 1]];
+	}
+
+	/**
+	 * Gets the distances worked out by the last call to computeDistances
+	 * @return The number of steps to each cell, or -1 for the cells which can't be
+	 * reached, which is changed by the next call
+	 */
+	public int[] getDistances()
+	{
+		return distances;
+	}
+
+	/**
+	 * Finds the shortest path between two cells
+	 * @param start - The index of the start cell
+	 * @param target - The index of the target cell
+	 * @return True if there is a path, which can then be read with getPath
+	 */
+	public boolean findPath(int start, int target)
+	{
+		if (costs == null)
+		{
+			int cellCount = width * height;
+			costs = new int[cellCount];
+			scores = new int[cellCount];
+			parents = new int[cellCount];
+			marks = new int[cellCount];
+			heapIndexes = new int[cellCount];
+			if (queue == null)
+				queue = new int[cellCount];
+		}
+
+		// A cell is open while its mark is the search's, and closed once it is one more
+		mark += 2;
+		if (mark < 0)
+		{
+			Arrays.fill(marks, 0);
+			mark = 2;
+		}
+		pathLength = 0;
+		pathCost = 0;
+		heapSize = 0;
+		targetX = target % width;
+		targetY = target / width;
+
+		if (!isWalkable(start % width, start / width) || !isWalkable(targetX, targetY))
+			return false;
+
+		open(start, -1, 0);
+		while (heapSize > 0)
+		{
+			int index = pop();
+			marks[index] = mark + 1;
+			if (index == target)
+			{
+				buildPath(target);
+				return true;
+			}
+			addSuccessors(index);
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the path found by the last call to findPath, as the cells where it changes direction
+	 * @return The indexes of the cells from the start to the target, of which only the
+	 * first getPathLength are used, and which is changed by the next search
+	 */
+	public int[] getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Gets the number of cells in the path found by the last call to findPath
+	 * @return The number of cells, or 0 if no path was found
+	 */
+	public int getPathLength()
+	{
+		return pathLength;
+	}
+
+	/**
+	 * Gets the length of the path found by the last call to findPath
+	 * @return The cost, where a straight step costs STRAIGHT_COST and a diagonal one DIAGONAL_COST
+	 */
+	public int getPathCost()
+	{
+		return pathCost;
+	}
+
+	/**
+	 * Jumps from a cell in each direction worth looking in. The first cell looks in all eight,
+	 * and every other cell only looks past where its parent was, and to the sides where a
+	 * wall beside the line it came along ends.
+	 * @param index - The index of the cell
+	 */
+	private void addSuccessors(int index)
+	{
+		int x = index % width;
+		int y = index / width;
+		int parent = parents[index];
+
+		if (parent < 0)
+		{
+			for (int dy = -1; dy <= 1; dy++)
+			{
+				for (int dx = -1; dx <= 1; dx++)
+				{
+					if ((dx != 0 || dy != 0) && canMove(x, y, dx, dy))
+						jumpFrom(index, x, y, dx, dy);
+				}
+			}
+			return;
+		}
+
+		int dx = Integer.signum(x - parent % width);
+		int dy = Integer.signum(y - parent / width);
+		if (dx != 0 && dy != 0)
+		{
+			boolean vertical = isWalkable(x, y + dy);
+			boolean horizontal = isWalkable(x + dx, y);
+			if (vertical)
+				jumpFrom(index, x, y, 0, dy);
+			if (horizontal)
+				jumpFrom(index, x, y, dx, 0);
+			if (vertical && horizontal && isWalkable(x + dx, y + dy))
+				jumpFrom(index, x, y, dx, dy);
+		}
+		else if (dx != 0)
+		{
+			boolean ahead = isWalkable(x + dx, y);
+			boolean below = isWalkable(x, y + 1);
+			boolean above = isWalkable(x, y - 1);
+			if (ahead)
+			{
+				jumpFrom(index, x, y, dx, 0);
+				if (below && isWalkable(x + dx, y + 1))
+					jumpFrom(index, x, y, dx, 1);
+				if (above && isWalkable(x + dx, y - 1))
+					jumpFrom(index, x, y, dx, -1);
+			}
+			if (below)
+				jumpFrom(index, x, y, 0, 1);
+			if (above)
+				jumpFrom(index, x, y, 0, -1);
+		}
+		else
+		{
+			boolean ahead = isWalkable(x, y + dy);
+			boolean right = isWalkable(x + 1, y);
+			boolean left = isWalkable(x - 1, y);
+			if (ahead)
+			{
+				jumpFrom(index, x, y, 0, dy);
+				if (right && isWalkable(x + 1, y + dy))
+					jumpFrom(index, x, y, 1, dy);
+				if (left && isWalkable(x - 1, y + dy))
+					jumpFrom(index, x, y, -1, dy);
+			}
+			if (right)
+				jumpFrom(index, x, y, 1, 0);
+			if (left)
+				jumpFrom(index, x, y, -1, 0);
+		}
+	}
+
+	/**
+	 * Tells whether a step can be taken from a cell, which for a diagonal step means
+	 * both of the cells beside it have to be walkable too
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param dx - The step across, -1, 0 or 1
+	 * @param dy - The step down, -1, 0 or 1
+	 * @return True if the step can be taken
+	 */
+	private boolean canMove(int x, int y, int dx, int dy)
+	{
+		return isWalkable(x + dx, y + dy) && (dx == 0 || dy == 0 || (isWalkable(x + dx, y) && isWalkable(x, y + dy)));
+	}
+
+	/**
+	 * Jumps from a cell in a direction and opens the jump point found, if any
+	 * @param index - The index of the cell jumped from
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param dx - The step across, -1, 0 or 1
+	 * @param dy - The step down, -1, 0 or 1
+	 */
+	private void jumpFrom(int index, int x, int y, int dx, int dy)
+	{
+		int jumpPoint = jump(x + dx, y + dy, dx, dy);
+		if (jumpPoint < 0 || marks[jumpPoint] == mark + 1)
+			return;
+
+		int cost = costs[index] + getDistance(x, y, jumpPoint % width, jumpPoint / width);
+		if (marks[jumpPoint] != mark)
+			open(jumpPoint, index, cost);
+		else if (cost < costs[jumpPoint])
+		{
+			costs[jumpPoint] = cost;
+			scores[jumpPoint] = cost + getDistance(jumpPoint % width, jumpPoint / width, targetX, targetY);
+			parents[jumpPoint] = index;
+			siftUp(heapIndexes[jumpPoint]);
+		}
+	}
+
+	/**
+	 * Steps in a direction until reaching a cell worth stopping at: the target, a cell
+	 * beside the end of a wall, or for diagonal steps, a cell from which a straight
+	 * jump finds one of those
+	 * @param x - The column of the first cell stepped on
+	 * @param y - The row of the first cell stepped on
+	 * @param dx - The step across, -1, 0 or 1
+	 * @param dy - The step down, -1, 0 or 1
+	 * @return The index of the cell stopped at, or -1 if a wall or the edge was reached first
+	 */
+	private int jump(int x, int y, int dx, int dy)
+	{
+		while (true)
+		{
+			if (!isWalkable(x, y))
+				return -1;
+			if (x == targetX && y == targetY)
+				return y * width + x;
+
+			if (dx != 0 && dy != 0)
+			{
+				if (jump(x + dx, y, dx, 0) >= 0 || jump(x, y + dy, 0, dy) >= 0)
+					return y * width + x;
+				if (!isWalkable(x + dx, y) || !isWalkable(x, y + dy))
+					return -1;
+			}
+			else if (dx != 0)
+			{
+				if ((isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1)) || (isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1)))
+					return y * width + x;
+			}
+			else
+			{
+				if ((isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy)) || (isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy)))
+					return y * width + x;
+			}
+
+			x += dx;
+			y += dy;
+		}
+	}
+
+	/**
+	 * Gets the cost of the shortest path between two cells with nothing in the way
+	 * @param x0 - The column of the first cell
+	 * @param y0 - The row of the first cell
+	 * @param x1 - The column of the second cell
+	 * @param y1 - The row of the second cell
+	 * @return The cost of the diagonal steps and then the straight ones
+	 */
+	private static int getDistance(int x0, int y0, int x1, int y1)
+	{
+		int across = Math.abs(x1 - x0);
+		int down = Math.abs(y1 - y0);
+		return DIAGONAL_COST * Math.min(across, down) + STRAIGHT_COST * Math.abs(across - down);
+	}
+
+	/**
+	 * Puts the cells of the path into the path array, from the start to the target
+	 * @param target - The index of the target cell
+	 */
+	private void buildPath(int target)
+	{
+		pathCost = costs[target];
+		for (int index = target; index >= 0; index = parents[index])
+			pathLength++;
+		if (path.length < pathLength)
+			path = new int[Math.max(pathLength, path.length * 2)];
+
+		int i = pathLength;
+		for (int index = target; index >= 0; index = parents[index])
+			path[--i] = index;
+	}
+
+	/**
+	 * Adds a cell to the open list
+	 * @param index - The index of the cell
+	 * @param parent - The index of the cell it was reached from, or -1 for the start
+	 * @param cost - The cost of reaching it
+	 */
+	private void open(int index, int parent, int cost)
+	{
+		marks[index] = mark;
+		costs[index] = cost;
+		scores[index] = cost + getDistance(index % width, index / width, targetX, targetY);
+		parents[index] = parent;
+
+		queue[heapSize] = index;
+		heapIndexes[index] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	/**
+	 * Takes the cell with the lowest score off the open list, which is kept as a
+	 * binary heap in the queue array
+	 * @return The index of the cell
+	 */
+	private int pop()
+	{
+		int top = queue[0];
+		heapSize--;
+		if (heapSize > 0)
+		{
+			queue[0] = queue[heapSize];
+			heapIndexes[queue[0]] = 0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Moves a cell of the heap up until its parent's score isn't higher
+	 * @param position - The position of the cell in the heap
+	 */
+	private void siftUp(int position)
+	{
+		int index = queue[position];
+		while (position > 0)
+		{
+			int parent = (position - 1) >>> 1;
+			if (scores[queue[parent]] <= scores[index])
+				break;
+			queue[position] = queue[parent];
+			heapIndexes[queue[position]] = position;
+			position = parent;
+		}
+		queue[position] = index;
+		heapIndexes[index] = position;
+	}
+
+	/**
+	 * Moves a cell of the heap down until neither child's score is lower
+	 * @param position - The position of the cell in the heap
+	 */
+	private void siftDown(int position)
+	{
+		int index = queue[position];
+		while (true)
+		{
+			int child = 2 * position + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && scores[queue[child + 1]] < scores[queue[child]])
+				child++;
+			if (scores[queue[child]] >= scores[index])
+				break;
+			queue[position] = queue[child];
+			heapIndexes[queue[position]] = position;
+			position = child;
+		}
+		queue[position] = index;
+		heapIndexes[index] = position;
+	}
+}
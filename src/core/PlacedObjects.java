@@ -0,0 +1,302 @@
+package core;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The freely placed objects of a map, kept in a uniform grid so that the objects
+ * in an area can be found without looking at the rest. The map is split into
+ * square buckets, and each object is listed in every bucket it overlaps. Finding
+ * the objects in a rectangle only looks at the buckets it covers, and finding the
+ * object under a point only looks at one bucket, so painting the view and picking
+ * under the cursor stay fast however many objects the map has.
+ *
+ * Objects are drawn in the order they were placed, so the one placed last is on top.
+ */
+public class PlacedObjects
+{
+	public static final int DEFAULT_BUCKET_SIZE = 256;
+	private static final Comparator<MapObject> PLACEMENT_ORDER = new PlacementOrderComparator();
+
+	private int bucketSize, columns, rows;
+	private MapObject[][] buckets;
+	private int[] bucketSizes;
+	private ArrayList<MapObject> objects;
+	private long nextOrder;
+	private int queryMark;
+
+	/**
+	 * Creates an empty set of objects for a map
+	 * @param mapWidth - The width of the map in pixels
+	 * @param mapHeight - The height of the map in pixels
+	 * @param bucketSize - The width and height of each bucket of the grid in pixels
+	 */
+	public PlacedObjects(int mapWidth, int mapHeight, int bucketSize)
+	{
+		this.bucketSize = bucketSize;
+		columns = Math.max(1, (mapWidth + bucketSize - 1) / bucketSize);
+		rows = Math.max(1, (mapHeight + bucketSize - 1) / bucketSize);
+
+		// Buckets are only allocated once something is put in them
+		buckets = new MapObject[columns * rows][];
+		bucketSizes = new int[columns * rows];
+		objects = new ArrayList<MapObject>();
+	}
+
+	/**
+	 * Creates an empty set of objects for a map, with the default bucket size
+	 * @param mapWidth - The width of the map in pixels
+	 * @param mapHeight - The height of the map in pixels
+	 */
+	public PlacedObjects(int mapWidth, int mapHeight)
+	{
+		this(mapWidth, mapHeight, DEFAULT_BUCKET_SIZE);
+	}
+
+	/**
+	 * Creates a copy of these objects and their index, for taking a snapshot of the map
+	 * @return The copy, whose objects are copies too
+	 */
+	public PlacedObjects copy()
+	{
+		PlacedObjects copy = new PlacedObjects(columns * bucketSize, rows * bucketSize, bucketSize);
+		for (MapObject object : objects)
+			copy.add(object.copy());
+		return copy;
+	}
+
+	/**
+	 * Creates a copy of these objects moved by an offset onto a map of another size,
+	 * for when the map is resized, cropped or shifted. Objects left entirely off the
+	 * new map are dropped, unless they wrap around onto the other side of it.
+	 * @param offsetX - How many pixels right each object moves
+	 * @param offsetY - How many pixels down each object moves
+	 * @param mapWidth - The width of the new map in pixels
+	 * @param mapHeight - The height of the new map in pixels
+	 * @param wrap - True to bring objects moved off one edge back on at the other
+	 * @return The moved copy, which keeps the order the objects are drawn in
+	 */
+	public PlacedObjects shift(int offsetX, int offsetY, int mapWidth, int mapHeight, boolean wrap)
+	{
+		PlacedObjects shifted = new PlacedObjects(mapWidth, mapHeight, bucketSize);
+		for (MapObject object : objects)
+		{
+			int x = object.getX() + offsetX;
+			int y = object.getY() + offsetY;
+			if (wrap)
+			{
+				x = Math.floorMod(x, mapWidth);
+				y = Math.floorMod(y, mapHeight);
+			}
+			else if (!object.intersects(-offsetX, -offsetY, mapWidth - offsetX, mapHeight - offsetY))
+				continue;
+
+			MapObject copy = object.copy();
+			copy.setBounds(x, y, object.getWidth(), object.getHeight());
+			shifted.add(copy);
+		}
+		return shifted;
+	}
+
+	/**
+	 * Gets the number of objects
+	 * @return The number of objects on the map
+	 */
+	public int size()
+	{
+		return objects.size();
+	}
+
+	/**
+	 * Gets every object, in the order they are drawn
+	 * @return The objects, which must not be changed
+	 */
+	public List<MapObject> getObjects()
+	{
+		return Collections.unmodifiableList(objects);
+	}
+
+	/**
+	 * Places an object on top of the others
+	 * @param object - The object, which mustn't be in any other PlacedObjects
+	 */
+	public void add(MapObject object)
+	{
+		object.order = nextOrder++;
+		objects.add(object);
+		index(object);
+	}
+
+	/**
+	 * Takes an object off the map
+	 * @param object - The object to remove
+	 */
+	public void remove(MapObject object)
+	{
+		unindex(object);
+		objects.remove(object);
+	}
+
+	/**
+	 * Moves and resizes an object
+	 * @param object - The object
+	 * @param x - The new x coordinate of its left edge, in map pixels
+	 * @param y - The new y coordinate of its top edge, in map pixels
+	 * @param width - The new width
+	 * @param height - The new height
+	 */
+	public void setBounds(MapObject object, int x, int y, int width, int height)
+	{
+		unindex(object);
+		object.setBounds(x, y, width, height);
+		index(object);
+	}
+
+	/**
+	 * Finds the objects which overlap a rectangle
+	 * @param area - The rectangle in map pixels
+	 * @param result - The list to add the objects to, in the order they are drawn
+	 */
+	public void query(Rectangle area, List<MapObject> result)
+	{
+		if (area.isEmpty())
+			return;
+
+		int right = area.x + area.width;
+		int bottom = area.y + area.height;
+		int firstColumn = getColumn(area.x);
+		int lastColumn = getColumn(right - 1);
+		int firstRow = getRow(area.y);
+		int lastRow = getRow(bottom - 1);
+		int start = result.size();
+
+		// Objects in more than one bucket are only added the first time they are seen
+		int mark = ++queryMark;
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				int bucket = row * columns + column;
+				MapObject[] bucketObjects = buckets[bucket];
+				for (int i = 0; i < bucketSizes[bucket]; i++)
+				{
+					MapObject object = bucketObjects[i];
+					if (object.queryMark != mark && object.intersects(area.x, area.y, right, bottom))
+					{
+						object.queryMark = mark;
+						result.add(object);
+					}
+				}
+			}
+		}
+
+		Collections.sort(result.subList(start, result.size()), PLACEMENT_ORDER);
+	}
+
+	/**
+	 * Finds the object under a point. Where objects overlap, the one on top is found.
+	 * @param x - The x coordinate in map pixels
+	 * @param y - The y coordinate in map pixels
+	 * @return The top object under the point, or null if there is none
+	 */
+	public MapObject getObjectAt(int x, int y)
+	{
+		int bucket = getRow(y) * columns + getColumn(x);
+		MapObject[] bucketObjects = buckets[bucket];
+		MapObject top = null;
+
+		for (int i = 0; i < bucketSizes[bucket]; i++)
+		{
+			MapObject object = bucketObjects[i];
+			if (object.contains(x, y) && (top == null || object.order > top.order))
+				top = object;
+		}
+
+		return top;
+	}
+
+	/**
+	 * Adds an object to every bucket it overlaps
+	 * @param object - The object
+	 */
+	private void index(MapObject object)
+	{
+		for (int row = getRow(object.getY()); row <= getRow(object.getY() + object.getHeight() - 1); row++)
+		{
+			for (int column = getColumn(object.getX()); column <= getColumn(object.getX() + object.getWidth() - 1); column++)
+			{
+				int bucket = row * columns + column;
+				if (buckets[bucket] == null)
+					buckets[bucket] = new MapObject[4];
+				else if (bucketSizes[bucket] == buckets[bucket].length)
+					buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+
+				buckets[bucket][bucketSizes[bucket]++] = object;
+			}
+		}
+	}
+
+	/**
+	 * Takes an object out of every bucket it overlaps
+	 * @param object - The object
+	 */
+	private void unindex(MapObject object)
+	{
+		for (int row = getRow(object.getY()); row <= getRow(object.getY() + object.getHeight() - 1); row++)
+		{
+			for (int column = getColumn(object.getX()); column <= getColumn(object.getX() + object.getWidth() - 1); column++)
+			{
+				int bucket = row * columns + column;
+				MapObject[] bucketObjects = buckets[bucket];
+
+				// The order within a bucket doesn't matter, so the last object fills the gap
+				for (int i = 0; i < bucketSizes[bucket]; i++)
+				{
+					if (bucketObjects[i] == object)
+					{
+						bucketObjects[i] = bucketObjects[--bucketSizes[bucket]];
+						bucketObjects[bucketSizes[bucket]] = null;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the column of buckets an x coordinate is in. Anything off the map is
+	 * kept in the buckets along its edge.
+	 * @param x - The x coordinate in map pixels
+	 * @return The column of buckets
+	 */
+	private int getColumn(int x)
+	{
+		return Math.max(0, Math.min(columns - 1, Math.floorDiv(x, bucketSize)));
+	}
+
+	/**
+	 * Gets the row of buckets a y coordinate is in. Anything off the map is kept
+	 * in the buckets along its edge.
+	 * @param y - The y coordinate in map pixels
+	 * @return The row of buckets
+	 */
+	private int getRow(int y)
+	{
+		return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, bucketSize)));
+	}
+
+	/**
+	 * Comparator which puts objects in the order they were placed
+	 */
+	static class PlacementOrderComparator implements Comparator<MapObject>
+	{
+		public int compare(MapObject a, MapObject b)
+		{
+			return (a.order < b.order) ? -1 : (a.order == b.order) ? 0 : 1;
+		}
+	}
+}
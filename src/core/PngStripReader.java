@@ -0,0 +1,264 @@
+package core;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Vector;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG a few rows at a time, so that a huge tile sheet can be cut into
+ * tiles without the whole sheet ever being decoded into one image. The IDAT chunks
+ * are inflated as one stream and each row is unfiltered against the row above it,
+ * so only two rows of raw bytes are kept.
+ *
+ * Only the kinds of PNG which ImageIO turns into the same colors are read: 8 bit
+ * RGB without a transparent color, 8 bit RGBA, and paletted images of any bit depth.
+ * Anything else, such as grayscale or interlaced images, should be read with ImageIO.
+ */
+class PngStripReader
+{
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+	private static final int RGBA = 6;
+
+	private int width, height;
+	private int bitDepth, colorType, interlace;
+	private boolean transparentColor;
+	private int[] palette;
+	private DataInputStream data;
+	private int bytesPerPixel, rowBytes;
+	private byte[] previous, current;
+	private int rowsRead;
+
+	/**
+	 * Reads the header and palette of a PNG, and gets ready to decode its rows
+	 * @param png - The bytes of the PNG file
+	 * @throws IOException If the bytes aren't a PNG
+	 */
+	public PngStripReader(byte[] png) throws IOException
+	{
+		if (!isPng(png))
+			throw new IOException("Not a PNG");
+
+		Vector<InputStream> idat = new Vector<InputStream>();
+		int offset = SIGNATURE.length;
+		while (offset + 8 <= png.length)
+		{
+			int length = readInt(png, offset);
+			String type = new String(png, offset + 4, 4, "US-ASCII");
+			int start = offset + 8;
+			if (length < 0 || start + length > png.length)
+				throw new IOException("Truncated PNG chunk " + type);
+
+			if (type.equals("IHDR"))
+			{
+				width = readInt(png, start);
+				height = readInt(png, start + 4);
+				bitDepth = png[start + 8] & 0xFF;
+				colorType = png[start + 9] & 0xFF;
+				interlace = png[start + 12] & 0xFF;
+			}
+			else if (type.equals("PLTE"))
+			{
+				palette = new int[length / 3];
+				for (int i = 0; i < palette.length; i++)
+					palette[i] = 0xFF000000 | (png[start + i * 3] & 0xFF) << 16 | (png[start + i * 3 + 1] & 0xFF) << 8 | (png[start + i * 3 + 2] & 0xFF);
+			}
+			else if (type.equals("tRNS"))
+			{
+				transparentColor = true;
+				for (int i = 0; palette != null && i < Math.min(length, palette.length); i++)
+					palette[i] = (palette[i] & 0x00FFFFFF) | (png[start + i] & 0xFF) << 24;
+			}
+			else if (type.equals("IDAT"))
+				idat.add(new ByteArrayInputStream(png, start, length));
+			else if (type.equals("IEND"))
+				break;
+
+			// Skip the data and the CRC
+			offset = start + length + 4;
+		}
+
+		int samples = (colorType == RGB) ? 3 : (colorType == RGBA) ? 4 : 1;
+		bytesPerPixel = Math.max(1, samples * bitDepth / 8);
+		rowBytes = (width * samples * bitDepth + 7) / 8;
+		previous = new byte[rowBytes];
+		current = new byte[rowBytes];
+		data = new DataInputStream(new InflaterInputStream(new SequenceInputStream(idat.elements())));
+	}
+
+	/**
+	 * Tells whether some bytes start like a PNG file
+	 * @param bytes - The bytes of the file
+	 * @return True if they have the PNG signature
+	 */
+	public static boolean isPng(byte[] bytes)
+	{
+		if (bytes == null || bytes.length < SIGNATURE.length)
+			return false;
+		for (int i = 0; i < SIGNATURE.length; i++)
+		{
+			if (bytes[i] != SIGNATURE[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether this reader can decode the image to the same colors ImageIO would
+	 * @return True if the rows can be read with readRows
+	 */
+	public boolean isSupported()
+	{
+		if (interlace != 0)
+			return false;
+		if (colorType == PALETTE)
+			return palette != null && (bitDepth == 1 || bitDepth == 2 || bitDepth == 4 || bitDepth == 8);
+		return bitDepth == 8 && (colorType == RGBA || (colorType == RGB && !transparentColor));
+	}
+
+	/**
+	 * Gets the width of the image
+	 * @return The width in pixels
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the image
+	 * @return The height in pixels
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Decodes the next rows of the image as ARGB pixels
+	 * @param pixels - The array to decode into, which holds at least rows * width pixels
+	 * @param rows - The number of rows to decode
+	 * @throws IOException If the image data is cut short or corrupt
+	 */
+	public void readRows(int[] pixels, int rows) throws IOException
+	{
+		for (int row = 0; row < rows; row++)
+		{
+			if (rowsRead++ == height)
+				throw new IOException("Read past the last row of the PNG");
+
+			int filter = data.readUnsignedByte();
+			byte[] swap = previous;
+			previous = current;
+			current = swap;
+			data.readFully(current);
+			unfilter(filter);
+			convertRow(pixels, row * width);
+		}
+	}
+
+	/**
+	 * Undoes the filter of the row just read, using the row above it
+	 * @param filter - The filter type byte of the row
+	 * @throws IOException If the filter type is unknown
+	 */
+	private void unfilter(int filter) throws IOException
+	{
+		// The previous array holds the row above, which is still all zeros for the first row
+		byte[] row = current;
+		byte[] above = previous;
+
+		for (int i = 0; i < rowBytes; i++)
+		{
+			int left = (i >= bytesPerPixel) ? row[i - bytesPerPixel] & 0xFF : 0;
+			int up = above[i] & 0xFF;
+			int upLeft = (i >= bytesPerPixel) ? above[i - bytesPerPixel] & 0xFF : 0;
+
+			switch (filter)
+			{
+				case 0:
+					break;
+				case 1:
+					row[i] += left;
+					break;
+				case 2:
+					row[i] += up;
+					break;
+				case 3:
+					row[i] += (left + up) >>> 1;
+					break;
+				case 4:
+					row[i] += paeth(left, up, upLeft);
+					break;
+				default:
+					throw new IOException("Unknown PNG filter " + filter);
+			}
+		}
+	}
+
+	/**
+	 * Predicts a byte from its neighbours with the Paeth predictor
+	 * @param a - The byte to the left
+	 * @param b - The byte above
+	 * @param c - The byte above and to the left
+	 * @return Whichever neighbour is closest to a + b - c
+	 */
+	private static int paeth(int a, int b, int c)
+	{
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc)
+			return a;
+		return (pb <= pc) ? b : c;
+	}
+
+	/**
+	 * Turns the unfiltered bytes of a row into ARGB pixels
+	 * @param pixels - The array to write to
+	 * @param offset - The index of the first pixel of the row
+	 */
+	private void convertRow(int[] pixels, int offset)
+	{
+		byte[] row = current;
+		if (colorType == RGBA)
+		{
+			for (int x = 0; x < width; x++)
+				pixels[offset + x] = (row[x * 4 + 3] & 0xFF) << 24 | (row[x * 4] & 0xFF) << 16 | (row[x * 4 + 1] & 0xFF) << 8 | (row[x * 4 + 2] & 0xFF);
+		}
+		else if (colorType == RGB)
+		{
+			for (int x = 0; x < width; x++)
+				pixels[offset + x] = 0xFF000000 | (row[x * 3] & 0xFF) << 16 | (row[x * 3 + 1] & 0xFF) << 8 | (row[x * 3 + 2] & 0xFF);
+		}
+		else
+		{
+			// Indexes are packed from the high bits of each byte down
+			int perByte = 8 / bitDepth;
+			int mask = (1 << bitDepth) - 1;
+			for (int x = 0; x < width; x++)
+			{
+				int shift = (perByte - 1 - x % perByte) * bitDepth;
+				int index = ((row[x / perByte] & 0xFF) >>> shift) & mask;
+				pixels[offset + x] = (index < palette.length) ? palette[index] : 0xFF000000;
+			}
+		}
+	}
+
+	/**
+	 * Reads a big endian int
+	 * @param bytes - The bytes to read from
+	 * @param offset - The index of the first byte
+	 * @return The int
+	 */
+	private static int readInt(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,126 @@
+package core;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Collects the areas of a component which need repainting and repaints them
+ * at most once per frame. Every area marked dirty during a frame is merged
+ * into one rectangle, so a burst of changes (such as dragging a brush across
+ * the map) costs a single repaint instead of one for each change.
+ */
+public class RepaintScheduler implements ActionListener
+{
+	public static final int DEFAULT_FRAME_RATE = 60;
+	private JComponent component;
+	private Timer timer;
+	private Rectangle dirtyRegion;
+	private boolean fullRepaint;
+	private int frameRate;
+	private long lastFrameTime;
+
+	/**
+	 * Creates a scheduler which repaints a component at the default frame rate
+	 * @param component - The component to repaint
+	 */
+	public RepaintScheduler(JComponent component)
+	{
+		this.component = component;
+		dirtyRegion = null;
+		fullRepaint = false;
+		frameRate = DEFAULT_FRAME_RATE;
+		lastFrameTime = 0;
+
+		timer = new Timer(0, this);
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Sets how many times per second the component may be repainted
+	 * @param framesPerSecond - The highest number of repaints per second
+	 */
+	public void setFrameRate(int framesPerSecond)
+	{
+		frameRate = Math.max(1, framesPerSecond);
+	}
+
+	/**
+	 * Gets how many times per second the component may be repainted
+	 * @return The highest number of repaints per second
+	 */
+	public int getFrameRate()
+	{
+		return frameRate;
+	}
+
+	/**
+	 * Marks an area of the component as needing to be repainted in the next frame
+	 * @param x - The left of the area
+	 * @param y - The top of the area
+	 * @param width - The width of the area
+	 * @param height - The height of the area
+	 */
+	public void addDirtyRegion(int x, int y, int width, int height)
+	{
+		if (width <= 0 || height <= 0)
+			return;
+
+		if (dirtyRegion == null)
+			dirtyRegion = new Rectangle(x, y, width, height);
+		else
+			dirtyRegion.add(new Rectangle(x, y, width, height));
+
+		schedule();
+	}
+
+	/**
+	 * Marks an area of the component as needing to be repainted in the next frame
+	 * @param region - The area to repaint
+	 */
+	public void addDirtyRegion(Rectangle region)
+	{
+		addDirtyRegion(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Marks the whole component as needing to be repainted in the next frame
+	 */
+	public void repaintAll()
+	{
+		fullRepaint = true;
+		schedule();
+	}
+
+	/**
+	 * Called by the timer at the start of a frame, repaints everything marked since the last one
+	 * @param e - The timer event
+	 */
+	public void actionPerformed(ActionEvent e)
+	{
+		lastFrameTime = System.currentTimeMillis();
+
+		if (fullRepaint)
+			component.repaint();
+		else if (dirtyRegion != null)
+			component.repaint(dirtyRegion);
+
+		fullRepaint = false;
+		dirtyRegion = null;
+	}
+
+	/**
+	 * Starts the timer for the next frame, if it isn't already waiting for it
+	 */
+	private void schedule()
+	{
+		if (timer.isRunning())
+			return;
+
+		long wait = lastFrameTime + 1000 / frameRate - System.currentTimeMillis();
+		timer.setInitialDelay((int) Math.max(0, Math.min(wait, 1000 / frameRate)));
+		timer.restart();
+	}
+}
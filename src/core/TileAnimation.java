@@ -0,0 +1,148 @@
+package core;
+
+/**
+ * An animation for a tile or object of a TileSheet, such as water or a torch.
+ * Whenever the base ID is drawn to the map, the preview cycles through the frame
+ * IDs, showing each one for its duration. All cells using the same animation show
+ * the same frame at the same time.
+ */
+public class TileAnimation
+{
+	private boolean objectLayer;
+	private int baseId;
+	private int[] frames, durations;
+	private int totalDuration;
+
+	/**
+	 * Creates an animation
+	 * @param objectLayer - True if the IDs are object layer IDs, false if they are tile layer IDs
+	 * @param baseId - The ID which plays this animation when drawn to the map
+	 * @param frames - The ID shown for each frame
+	 * @param durations - How long each frame is shown for, in milliseconds
+	 */
+	public TileAnimation(boolean objectLayer, int baseId, int[] frames, int[] durations)
+	{
+		if (frames.length == 0 || frames.length != durations.length)
+			throw new IllegalArgumentException("An animation needs one duration for each of its frames");
+
+		this.objectLayer = objectLayer;
+		this.baseId = baseId;
+		this.frames = frames.clone();
+		this.durations = durations.clone();
+
+		totalDuration = 0;
+		for (int i = 0; i < durations.length; i++)
+		{
+			if (durations[i] <= 0)
+				throw new IllegalArgumentException("Frame durations must be positive");
+			totalDuration += durations[i];
+		}
+	}
+
+	/**
+	 * Creates an animation through a run of consecutive IDs which all show for the same time
+	 * @param objectLayer - True if the IDs are object layer IDs, false if they are tile layer IDs
+	 * @param baseId - The first ID, which plays the animation when drawn to the map
+	 * @param frameCount - The number of consecutive IDs in the animation
+	 * @param duration - How long each frame is shown for, in milliseconds
+	 * @return The animation
+	 */
+	public static TileAnimation createSequence(boolean objectLayer, int baseId, int frameCount, int duration)
+	{
+		int[] frames = new int[frameCount];
+		int[] durations = new int[frameCount];
+
+		for (int i = 0; i < frameCount; i++)
+		{
+			frames[i] = baseId + i;
+			durations[i] = duration;
+		}
+
+		return new TileAnimation(objectLayer, baseId, frames, durations);
+	}
+
+	/**
+	 * Tells which layer the IDs of this animation belong to
+	 * @return True for the object layer, false for the tile layer
+	 */
+	public boolean isObjectLayer()
+	{
+		return objectLayer;
+	}
+
+	/**
+	 * Gets the ID which plays this animation when drawn to the map
+	 * @return The base ID
+	 */
+	public int getBaseId()
+	{
+		return baseId;
+	}
+
+	/**
+	 * Gets the number of frames in this animation
+	 * @return The number of frames
+	 */
+	public int getFrameCount()
+	{
+		return frames.length;
+	}
+
+	/**
+	 * Gets the ID shown for a frame
+	 * @param frame - The frame number
+	 * @return The ID shown for the frame
+	 */
+	public int getFrameId(int frame)
+	{
+		return frames[frame];
+	}
+
+	/**
+	 * Gets how long a frame is shown for
+	 * @param frame - The frame number
+	 * @return The duration of the frame in milliseconds
+	 */
+	public int getFrameDuration(int frame)
+	{
+		return durations[frame];
+	}
+
+	/**
+	 * Gets the frame which is shown at a point in time
+	 * @param time - The time since the animation started, in milliseconds
+	 * @return The frame number
+	 */
+	public int getFrameAt(long time)
+	{
+		long t = time % totalDuration;
+
+		for (int i = 0; i < durations.length; i++)
+		{
+			if (t < durations[i])
+				return i;
+			t -= durations[i];
+		}
+
+		return durations.length - 1;
+	}
+
+	/**
+	 * Gets how long it will be until the next frame is shown
+	 * @param time - The time since the animation started, in milliseconds
+	 * @return The number of milliseconds until the frame changes
+	 */
+	public int getTimeUntilNextFrame(long time)
+	{
+		long t = time % totalDuration;
+
+		for (int i = 0; i < durations.length; i++)
+		{
+			if (t < durations[i])
+				return (int) (durations[i] - t);
+			t -= durations[i];
+		}
+
+		return 1;
+	}
+}
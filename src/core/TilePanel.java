@@ -1,116 +1,113 @@
 package core;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.imageio.ImageIO;
-import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.SpringLayout;
-import util.SpringUtilities;
+import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
 
 /**
- * A panel which shows all of the currently loaded tiles to select from.
+ * A panel which shows all of the currently loaded tiles to select from. The tiles
+ * are painted straight from the tile sheet's images rather than being components of
+ * their own, so only the rows in view are drawn and clicks are mapped to tiles by
+ * arithmetic. The columns reflow to fit the width of the panel. Dragging across
+ * tiles selects a rectangle of them, which is then drawn to the map as one brush.
+ * The images are asked for from the tiles each time they are drawn rather than being
+ * held on to, so that a compressed sheet only keeps the tiles in view inflated.
+ *
+ * The map and this panel draw every tile through getTileImage. Tiles of an indexed
+ * sheet are copied into ARGB images the screen can take as they are, and those copies
+ * and the flipped tiles are kept in one cache of the most recently drawn images.
  */
-public class TilePanel extends JPanel
+public class TilePanel extends JPanel implements Scrollable
 {
 	private static final long serialVersionUID = 7075610218036007161L;
 	private int selectedTileIndex;
 	private TileSheet tileSheet;
-	private ArrayList<Tile> tiles;
+	private ArrayList<AbstractTile> tiles;
+	private Image eraseTile;
+	private TileImageCache drawnTiles;
 	private boolean isObjectPanel;
 	private MapPanel associatedMapPanel;
-	
+	private int columns;
+	private int anchorIndex;
+	private int[][] brush;
+	private boolean[] selected;
+
 	private final int PADDING = 1;
-	
+	private final long TILE_CACHE_BYTES = 8L * 1024 * 1024;
+	private final int DEFAULT_WIDTH = 200;
+	private final Color selectionColor = Color.CYAN;
+	private final Color unusedColor = new Color(0, 0, 0, 150);
+
 	/**
 	 * This class represents the panel which holds all of the
 	 * tiles which can be selected to draw with
 	 * @param tileSheet - The TileSheet to be displayed
 	 */
 	public TilePanel(TileSheet tileSheet, boolean isObjectSheet)
-	{	
+	{
 		// Set initial attributes
 		this.tileSheet = tileSheet;
 		selectedTileIndex = 0;
 		isObjectPanel = isObjectSheet;
-		tiles = new ArrayList<Tile>();
-		
-		setLayout(new SpringLayout());
-		
-		int idIndex = 0;
-		
-		ArrayList<AbstractTile> tempSheet;
-		int tempSize;
+		drawnTiles = new TileImageCache((int) Math.max(1, TILE_CACHE_BYTES / (4L * tileSheet.getWidthOfTiles() * tileSheet.getHeightOfTiles())));
 
-		// Assign the size and ArrayList<Tile> based on whether this is a object sheet or not
+		// Assign the background and tiles based on whether this is a object sheet or not
 		if (isObjectSheet)
 		{
 			setBackground(Color.LIGHT_GRAY);
-			tempSheet = tileSheet.objects;
-			tempSize = tileSheet.objects.size();
-			
-			Tile iconLabel = null;
-			try 
+			tiles = tileSheet.objects;
+
+			// The first object is the eraser, since object ID 0 is empty
+			try
 			{
-				Image eraseTile = ImageIO.read(new File("img/eraseTile.png"));
+				eraseTile = ImageIO.read(new File("img/eraseTile.png"));
 				eraseTile = eraseTile.getScaledInstance(tileSheet.getWidthOfTiles(), tileSheet.getHeightOfTiles(), 0);
-				iconLabel = new Tile(eraseTile, this, -1);
-			} 
-			catch (IOException e) 
+			}
+			catch (IOException e)
 			{
 				e.printStackTrace();
 			}
-			tiles.add(iconLabel);
-			idIndex++;
-			add(iconLabel);
 		}
 		else
 		{
-			tempSheet = tileSheet.tiles;
-			tempSize = tileSheet.tiles.size();
+			tiles = tileSheet.tiles;
 			setBackground(Color.BLACK);
 		}
-		
-		// Loop through the sheet and add each tile to the panel
-		for (AbstractTile t : tempSheet)
-		{
-			Tile iconLabel = new Tile(t.getImage(), this, idIndex);
-			tiles.add(iconLabel);
-			idIndex++;
-			add(iconLabel);
-		}	
-		
-		// Determine amount of tile columns needed
-		int tileColumns = calcTileColumns(200, tileSheet.getWidthOfTiles(), PADDING);
-		
-		// Determine amount of blank tiles needed
-		int blankTiles = calcBlankTiles(tempSize, tileColumns);
-		
-		// Add the blank tiles to the panel
-		for (int i = 0; i < blankTiles; i++)
-			add(new JLabel());
-		
-		// Convert the layout into a compact grid
-		SpringUtilities.makeCompactGrid(this, // parent
-				tempSize/tileColumns+1, tileColumns, //tempSize / tileColumns + 1, tileColumns,
-                0, 0,  // initX, initY
-                PADDING, PADDING); // xPad, yPad
-	}
-	
-	/**
-	 * Calculates the number of blank tiles needed to  
-	 * fill in the tile panel
-	 * @param tileCount - total number of tiles
-	 * @return - number of blank tiles needed
-	 */
-	public int calcBlankTiles(int tileCount, int tileColumns)
-	{
-		return ((tileCount / tileColumns + 1) * tileColumns) - tileCount;
+
+		// Lay the tiles out for the default width until the panel is given its real one
+		columns = calcTileColumns(DEFAULT_WIDTH, tileSheet.getWidthOfTiles(), PADDING);
+		selected = new boolean[getTileCount()];
+		anchorIndex = -1;
+		selectTiles(0, 0);
+
+		TilePanelMouseListener listener = new TilePanelMouseListener();
+		addMouseListener(listener);
+		addMouseMotionListener(listener);
+		addComponentListener(new ReflowListener());
 	}
-	
+
 	/**
 	 * Calculates the number of tile columns
 	 * @param tilePanelWidth - Total width of the tile panel
@@ -120,9 +117,9 @@ public class TilePanel extends JPanel
 	 */
 	public int calcTileColumns(int tilePanelWidth, int tileWidth, int padding)
 	{
-		return (Integer) tilePanelWidth/(tileWidth + padding);
+		return Math.max(1, (tilePanelWidth + padding) / (tileWidth + padding));
 	}
-	
+
 	/**
 	 * Gets the MapPanel which this TilePanel is associated with
 	 * @return
@@ -131,7 +128,7 @@ public class TilePanel extends JPanel
 	{
 		return associatedMapPanel;
 	}
-	
+
 	/**
 	 * Get the TileSheet associated with this TilePanel
 	 * @return - The TileSheet associated with this TilePanel
@@ -140,47 +137,127 @@ public class TilePanel extends JPanel
 	{
 		return tileSheet;
 	}
-	
+
 	/**
-	 * Sets the selected tile to the incoming 
+	 * Sets the selected tile to the incoming
 	 * index and clears the previously selected one
 	 * @param index - The index to change the selected tile to
 	 */
 	public void setSelectedTile(int index)
 	{
-		tiles.get(selectedTileIndex).setSelected(false);
-		selectedTileIndex = index;
-		tiles.get(index).setSelected(true);
+		selectTiles(index, index);
 	}
-	
+
 	/**
-	 * Gets the index of the currently selected tile in this panel
+	 * Gets the index of the currently selected tile in this panel. When
+	 * a rectangle of tiles is selected, this is its top left tile.
 	 * @return The index of the currently selected tile
 	 */
 	public int getSelectedTileIndex()
 	{
 		return selectedTileIndex;
 	}
-	
+
 	/**
 	 * Gets the tile of the currently selected tile in this panel
 	 * @return The tile of the currently selected tile
 	 */
 	public Image getSelectedTile()
 	{
-		return tiles.get(selectedTileIndex).getImage();
+		return getTileImage(selectedTileIndex);
 	}
-	
+
+	/**
+	 * Gets the width of the selected rectangle of tiles
+	 * @return The number of tiles across the brush is
+	 */
+	public int getBrushWidth()
+	{
+		return brush[0].length;
+	}
+
 	/**
-	 * Gets the image of the specified tile
-	 * @param id - The ID of the tile you want to retrieve the image from
+	 * Gets the height of the selected rectangle of tiles
+	 * @return The number of tiles down the brush is
+	 */
+	public int getBrushHeight()
+	{
+		return brush.length;
+	}
+
+	/**
+	 * Gets one of the tiles of the selected rectangle
+	 * @param x - The column within the brush
+	 * @param y - The row within the brush
+	 * @return The ID of the tile, or -1 if the rectangle ran past the last tile there
+	 */
+	public int getBrushId(int x, int y)
+	{
+		return brush[y][x];
+	}
+
+	/**
+	 * Gets the image of the specified tile to draw. The flipped versions of tiles
+	 * and the ARGB copies of indexed tiles are made when they are asked for, and the
+	 * ones drawn most recently are kept.
+	 * @param id - The ID of the tile you want to retrieve the image from, which may have flip flags
 	 * @return The image of the specified tile
 	 */
 	public Image getTileImage(int id)
 	{
-		return tiles.get(id).getImage();
+		// The eraser is never flipped
+		int flags = TileTransform.getFlags(id);
+		if (isObjectPanel && TileTransform.getBaseId(id) == 0)
+			return eraseTile;
+		
+		Image image = drawnTiles.get(id);
+		if (image != null)
+			return image;
+		
+		// Object IDs are offset by one for the eraser
+		BufferedImage tileImage = tiles.get(isObjectPanel ? TileTransform.getBaseId(id) - 1 : TileTransform.getBaseId(id)).getImage();
+		if (flags != 0)
+			image = TileTransform.transform(tileImage, flags);
+		else if (tileImage.getColorModel() instanceof IndexColorModel)
+			image = createDrawableCopy(tileImage);
+		else
+			return tileImage;
+		
+		drawnTiles.put(id, image);
+		return image;
+	}
+	
+	/**
+	 * Copies a tile image into an ARGB image laid out the way the screen wants it,
+	 * so that drawing it doesn't look every pixel up in a palette
+	 * @param image - The image of the tile
+	 * @return The copy of the image
+	 */
+	private BufferedImage createDrawableCopy(BufferedImage image)
+	{
+		// The panel only has a configuration once it is on screen
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		BufferedImage copy;
+		if (config != null)
+			copy = config.createCompatibleImage(image.getWidth(), image.getHeight(), Transparency.TRANSLUCENT);
+		else
+			copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		
+		Graphics g = copy.getGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return copy;
 	}
 	
+	/**
+	 * Gets the number of tiles shown in this panel
+	 * @return The number of tiles, counting the eraser of an object panel
+	 */
+	public int getTileCount()
+	{
+		return isObjectPanel ? tiles.size() + 1 : tiles.size();
+	}
+
 	/**
 	 * Sets the MapPanel which this TilePanel is associated with
 	 * @param panel - The MapPanel which this TilePanel is associated with
@@ -189,7 +266,7 @@ public class TilePanel extends JPanel
 	{
 		associatedMapPanel = panel;
 	}
-	
+
 	/**
 	 * Tells whether or not this is an object panel
 	 * @return True if this is an object panel; False if it's a tile panel
@@ -198,4 +275,223 @@ public class TilePanel extends JPanel
 	{
 		return isObjectPanel;
 	}
+
+	/**
+	 * Paints the tiles in the rows which need repainting, and outlines the selected ones
+	 * @param g - The graphics context to draw in
+	 */
+	public void paintComponent(Graphics g)
+	{
+		super.paintComponent(g);
+
+		int cellWidth = tileSheet.getWidthOfTiles() + PADDING;
+		int cellHeight = tileSheet.getHeightOfTiles() + PADDING;
+
+		// Only the rows inside the clip need drawing
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		int firstIndex = Math.max(0, clip.y / cellHeight) * columns;
+		int lastIndex = Math.min(getTileCount(), ((clip.y + clip.height) / cellHeight + 1) * columns);
+
+		for (int i = firstIndex; i < lastIndex; i++)
+			g.drawImage(getTileImage(i), (i % columns) * cellWidth, (i / columns) * cellHeight, this);
+		
+		// Dim the tiles which aren't used anywhere on the map
+		if (associatedMapPanel != null && associatedMapPanel.unusedTilesShown())
+		{
+			TileUsageIndex usage = associatedMapPanel.getTileUsage();
+			int type = isObjectPanel ? LayerStack.OBJECT : LayerStack.TILE;
+			g.setColor(unusedColor);
+			for (int i = Math.max(firstIndex, isObjectPanel ? 1 : 0); i < lastIndex; i++)
+			{
+				if (!usage.isUsed(type, i))
+					g.fillRect((i % columns) * cellWidth, (i / columns) * cellHeight, tileSheet.getWidthOfTiles(), tileSheet.getHeightOfTiles());
+			}
+		}
+
+		// Draw the selection squares
+		Graphics2D g2 = (Graphics2D) g;
+		g2.setColor(selectionColor);
+		g2.setStroke(new BasicStroke(3.5f));
+		for (int i = firstIndex; i < lastIndex; i++)
+		{
+			if (selected[i])
+				g2.drawRect((i % columns) * cellWidth, (i / columns) * cellHeight, tileSheet.getWidthOfTiles(), tileSheet.getHeightOfTiles());
+		}
+	}
+
+	/**
+	 * Gets the size needed to show every tile at the current number of columns
+	 * @return The preferred size of this panel
+	 */
+	public Dimension getPreferredSize()
+	{
+		int rows = (getTileCount() + columns - 1) / columns;
+		return new Dimension(columns * (tileSheet.getWidthOfTiles() + PADDING) - PADDING,
+				rows * (tileSheet.getHeightOfTiles() + PADDING) - PADDING);
+	}
+
+	public Dimension getPreferredScrollableViewportSize()
+	{
+		return getPreferredSize();
+	}
+
+	public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return tileSheet.getHeightOfTiles() + PADDING;
+	}
+
+	public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction)
+	{
+		return Math.max(visibleRect.height - (tileSheet.getHeightOfTiles() + PADDING), tileSheet.getHeightOfTiles() + PADDING);
+	}
+
+	/**
+	 * The panel always takes the width of its viewport, and reflows its columns to match
+	 */
+	public boolean getScrollableTracksViewportWidth()
+	{
+		return true;
+	}
+
+	public boolean getScrollableTracksViewportHeight()
+	{
+		return false;
+	}
+
+	/**
+	 * Finds the tile at a point of the panel
+	 * @param x - The x coordinate of the point
+	 * @param y - The y coordinate of the point
+	 * @return The index of the tile, or -1 if there isn't one there
+	 */
+	private int getIndexAt(int x, int y)
+	{
+		if (x < 0 || y < 0)
+			return -1;
+
+		int column = x / (tileSheet.getWidthOfTiles() + PADDING);
+		int row = y / (tileSheet.getHeightOfTiles() + PADDING);
+		int index = row * columns + column;
+
+		if (column >= columns || index >= getTileCount())
+			return -1;
+		return index;
+	}
+
+	/**
+	 * Selects the rectangle of tiles between two tiles, as they are currently laid out
+	 * @param first - The index of the tile the selection started at
+	 * @param last - The index of the tile at the opposite corner
+	 */
+	private void selectTiles(int first, int last)
+	{
+		int left = Math.min(first % columns, last % columns);
+		int right = Math.max(first % columns, last % columns);
+		int top = Math.min(first / columns, last / columns);
+		int bottom = Math.max(first / columns, last / columns);
+
+		brush = new int[bottom - top + 1][right - left + 1];
+		Arrays.fill(selected, false);
+
+		for (int y = top; y <= bottom; y++)
+		{
+			for (int x = left; x <= right; x++)
+			{
+				int index = y * columns + x;
+				if (index < getTileCount())
+				{
+					brush[y - top][x - left] = index;
+					selected[index] = true;
+				}
+				else
+					brush[y - top][x - left] = -1;
+			}
+		}
+
+		selectedTileIndex = top * columns + left;
+		repaint();
+		
+		if (associatedMapPanel != null)
+			associatedMapPanel.selectedTileChanged();
+	}
+
+	/**
+	 * Least recently used cache of tile images, which drops the image used longest
+	 * ago once it holds as many as it is allowed
+	 */
+	class TileImageCache extends LinkedHashMap<Integer, Image>
+	{
+		private static final long serialVersionUID = -3180436912446137521L;
+		private int maxImages;
+
+		public TileImageCache(int maxImages)
+		{
+			super(64, 0.75f, true);
+			this.maxImages = maxImages;
+		}
+
+		protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest)
+		{
+			return size() > maxImages;
+		}
+	}
+
+	/**
+	 * ComponentListener which reflows the tiles when the panel changes width
+	 */
+	class ReflowListener extends ComponentAdapter
+	{
+		public void componentResized(ComponentEvent e)
+		{
+			int newColumns = calcTileColumns(getWidth(), tileSheet.getWidthOfTiles(), PADDING);
+			if (newColumns != columns)
+			{
+				columns = newColumns;
+				revalidate();
+				repaint();
+			}
+		}
+	}
+
+	/**
+	 * Mouse listener which selects the tile clicked on, or the rectangle of tiles dragged across
+	 */
+	class TilePanelMouseListener extends MouseAdapter
+	{
+		public void mousePressed(MouseEvent e)
+		{
+			if (!SwingUtilities.isLeftMouseButton(e))
+				return;
+
+			int index = getIndexAt(e.getX(), e.getY());
+			if (index < 0)
+				return;
+
+			// Tell the MapPanel which panel was selected last
+			getMapPanel().setObjectPanelSelectedLast(isObjectPanel);
+
+			anchorIndex = index;
+			selectTiles(index, index);
+		}
+
+		public void mouseDragged(MouseEvent e)
+		{
+			if (!SwingUtilities.isLeftMouseButton(e) || anchorIndex < 0)
+				return;
+
+			// Keep the corner inside the panel so that dragging off the edge still works
+			int x = Math.max(0, Math.min(e.getX(), getWidth() - 1));
+			int y = Math.max(0, Math.min(e.getY(), getHeight() - 1));
+			int index = getIndexAt(x, y);
+			if (index >= 0)
+				selectTiles(anchorIndex, index);
+		}
+
+		public void mouseReleased(MouseEvent e)
+		{
+			anchorIndex = -1;
+		}
+	}
 }
\ No newline at end of file
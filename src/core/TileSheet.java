@@ -1,22 +1,58 @@
 package core;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
 import javax.imageio.ImageIO;
 
 /**
  * Contains all of the information about the tile sheet that was loaded, such as
  * image loaded, tile width and height, and the transparent color associated with it
+ *
+ * A sheet with no more than 256 colors (counting its transparent color) is kept as
+ * one byte per pixel palette indexes. Its tiles and objects are then views into that
+ * single raster with a palette in which the transparent color has no alpha, so they
+ * take up no memory of their own. Any other sheet is split into ARGB tiles.
+ *
+ * A sheet too big to keep decoded is instead cut into tiles which are deflated
+ * into a CompressedTileStore, and the raw sheet is let go of. Only the tiles which
+ * are drawn are inflated. A PNG sheet is decoded a strip of tiles at a time for
+ * this, so the whole sheet is never decoded at once.
+ *
+ * The PNG a sheet was loaded from is kept as it was, so saving writes it back and
+ * hashing it doesn't need the pixels. A sheet from any other source is encoded
+ * once, the first time it is needed.
  */
 public class TileSheet 
 {
+	public static final int MAX_PALETTE_SIZE = 256;
+	public static final long COMPRESSION_THRESHOLD = 64L * 1024 * 1024;
 	public ArrayList<AbstractTile> tiles, objects;
 	private BufferedImage rawTileSheet;
 	private int tileWidth, tileHeight;
 	private Color transparentColor;
+	private ArrayList<AutoTileRuleSet> autoTileSets;
+	private HashMap<Integer, TileAnimation> tileAnimations, objectAnimations;
+	private int[] tileAverageColors, objectAverageColors;
+	private int[] palette;
+	private IndexColorModel tileColorModel;
+	private CompressedTileStore tileStore;
+	private int sheetWidth, sheetHeight;
+	private byte[] encodedSheet;
+	private long imageHash;
+	private boolean imageHashed;
 	
 	/**
 	 * Constructs a TileSheet which is based on an incoming sprite sheet image
@@ -29,6 +65,9 @@ public class TileSheet
 	{
 		tiles = new ArrayList<AbstractTile>();
 		objects = new ArrayList<AbstractTile>();
+		autoTileSets = new ArrayList<AutoTileRuleSet>();
+		tileAnimations = new HashMap<Integer, TileAnimation>();
+		objectAnimations = new HashMap<Integer, TileAnimation>();
 		this.transparentColor = transparentColor;
 		rawTileSheet = spriteSheet;
 		tileWidth = tileW;
@@ -36,6 +75,27 @@ public class TileSheet
 		splitTileSheet();
 	}
 	
+	/**
+	 * Constructs a TileSheet from the bytes of an encoded sprite sheet image and
+	 * custom height and width sizes for each Tile
+	 * @param encodedImage - The bytes of the image file which contains all of the Tile images
+	 * @param tileW - The width of each Tile
+	 * @param tileH - The height of each Tile
+	 * @throws IOException If the image can't be decoded
+	 */
+	public TileSheet(byte[] encodedImage, int tileW, int tileH, Color transparentColor) throws IOException
+	{
+		tiles = new ArrayList<AbstractTile>();
+		objects = new ArrayList<AbstractTile>();
+		autoTileSets = new ArrayList<AutoTileRuleSet>();
+		tileAnimations = new HashMap<Integer, TileAnimation>();
+		objectAnimations = new HashMap<Integer, TileAnimation>();
+		this.transparentColor = transparentColor;
+		tileWidth = tileW;
+		tileHeight = tileH;
+		loadEncodedSheet(encodedImage);
+	}
+	
 	/**
 	 * TileSheet constructor which is based on an incoming sprite sheet image
 	 * file and custom height and width sizes for each Tile
@@ -47,19 +107,20 @@ public class TileSheet
 	{
 		tiles = new ArrayList<AbstractTile>();
 		objects = new ArrayList<AbstractTile>();
+		autoTileSets = new ArrayList<AutoTileRuleSet>();
+		tileAnimations = new HashMap<Integer, TileAnimation>();
+		objectAnimations = new HashMap<Integer, TileAnimation>();
+		this.transparentColor = transparentColor;
+		tileWidth = tileW;
+		tileHeight = tileH;
 		try 
 		{
-			rawTileSheet = ImageIO.read(spriteSheetFile);
+			loadEncodedSheet(Files.readAllBytes(spriteSheetFile.toPath()));
 		}
 		catch (IOException e)
 		{
 			System.out.println("Error loading spritesheet.");
 		}
-		
-		this.transparentColor = transparentColor;
-		tileWidth = tileW;
-		tileHeight = tileH;
-		splitTileSheet();
 	}
 
 	/**
@@ -114,9 +175,132 @@ public class TileSheet
 	 */
 	public BufferedImage getRawImage()
 	{
+		if (tileStore != null)
+			return rebuildRawImage();
 		return rawTileSheet;
 	}
 	
+	/**
+	 * Gets the sheet encoded as an image file, which is the PNG it was loaded from
+	 * when there was one. Any other sheet is encoded as a PNG the first time.
+	 * @return The bytes of the image file, which must not be changed
+	 * @throws IOException If the sheet can't be encoded
+	 */
+	public byte[] getEncodedImage() throws IOException
+	{
+		if (encodedSheet == null)
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(getRawImage(), "png", out);
+			encodedSheet = out.toByteArray();
+		}
+		return encodedSheet;
+	}
+	
+	/**
+	 * Gets a hash of the encoded sheet, which is worked out once and then kept
+	 * @return An FNV-1a hash of the bytes from getEncodedImage
+	 * @throws IOException If the sheet can't be encoded
+	 */
+	public long getImageHash() throws IOException
+	{
+		if (!imageHashed)
+		{
+			long hash = 0xcbf29ce484222325L;
+			for (byte b : getEncodedImage())
+			{
+				hash ^= b & 0xFF;
+				hash *= 0x100000001b3L;
+			}
+			imageHash = hash;
+			imageHashed = true;
+		}
+		return imageHash;
+	}
+	
+	/**
+	 * Tells whether the tiles of this TileSheet are kept compressed
+	 * @return True if the sheet was too big to keep decoded
+	 */
+	public boolean isCompressed()
+	{
+		return tileStore != null;
+	}
+	
+	/**
+	 * Gets the store which keeps the tiles of a compressed TileSheet
+	 * @return The CompressedTileStore, or null if the sheet isn't compressed
+	 */
+	public CompressedTileStore getTileStore()
+	{
+		return tileStore;
+	}
+	
+	/**
+	 * Tells whether this TileSheet is stored as palette indexes
+	 * @return True if the sheet has no more than MAX_PALETTE_SIZE colors
+	 */
+	public boolean isIndexed()
+	{
+		return palette != null;
+	}
+	
+	/**
+	 * Gets the palette the tiles of an indexed TileSheet are drawn with, in which
+	 * the transparent color has been made fully transparent
+	 * @return The ARGB palette, or null if the sheet isn't indexed
+	 */
+	public int[] getPalette()
+	{
+		return palette;
+	}
+	
+	/**
+	 * Gets roughly how many bytes the pixels of this TileSheet take up, counting
+	 * the raw sheet and its tiles and objects, and the image it was loaded from
+	 * @return The number of bytes used
+	 */
+	public long getMemoryUsage()
+	{
+		long encodedBytes = (encodedSheet != null) ? encodedSheet.length : 0;
+		if (isCompressed())
+			return encodedBytes + tileStore.getResidentBytes();
+		if (isIndexed())
+			return encodedBytes + (long) sheetWidth * sheetHeight + 2L * palette.length * 4;
+		
+		DataBuffer buffer = rawTileSheet.getRaster().getDataBuffer();
+		long rawBytes = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		return encodedBytes + rawBytes + (long) (tiles.size() + objects.size()) * tileWidth * tileHeight * 4;
+	}
+	
+	/**
+	 * Gets roughly how many bytes the pixels of this TileSheet would take up if the
+	 * raw sheet and every tile and object were kept as ARGB
+	 * @return The number of bytes used by ARGB pixels
+	 */
+	public long getArgbMemoryUsage()
+	{
+		return (long) sheetWidth * sheetHeight * 4
+				+ (long) (tiles.size() + objects.size()) * tileWidth * tileHeight * 4;
+	}
+	
+	/**
+	 * Describes how much memory this TileSheet uses, and how much it would use in the other mode
+	 * @return A one line description of the memory usage
+	 */
+	public String describeMemoryUsage()
+	{
+		if (isCompressed())
+			return "Tile sheet: stored compressed in " + tileStore.getResidentBytes() / 1024 + " KB, of which " 
+					+ tileStore.getCachedBytes() / 1024 + " KB are cached tiles (" + getArgbMemoryUsage() / 1024 
+					+ " KB as ARGB), " + Math.round(tileStore.getHitRate() * 100) + "% tile cache hits.";
+		if (isIndexed())
+			return "Tile sheet: " + palette.length + " colors, stored indexed in " + getMemoryUsage() / 1024
+					+ " KB (" + getArgbMemoryUsage() / 1024 + " KB as ARGB).";
+		else
+			return "Tile sheet: more than " + MAX_PALETTE_SIZE + " colors, stored as ARGB in " + getMemoryUsage() / 1024 + " KB.";
+	}
+	
 	/**
 	 * Gets the color which represents transparency in this TileSheet
 	 * @return This TileSheet's transparent color
@@ -126,6 +310,148 @@ public class TileSheet
 		return transparentColor;
 	}
 	
+	/**
+	 * Gets the auto-tile rule sets which have been defined for this TileSheet
+	 * @return The auto-tile rule sets of this TileSheet
+	 */
+	public ArrayList<AutoTileRuleSet> getAutoTileSets()
+	{
+		return autoTileSets;
+	}
+	
+	/**
+	 * Adds an auto-tile rule set to this TileSheet
+	 * @param set - The rule set to add
+	 */
+	public void addAutoTileSet(AutoTileRuleSet set)
+	{
+		autoTileSets.add(set);
+	}
+	
+	/**
+	 * Gets the animation played by a tile or object, if it has one
+	 * @param objectLayer - True to look up an object layer ID, false for a tile layer ID
+	 * @param id - The ID drawn to the map
+	 * @return The animation, or null if the ID isn't animated
+	 */
+	public TileAnimation getAnimation(boolean objectLayer, int id)
+	{
+		// Flipped tiles play the animation of the tile they flip
+		id = TileTransform.getBaseId(id);
+		if (objectLayer)
+			return objectAnimations.get(id);
+		else
+			return tileAnimations.get(id);
+	}
+	
+	/**
+	 * Adds an animation to this TileSheet, replacing any other animation with the same base ID
+	 * @param animation - The animation to add
+	 */
+	public void addAnimation(TileAnimation animation)
+	{
+		if (animation.isObjectLayer())
+			objectAnimations.put(animation.getBaseId(), animation);
+		else
+			tileAnimations.put(animation.getBaseId(), animation);
+	}
+	
+	/**
+	 * Removes the animation played by a tile or object
+	 * @param objectLayer - True for an object layer ID, false for a tile layer ID
+	 * @param id - The base ID of the animation
+	 */
+	public void removeAnimation(boolean objectLayer, int id)
+	{
+		if (objectLayer)
+			objectAnimations.remove(id);
+		else
+			tileAnimations.remove(id);
+	}
+	
+	/**
+	 * Gets every animation defined for this TileSheet
+	 * @return The tile layer animations followed by the object layer animations
+	 */
+	public ArrayList<TileAnimation> getAnimations()
+	{
+		ArrayList<TileAnimation> temp = new ArrayList<TileAnimation>(tileAnimations.values());
+		temp.addAll(objectAnimations.values());
+		return temp;
+	}
+	
+	/**
+	 * Gets the average color of a tile or object, for drawing the map at one pixel per cell.
+	 * The colors are worked out for the whole sheet the first time one is asked for.
+	 * @param objectLayer - True to look up an object layer ID, false for a tile layer ID
+	 * @param id - The ID drawn to the map
+	 * @return The ARGB average of the visible pixels, whose alpha is how much of the cell
+	 * they cover, or 0 if the ID is empty
+	 */
+	public int getAverageColor(boolean objectLayer, int id)
+	{
+		if (tileAverageColors == null)
+		{
+			tileAverageColors = computeAverageColors(tiles);
+			objectAverageColors = computeAverageColors(objects);
+		}
+		
+		// Flipping a tile doesn't change its color
+		id = TileTransform.getBaseId(id);
+		
+		// Object IDs start at 1, since 0 erases
+		if (objectLayer)
+			return (id > 0 && id <= objectAverageColors.length) ? objectAverageColors[id - 1] : 0;
+		else
+			return (id >= 0 && id < tileAverageColors.length) ? tileAverageColors[id] : 0;
+	}
+	
+	/**
+	 * Averages the colors of a list of tiles, weighting each pixel by its alpha
+	 * @param list - The tiles to average
+	 * @return The ARGB average of each tile
+	 */
+	private int[] computeAverageColors(ArrayList<AbstractTile> list)
+	{
+		int[] colors = new int[list.size()];
+		int[] pixels = new int[tileWidth * tileHeight];
+		
+		for (int i = 0; i < colors.length; i++)
+		{
+			BufferedImage image = list.get(i).getImage();
+			image.getRGB(0, 0, tileWidth, tileHeight, pixels, 0, tileWidth);
+			colors[i] = computeAverageColor(pixels);
+		}
+		
+		return colors;
+	}
+	
+	/**
+	 * Averages the colors of a tile, weighting each pixel by its alpha
+	 * @param pixels - The ARGB pixels of the tile
+	 * @return The ARGB average of the tile
+	 */
+	private int computeAverageColor(int[] pixels)
+	{
+		long alpha = 0, red = 0, green = 0, blue = 0;
+		for (int argb : pixels)
+		{
+			int a = argb >>> 24;
+			alpha += a;
+			red += ((argb >> 16) & 0xFF) * a;
+			green += ((argb >> 8) & 0xFF) * a;
+			blue += (argb & 0xFF) * a;
+		}
+		
+		if (alpha == 0)
+			return 0;
+		
+		return (int) (alpha / pixels.length) << 24
+				| (int) (red / alpha) << 16
+				| (int) (green / alpha) << 8
+				| (int) (blue / alpha);
+	}
+	
 	/**
 	 * Determines whether the image is considered an object tile or not
 	 * based on whether or not it contains a pixel which is the same 
@@ -163,6 +489,69 @@ public class TileSheet
 		return false;
 	}
 	
+	/**
+	 * Works out how much of a tile is covered once its transparent color has been
+	 * removed, and the bounding box of its visible pixels. This lets the editor and
+	 * the exporters skip images which draw nothing, and tiles hidden under opaque objects.
+	 * @param t - The tile to check
+	 */
+	private void checkOpacityMask(AbstractTile t)
+	{
+		checkOpacityMask(t, t.getImage().getRGB(0, 0, tileWidth, tileHeight, null, 0, tileWidth));
+	}
+	
+	/**
+	 * Works out the opacity mask of a tile from pixels which have already been read
+	 * @param t - The tile to check
+	 * @param pixels - The ARGB pixels of the tile, with its transparent color removed
+	 */
+	private void checkOpacityMask(AbstractTile t, int[] pixels)
+	{
+		int left = tileWidth, top = tileHeight, right = -1, bottom = -1;
+		boolean anyTranslucent = false;
+		
+		for (int y = 0; y < tileHeight; y++)
+		{
+			for (int x = 0; x < tileWidth; x++)
+			{
+				int alpha = pixels[y * tileWidth + x] >>> 24;
+				
+				if (alpha != 255)
+					anyTranslucent = true;
+				if (alpha != 0)
+				{
+					left = Math.min(left, x);
+					top = Math.min(top, y);
+					right = Math.max(right, x);
+					bottom = Math.max(bottom, y);
+				}
+			}
+		}
+		
+		if (right < 0)
+			t.setOpacityMask(AbstractTile.TRANSPARENT, new Rectangle());
+		else
+			t.setOpacityMask(anyTranslucent ? AbstractTile.PARTIAL : AbstractTile.OPAQUE, 
+					new Rectangle(left, top, right - left + 1, bottom - top + 1));
+	}
+	
+	/**
+	 * Gets how much of a tile or object is covered by its image
+	 * @param objectLayer - True to look up an object layer ID, false for a tile layer ID
+	 * @param id - The ID drawn to the map
+	 * @return AbstractTile.TRANSPARENT, OPAQUE, or PARTIAL. IDs which don't draw anything are TRANSPARENT.
+	 */
+	public int getOpacity(boolean objectLayer, int id)
+	{
+		id = TileTransform.getBaseId(id);
+		
+		// Object IDs start at 1, since 0 erases
+		if (objectLayer)
+			return (id > 0 && id <= objects.size()) ? objects.get(id - 1).getOpacity() : AbstractTile.TRANSPARENT;
+		else
+			return (id >= 0 && id < tiles.size()) ? tiles.get(id).getOpacity() : AbstractTile.TRANSPARENT;
+	}
+	
 	/**
 	 * Converts all of the specified transparent color pixels into
 	 * actually transparent pixels
@@ -197,6 +586,39 @@ public class TileSheet
 		return i;
 	}
 	
+	/**
+	 * Keeps the bytes of a PNG sheet and splits them into tiles. A PNG too big to
+	 * keep decoded is cut up a strip at a time, and anything else is decoded whole.
+	 * @param encodedImage - The bytes of the image file
+	 * @throws IOException If the image can't be decoded
+	 */
+	private void loadEncodedSheet(byte[] encodedImage) throws IOException
+	{
+		if (!PngStripReader.isPng(encodedImage))
+		{
+			rawTileSheet = ImageIO.read(new ByteArrayInputStream(encodedImage));
+			if (rawTileSheet == null)
+				throw new IOException("Unknown image format");
+			splitTileSheet();
+			return;
+		}
+		
+		encodedSheet = encodedImage;
+		PngStripReader reader = new PngStripReader(encodedImage);
+		sheetWidth = reader.getWidth();
+		sheetHeight = reader.getHeight();
+		if (reader.isSupported() && (long) sheetWidth * sheetHeight * 4 > COMPRESSION_THRESHOLD)
+		{
+			splitCompressedSheet(sheetWidth / tileWidth, sheetHeight / tileHeight, reader);
+			return;
+		}
+		
+		rawTileSheet = ImageIO.read(new ByteArrayInputStream(encodedImage));
+		if (rawTileSheet == null)
+			throw new IOException("Can't decode the PNG");
+		splitTileSheet();
+	}
+	
 	/**
 	 * Called at the end of each constructor,
 	 * this method breaks up the raw sprite sheet image
@@ -206,8 +628,30 @@ public class TileSheet
 	private void splitTileSheet() 
 	{
 		// Calculate the amount of tiles in each row and column
-		int xTiles = rawTileSheet.getWidth() / tileWidth;
-		int yTiles = rawTileSheet.getHeight() / tileHeight;
+		sheetWidth = rawTileSheet.getWidth();
+		sheetHeight = rawTileSheet.getHeight();
+		int xTiles = sheetWidth / tileWidth;
+		int yTiles = sheetHeight / tileHeight;
+		
+		if ((long) sheetWidth * sheetHeight * 4 > COMPRESSION_THRESHOLD)
+		{
+			try
+			{
+				splitCompressedSheet(xTiles, yTiles, null);
+			}
+			catch (IOException e)
+			{
+				// Only decoding a PNG can fail, and the strips are copied out of the raw sheet here
+				throw new IllegalStateException(e);
+			}
+			return;
+		}
+		
+		if (createIndexedSheet())
+		{
+			splitIndexedSheet(xTiles, yTiles);
+			return;
+		}
 
 		// Split the raw sprite sheet into individual tiles accordingly
 		// And add them to the ArrayList of Tiles
@@ -219,15 +663,187 @@ public class TileSheet
 				BufferedImage temp = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
 				
 				temp.getGraphics().drawImage(rawTileSheet.getSubimage(x * tileWidth, y
-						* tileWidth, tileWidth, tileHeight), 0, 0, null);
+						* tileHeight, tileWidth, tileHeight), 0, 0, null);
 				
 				if (checkObjectTile(temp))
 				{
 					temp = makeTransparentImage(temp);
 					objects.add(new AbstractTile(temp));
+					checkOpacityMask(objects.get(objects.size() - 1));
 				}
 				else
+				{
 					tiles.add(new AbstractTile(temp));
+					checkOpacityMask(tiles.get(tiles.size() - 1));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Cuts a huge sheet into tiles which are deflated into a CompressedTileStore,
+	 * then lets go of the raw sheet. The opacity masks and average colors are worked
+	 * out on the way, since reading them later would inflate every tile again.
+	 * Only one strip of tiles is decoded at a time.
+	 * @param xTiles - The number of tiles in each row of the sheet
+	 * @param yTiles - The number of tiles in each column of the sheet
+	 * @param reader - The PNG to decode the strips from, or null to copy them out of the raw sheet
+	 * @throws IOException If the PNG is cut short or corrupt
+	 */
+	private void splitCompressedSheet(int xTiles, int yTiles, PngStripReader reader) throws IOException
+	{
+		tileStore = new CompressedTileStore(tileWidth, tileHeight, transparentColor.getRGB(), CompressedTileStore.DEFAULT_CACHE_BYTES);
+		ArrayList<Integer> tileColors = new ArrayList<Integer>();
+		ArrayList<Integer> objectColors = new ArrayList<Integer>();
+		BufferedImage temp = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_ARGB);
+		int[] raw = new int[tileWidth * tileHeight];
+		int[] shown = new int[tileWidth * tileHeight];
+		int[] strip = new int[sheetWidth * tileHeight];
+		
+		for (int y = 0; y < yTiles; y++) 
+		{
+			if (reader != null)
+				reader.readRows(strip, tileHeight);
+			else
+				rawTileSheet.getRGB(0, y * tileHeight, sheetWidth, tileHeight, strip, 0, sheetWidth);
+			
+			for (int x = 0; x < xTiles; x++)
+			{
+				for (int row = 0; row < tileHeight; row++)
+					System.arraycopy(strip, row * sheetWidth + x * tileWidth, raw, row * tileWidth, tileWidth);
+				temp.setRGB(0, 0, tileWidth, tileHeight, raw, 0, tileWidth);
+				
+				boolean isObject = checkObjectTile(temp);
+				if (isObject)
+					makeTransparentImage(temp);
+				temp.getRGB(0, 0, tileWidth, tileHeight, shown, 0, tileWidth);
+				
+				AbstractTile tile = new AbstractTile(tileStore, tileStore.add(raw, isObject), tileWidth, tileHeight);
+				checkOpacityMask(tile, shown);
+				
+				if (isObject)
+				{
+					objects.add(tile);
+					objectColors.add(computeAverageColor(shown));
+				}
+				else
+				{
+					tiles.add(tile);
+					tileColors.add(computeAverageColor(shown));
+				}
+			}
+		}
+		
+		tileAverageColors = toIntArray(tileColors);
+		objectAverageColors = toIntArray(objectColors);
+		rawTileSheet = null;
+	}
+	
+	/**
+	 * Puts the raw sheet of a compressed TileSheet back together from its tiles
+	 * @return A new image of the sheet, as it was before it was split up
+	 */
+	private BufferedImage rebuildRawImage()
+	{
+		BufferedImage image = new BufferedImage(sheetWidth, sheetHeight, BufferedImage.TYPE_INT_ARGB);
+		int xTiles = sheetWidth / tileWidth;
+		int[] pixels = new int[tileWidth * tileHeight];
+		
+		// The tiles were added to the store in the order they were cut out
+		for (int i = 0; i < tileStore.size(); i++)
+		{
+			tileStore.getRawPixels(i, pixels);
+			image.setRGB((i % xTiles) * tileWidth, (i / xTiles) * tileHeight, tileWidth, tileHeight, pixels, 0, tileWidth);
+		}
+		
+		return image;
+	}
+	
+	/**
+	 * Copies a list of integers into an array
+	 * @param list - The integers to copy
+	 * @return An array of the same integers
+	 */
+	private int[] toIntArray(ArrayList<Integer> list)
+	{
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	/**
+	 * Replaces the raw sprite sheet with a palette indexed copy of it, if it has
+	 * few enough colors. The copy keeps the exact colors of the original, so it
+	 * saves the same, and a second palette is made for drawing the tiles with.
+	 * @return True if the sheet is now indexed, false if it has too many colors
+	 */
+	private boolean createIndexedSheet()
+	{
+		int width = rawTileSheet.getWidth();
+		int height = rawTileSheet.getHeight();
+		int[] argb = rawTileSheet.getRGB(0, 0, width, height, null, 0, width);
+		byte[] indexes = new byte[argb.length];
+		HashMap<Integer, Integer> colors = new HashMap<Integer, Integer>();
+		int[] sheetPalette = new int[MAX_PALETTE_SIZE];
+		
+		for (int i = 0; i < argb.length; i++)
+		{
+			Integer index = colors.get(argb[i]);
+			if (index == null)
+			{
+				if (colors.size() == MAX_PALETTE_SIZE)
+					return false;
+				index = colors.size();
+				colors.put(argb[i], index);
+				sheetPalette[index] = argb[i];
+			}
+			indexes[i] = (byte) (int) index;
+		}
+		
+		// The tiles are drawn with the transparent color turned fully transparent
+		int size = colors.size();
+		int transparentRGB = transparentColor.getRGB() & 0x00FFFFFF;
+		palette = new int[size];
+		for (int i = 0; i < size; i++)
+			palette[i] = ((sheetPalette[i] & 0x00FFFFFF) == transparentRGB) ? 0x00FFFFFF : sheetPalette[i];
+		
+		WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(indexes, indexes.length), 
+				width, height, width, 1, new int[] {0}, null);
+		rawTileSheet = new BufferedImage(new IndexColorModel(8, size, sheetPalette, 0, true, -1, DataBuffer.TYPE_BYTE), 
+				raster, false, null);
+		tileColorModel = new IndexColorModel(8, size, palette, 0, true, -1, DataBuffer.TYPE_BYTE);
+		return true;
+	}
+	
+	/**
+	 * Splits an indexed sheet into tiles which share its raster, and so need
+	 * no pixels of their own. The transparent color is already see through
+	 * in their palette, so objects don't need to be converted.
+	 * @param xTiles - The number of tiles in each row of the sheet
+	 * @param yTiles - The number of tiles in each column of the sheet
+	 */
+	private void splitIndexedSheet(int xTiles, int yTiles)
+	{
+		WritableRaster raster = rawTileSheet.getRaster();
+		
+		for (int y = 0; y < yTiles; y++) 
+		{
+			for (int x = 0; x < xTiles; x++)
+			{
+				WritableRaster tileRaster = raster.createWritableChild(x * tileWidth, y * tileHeight, tileWidth, tileHeight, 0, 0, null);
+				BufferedImage temp = new BufferedImage(tileColorModel, tileRaster, false, null);
+				
+				if (checkObjectTile(temp))
+				{
+					objects.add(new AbstractTile(temp));
+					checkOpacityMask(objects.get(objects.size() - 1));
+				}
+				else
+				{
+					tiles.add(new AbstractTile(temp));
+					checkOpacityMask(tiles.get(tiles.size() - 1));
+				}
 			}
 		}
 	}
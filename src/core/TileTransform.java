@@ -0,0 +1,183 @@
+package core;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Flip and rotation flags which are packed into the high bits of tile and object
+ * layer IDs, so that a mirrored or rotated tile doesn't need its own copy in the
+ * sheet. A flagged ID is drawn by first flipping the tile diagonally (swapping its
+ * x and y), then horizontally, then vertically. The diagonal flip only applies to
+ * square tiles, since transposing any other tile wouldn't fit its cell.
+ *
+ * The top bit is never used, so IDs stay positive and -1 still means an empty cell.
+ */
+public class TileTransform
+{
+	public static final int FLIP_HORIZONTAL = 0x40000000;
+	public static final int FLIP_VERTICAL = 0x20000000;
+	public static final int FLIP_DIAGONAL = 0x10000000;
+	public static final int FLAG_MASK = FLIP_HORIZONTAL | FLIP_VERTICAL | FLIP_DIAGONAL;
+	public static final int ID_MASK = 0x0FFFFFFF;
+
+	/**
+	 * Gets the ID of a flagged ID without its flags
+	 * @param id - The flagged ID
+	 * @return The ID of the tile in the sheet, or -1 if the ID is empty
+	 */
+	public static int getBaseId(int id)
+	{
+		return (id < 0) ? id : id & ID_MASK;
+	}
+
+	/**
+	 * Gets the flip flags of a flagged ID
+	 * @param id - The flagged ID
+	 * @return The flags, or 0 if the tile isn't flipped
+	 */
+	public static int getFlags(int id)
+	{
+		return (id < 0) ? 0 : id & FLAG_MASK;
+	}
+
+	/**
+	 * Replaces the flags of an ID
+	 * @param id - The ID, with or without flags
+	 * @param flags - The flags to give it
+	 * @return The flagged ID, or the ID unchanged if it is empty
+	 */
+	public static int setFlags(int id, int flags)
+	{
+		return (id < 0) ? id : (id & ID_MASK) | (flags & FLAG_MASK);
+	}
+
+	/**
+	 * Works out the flags of a transform followed by a quarter turn clockwise
+	 * @param flags - The flags of the transform
+	 * @return The flags of the rotated transform
+	 */
+	public static int rotateClockwise(int flags)
+	{
+		// Try each of the eight transforms on a small square, looking for the one which
+		// shows the same point as the transform does at the point a quarter turn shows
+		for (int i = 0; i < 8; i++)
+		{
+			int candidate = ((i & 1) != 0 ? FLIP_HORIZONTAL : 0) | ((i & 2) != 0 ? FLIP_VERTICAL : 0)
+					| ((i & 4) != 0 ? FLIP_DIAGONAL : 0);
+			boolean matches = true;
+
+			for (int y = 0; y < 3 && matches; y++)
+			{
+				for (int x = 0; x < 3 && matches; x++)
+					matches = getSourcePoint(candidate, x, y, 3, 3) == getSourcePoint(flags, y, 2 - x, 3, 3);
+			}
+
+			if (matches)
+				return candidate;
+		}
+
+		return flags;
+	}
+
+	/**
+	 * Finds which point of the untransformed area is shown at a point of the transformed area
+	 * @param flags - The flip flags
+	 * @param x - The x coordinate in the transformed area
+	 * @param y - The y coordinate in the transformed area
+	 * @param width - The width of the transformed area
+	 * @param height - The height of the transformed area
+	 * @return The x coordinate in the low 16 bits and the y coordinate in the high 16 bits
+	 */
+	public static int getSourcePoint(int flags, int x, int y, int width, int height)
+	{
+		if ((flags & FLIP_VERTICAL) != 0)
+			y = height - 1 - y;
+		if ((flags & FLIP_HORIZONTAL) != 0)
+			x = width - 1 - x;
+		if ((flags & FLIP_DIAGONAL) != 0)
+		{
+			int temp = x;
+			x = y;
+			y = temp;
+		}
+		return (y << 16) | x;
+	}
+
+	/**
+	 * Transforms the pixels of a tile
+	 * @param pixels - The ARGB pixels of the tile, in row major order
+	 * @param width - The width of the tile
+	 * @param height - The height of the tile
+	 * @param flags - The flip flags
+	 * @return A new array of the transformed pixels
+	 */
+	public static int[] transform(int[] pixels, int width, int height, int flags)
+	{
+		flags = getUsableFlags(flags, width, height);
+		int[] result = new int[pixels.length];
+
+		for (int y = 0; y < height; y++)
+		{
+			for (int x = 0; x < width; x++)
+			{
+				int source = getSourcePoint(flags, x, y, width, height);
+				result[y * width + x] = pixels[(source >>> 16) * width + (source & 0xFFFF)];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Transforms the image of a tile
+	 * @param image - The image of the tile
+	 * @param flags - The flip flags
+	 * @return A new ARGB image of the transformed tile
+	 */
+	public static BufferedImage transform(BufferedImage image, int flags)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = transform(image.getRGB(0, 0, width, height, null, 0, width), width, height, flags);
+
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		result.setRGB(0, 0, width, height, pixels, 0, width);
+		return result;
+	}
+
+	/**
+	 * Transforms a rectangle within a tile, such as the bounds of its visible pixels
+	 * @param bounds - The rectangle in the untransformed tile
+	 * @param width - The width of the tile
+	 * @param height - The height of the tile
+	 * @param flags - The flip flags
+	 * @return The rectangle in the transformed tile
+	 */
+	public static Rectangle transform(Rectangle bounds, int width, int height, int flags)
+	{
+		flags = getUsableFlags(flags, width, height);
+		if (flags == 0 || bounds.isEmpty())
+			return bounds;
+
+		Rectangle result = new Rectangle(bounds);
+		if ((flags & FLIP_DIAGONAL) != 0)
+			result.setBounds(result.y, result.x, result.height, result.width);
+		if ((flags & FLIP_HORIZONTAL) != 0)
+			result.x = width - result.x - result.width;
+		if ((flags & FLIP_VERTICAL) != 0)
+			result.y = height - result.y - result.height;
+		return result;
+	}
+
+	/**
+	 * Drops the diagonal flip of tiles which aren't square
+	 * @param flags - The flip flags
+	 * @param width - The width of the tile
+	 * @param height - The height of the tile
+	 * @return The flags which can be applied to the tile
+	 */
+	public static int getUsableFlags(int flags, int width, int height)
+	{
+		return (width == height) ? flags & FLAG_MASK : flags & (FLIP_HORIZONTAL | FLIP_VERTICAL);
+	}
+}
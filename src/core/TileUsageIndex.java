@@ -0,0 +1,269 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of where each tile and object is used on the layers of a LayerStack,
+ * so that finding every use of one doesn't mean looking at every cell of the map.
+ * For each ID it keeps how many cells use it and a list of those cells, and both
+ * are kept up to date as cells are changed. Flipped and rotated cells count as uses
+ * of their base ID.
+ *
+ * Counts are always exact. A cell is added to the list of its new ID when it changes,
+ * but isn't searched for in the list of its old one: stale entries are dropped when
+ * a list is read, or once a list holds many more entries than its ID has uses.
+ */
+public class TileUsageIndex
+{
+	private LayerStack stack;
+	private int[][] counts;
+	private int[][][] uses;
+	private int[][] useSizes;
+	private int version;
+
+	/**
+	 * Creates an index of a stack's layers, which has no uses until it is rebuilt
+	 * @param stack - The layers to keep track of
+	 */
+	public TileUsageIndex(LayerStack stack)
+	{
+		this.stack = stack;
+		clear();
+	}
+
+	/**
+	 * Forgets every use
+	 */
+	private void clear()
+	{
+		counts = new int[LayerStack.FLAG][0];
+		uses = new int[LayerStack.FLAG][0][];
+		useSizes = new int[LayerStack.FLAG][0];
+		version++;
+	}
+
+	/**
+	 * Gets how many times the index has changed, so that anything worked out
+	 * from it can tell when it needs working out again
+	 * @return The number of changes so far
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Indexes every cell of the tile and object layers again, for when layers
+	 * are added, removed or moved, or replaced all at once
+	 */
+	public void rebuild()
+	{
+		clear();
+
+		int cellCount = stack.getCellCount();
+		for (int layer = 0; layer < stack.getLayerCount(); layer++)
+		{
+			int type = stack.getType(layer);
+			if (type == LayerStack.FLAG || stack.getFilledCount(layer) == 0)
+				continue;
+
+			for (int i = 0; i < cellCount; i++)
+			{
+				int id = stack.get(layer, i);
+				if (!LayerStack.isEmptyId(type, id))
+					addUse(type, TileTransform.getBaseId(id), layer * cellCount + i);
+			}
+		}
+	}
+
+	/**
+	 * Updates the index after a cell has been changed
+	 * @param layer - The index of the layer the cell is on
+	 * @param index - The index of the cell
+	 * @param oldId - The ID the cell had
+	 * @param newId - The ID the cell has now
+	 * @return True if an ID stopped being used or started being used
+	 */
+	public boolean cellChanged(int layer, int index, int oldId, int newId)
+	{
+		int type = stack.getType(layer);
+		if (type == LayerStack.FLAG)
+			return false;
+
+		int oldBase = LayerStack.isEmptyId(type, oldId) ? -1 : TileTransform.getBaseId(oldId);
+		int newBase = LayerStack.isEmptyId(type, newId) ? -1 : TileTransform.getBaseId(newId);
+		if (oldBase == newBase)
+			return false;
+
+		version++;
+		boolean usageChanged = false;
+		if (oldBase >= 0)
+		{
+			counts[type][oldBase]--;
+			usageChanged = (counts[type][oldBase] == 0);
+
+			// Don't let the stale entries pile up
+			if (useSizes[type][oldBase] > 2 * counts[type][oldBase] + 16)
+				compact(type, oldBase);
+		}
+		if (newBase >= 0)
+		{
+			addUse(type, newBase, layer * stack.getCellCount() + index);
+			usageChanged |= (counts[type][newBase] == 1);
+		}
+
+		return usageChanged;
+	}
+
+	/**
+	 * Moves the uses of one ID over to another after every cell using it was replaced
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param fromId - The ID which was replaced
+	 * @param toId - The ID it was replaced with, or an empty ID if the cells were erased
+	 */
+	public void replaced(int type, int fromId, int toId)
+	{
+		if (fromId == toId || fromId >= counts[type].length)
+			return;
+
+		// The cells now hold the new ID, so the old list is moved over as it is
+		// and its stale entries are dropped the next time the new list is read
+		version++;
+		if (!LayerStack.isEmptyId(type, toId))
+		{
+			ensureCapacity(type, toId);
+			counts[type][toId] += counts[type][fromId];
+			for (int i = 0; i < useSizes[type][fromId]; i++)
+				append(type, toId, uses[type][fromId][i]);
+		}
+
+		counts[type][fromId] = 0;
+		uses[type][fromId] = null;
+		useSizes[type][fromId] = 0;
+	}
+
+	/**
+	 * Gets the number of cells an ID is used on, counting each layer separately
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID of the tile or object
+	 * @return The number of uses
+	 */
+	public int getUseCount(int type, int id)
+	{
+		return (id >= 0 && id < counts[type].length) ? counts[type][id] : 0;
+	}
+
+	/**
+	 * Tells whether an ID is used anywhere on the map
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID of the tile or object
+	 * @return True if any cell uses it
+	 */
+	public boolean isUsed(int type, int id)
+	{
+		return getUseCount(type, id) > 0;
+	}
+
+	/**
+	 * Gets the cells an ID is used on
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID of the tile or object
+	 * @return The indexes of the cells in order, each only once even if it's used on several layers
+	 */
+	public int[] getUses(int type, int id)
+	{
+		if (getUseCount(type, id) == 0)
+			return new int[0];
+
+		compact(type, id);
+		int cellCount = stack.getCellCount();
+		int[] cells = new int[useSizes[type][id]];
+		for (int i = 0; i < cells.length; i++)
+			cells[i] = uses[type][id][i] % cellCount;
+
+		// Drop the cells which use the ID on more than one layer
+		Arrays.sort(cells);
+		int count = 0;
+		for (int i = 0; i < cells.length; i++)
+		{
+			if (count == 0 || cells[count - 1] != cells[i])
+				cells[count++] = cells[i];
+		}
+		return Arrays.copyOf(cells, count);
+	}
+
+	/**
+	 * Adds a cell to the list of an ID and counts it
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID
+	 * @param key - The cell, as layer * cellCount + index
+	 */
+	private void addUse(int type, int id, int key)
+	{
+		ensureCapacity(type, id);
+		counts[type][id]++;
+		append(type, id, key);
+	}
+
+	/**
+	 * Adds a cell to the list of an ID without counting it
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID, which the arrays already have room for
+	 * @param key - The cell, as layer * cellCount + index
+	 */
+	private void append(int type, int id, int key)
+	{
+		int[] list = uses[type][id];
+		if (list == null)
+			list = uses[type][id] = new int[4];
+		else if (useSizes[type][id] == list.length)
+			list = uses[type][id] = Arrays.copyOf(list, list.length * 2);
+		list[useSizes[type][id]++] = key;
+	}
+
+	/**
+	 * Makes room in the arrays of a type for an ID
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID
+	 */
+	private void ensureCapacity(int type, int id)
+	{
+		if (id < counts[type].length)
+			return;
+
+		int capacity = Math.max(id + 1, counts[type].length * 2);
+		counts[type] = Arrays.copyOf(counts[type], capacity);
+		uses[type] = Arrays.copyOf(uses[type], capacity);
+		useSizes[type] = Arrays.copyOf(useSizes[type], capacity);
+	}
+
+	/**
+	 * Drops the entries of an ID's list whose cells no longer use it, and any
+	 * cell listed more than once
+	 * @param type - LayerStack.TILE or OBJECT
+	 * @param id - The base ID
+	 */
+	private void compact(int type, int id)
+	{
+		int[] list = uses[type][id];
+		if (list == null)
+			return;
+
+		int cellCount = stack.getCellCount();
+		int size = useSizes[type][id];
+		Arrays.sort(list, 0, size);
+
+		int kept = 0;
+		for (int i = 0; i < size; i++)
+		{
+			int key = list[i];
+			int cellId = stack.get(key / cellCount, key % cellCount);
+			if ((kept == 0 || list[kept - 1] != key) && !LayerStack.isEmptyId(type, cellId) && TileTransform.getBaseId(cellId) == id)
+				list[kept++] = key;
+		}
+
+		useSizes[type][id] = kept;
+		if (kept < list.length / 4)
+			uses[type][id] = Arrays.copyOf(list, Math.max(4, kept));
+	}
+}
@@ -0,0 +1,181 @@
+package export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Writes little endian values to a channel through a small buffer, for the binary
+ * exports which games load straight into arrays. Arrays can be padded out to a
+ * multiple of four bytes, and sections to any alignment, so that a loader can view
+ * them in place.
+ */
+class BinaryWriter
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private long position;
+
+	/**
+	 * Creates a writer for a channel
+	 * @param channel - The channel to write to, from its current position
+	 */
+	BinaryWriter(FileChannel channel)
+	{
+		this.channel = channel;
+		buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets how many bytes have been written so far
+	 * @return The number of bytes, including those still in the buffer
+	 */
+	long getPosition()
+	{
+		return position + buffer.position();
+	}
+
+	/**
+	 * Writes a byte
+	 * @param value - The value
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putByte(int value) throws IOException
+	{
+		makeRoom(1);
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Writes a short
+	 * @param value - The value, of which the low 16 bits are written
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putShort(int value) throws IOException
+	{
+		makeRoom(2);
+		buffer.putShort((short) value);
+	}
+
+	/**
+	 * Writes an int
+	 * @param value - The value
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putInt(int value) throws IOException
+	{
+		makeRoom(4);
+		buffer.putInt(value);
+	}
+
+	/**
+	 * Writes a long
+	 * @param value - The value
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putLong(long value) throws IOException
+	{
+		makeRoom(8);
+		buffer.putLong(value);
+	}
+
+	/**
+	 * Writes a float
+	 * @param value - The value
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putFloat(float value) throws IOException
+	{
+		makeRoom(4);
+		buffer.putFloat(value);
+	}
+
+	/**
+	 * Writes a string as its length in bytes followed by its UTF-8 bytes, padded
+	 * to a multiple of four bytes
+	 * @param value - The string
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putString(String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(UTF_8);
+		putInt(bytes.length);
+		for (byte b : bytes)
+			putByte(b);
+		align(4);
+	}
+
+	/**
+	 * Gets how many bytes putString writes for a string
+	 * @param value - The string
+	 * @return The number of bytes, including the length and padding
+	 */
+	static int getStringSize(String value)
+	{
+		return 4 + (value.getBytes(UTF_8).length + 3) / 4 * 4;
+	}
+
+	/**
+	 * Writes an array of values which each fit in a number of bytes, then pads
+	 * it to a multiple of four bytes. Values too big for the bytes are clamped.
+	 * @param values - The values
+	 * @param count - The number of values to write
+	 * @param bytes - 1, 2 or 4
+	 * @throws IOException If the channel can't be written to
+	 */
+	void putValues(int[] values, int count, int bytes) throws IOException
+	{
+		int max = (bytes == 4) ? -1 : (1 << (bytes * 8)) - 1;
+		for (int i = 0; i < count; i++)
+		{
+			makeRoom(4);
+			int value = (bytes == 4) ? values[i] : Math.min(values[i], max);
+			if (bytes == 1)
+				buffer.put((byte) value);
+			else if (bytes == 2)
+				buffer.putShort((short) value);
+			else
+				buffer.putInt(value);
+		}
+		align(4);
+	}
+
+	/**
+	 * Writes zeros until the position is a multiple of an alignment
+	 * @param alignment - The alignment in bytes
+	 * @throws IOException If the channel can't be written to
+	 */
+	void align(int alignment) throws IOException
+	{
+		while (getPosition() % alignment != 0)
+			putByte(0);
+	}
+
+	/**
+	 * Writes out the buffer if it doesn't have room for some bytes
+	 * @param bytes - The number of bytes about to be put in the buffer
+	 * @throws IOException If the channel can't be written to
+	 */
+	private void makeRoom(int bytes) throws IOException
+	{
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	/**
+	 * Writes everything in the buffer to the channel
+	 * @throws IOException If the channel can't be written to
+	 */
+	void flush() throws IOException
+	{
+		buffer.flip();
+		position += buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -0,0 +1,395 @@
+package export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import core.ChunkedLayer;
+import core.LayerStack;
+import core.MapData;
+import core.TileTransform;
+
+/**
+ * Exports the visible tile and object layers of a map as quad meshes which a game can upload
+ * to the GPU as they are, one vertex buffer and one index buffer per chunk and layer,
+ * instead of building quads out of cells when the map is loaded. The tiles are drawn
+ * from a PackedAtlas written next to the meshes.
+ *
+ * Cells which are empty or whose tile is fully transparent get no quad, and each run
+ * of identical cells along a row of a chunk is merged into one quad. So that a merged
+ * quad repeats its tile rather than stretching it, each vertex has tile coordinates
+ * which count whole tiles across the quad, and the top left UV of the tile in the
+ * atlas. A shader draws a pixel from
+ *
+ *     uv = origin + fract(tile) * tileSize / atlasSize
+ *
+ * with the flip flags of the cell already applied to the tile coordinates.
+ *
+ * Everything is little endian. The header is followed by the name of the atlas image
+ * and then the meshes. Each mesh is its vertices, six floats each (x and y in map
+ * pixels, the tile coordinates, and the UV origin), followed by six unsigned short
+ * indexes per quad, padded to four bytes. A table at the end lists each mesh's layer,
+ * chunk, number of quads and offset. Chunks are meshed in parallel, a band of them at
+ * a time, and each band is written out before the next is meshed.
+ */
+public class ChunkMeshExporter
+{
+	public static final String EXTENSION = ".tmm";
+	public static final int MAGIC = 0x534D4D54;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 56;
+	public static final int MESH_ENTRY_SIZE = 24;
+	public static final int FLOATS_PER_VERTEX = 6;
+	public static final int MAX_CHUNK_SIZE = 128;
+	private static final int CHUNKS_PER_BAND = 256;
+
+	private MapData map;
+	private int chunkSize;
+	private boolean usedTilesOnly;
+	private int padding;
+	private PackedAtlas atlas;
+	private TileAtlas sheetAtlas;
+	private int[] layers;
+	private int chunksAcross, chunksDown;
+	private float[][] meshes;
+	private int[] quadCounts;
+	private int meshCount;
+	private long quadCount, cellCount;
+
+	/**
+	 * Creates an exporter for a map
+	 * @param map - The snapshot of the map to export
+	 * @param chunkSize - The width and height of each chunk in cells, at most MAX_CHUNK_SIZE
+	 * so that every index fits in an unsigned short
+	 * @param usedTilesOnly - True to only pack the tiles and objects the map uses into its atlas
+	 * @param padding - The number of pixels extruded around each tile of the atlas
+	 */
+	public ChunkMeshExporter(MapData map, int chunkSize, boolean usedTilesOnly, int padding)
+	{
+		this.map = map;
+		this.chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, chunkSize));
+		this.usedTilesOnly = usedTilesOnly;
+		this.padding = padding;
+	}
+
+	/**
+	 * Creates an exporter for a map with the chunk size the editor keeps layers in
+	 * @param map - The snapshot of the map to export
+	 * @param usedTilesOnly - True to only pack the tiles and objects the map uses into its atlas
+	 * @param padding - The number of pixels extruded around each tile of the atlas
+	 */
+	public ChunkMeshExporter(MapData map, boolean usedTilesOnly, int padding)
+	{
+		this(map, ChunkedLayer.CHUNK_SIZE, usedTilesOnly, padding);
+	}
+
+	/**
+	 * Gets the atlas packed by the last export
+	 * @return The atlas, or null if nothing has been exported yet
+	 */
+	public PackedAtlas getAtlas()
+	{
+		return atlas;
+	}
+
+	/**
+	 * Gets the number of meshes written by the last export
+	 * @return The number of chunks of every layer which have any quads
+	 */
+	public int getMeshCount()
+	{
+		return meshCount;
+	}
+
+	/**
+	 * Gets the number of quads written by the last export
+	 * @return The number of quads of every mesh
+	 */
+	public long getQuadCount()
+	{
+		return quadCount;
+	}
+
+	/**
+	 * Gets the number of cells drawn by the quads of the last export
+	 * @return The number of cells which got a quad or were merged into one
+	 */
+	public long getCellCount()
+	{
+		return cellCount;
+	}
+
+	/**
+	 * Exports the meshes to a file, and their tile atlas to the file PackedAtlas.getImageFile names
+	 * @param file - The file to write
+	 * @throws IOException If either file can't be written
+	 */
+	public void export(File file) throws IOException
+	{
+		atlas = new PackedAtlas(map, usedTilesOnly, padding);
+		sheetAtlas = new TileAtlas(map.getTileSheet());
+		File atlasFile = PackedAtlas.getImageFile(file);
+		atlas.writeImage(atlasFile);
+
+		layers = map.getDrawnLayers((1 << LayerStack.TILE) | (1 << LayerStack.OBJECT));
+		chunksAcross = (map.getWidthInTiles() + chunkSize - 1) / chunkSize;
+		chunksDown = (map.getHeightInTiles() + chunkSize - 1) / chunkSize;
+		int totalMeshes = chunksAcross * chunksDown * layers.length;
+		meshCount = 0;
+		quadCount = 0;
+		cellCount = 0;
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try
+		{
+			BinaryWriter writer = new BinaryWriter(stream.getChannel());
+			ArrayList<long[]> table = new ArrayList<long[]>();
+
+			// The number of meshes and the table offset are filled in once they are known
+			writeHeader(writer, 0, 0);
+			writer.putString(atlasFile.getName());
+
+			for (int first = 0; first < totalMeshes; first += CHUNKS_PER_BAND)
+			{
+				int last = Math.min(totalMeshes, first + CHUNKS_PER_BAND);
+				meshes = new float[last - first][];
+				quadCounts = new int[last - first];
+				ForkJoinPool.commonPool().invoke(new MeshTask(first, first, last));
+
+				for (int i = 0; i < meshes.length; i++)
+				{
+					if (quadCounts[i] == 0)
+						continue;
+
+					int mesh = first + i;
+					int chunk = mesh % (chunksAcross * chunksDown);
+					table.add(new long[] { layers[mesh / (chunksAcross * chunksDown)], chunk % chunksAcross, 
+							chunk / chunksAcross, quadCounts[i], writer.getPosition() });
+					writeMesh(writer, meshes[i], quadCounts[i]);
+					quadCount += quadCounts[i];
+				}
+			}
+			meshes = null;
+
+			long tableOffset = writer.getPosition();
+			for (long[] entry : table)
+			{
+				writer.putInt((int) entry[0]);
+				writer.putInt((int) entry[1]);
+				writer.putInt((int) entry[2]);
+				writer.putInt((int) entry[3]);
+				writer.putLong(entry[4]);
+			}
+			writer.flush();
+			meshCount = table.size();
+
+			stream.getChannel().position(0);
+			writer = new BinaryWriter(stream.getChannel());
+			writeHeader(writer, meshCount, tableOffset);
+			writer.flush();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Writes the header of the file
+	 * @param writer - The writer, at the start of the file
+	 * @param meshes - The number of meshes in the table
+	 * @param tableOffset - The offset of the table of meshes
+	 * @throws IOException If the file can't be written
+	 */
+	private void writeHeader(BinaryWriter writer, int meshes, long tableOffset) throws IOException
+	{
+		writer.putInt(MAGIC);
+		writer.putInt(VERSION);
+		writer.putInt(map.getWidthInTiles());
+		writer.putInt(map.getHeightInTiles());
+		writer.putInt(map.getTileSheet().getWidthOfTiles());
+		writer.putInt(map.getTileSheet().getHeightOfTiles());
+		writer.putInt(chunkSize);
+		writer.putInt(meshes);
+		writer.putInt(atlas.getWidth());
+		writer.putInt(atlas.getHeight());
+		writer.putInt(HEADER_SIZE);
+		writer.putInt(0);
+		writer.putLong(tableOffset);
+	}
+
+	/**
+	 * Writes the vertices and indexes of a mesh
+	 * @param writer - The writer
+	 * @param vertices - The vertices of the quads
+	 * @param quads - The number of quads
+	 * @throws IOException If the file can't be written
+	 */
+	private void writeMesh(BinaryWriter writer, float[] vertices, int quads) throws IOException
+	{
+		for (int i = 0; i < quads * 4 * FLOATS_PER_VERTEX; i++)
+			writer.putFloat(vertices[i]);
+
+		// Two triangles per quad, wound the same way as its corners
+		for (int quad = 0; quad < quads; quad++)
+		{
+			int corner = quad * 4;
+			writer.putShort(corner);
+			writer.putShort(corner + 1);
+			writer.putShort(corner + 2);
+			writer.putShort(corner + 2);
+			writer.putShort(corner + 3);
+			writer.putShort(corner);
+		}
+		writer.align(4);
+	}
+
+	/**
+	 * Builds the quads of one chunk of a layer
+	 * @param mesh - The index of the mesh, counting every chunk of each drawn layer in turn
+	 * @param slot - Where the mesh goes in the current band
+	 */
+	private void buildMesh(int mesh, int slot)
+	{
+		int chunksPerLayer = chunksAcross * chunksDown;
+		int layer = layers[mesh / chunksPerLayer];
+		int type = map.getLayerType(layer);
+		int chunk = mesh % chunksPerLayer;
+		int left = (chunk % chunksAcross) * chunkSize;
+		int top = (chunk / chunksAcross) * chunkSize;
+		int right = Math.min(map.getWidthInTiles(), left + chunkSize);
+		int bottom = Math.min(map.getHeightInTiles(), top + chunkSize);
+		int tileWidth = map.getTileSheet().getWidthOfTiles();
+		int tileHeight = map.getTileSheet().getHeightOfTiles();
+
+		float[] vertices = null;
+		int quads = 0;
+		long cells = 0;
+		for (int y = top; y < bottom; y++)
+		{
+			int x = left;
+			while (x < right)
+			{
+				int id = map.getLayerId(layer, x, y);
+				int start = x++;
+				if (!isDrawn(type, id))
+					continue;
+
+				while (x < right && map.getLayerId(layer, x, y) == id)
+					x++;
+
+				if (vertices == null)
+					vertices = new float[chunkSize * chunkSize * 4 * FLOATS_PER_VERTEX];
+				addQuad(vertices, quads++, type, id, start * tileWidth, y * tileHeight, x - start, tileWidth, tileHeight);
+				cells += x - start;
+			}
+		}
+
+		meshes[slot] = vertices;
+		quadCounts[slot] = quads;
+		synchronized (this)
+		{
+			cellCount += cells;
+		}
+	}
+
+	/**
+	 * Tells whether a cell gets a quad
+	 * @param type - The type of the cell's layer
+	 * @param id - The ID of the cell
+	 * @return True if the cell isn't empty and its tile has some visible pixels
+	 */
+	private boolean isDrawn(int type, int id)
+	{
+		if (LayerStack.isEmptyId(type, id))
+			return false;
+
+		int index = (type == LayerStack.TILE) ? sheetAtlas.getTileIndex(id) : sheetAtlas.getObjectIndex(id);
+		return index >= 0 && sheetAtlas.getOpacity(index) != TileAtlas.TRANSPARENT && !LayerStack.isEmptyId(type, atlas.remap(type, id));
+	}
+
+	/**
+	 * Adds a quad covering a run of identical cells
+	 * @param vertices - The vertices of the mesh
+	 * @param quad - The index of the quad in the mesh
+	 * @param type - The type of the cells' layer
+	 * @param id - The ID of the cells
+	 * @param x - The x coordinate of the left edge of the run, in map pixels
+	 * @param y - The y coordinate of the top edge of the run, in map pixels
+	 * @param run - The number of cells in the run
+	 * @param tileWidth - The width of a tile
+	 * @param tileHeight - The height of a tile
+	 */
+	private void addQuad(float[] vertices, int quad, int type, int id, int x, int y, int run, int tileWidth, int tileHeight)
+	{
+		int packedId = atlas.remap(type, id);
+		int index = TileTransform.getBaseId(packedId) + ((type == LayerStack.OBJECT) ? atlas.getTileCount() - 1 : 0);
+		float u = (float) atlas.getX(index) / atlas.getWidth();
+		float v = (float) atlas.getY(index) / atlas.getHeight();
+		int flags = TileTransform.getUsableFlags(TileTransform.getFlags(id), tileWidth, tileHeight);
+
+		// Top left, top right, bottom right, bottom left
+		int offset = quad * 4 * FLOATS_PER_VERTEX;
+		for (int corner = 0; corner < 4; corner++)
+		{
+			int right = (corner == 1 || corner == 2) ? 1 : 0;
+			int lower = (corner >= 2) ? 1 : 0;
+
+			// The flips mirror the tile coordinates so each repeat of the tile is flipped
+			float s = ((flags & TileTransform.FLIP_HORIZONTAL) != 0) ? run * (1 - right) : run * right;
+			float t = ((flags & TileTransform.FLIP_VERTICAL) != 0) ? 1 - lower : lower;
+			if ((flags & TileTransform.FLIP_DIAGONAL) != 0)
+			{
+				float temp = s;
+				s = t;
+				t = temp;
+			}
+
+			vertices[offset++] = x + right * run * tileWidth;
+			vertices[offset++] = y + lower * tileHeight;
+			vertices[offset++] = s;
+			vertices[offset++] = t;
+			vertices[offset++] = u;
+			vertices[offset++] = v;
+		}
+	}
+
+	/**
+	 * Meshes a range of the current band's chunks, splitting it in half until it is
+	 * small enough. Each chunk's mesh is only written by the task which builds it.
+	 */
+	class MeshTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 6203317491254780512L;
+		private int bandStart, first, last;
+
+		/**
+		 * Creates a task for a range of meshes
+		 * @param bandStart - The index of the first mesh of the band
+		 * @param first - The index of the first mesh to build
+		 * @param last - The one just past the last
+		 */
+		MeshTask(int bandStart, int first, int last)
+		{
+			this.bandStart = bandStart;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute()
+		{
+			if (last - first > 1)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new MeshTask(bandStart, first, middle), new MeshTask(bandStart, middle, last));
+				return;
+			}
+
+			for (int mesh = first; mesh < last; mesh++)
+				buildMesh(mesh, mesh - bandStart);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package export;
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import core.CollisionPlanes;
+import core.MapData;
+
+/**
+ * Exports the collision layer of a map as rectangles for a physics engine. The cells
+ * of each collision flag are merged into as few rectangles as greedy meshing finds,
+ * so that a map with a million solid cells loads as a few hundred bodies. Rectangles
+ * are in cells, and the tile size is written alongside so they can be scaled to pixels.
+ */
+public class CollisionRectangleExporter
+{
+	private MapData map;
+	private int rectangleCount, cellCount;
+
+	/**
+	 * Creates an exporter for a map
+	 * @param map - The snapshot of the map whose collision layer is exported
+	 */
+	public CollisionRectangleExporter(MapData map)
+	{
+		this.map = map;
+	}
+
+	/**
+	 * Gets the number of rectangles written by the last export
+	 * @return The number of rectangles of every flag
+	 */
+	public int getRectangleCount()
+	{
+		return rectangleCount;
+	}
+
+	/**
+	 * Gets the number of flagged cells covered by the last export
+	 * @return The number of cells of every flag
+	 */
+	public int getCellCount()
+	{
+		return cellCount;
+	}
+
+	/**
+	 * Exports the rectangles to an XML file
+	 * @param filePath - The file path to write the rectangles to
+	 * @throws IOException If the file can't be written
+	 */
+	public void export(String filePath) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath));
+		try
+		{
+			export(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Exports the rectangles as XML to a stream. Each flag which is set on any cell
+	 * gets a flag element holding its rectangles.
+	 * @param out - The stream to write the rectangles to
+	 * @throws IOException If the rectangles can't be written
+	 */
+	public void export(OutputStream out) throws IOException
+	{
+		CollisionPlanes planes = map.getCollisionPlanes();
+		rectangleCount = 0;
+		cellCount = 0;
+
+		Element collision = new Element("collision");
+		collision.setAttribute("width", map.getWidthInTiles() + "");
+		collision.setAttribute("height", map.getHeightInTiles() + "");
+		collision.setAttribute("tile_width", map.getTileSheet().getWidthOfTiles() + "");
+		collision.setAttribute("tile_height", map.getTileSheet().getHeightOfTiles() + "");
+
+		for (int flag = 0; flag < CollisionPlanes.FLAG_COUNT; flag++)
+		{
+			int cells = planes.count(flag);
+			if (cells == 0)
+				continue;
+
+			List<Rectangle> rectangles = planes.mergeRectangles(flag);
+			Element flagElement = new Element("flag");
+			flagElement.setAttribute("name", CollisionPlanes.getFlagName(flag));
+			flagElement.setAttribute("cells", cells + "");
+
+			for (Rectangle rectangle : rectangles)
+			{
+				Element rect = new Element("rect");
+				rect.setAttribute("x", rectangle.x + "");
+				rect.setAttribute("y", rectangle.y + "");
+				rect.setAttribute("width", rectangle.width + "");
+				rect.setAttribute("height", rectangle.height + "");
+				flagElement.addContent(rect);
+			}
+
+			collision.addContent(flagElement);
+			rectangleCount += rectangles.size();
+			cellCount += cells;
+		}
+
+		new XMLOutputter(Format.getPrettyFormat()).output(new Document(collision), out);
+		out.flush();
+	}
+}
@@ -0,0 +1,420 @@
+package export;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import core.LayerStack;
+import core.MapData;
+
+/**
+ * Renders any rectangular region of a map into an int raster, drawing only the
+ * cells which overlap it. This is shared by all of the exporters so that they
+ * never need an image of the whole map.
+ *
+ * Rather than going through Graphics.drawImage, tile and object pixels are
+ * copied straight out of a TileAtlas. The layers of the map are drawn generically
+ * from the bottom up, and only those which are visible, have something on them, and
+ * are of a type being rendered are looked at at all. The first layer drawn in a cell
+ * lands on cleared pixels so it is a plain row copy, and only partially transparent
+ * layers on top of it are alpha blended. Using the opacity masks worked out by the
+ * TileSheet, fully transparent images are skipped, everything under the top opaque
+ * image of a cell is skipped, and partially transparent images are only drawn
+ * within the bounding box of their visible pixels. Flag layers fill the cells
+ * which are set with the collision color. The renderer counts how many images it
+ * was asked to draw and how many it actually drew.
+ */
+public class MapRenderer
+{
+	public static final int TILE_LAYER = 1 << LayerStack.TILE;
+	public static final int OBJECT_LAYER = 1 << LayerStack.OBJECT;
+	public static final int COLLISION_LAYER = 1 << LayerStack.FLAG;
+	public static final int ALL_LAYERS = TILE_LAYER | OBJECT_LAYER | COLLISION_LAYER;
+
+	public static final Color DEFAULT_COLLISION_COLOR = new Color(255, 0, 0, 145);
+	public static final Color COLLISION_MASK_COLOR = Color.WHITE;
+
+	private MapData map;
+	private TileAtlas atlas;
+	private int layers;
+	private int[] drawnLayers;
+	private Color collisionColor;
+	private AtomicLong imageCount, drawCallCount;
+
+	/**
+	 * Creates a renderer for the specified map
+	 * @param map - The map to render
+	 * @param layers - Which types of layers to draw (TILE_LAYER, OBJECT_LAYER, and/or COLLISION_LAYER)
+	 */
+	public MapRenderer(MapData map, int layers)
+	{
+		this.map = map;
+		this.layers = layers;
+		drawnLayers = map.getDrawnLayers(layers);
+		atlas = new TileAtlas(map.getTileSheet());
+		collisionColor = DEFAULT_COLLISION_COLOR;
+		imageCount = new AtomicLong();
+		drawCallCount = new AtomicLong();
+	}
+
+	/**
+	 * Gets the map being rendered
+	 * @return The map being rendered
+	 */
+	public MapData getMap()
+	{
+		return map;
+	}
+
+	/**
+	 * Gets the atlas the tiles are blitted from
+	 * @return The TileAtlas of the map's sheet
+	 */
+	public TileAtlas getAtlas()
+	{
+		return atlas;
+	}
+
+	/**
+	 * Gets the types of layers which are drawn
+	 * @return The TILE_LAYER, OBJECT_LAYER, and COLLISION_LAYER flags which are set
+	 */
+	public int getLayers()
+	{
+		return layers;
+	}
+
+	/**
+	 * Gets the layers of the map which are actually drawn, which are the visible
+	 * layers with something on them of the types being drawn
+	 * @return The indexes of the layers, from the bottom one up
+	 */
+	public int[] getDrawnLayers()
+	{
+		return drawnLayers;
+	}
+
+	/**
+	 * Gets the color that collidable cells are filled with
+	 * @return The color that collidable cells are filled with
+	 */
+	public Color getCollisionColor()
+	{
+		return collisionColor;
+	}
+
+	/**
+	 * Sets the color that collidable cells are filled with. Use COLLISION_MASK_COLOR
+	 * along with only the COLLISION_LAYER to render a collision mask.
+	 * @param color - The color to fill collidable cells with
+	 */
+	public void setCollisionColor(Color color)
+	{
+		collisionColor = color;
+	}
+
+	/**
+	 * Gets the number of tile and object images in the cells rendered so far,
+	 * which is how many draw calls there would be without any skipping
+	 * @return The number of images in the rendered cells
+	 */
+	public long getImageCount()
+	{
+		return imageCount.get();
+	}
+
+	/**
+	 * Gets the number of tile and object images which were actually drawn so far
+	 * @return The number of draw calls made
+	 */
+	public long getDrawCallCount()
+	{
+		return drawCallCount.get();
+	}
+
+	/**
+	 * Sets the image and draw call counts back to zero
+	 */
+	public void resetDrawCallCounts()
+	{
+		imageCount.set(0);
+		drawCallCount.set(0);
+	}
+
+	/**
+	 * Gets the width of the whole map
+	 * @return The width of the map in pixels
+	 */
+	public int getMapPixelWidth()
+	{
+		return map.getWidthInTiles() * map.getTileSheet().getWidthOfTiles();
+	}
+
+	/**
+	 * Gets the height of the whole map
+	 * @return The height of the map in pixels
+	 */
+	public int getMapPixelHeight()
+	{
+		return map.getHeightInTiles() * map.getTileSheet().getHeightOfTiles();
+	}
+
+	/**
+	 * Renders the region of the map whose top left corner is at (left, top) into
+	 * an image. The whole image is cleared first, and anything outside of the map
+	 * is left transparent.
+	 * @param dest - A TYPE_INT_ARGB image to render into, the size of the region
+	 * @param left - The x coordinate of the region, in map pixels
+	 * @param top - The y coordinate of the region, in map pixels
+	 */
+	public void render(BufferedImage dest, int left, int top)
+	{
+		int[] pixels = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+		render(pixels, dest.getWidth(), dest.getHeight(), left, top);
+	}
+
+	/**
+	 * Renders the region of the map whose top left corner is at (left, top) into
+	 * an ARGB raster. The raster is cleared first, and anything outside of the map
+	 * is left transparent.
+	 * @param dest - The raster to render into, in row major order
+	 * @param width - The width of the region and the raster
+	 * @param height - The height of the region and the raster
+	 * @param left - The x coordinate of the region, in map pixels
+	 * @param top - The y coordinate of the region, in map pixels
+	 */
+	public void render(int[] dest, int width, int height, int left, int top)
+	{
+		int tileWidth = map.getTileSheet().getWidthOfTiles();
+		int tileHeight = map.getTileSheet().getHeightOfTiles();
+		int collision = collisionColor.getRGB();
+
+		int images = 0, drawCalls = 0;
+		int layerCount = drawnLayers.length;
+		int[] ids = new int[layerCount];
+		int[] indexes = new int[layerCount];
+		int[] opacities = new int[layerCount];
+
+		// Clear whatever was drawn last
+		Arrays.fill(dest, 0, width * height, 0);
+
+		// Determine which cells overlap the region
+		int firstColumn = Math.max(0, left / tileWidth);
+		int firstRow = Math.max(0, top / tileHeight);
+		int lastColumn = Math.min(map.getWidthInTiles(), (left + width + tileWidth - 1) / tileWidth);
+		int lastRow = Math.min(map.getHeightInTiles(), (top + height + tileHeight - 1) / tileHeight);
+
+		for (int y = firstRow; y < lastRow; y++)
+		{
+			int index = y * map.getWidthInTiles() + firstColumn;
+
+			for (int x = firstColumn; x < lastColumn; x++, index++)
+			{
+				int drawX = x * tileWidth - left;
+				int drawY = y * tileHeight - top;
+
+				// Clip the cell to the region
+				int x0 = Math.max(0, drawX);
+				int y0 = Math.max(0, drawY);
+				int x1 = Math.min(width, drawX + tileWidth);
+				int y1 = Math.min(height, drawY + tileHeight);
+				if (x0 >= x1 || y0 >= y1)
+					continue;
+
+				// Look up the image of each layer, and find the top opaque one, which hides everything under it
+				int first = 0;
+				for (int i = 0; i < layerCount; i++)
+				{
+					int layer = drawnLayers[i];
+					int type = map.getLayerType(layer);
+					ids[i] = map.getLayerId(layer, index);
+
+					if (type == LayerStack.FLAG)
+					{
+						indexes[i] = -1;
+						continue;
+					}
+
+					indexes[i] = (type == LayerStack.OBJECT) ? atlas.getObjectIndex(ids[i]) : atlas.getTileIndex(ids[i]);
+					opacities[i] = (indexes[i] < 0) ? TileAtlas.TRANSPARENT : atlas.getOpacity(indexes[i]);
+					if (indexes[i] >= 0)
+						images++;
+					if (opacities[i] == TileAtlas.OPAQUE)
+						first = i;
+				}
+
+				boolean cleared = true;
+
+				for (int i = first; i < layerCount; i++)
+				{
+					if (indexes[i] >= 0 && opacities[i] != TileAtlas.TRANSPARENT)
+					{
+						drawImage(indexes[i], ids[i], !cleared && opacities[i] != TileAtlas.OPAQUE, dest, width, drawX, drawY, x0, y0, x1, y1);
+						cleared = false;
+						drawCalls++;
+					}
+					else if (indexes[i] < 0 && ids[i] != 0 && map.getLayerType(drawnLayers[i]) == LayerStack.FLAG)
+					{
+						fill(collision, dest, width, x0, y0, x1 - x0, y1 - y0);
+						cleared = false;
+					}
+				}
+			}
+		}
+
+		imageCount.addAndGet(images);
+		drawCallCount.addAndGet(drawCalls);
+	}
+
+	/**
+	 * Draws the part of a tile or object which is inside both the clipped cell and
+	 * the bounding box of the image's visible pixels
+	 * @param index - The atlas index of the image
+	 * @param id - The layer ID being drawn, whose flip flags are applied to the image
+	 * @param blend - True to alpha blend the image, false to copy it
+	 * @param dest - The raster
+	 * @param destWidth - The width of the raster
+	 * @param drawX - The left edge of the cell in the raster
+	 * @param drawY - The top edge of the cell in the raster
+	 * @param x0 - The left edge of the clipped cell
+	 * @param y0 - The top edge of the clipped cell
+	 * @param x1 - The right edge of the clipped cell
+	 * @param y1 - The bottom edge of the clipped cell
+	 */
+	private void drawImage(int index, int id, boolean blend, int[] dest, int destWidth, int drawX, int drawY, int x0, int y0, int x1, int y1)
+	{
+		Rectangle bounds = atlas.getOpaqueBounds(index, id);
+		int left = Math.max(x0, drawX + bounds.x);
+		int top = Math.max(y0, drawY + bounds.y);
+		int right = Math.min(x1, drawX + bounds.x + bounds.width);
+		int bottom = Math.min(y1, drawY + bounds.y + bounds.height);
+		if (left >= right || top >= bottom)
+			return;
+
+		int tileWidth = map.getTileSheet().getWidthOfTiles();
+		if (blend)
+			blend(atlas.getPixels(index, id), tileWidth, left - drawX, top - drawY, dest, destWidth, left, top, right - left, bottom - top);
+		else
+			copy(atlas.getPixels(index, id), tileWidth, left - drawX, top - drawY, dest, destWidth, left, top, right - left, bottom - top);
+	}
+
+	/**
+	 * Copies a rectangle of pixels from a tile into the raster
+	 * @param src - The tile's pixels
+	 * @param srcWidth - The width of the tile
+	 * @param srcX - The left edge of the rectangle in the tile
+	 * @param srcY - The top edge of the rectangle in the tile
+	 * @param dest - The raster
+	 * @param destWidth - The width of the raster
+	 * @param destX - The left edge of the rectangle in the raster
+	 * @param destY - The top edge of the rectangle in the raster
+	 * @param width - The width of the rectangle
+	 * @param height - The height of the rectangle
+	 */
+	private static void copy(int[] src, int srcWidth, int srcX, int srcY, int[] dest, int destWidth, int destX, int destY, int width, int height)
+	{
+		for (int row = 0; row < height; row++)
+			System.arraycopy(src, (srcY + row) * srcWidth + srcX, dest, (destY + row) * destWidth + destX, width);
+	}
+
+	/**
+	 * Alpha blends a rectangle of pixels from a tile over the raster
+	 * @param src - The tile's pixels
+	 * @param srcWidth - The width of the tile
+	 * @param srcX - The left edge of the rectangle in the tile
+	 * @param srcY - The top edge of the rectangle in the tile
+	 * @param dest - The raster
+	 * @param destWidth - The width of the raster
+	 * @param destX - The left edge of the rectangle in the raster
+	 * @param destY - The top edge of the rectangle in the raster
+	 * @param width - The width of the rectangle
+	 * @param height - The height of the rectangle
+	 */
+	private static void blend(int[] src, int srcWidth, int srcX, int srcY, int[] dest, int destWidth, int destX, int destY, int width, int height)
+	{
+		for (int row = 0; row < height; row++)
+		{
+			int s = (srcY + row) * srcWidth + srcX;
+			int d = (destY + row) * destWidth + destX;
+
+			for (int end = s + width; s < end; s++, d++)
+			{
+				int color = src[s];
+				int alpha = color >>> 24;
+
+				// Most pixels are either fully opaque or fully transparent
+				if (alpha == 255)
+					dest[d] = color;
+				else if (alpha != 0)
+					dest[d] = over(color, dest[d]);
+			}
+		}
+	}
+
+	/**
+	 * Alpha blends a single color over a rectangle of the raster
+	 * @param color - The ARGB color to blend
+	 * @param dest - The raster
+	 * @param destWidth - The width of the raster
+	 * @param destX - The left edge of the rectangle in the raster
+	 * @param destY - The top edge of the rectangle in the raster
+	 * @param width - The width of the rectangle
+	 * @param height - The height of the rectangle
+	 */
+	private static void fill(int color, int[] dest, int destWidth, int destX, int destY, int width, int height)
+	{
+		int alpha = color >>> 24;
+		if (alpha == 0)
+			return;
+
+		for (int row = 0; row < height; row++)
+		{
+			int d = (destY + row) * destWidth + destX;
+
+			if (alpha == 255)
+				Arrays.fill(dest, d, d + width, color);
+			else
+			{
+				for (int end = d + width; d < end; d++)
+					dest[d] = over(color, dest[d]);
+			}
+		}
+	}
+
+	/**
+	 * Blends a non-premultiplied ARGB color over another with the
+	 * Porter-Duff source over rule
+	 * @param src - The color on top
+	 * @param dst - The color underneath
+	 * @return The blended color
+	 */
+	private static int over(int src, int dst)
+	{
+		int srcAlpha = src >>> 24;
+		int dstAlpha = dst >>> 24;
+
+		if (dstAlpha == 0)
+			return src;
+
+		int inverse = 255 - srcAlpha;
+
+		// Blending onto an opaque pixel leaves it opaque
+		if (dstAlpha == 255)
+		{
+			int r = (((src >> 16) & 0xFF) * srcAlpha + ((dst >> 16) & 0xFF) * inverse + 127) / 255;
+			int g = (((src >> 8) & 0xFF) * srcAlpha + ((dst >> 8) & 0xFF) * inverse + 127) / 255;
+			int b = ((src & 0xFF) * srcAlpha + (dst & 0xFF) * inverse + 127) / 255;
+			return 0xFF000000 | r << 16 | g << 8 | b;
+		}
+
+		int dstWeight = (dstAlpha * inverse + 127) / 255;
+		int outAlpha = srcAlpha + dstWeight;
+		int r = (((src >> 16) & 0xFF) * srcAlpha + ((dst >> 16) & 0xFF) * dstWeight + outAlpha / 2) / outAlpha;
+		int g = (((src >> 8) & 0xFF) * srcAlpha + ((dst >> 8) & 0xFF) * dstWeight + outAlpha / 2) / outAlpha;
+		int b = ((src & 0xFF) * srcAlpha + (dst & 0xFF) * dstWeight + outAlpha / 2) / outAlpha;
+		return outAlpha << 24 | r << 16 | g << 8 | b;
+	}
+}
@@ -0,0 +1,534 @@
+package export;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import core.CollisionPlanes;
+import core.MapData;
+
+/**
+ * Exports navigation data worked out from the solid flags of a map's collision layer,
+ * so that a game can load it instead of flood filling the map when it starts.
+ *
+ * The map is split into square sectors, and each connected area of walkable cells
+ * within a sector is a region. Regions are labelled by union-find over strips of
+ * sector rows, which share no cells and so are worked on in parallel. The regions
+ * which touch across sector borders are listed as the edges of a region graph, and
+ * the connected components of the map are the connected parts of that graph. The
+ * distance from each cell to the nearest solid cell can be exported too, for keeping
+ * large characters away from walls.
+ *
+ * Everything is written as little endian binary arrays, with each array starting on
+ * a multiple of four bytes. The header holds a hash of the solid flags, and exporting
+ * over a file made from the same flags and settings leaves it alone.
+ */
+public class NavigationDataExporter
+{
+	public static final int DEFAULT_REGION_SIZE = 16;
+	public static final String EXTENSION = ".nav";
+	public static final int MAGIC = 0x564E4D54;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 48;
+	private static final int SOLID_FLAG = 0;
+	private static final int ROWS_PER_TASK = 64;
+	private static final int COLUMNS_PER_TASK = 256;
+	private static final int REGION_PASS = 0, ROW_DISTANCE_PASS = 1, COLUMN_DISTANCE_PASS = 2;
+
+	private CollisionPlanes planes;
+	private int width, height;
+	private int regionSize;
+	private boolean distancesIncluded;
+	private long collisionHash;
+	private int[] parents;
+	private int[] regions, components, regionComponents, distances;
+	private long[] edges;
+	private int regionCount, componentCount, edgeCount;
+	private int maxDistance;
+
+	/**
+	 * Creates an exporter for the collision layer of a map
+	 * @param map - The snapshot of the map whose navigation data is exported
+	 * @param regionSize - The width and height of the sectors regions are found within, in cells
+	 * @param distancesIncluded - True to export the distance from each cell to the nearest wall
+	 */
+	public NavigationDataExporter(MapData map, int regionSize, boolean distancesIncluded)
+	{
+		if (regionSize < 1)
+			throw new IllegalArgumentException("Region size must be positive: " + regionSize);
+
+		planes = map.getCollisionPlanes();
+		width = planes.getWidth();
+		height = planes.getHeight();
+		this.regionSize = regionSize;
+		this.distancesIncluded = distancesIncluded;
+		collisionHash = planes.hash(SOLID_FLAG);
+	}
+
+	/**
+	 * Gets the hash of the solid flags the data is worked out from
+	 * @return The hash written to the header
+	 */
+	public long getCollisionHash()
+	{
+		return collisionHash;
+	}
+
+	/**
+	 * Gets the number of regions found by the last call to compute
+	 * @return The number of regions, which are labelled from 1
+	 */
+	public int getRegionCount()
+	{
+		return regionCount;
+	}
+
+	/**
+	 * Gets the number of connected components found by the last call to compute
+	 * @return The number of components, which are labelled from 1
+	 */
+	public int getComponentCount()
+	{
+		return componentCount;
+	}
+
+	/**
+	 * Gets the number of pairs of regions which touch across sector borders
+	 * @return The number of edges of the region graph
+	 */
+	public int getEdgeCount()
+	{
+		return edgeCount;
+	}
+
+	/**
+	 * Gets the region of each cell found by the last call to compute
+	 * @return The region labels in row major order, 0 for solid cells
+	 */
+	public int[] getRegions()
+	{
+		return regions;
+	}
+
+	/**
+	 * Gets the connected component of each cell found by the last call to compute
+	 * @return The component labels in row major order, 0 for solid cells
+	 */
+	public int[] getComponents()
+	{
+		return components;
+	}
+
+	/**
+	 * Gets the distance from each cell to the nearest wall found by the last call to compute
+	 * @return The number of steps up, down, left and right to the nearest solid cell or the
+	 * edge of the map, in row major order, or null if distances aren't included
+	 */
+	public int[] getDistances()
+	{
+		return distances;
+	}
+
+	/**
+	 * Exports the navigation data to a file, unless the file was already made from
+	 * the same solid flags with the same settings
+	 * @param file - The file to write the data to
+	 * @return True if the file was written, false if it was already up to date
+	 * @throws IOException If the file can't be written
+	 */
+	public boolean export(File file) throws IOException
+	{
+		if (isUpToDate(file))
+			return false;
+
+		compute();
+		write(file);
+		return true;
+	}
+
+	/**
+	 * Tells whether a file holds navigation data made from the same flags and settings
+	 * @param file - The file written by an earlier export
+	 * @return True if the file doesn't need to be written again
+	 */
+	public boolean isUpToDate(File file)
+	{
+		if (!file.isFile() || file.length() < HEADER_SIZE)
+			return false;
+
+		byte[] header = new byte[HEADER_SIZE];
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new FileInputStream(file));
+			in.readFully(header);
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				if (in != null)
+					in.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+		return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getLong(8) == collisionHash
+				&& buffer.getInt(16) == width && buffer.getInt(20) == height && buffer.getInt(24) == regionSize
+				&& (buffer.getInt(28) != 0) == distancesIncluded;
+	}
+
+	/**
+	 * Works out the regions, the region graph, the components and, if they are
+	 * included, the distances to the nearest wall
+	 */
+	public void compute()
+	{
+		int cellCount = width * height;
+		parents = new int[cellCount];
+		ForkJoinPool.commonPool().invoke(new StripTask(REGION_PASS, 0, (height + regionSize - 1) / regionSize));
+		labelRegions();
+		parents = null;
+
+		findEdges();
+		labelComponents();
+
+		distances = null;
+		maxDistance = 0;
+		if (distancesIncluded)
+		{
+			distances = new int[cellCount];
+			ForkJoinPool.commonPool().invoke(new StripTask(ROW_DISTANCE_PASS, 0, height));
+			ForkJoinPool.commonPool().invoke(new StripTask(COLUMN_DISTANCE_PASS, 0, width));
+			for (int distance : distances)
+				maxDistance = Math.max(maxDistance, distance);
+		}
+	}
+
+	/**
+	 * Joins each walkable cell of a strip of rows to the walkable cells beside and
+	 * above it within its sector
+	 * @param firstRow - The first row of the strip, which is the top of a row of sectors
+	 * @param lastRow - The row just past the strip
+	 */
+	private void unionStrip(int firstRow, int lastRow)
+	{
+		for (int y = firstRow; y < lastRow; y++)
+		{
+			int index = y * width;
+			for (int x = 0, sectorX = 0; x < width; x++, index++, sectorX++)
+			{
+				if (sectorX == regionSize)
+					sectorX = 0;
+				if (planes.get(SOLID_FLAG, x, y))
+				{
+					parents[index] = -1;
+					continue;
+				}
+
+				parents[index] = index;
+				if (sectorX != 0 && parents[index - 1] >= 0)
+					union(index - 1, index);
+				if (y != firstRow && parents[index - width] >= 0)
+					union(index - width, index);
+			}
+		}
+	}
+
+	/**
+	 * Joins the sets of two cells, keeping the lower index as the root so that the
+	 * root of a set is always its first cell
+	 * @param a - The index of a cell
+	 * @param b - The index of another cell
+	 */
+	private void union(int a, int b)
+	{
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA < rootB)
+			parents[rootB] = rootA;
+		else if (rootB < rootA)
+			parents[rootA] = rootB;
+	}
+
+	/**
+	 * Finds the root of a cell's set, halving the path to it on the way
+	 * @param index - The index of the cell
+	 * @return The index of the root
+	 */
+	private int find(int index)
+	{
+		while (parents[index] != index)
+		{
+			parents[index] = parents[parents[index]];
+			index = parents[index];
+		}
+		return index;
+	}
+
+	/**
+	 * Numbers the regions in the order their first cells come in, and labels each cell
+	 * with its region. A root always comes before the rest of its set, so its label is
+	 * known by the time they are reached.
+	 */
+	private void labelRegions()
+	{
+		regions = new int[parents.length];
+		regionCount = 0;
+		for (int i = 0; i < parents.length; i++)
+		{
+			if (parents[i] < 0)
+				continue;
+			int root = find(i);
+			regions[i] = (root == i) ? ++regionCount : regions[root];
+		}
+	}
+
+	/**
+	 * Lists every pair of regions which have walkable cells beside each other across
+	 * a sector border, each pair once with the lower label first
+	 */
+	private void findEdges()
+	{
+		edges = new long[64];
+		edgeCount = 0;
+
+		for (int x = regionSize; x < width; x += regionSize)
+		{
+			for (int y = 0; y < height; y++)
+				addEdge(regions[y * width + x - 1], regions[y * width + x]);
+		}
+		for (int y = regionSize; y < height; y += regionSize)
+		{
+			for (int x = 0; x < width; x++)
+				addEdge(regions[(y - 1) * width + x], regions[y * width + x]);
+		}
+
+		Arrays.sort(edges, 0, edgeCount);
+		int unique = 0;
+		for (int i = 0; i < edgeCount; i++)
+		{
+			if (unique == 0 || edges[unique - 1] != edges[i])
+				edges[unique++] = edges[i];
+		}
+		edgeCount = unique;
+	}
+
+	/**
+	 * Adds a pair of regions to the edges, unless either is solid or the pair was the last added
+	 * @param a - The label of a region, or 0
+	 * @param b - The label of another region, or 0
+	 */
+	private void addEdge(int a, int b)
+	{
+		if (a == 0 || b == 0 || a == b)
+			return;
+
+		long edge = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+
+		// Regions along a border usually touch for many cells in a row
+		if (edgeCount > 0 && edges[edgeCount - 1] == edge)
+			return;
+		if (edgeCount == edges.length)
+			edges = Arrays.copyOf(edges, edgeCount * 2);
+		edges[edgeCount++] = edge;
+	}
+
+	/**
+	 * Joins the regions along the edges of the region graph into components, and
+	 * labels each region and cell with its component
+	 */
+	private void labelComponents()
+	{
+		parents = new int[regionCount + 1];
+		for (int i = 0; i <= regionCount; i++)
+			parents[i] = i;
+		for (int i = 0; i < edgeCount; i++)
+			union((int) (edges[i] >>> 32), (int) edges[i]);
+
+		regionComponents = new int[regionCount + 1];
+		componentCount = 0;
+		for (int region = 1; region <= regionCount; region++)
+		{
+			int root = find(region);
+			regionComponents[region] = (root == region) ? ++componentCount : regionComponents[root];
+		}
+		parents = null;
+
+		components = new int[regions.length];
+		for (int i = 0; i < regions.length; i++)
+			components[i] = regionComponents[regions[i]];
+	}
+
+	/**
+	 * Works out how far each cell of some rows is from the nearest wall to its left
+	 * or right, counting the edges of the map as walls
+	 * @param firstRow - The first row
+	 * @param lastRow - The row just past the last one
+	 */
+	private void measureRows(int firstRow, int lastRow)
+	{
+		for (int y = firstRow; y < lastRow; y++)
+		{
+			int start = y * width;
+			int distance = 0;
+			for (int x = 0; x < width; x++)
+			{
+				distance = planes.get(SOLID_FLAG, x, y) ? 0 : distance + 1;
+				distances[start + x] = distance;
+			}
+
+			distance = 0;
+			for (int x = width - 1; x >= 0; x--)
+			{
+				distance = Math.min(distances[start + x], distance + 1);
+				distances[start + x] = distance;
+			}
+		}
+	}
+
+	/**
+	 * Finishes the distances of some columns by letting each cell take the distance of the
+	 * cell above or below it plus one where that is nearer. Since the distances are up, down,
+	 * left and right steps, this finds the nearest wall in any direction. The rows are
+	 * gone through in order so that each pass reads memory in order too.
+	 * @param firstColumn - The first column
+	 * @param lastColumn - The column just past the last one
+	 */
+	private void measureColumns(int firstColumn, int lastColumn)
+	{
+		for (int x = firstColumn; x < lastColumn; x++)
+			distances[x] = Math.min(distances[x], 1);
+		for (int y = 1; y < height; y++)
+		{
+			int row = y * width;
+			for (int x = firstColumn; x < lastColumn; x++)
+				distances[row + x] = Math.min(distances[row + x], distances[row - width + x] + 1);
+		}
+
+		int last = (height - 1) * width;
+		for (int x = firstColumn; x < lastColumn; x++)
+			distances[last + x] = Math.min(distances[last + x], 1);
+		for (int y = height - 2; y >= 0; y--)
+		{
+			int row = y * width;
+			for (int x = firstColumn; x < lastColumn; x++)
+				distances[row + x] = Math.min(distances[row + x], distances[row + width + x] + 1);
+		}
+	}
+
+	/**
+	 * Gets the number of bytes needed for the labels or distances up to a value
+	 * @param max - The highest value
+	 * @return 1, 2 or 4
+	 */
+	private static int getValueBytes(int max)
+	{
+		return (max <= 0xFF) ? 1 : (max <= 0xFFFF) ? 2 : 4;
+	}
+
+	/**
+	 * Writes the header and arrays to a file
+	 * @param file - The file to write to
+	 * @throws IOException If the file can't be written
+	 */
+	private void write(File file) throws IOException
+	{
+		int regionBytes = getValueBytes(regionCount);
+		int componentBytes = getValueBytes(componentCount);
+		int distanceBytes = distancesIncluded ? Math.min(2, getValueBytes(maxDistance)) : 0;
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try
+		{
+			BinaryWriter out = new BinaryWriter(stream.getChannel());
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(collisionHash);
+			out.putInt(width);
+			out.putInt(height);
+			out.putInt(regionSize);
+			out.putInt(distancesIncluded ? 1 : 0);
+			out.putInt(regionCount);
+			out.putInt(componentCount);
+			out.putInt(edgeCount);
+			out.putInt(regionBytes | componentBytes << 8 | distanceBytes << 16);
+
+			out.putValues(regions, regions.length, regionBytes);
+			out.putValues(components, components.length, componentBytes);
+			out.putValues(regionComponents, regionComponents.length, componentBytes);
+			for (int i = 0; i < edgeCount; i++)
+			{
+				out.putInt((int) (edges[i] >>> 32));
+				out.putInt((int) edges[i]);
+			}
+			if (distancesIncluded)
+				out.putValues(distances, distances.length, distanceBytes);
+			out.flush();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Works on one pass of the export over a range of rows or columns, splitting it in
+	 * half until it is small enough. The strips of a pass share no cells that are written.
+	 */
+	class StripTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 4315628940372177305L;
+		private int pass, first, last;
+
+		/**
+		 * Creates a task for a range of a pass
+		 * @param pass - REGION_PASS over rows of sectors, ROW_DISTANCE_PASS over rows,
+		 * or COLUMN_DISTANCE_PASS over columns
+		 * @param first - The first row of sectors, row or column
+		 * @param last - The one just past the last
+		 */
+		StripTask(int pass, int first, int last)
+		{
+			this.pass = pass;
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute()
+		{
+			int size = (pass == REGION_PASS) ? 1 : (pass == ROW_DISTANCE_PASS) ? ROWS_PER_TASK : COLUMNS_PER_TASK;
+			if (last - first > size)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new StripTask(pass, first, middle), new StripTask(pass, middle, last));
+				return;
+			}
+
+			if (pass == REGION_PASS)
+			{
+				for (int sectorRow = first; sectorRow < last; sectorRow++)
+					unionStrip(sectorRow * regionSize, Math.min(height, (sectorRow + 1) * regionSize));
+			}
+			else if (pass == ROW_DISTANCE_PASS)
+				measureRows(first, last);
+			else
+				measureColumns(first, last);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import core.LayerStack;
+import core.MapData;
+import core.TileSheet;
+import core.TileTransform;
+
+/**
+ * Packs the tiles and objects of a map's TileSheet into a power of two texture for
+ * a game to draw from, so that the texture only holds what the map uses instead of
+ * the whole sheet. Packed tiles keep the order of their IDs, tiles first and objects
+ * after them, and are laid out in a grid of equal cells in row major order.
+ *
+ * The IDs on the map's layers are rewritten with remap: tiles are numbered from 0
+ * and objects from 1 in the order they were packed, and flip flags are kept. So the
+ * packed IDs index the atlas the same way sheet IDs index a TileAtlas, with the
+ * object of ID n at packed index getTileCount() + n - 1.
+ *
+ * Each cell can have a border of padding around its tile, which is filled by
+ * extruding the tile's edge pixels, so that filtering near the edge of a tile never
+ * samples its neighbour.
+ */
+public class PackedAtlas
+{
+	public static final int DEFAULT_PADDING = 1;
+	public static final int MAX_SIZE = 1 << 14;
+	public static final String IMAGE_EXTENSION = ".png";
+
+	private TileSheet sheet;
+	private int tileWidth, tileHeight, padding;
+	private int[][] remaps;
+	private int[] sheetIndexes;
+	private int tileCount, objectCount;
+	private int columns, width, height;
+
+	/**
+	 * Works out which tiles go in the atlas and how it is laid out
+	 * @param map - The snapshot of the map the atlas is for
+	 * @param usedOnly - True to only pack the tiles and objects the map uses, false to pack them all
+	 * @param padding - The number of pixels extruded around each tile
+	 */
+	public PackedAtlas(MapData map, boolean usedOnly, int padding)
+	{
+		sheet = map.getTileSheet();
+		tileWidth = sheet.getWidthOfTiles();
+		tileHeight = sheet.getHeightOfTiles();
+		this.padding = padding;
+
+		boolean[][] used = usedOnly ? findUsedIds(map) : null;
+		int sheetTiles = sheet.tiles.size();
+		int sheetObjects = sheet.objects.size();
+		remaps = new int[][] { new int[sheetTiles], new int[sheetObjects + 1] };
+		sheetIndexes = new int[sheetTiles + sheetObjects];
+
+		for (int id = 0; id < sheetTiles; id++)
+		{
+			remaps[LayerStack.TILE][id] = -1;
+			if (used == null || used[LayerStack.TILE][id])
+			{
+				remaps[LayerStack.TILE][id] = tileCount;
+				sheetIndexes[tileCount++] = id;
+			}
+		}
+		for (int id = 1; id <= sheetObjects; id++)
+		{
+			remaps[LayerStack.OBJECT][id] = -1;
+			if (used == null || used[LayerStack.OBJECT][id])
+			{
+				remaps[LayerStack.OBJECT][id] = ++objectCount;
+				sheetIndexes[tileCount + objectCount - 1] = sheetTiles + id - 1;
+			}
+		}
+
+		layOut(Math.max(1, tileCount + objectCount));
+	}
+
+	/**
+	 * Finds the tiles and objects which are used on any tile or object layer of a map,
+	 * whether or not the layer is visible
+	 * @param map - The snapshot of the map
+	 * @return Whether each base ID is used, indexed by layer type and then ID
+	 */
+	private boolean[][] findUsedIds(MapData map)
+	{
+		TileSheet sheet = map.getTileSheet();
+		boolean[][] used = new boolean[][] { new boolean[sheet.tiles.size()], new boolean[sheet.objects.size() + 1] };
+		int width = map.getWidthInTiles();
+		int height = map.getHeightInTiles();
+
+		for (int layer = 0; layer < map.getLayerCount(); layer++)
+		{
+			int type = map.getLayerType(layer);
+			if (type == LayerStack.FLAG || map.isLayerEmpty(layer))
+				continue;
+
+			for (int y = 0; y < height; y++)
+			{
+				for (int x = 0; x < width; x++)
+				{
+					int id = map.getLayerId(layer, x, y);
+					if (LayerStack.isEmptyId(type, id))
+						continue;
+
+					id = TileTransform.getBaseId(id);
+					if (id < used[type].length)
+						used[type][id] = true;
+				}
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Picks the smallest power of two texture the cells fit in, preferring the
+	 * squarest of those which are equally small
+	 * @param count - The number of cells
+	 */
+	private void layOut(int count)
+	{
+		int cellWidth = getCellWidth();
+		int cellHeight = getCellHeight();
+		long bestArea = Long.MAX_VALUE;
+
+		for (int w = getPowerOfTwo(cellWidth); w <= MAX_SIZE; w <<= 1)
+		{
+			int across = w / cellWidth;
+			int rows = (count + across - 1) / across;
+			int h = getPowerOfTwo(rows * cellHeight);
+			long area = (long) w * h;
+			if (area < bestArea || (area == bestArea && Math.max(w, h) < Math.max(width, height)))
+			{
+				bestArea = area;
+				width = w;
+				height = h;
+				columns = across;
+			}
+
+			// Any wider and the texture is only one row with space left over
+			if (across >= count)
+				break;
+		}
+	}
+
+	/**
+	 * Rounds a size up to a power of two
+	 * @param size - The size, at least 1
+	 * @return The smallest power of two which is at least the size
+	 */
+	private static int getPowerOfTwo(int size)
+	{
+		return (size <= 1) ? 1 : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	/**
+	 * Gets the width of a cell of the grid
+	 * @return The width of a tile and its padding, in pixels
+	 */
+	private int getCellWidth()
+	{
+		return tileWidth + 2 * padding;
+	}
+
+	/**
+	 * Gets the height of a cell of the grid
+	 * @return The height of a tile and its padding, in pixels
+	 */
+	private int getCellHeight()
+	{
+		return tileHeight + 2 * padding;
+	}
+
+	/**
+	 * Gets the number of tiles packed
+	 * @return The number of tiles, which come first in the atlas
+	 */
+	public int getTileCount()
+	{
+		return tileCount;
+	}
+
+	/**
+	 * Gets the number of objects packed
+	 * @return The number of objects, which come after the tiles
+	 */
+	public int getObjectCount()
+	{
+		return objectCount;
+	}
+
+	/**
+	 * Gets the number of cells in each row of the grid
+	 * @return The number of columns
+	 */
+	public int getColumns()
+	{
+		return columns;
+	}
+
+	/**
+	 * Gets the padding around each tile
+	 * @return The padding in pixels
+	 */
+	public int getPadding()
+	{
+		return padding;
+	}
+
+	/**
+	 * Gets the width of the texture
+	 * @return The width in pixels, a power of two
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the texture
+	 * @return The height in pixels, a power of two
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the x coordinate of a packed tile's top left pixel, inside its padding
+	 * @param index - The packed index of the tile
+	 * @return The x coordinate in the texture
+	 */
+	public int getX(int index)
+	{
+		return (index % columns) * getCellWidth() + padding;
+	}
+
+	/**
+	 * Gets the y coordinate of a packed tile's top left pixel, inside its padding
+	 * @param index - The packed index of the tile
+	 * @return The y coordinate in the texture
+	 */
+	public int getY(int index)
+	{
+		return (index / columns) * getCellHeight() + padding;
+	}
+
+	/**
+	 * Rewrites the ID of a cell to the packed ID of its tile or object, keeping its flip flags
+	 * @param type - The type of the cell's layer
+	 * @param id - The ID of the cell
+	 * @return The packed ID, or the empty ID of the layer type if its tile wasn't packed
+	 */
+	public int remap(int type, int id)
+	{
+		if (type == LayerStack.FLAG || LayerStack.isEmptyId(type, id))
+			return id;
+
+		int base = TileTransform.getBaseId(id);
+		int packed = (base < remaps[type].length) ? remaps[type][base] : -1;
+		if (packed < 0)
+			return LayerStack.getEmptyId(type);
+		return TileTransform.setFlags(packed, id);
+	}
+
+	/**
+	 * Gets the file the atlas of an exported file is written to
+	 * @param file - The exported file
+	 * @return The file next to it with the same name and the image extension
+	 */
+	public static File getImageFile(File file)
+	{
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		return new File(file.getAbsoluteFile().getParentFile(), name + IMAGE_EXTENSION);
+	}
+
+	/**
+	 * Writes the texture as a PNG
+	 * @param file - The file to write
+	 * @throws IOException If the file can't be written
+	 */
+	public void writeImage(File file) throws IOException
+	{
+		ImageIO.write(createImage(), "png", file);
+	}
+
+	/**
+	 * Draws the packed tiles into the texture
+	 * @return The texture, with transparent pixels wherever there is no tile
+	 */
+	public BufferedImage createImage()
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		int[] texture = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		TileAtlas tiles = new TileAtlas(sheet);
+
+		for (int index = 0; index < tileCount + objectCount; index++)
+		{
+			int[] pixels = tiles.getPixels(sheetIndexes[index]);
+			int left = getX(index) - padding;
+			int top = getY(index) - padding;
+
+			// Clamping to the tile extrudes its edges out into the padding
+			for (int y = 0; y < getCellHeight(); y++)
+			{
+				int sourceRow = Math.max(0, Math.min(tileHeight - 1, y - padding)) * tileWidth;
+				int row = (top + y) * width + left;
+				for (int x = 0; x < getCellWidth(); x++)
+					texture[row + x] = pixels[sourceRow + Math.max(0, Math.min(tileWidth - 1, x - padding))];
+			}
+		}
+		return image;
+	}
+}
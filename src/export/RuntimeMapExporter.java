@@ -0,0 +1,204 @@
+package export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import core.ChunkedLayer;
+import core.CollisionPlanes;
+import core.LayerStack;
+import core.MapData;
+import runtime.RuntimeMap;
+
+/**
+ * Exports a map in the runtime format which RuntimeMap maps straight into memory,
+ * so that a game can open a map of any size without parsing or copying it. The
+ * layout of the file is described by RuntimeMap. Layers are written chunk by chunk
+ * in the chunk size the editor packs them in, and the collision flags are written
+ * as the bitplanes the editor already keeps. The tiles are packed into a PackedAtlas,
+ * which is written next to the map as a PNG that the map refers to by name. When only
+ * the tiles the map uses are packed, the IDs on the layers are rewritten to match.
+ */
+public class RuntimeMapExporter
+{
+	private MapData map;
+	private boolean usedTilesOnly;
+	private int padding;
+	private PackedAtlas atlas;
+	private long fileLength;
+
+	/**
+	 * Creates an exporter for a map
+	 * @param map - The snapshot of the map to export
+	 * @param usedTilesOnly - True to only pack the tiles and objects the map uses into its atlas
+	 * @param padding - The number of pixels extruded around each tile of the atlas
+	 */
+	public RuntimeMapExporter(MapData map, boolean usedTilesOnly, int padding)
+	{
+		this.map = map;
+		this.usedTilesOnly = usedTilesOnly;
+		this.padding = padding;
+	}
+
+	/**
+	 * Gets the atlas packed by the last export
+	 * @return The atlas, or null if nothing has been exported yet
+	 */
+	public PackedAtlas getAtlas()
+	{
+		return atlas;
+	}
+
+	/**
+	 * Gets the size of the file written by the last export
+	 * @return The size in bytes
+	 */
+	public long getFileLength()
+	{
+		return fileLength;
+	}
+
+	/**
+	 * Exports the map to a file, and its tile atlas to the file PackedAtlas.getImageFile names
+	 * @param file - The file to write
+	 * @throws IOException If either file can't be written
+	 */
+	public void export(File file) throws IOException
+	{
+		atlas = new PackedAtlas(map, usedTilesOnly, padding);
+		File atlasFile = PackedAtlas.getImageFile(file);
+		atlas.writeImage(atlasFile);
+		writeMap(file, atlasFile.getName());
+	}
+
+	/**
+	 * Writes the runtime map file
+	 * @param file - The file to write
+	 * @param atlasReference - The path of the image the tiles are drawn from, relative to the map file
+	 * @throws IOException If the file can't be written
+	 */
+	private void writeMap(File file, String atlasReference) throws IOException
+	{
+		int width = map.getWidthInTiles();
+		int height = map.getHeightInTiles();
+		int layerCount = map.getLayerCount();
+		int chunkSize = ChunkedLayer.CHUNK_SIZE;
+		int chunksAcross = (width + chunkSize - 1) / chunkSize;
+		int chunksDown = (height + chunkSize - 1) / chunkSize;
+		long layerBytes = (long) chunksAcross * chunksDown * chunkSize * chunkSize * 4;
+		CollisionPlanes planes = map.getCollisionPlanes();
+
+		// Work out where everything goes before writing the header which points to it
+		int stringOffset = RuntimeMap.HEADER_SIZE + layerCount * RuntimeMap.LAYER_ENTRY_SIZE;
+		int[] nameOffsets = new int[layerCount];
+		int offset = stringOffset + BinaryWriter.getStringSize(atlasReference);
+		for (int i = 0; i < layerCount; i++)
+		{
+			nameOffsets[i] = offset;
+			offset += BinaryWriter.getStringSize(map.getLayerName(i));
+		}
+		long dataOffset = align(offset, RuntimeMap.PAGE_SIZE);
+		long collisionOffset = align(dataOffset + layerCount * layerBytes, RuntimeMap.PAGE_SIZE);
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try
+		{
+			BinaryWriter writer = new BinaryWriter(stream.getChannel());
+			writer.putInt(RuntimeMap.MAGIC);
+			writer.putInt(RuntimeMap.VERSION);
+			writer.putInt(width);
+			writer.putInt(height);
+			writer.putInt(map.getTileSheet().getWidthOfTiles());
+			writer.putInt(map.getTileSheet().getHeightOfTiles());
+			writer.putInt(ChunkedLayer.CHUNK_SHIFT);
+			writer.putInt(layerCount);
+			writer.putInt(atlas.getTileCount());
+			writer.putInt(atlas.getObjectCount());
+			writer.putInt(planes.getWordsPerRow());
+			writer.putInt(CollisionPlanes.FLAG_COUNT);
+			writer.putInt(stringOffset);
+			writer.putInt(atlas.getColumns());
+			writer.putInt(atlas.getPadding());
+			writer.putInt(atlas.getWidth());
+			writer.putInt(atlas.getHeight());
+			writer.putInt(0);
+			writer.putLong(collisionOffset);
+
+			for (int i = 0; i < layerCount; i++)
+			{
+				writer.putInt(map.getLayerType(i));
+				writer.putInt(map.isLayerVisible(i) ? RuntimeMap.VISIBLE : 0);
+				writer.putInt(nameOffsets[i]);
+				writer.putInt(0);
+				writer.putLong(dataOffset + i * layerBytes);
+			}
+
+			writer.putString(atlasReference);
+			for (int i = 0; i < layerCount; i++)
+				writer.putString(map.getLayerName(i));
+			writer.align(RuntimeMap.PAGE_SIZE);
+
+			int[] chunk = new int[chunkSize * chunkSize];
+			for (int layer = 0; layer < layerCount; layer++)
+			{
+				int empty = LayerStack.getEmptyId(map.getLayerType(layer));
+				for (int chunkY = 0; chunkY < chunksDown; chunkY++)
+				{
+					for (int chunkX = 0; chunkX < chunksAcross; chunkX++)
+					{
+						fillChunk(layer, chunkX * chunkSize, chunkY * chunkSize, empty, chunk);
+						writer.putValues(chunk, chunk.length, 4);
+					}
+				}
+			}
+			writer.align(RuntimeMap.PAGE_SIZE);
+
+			for (int flag = 0; flag < CollisionPlanes.FLAG_COUNT; flag++)
+			{
+				for (long word : planes.getWords(flag))
+					writer.putLong(word);
+			}
+
+			writer.flush();
+			fileLength = writer.getPosition();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Copies the cells of one chunk of a layer with their IDs rewritten for the atlas,
+	 * padding whatever is past the edge of the map
+	 * @param layer - The index of the layer
+	 * @param left - The column of the chunk's left edge
+	 * @param top - The row of the chunk's top edge
+	 * @param empty - The ID to pad with
+	 * @param chunk - The array to copy the cells into, in row major order
+	 */
+	private void fillChunk(int layer, int left, int top, int empty, int[] chunk)
+	{
+		int chunkSize = ChunkedLayer.CHUNK_SIZE;
+		int type = map.getLayerType(layer);
+		for (int y = 0; y < chunkSize; y++)
+		{
+			for (int x = 0; x < chunkSize; x++)
+			{
+				boolean onMap = left + x < map.getWidthInTiles() && top + y < map.getHeightInTiles();
+				chunk[y * chunkSize + x] = onMap ? atlas.remap(type, map.getLayerId(layer, left + x, top + y)) : empty;
+			}
+		}
+	}
+
+	/**
+	 * Rounds an offset up to a multiple of an alignment
+	 * @param offset - The offset in bytes
+	 * @param alignment - The alignment in bytes
+	 * @return The aligned offset
+	 */
+	private static long align(long offset, int alignment)
+	{
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+}
@@ -0,0 +1,102 @@
+package export;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+
+import util.PngWriter;
+
+/**
+ * Exports a map as a PNG image by rendering it in horizontal strips of cell rows.
+ * Each strip is streamed through a PngWriter before the next one is rendered, so
+ * only one strip is ever held in memory no matter how large the map is.
+ */
+public class StripImageExporter
+{
+	// Roughly how many bytes a single strip is allowed to take up
+	private static final int STRIP_BUDGET = 16 * 1024 * 1024;
+
+	private MapRenderer renderer;
+	private int compressionLevel, filter;
+
+	/**
+	 * Creates an exporter which uses the specified renderer
+	 * @param renderer - The renderer which draws the map and its selected layers
+	 */
+	public StripImageExporter(MapRenderer renderer)
+	{
+		this.renderer = renderer;
+		compressionLevel = PngWriter.DEFAULT_LEVEL;
+		filter = PngWriter.DEFAULT_FILTER;
+	}
+
+	/**
+	 * Sets how the exported PNG is compressed
+	 * @param level - The deflate compression level (0-9, or -1 for the default)
+	 * @param filter - The PNG row filter (one of the PngWriter.FILTER_ constants)
+	 */
+	public void setCompression(int level, int filter)
+	{
+		compressionLevel = level;
+		this.filter = filter;
+	}
+
+	/**
+	 * Gets the number of cell rows rendered in each strip
+	 * @return The number of cell rows in a strip
+	 */
+	public int getRowsPerStrip()
+	{
+		int mapHeight = renderer.getMap().getHeightInTiles();
+		long rowBytes = (long) renderer.getMapPixelWidth() * renderer.getMap().getTileSheet().getHeightOfTiles() * 4;
+		return (int) Math.max(1, Math.min(mapHeight, STRIP_BUDGET / Math.max(1, rowBytes)));
+	}
+
+	/**
+	 * Exports the map to a PNG file
+	 * @param filePath - The file path to write the image to
+	 * @throws IOException If the image can't be written
+	 */
+	public void export(String filePath) throws IOException
+	{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath));
+		try
+		{
+			export(out);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Exports the map as a PNG image to a stream
+	 * @param out - The stream to write the image to
+	 * @throws IOException If the image can't be written
+	 */
+	public void export(OutputStream out) throws IOException
+	{
+		int mapHeight = renderer.getMap().getHeightInTiles();
+		int tileHeight = renderer.getMap().getTileSheet().getHeightOfTiles();
+		int rowsPerStrip = getRowsPerStrip();
+		int imageWidth = renderer.getMapPixelWidth();
+
+		PngWriter writer = new PngWriter(out, imageWidth, renderer.getMapPixelHeight(), compressionLevel, filter, ForkJoinPool.commonPool());
+
+		// The strip raster is reused for every strip
+		int[] pixels = new int[imageWidth * rowsPerStrip * tileHeight];
+
+		for (int firstRow = 0; firstRow < mapHeight; firstRow += rowsPerStrip)
+		{
+			int rows = Math.min(rowsPerStrip, mapHeight - firstRow);
+
+			renderer.render(pixels, imageWidth, rows * tileHeight, 0, firstRow * tileHeight);
+			writer.writeRows(pixels, 0, imageWidth, rows * tileHeight);
+		}
+
+		writer.finish();
+	}
+}
@@ -0,0 +1,268 @@
+package export;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import core.AbstractTile;
+import core.TileSheet;
+import core.TileTransform;
+
+/**
+ * Holds the pixels of the tiles and objects in a TileSheet as plain ARGB int
+ * arrays, so that they can be blitted straight into an int raster. Each tile's
+ * pixels are expanded the first time they are asked for, straight from the palette
+ * indexes when the sheet is indexed. The expanded tiles are kept in a cache of a
+ * bounded size, and once it is full the clock algorithm evicts a tile which hasn't
+ * been used since the clock hand last passed it. Whether a tile is fully
+ * transparent, fully opaque, or partially transparent, and the bounding box of its
+ * visible pixels, come from the opacity mask the TileSheet worked out when it was split.
+ *
+ * Flipped and rotated versions of a tile are made the first time they are drawn, and
+ * share the cache with the tiles themselves.
+ *
+ * Atlas indexes 0 to getNumberOfTiles() - 1 are the tiles of the sheet, and the
+ * objects come after them.
+ */
+public class TileAtlas
+{
+	public static final int TRANSPARENT = AbstractTile.TRANSPARENT;
+	public static final int OPAQUE = AbstractTile.OPAQUE;
+	public static final int PARTIAL = AbstractTile.PARTIAL;
+
+	private TileSheet sheet;
+	private int numberOfTiles, numberOfObjects;
+	private int tileWidth, tileHeight;
+	private AtomicReferenceArray<int[]> pixels;
+	private boolean[] used;
+	private int[] residentIndexes;
+	private int residentCount, clockHand;
+	private AtomicLong requests;
+	private long misses;
+
+	public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+	// Each tile has a cache slot for each combination of the three flip flags
+	private static final int VARIANTS = 8;
+	private static final int FLAG_SHIFT = 28;
+
+	/**
+	 * Creates an atlas for the specified sheet, with the default cache size
+	 * @param sheet - The TileSheet whose tiles and objects are to be blitted
+	 */
+	public TileAtlas(TileSheet sheet)
+	{
+		this(sheet, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * Creates an atlas for the specified sheet
+	 * @param sheet - The TileSheet whose tiles and objects are to be blitted
+	 * @param cacheBytes - The most bytes of expanded ARGB pixels to keep at once
+	 */
+	public TileAtlas(TileSheet sheet, long cacheBytes)
+	{
+		this.sheet = sheet;
+		numberOfTiles = sheet.tiles.size();
+		numberOfObjects = sheet.objects.size();
+		tileWidth = sheet.getWidthOfTiles();
+		tileHeight = sheet.getHeightOfTiles();
+		pixels = new AtomicReferenceArray<int[]>((numberOfTiles + numberOfObjects) * VARIANTS);
+		used = new boolean[pixels.length()];
+
+		// Always room for at least a few tiles, so one cell's layers never evict each other
+		long capacity = cacheBytes / ((long) tileWidth * tileHeight * 4);
+		residentIndexes = new int[(int) Math.max(4, Math.min(pixels.length(), capacity))];
+		residentCount = 0;
+		clockHand = 0;
+		requests = new AtomicLong();
+	}
+
+	/**
+	 * Gets the atlas index of a tile layer ID
+	 * @param id - The tile layer ID
+	 * @return The atlas index, or -1 if the ID doesn't draw anything
+	 */
+	public int getTileIndex(int id)
+	{
+		id = TileTransform.getBaseId(id);
+		if (id < 0 || id >= numberOfTiles)
+			return -1;
+		return id;
+	}
+
+	/**
+	 * Gets the atlas index of an object layer ID. Object IDs are offset
+	 * by one since ID 0 is the erase tile of the object panel.
+	 * @param id - The object layer ID
+	 * @return The atlas index, or -1 if the ID doesn't draw anything
+	 */
+	public int getObjectIndex(int id)
+	{
+		id = TileTransform.getBaseId(id);
+		if (id <= 0 || id > numberOfObjects)
+			return -1;
+		return numberOfTiles + id - 1;
+	}
+
+	/**
+	 * Gets the ARGB pixels of a tile, in row major order
+	 * @param index - The atlas index of the tile
+	 * @return The pixels of the tile
+	 */
+	public int[] getPixels(int index)
+	{
+		return getPixels(index, 0);
+	}
+
+	/**
+	 * Gets the ARGB pixels of a flipped tile, in row major order
+	 * @param index - The atlas index of the tile
+	 * @param flags - The TileTransform flip flags of the ID being drawn
+	 * @return The flipped pixels of the tile
+	 */
+	public int[] getPixels(int index, int flags)
+	{
+		requests.incrementAndGet();
+		int slot = index * VARIANTS + (TileTransform.getFlags(flags) >>> FLAG_SHIFT);
+		int[] tilePixels = pixels.get(slot);
+		if (tilePixels == null)
+			return load(slot);
+
+		used[slot] = true;
+		return tilePixels;
+	}
+
+	/**
+	 * Gets how many of the tiles asked for were already expanded
+	 * @return The cache hit rate, from 0 to 1
+	 */
+	public synchronized double getHitRate()
+	{
+		long total = requests.get();
+		return (total == 0) ? 0 : (double) (total - misses) / total;
+	}
+
+	/**
+	 * Gets how many bytes of expanded pixels are currently cached
+	 * @return The number of bytes of ARGB pixels held
+	 */
+	public synchronized long getCachedBytes()
+	{
+		return (long) residentCount * tileWidth * tileHeight * 4;
+	}
+
+	/**
+	 * Tells how much of a tile is covered
+	 * @param index - The atlas index of the tile
+	 * @return TRANSPARENT, OPAQUE, or PARTIAL
+	 */
+	public int getOpacity(int index)
+	{
+		return getTile(index).getOpacity();
+	}
+
+	/**
+	 * Gets the bounding box of the pixels of a tile which aren't fully transparent
+	 * @param index - The atlas index of the tile
+	 * @return The bounding box, in the tile's own coordinates
+	 */
+	public Rectangle getOpaqueBounds(int index)
+	{
+		return getTile(index).getOpaqueBounds();
+	}
+
+	/**
+	 * Gets the bounding box of the pixels of a flipped tile which aren't fully transparent
+	 * @param index - The atlas index of the tile
+	 * @param flags - The TileTransform flip flags of the ID being drawn
+	 * @return The bounding box, in the flipped tile's coordinates
+	 */
+	public Rectangle getOpaqueBounds(int index, int flags)
+	{
+		return TileTransform.transform(getTile(index).getOpaqueBounds(), tileWidth, tileHeight, TileTransform.getFlags(flags));
+	}
+
+	/**
+	 * Gets a tile of the sheet by its atlas index
+	 * @param index - The atlas index of the tile
+	 * @return The tile or object
+	 */
+	private AbstractTile getTile(int index)
+	{
+		return (index < numberOfTiles) ? sheet.tiles.get(index) : sheet.objects.get(index - numberOfTiles);
+	}
+
+	/**
+	 * Expands a tile's pixels out of the sheet, flips them if the slot is for a flipped
+	 * version, and adds them to the cache, evicting another tile if it is full. Tiles
+	 * which are already cached are read without the lock: the cache is an atomic array,
+	 * so a thread which sees a tile's reference sees its pixels too. A tile evicted while
+	 * another thread is drawing it stays valid for that thread, since only the cache's
+	 * reference to it is dropped.
+	 * @param index - The cache slot of the tile
+	 * @return The pixels of the tile
+	 */
+	private synchronized int[] load(int index)
+	{
+		// Another thread may have loaded it while this one waited
+		int[] cached = pixels.get(index);
+		if (cached != null)
+		{
+			used[index] = true;
+			return cached;
+		}
+		misses++;
+
+		int[] tilePixels = expand(getTile(index / VARIANTS).getImage());
+
+		// Fully transparent pixels are cleared so they copy the same as they blend
+		for (int i = 0; i < tilePixels.length; i++)
+		{
+			if ((tilePixels[i] >>> 24) == 0)
+				tilePixels[i] = 0;
+		}
+
+		int flags = (index % VARIANTS) << FLAG_SHIFT;
+		if (flags != 0)
+			tilePixels = TileTransform.transform(tilePixels, tileWidth, tileHeight, flags);
+
+		if (residentCount < residentIndexes.length)
+			residentIndexes[residentCount++] = index;
+		else
+		{
+			// Give tiles used since the hand last passed them a second chance
+			while (used[residentIndexes[clockHand]])
+			{
+				used[residentIndexes[clockHand]] = false;
+				clockHand = (clockHand + 1) % residentIndexes.length;
+			}
+			pixels.set(residentIndexes[clockHand], null);
+			residentIndexes[clockHand] = index;
+			clockHand = (clockHand + 1) % residentIndexes.length;
+		}
+
+		used[index] = true;
+		pixels.set(index, tilePixels);
+		return tilePixels;
+	}
+
+	/**
+	 * Converts a tile's image to ARGB pixels. The tiles of an indexed sheet are
+	 * looked up in its palette directly rather than going through getRGB.
+	 * @param image - The image of the tile
+	 * @return The ARGB pixels of the tile, in row major order
+	 */
+	private int[] expand(BufferedImage image)
+	{
+		if (!sheet.isIndexed())
+			return image.getRGB(0, 0, tileWidth, tileHeight, null, 0, tileWidth);
+
+		int[] palette = sheet.getPalette();
+		int[] tilePixels = image.getRaster().getPixels(0, 0, tileWidth, tileHeight, (int[]) null);
+		for (int i = 0; i < tilePixels.length; i++)
+			tilePixels[i] = palette[tilePixels[i]];
+		return tilePixels;
+	}
+}
@@ -0,0 +1,522 @@
+package export;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import core.LayerStack;
+import core.MapData;
+import util.PngWriter;
+
+/**
+ * Exports a map as a deep zoom tile pyramid, for use with world map viewers.
+ *
+ * The highest level holds the map at full resolution split into fixed size PNG
+ * tiles, and every level below it is made by downsampling 2x2 blocks of tiles
+ * from the level above, down to level 0 which is a single tile. Tiles are written
+ * to dir/level/x_y.png, and tiles with nothing drawn on them are not written.
+ *
+ * The pyramid is built as a quadtree of tasks on a ForkJoinPool, so tiles are
+ * rendered in parallel. A manifest in the output directory records a hash of the
+ * cells under each full resolution tile, and when the map is exported again only
+ * the tiles whose cells changed (and the tiles below them) are regenerated.
+ */
+public class TilePyramidExporter
+{
+	public static final int DEFAULT_TILE_SIZE = 256;
+	public static final String MANIFEST_NAME = "pyramid.manifest";
+
+	private static final String MANIFEST_HEADER = "# tilemapper pyramid manifest";
+
+	private MapRenderer renderer;
+	private int tileSize;
+	private int maxLevel;
+	private int[] levelColumns, levelRows;
+	private boolean[][] dirty;
+	private long[] leafHashes;
+	private File outputDirectory;
+	private AtomicInteger tilesWritten, tilesRemoved;
+
+	/**
+	 * Creates an exporter which renders its tiles with the specified renderer
+	 * @param renderer - The renderer which draws the map and its selected layers
+	 * @param tileSize - The width and height of every tile, must be even
+	 */
+	public TilePyramidExporter(MapRenderer renderer, int tileSize)
+	{
+		if (tileSize < 2 || tileSize % 2 != 0)
+			throw new IllegalArgumentException("Tile size must be even: " + tileSize);
+
+		this.renderer = renderer;
+		this.tileSize = tileSize;
+		tilesWritten = new AtomicInteger();
+		tilesRemoved = new AtomicInteger();
+
+		// Keep adding levels until the whole map fits in a single tile
+		int columns = (renderer.getMapPixelWidth() + tileSize - 1) / tileSize;
+		int rows = (renderer.getMapPixelHeight() + tileSize - 1) / tileSize;
+		maxLevel = 0;
+		while ((1 << maxLevel) < Math.max(columns, rows))
+			maxLevel++;
+
+		levelColumns = new int[maxLevel + 1];
+		levelRows = new int[maxLevel + 1];
+		for (int level = maxLevel; level >= 0; level--)
+		{
+			levelColumns[level] = Math.max(1, columns);
+			levelRows[level] = Math.max(1, rows);
+			columns = (columns + 1) / 2;
+			rows = (rows + 1) / 2;
+		}
+	}
+
+	/**
+	 * Gets the level which holds the map at full resolution
+	 * @return The highest level of the pyramid
+	 */
+	public int getMaxLevel()
+	{
+		return maxLevel;
+	}
+
+	/**
+	 * Gets the number of tiles written by the last export
+	 * @return The number of tiles written
+	 */
+	public int getTilesWritten()
+	{
+		return tilesWritten.get();
+	}
+
+	/**
+	 * Gets the number of stale tiles deleted by the last export because they became empty
+	 * @return The number of tiles deleted
+	 */
+	public int getTilesRemoved()
+	{
+		return tilesRemoved.get();
+	}
+
+	/**
+	 * Exports the pyramid into a directory, regenerating only the
+	 * tiles which changed since the last export to the same directory
+	 * @param directory - The directory to write the pyramid to
+	 * @throws IOException If the tiles or manifest can't be written
+	 */
+	public void export(File directory) throws IOException
+	{
+		outputDirectory = directory;
+		tilesWritten.set(0);
+		tilesRemoved.set(0);
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create directory " + directory);
+
+		// Work out which tiles need to be regenerated
+		leafHashes = hashLeaves();
+		long[] oldHashes = readManifest(new File(directory, MANIFEST_NAME));
+		markDirtyTiles(oldHashes);
+
+		try
+		{
+			ForkJoinPool.commonPool().invoke(new PyramidTask(0, 0, 0));
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+
+		writeManifest(new File(directory, MANIFEST_NAME));
+	}
+
+	/**
+	 * Hashes the cells underneath each full resolution tile
+	 * @return The hash of each tile at the highest level, in row major order
+	 */
+	private long[] hashLeaves()
+	{
+		MapData map = renderer.getMap();
+		int tileWidth = map.getTileSheet().getWidthOfTiles();
+		int tileHeight = map.getTileSheet().getHeightOfTiles();
+		int[] layers = renderer.getDrawnLayers();
+
+		int columns = levelColumns[maxLevel];
+		int rows = levelRows[maxLevel];
+		long[] hashes = new long[columns * rows];
+
+		for (int ty = 0; ty < rows; ty++)
+		{
+			for (int tx = 0; tx < columns; tx++)
+			{
+				// Determine which cells overlap the tile
+				int firstColumn = tx * tileSize / tileWidth;
+				int firstRow = ty * tileSize / tileHeight;
+				int lastColumn = Math.min(map.getWidthInTiles(), ((tx + 1) * tileSize + tileWidth - 1) / tileWidth);
+				int lastRow = Math.min(map.getHeightInTiles(), ((ty + 1) * tileSize + tileHeight - 1) / tileHeight);
+
+				long hash = 0xcbf29ce484222325L;
+				for (int y = firstRow; y < lastRow; y++)
+				{
+					for (int x = firstColumn; x < lastColumn; x++)
+					{
+						int index = y * map.getWidthInTiles() + x;
+
+						for (int layer : layers)
+							hash = mix(hash, map.getLayerId(layer, index));
+					}
+				}
+
+				hashes[ty * columns + tx] = hash;
+			}
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * Flags the tiles whose cells changed, along with every tile below them
+	 * @param oldHashes - The hashes from the last export, or null if they can't be used
+	 */
+	private void markDirtyTiles(long[] oldHashes)
+	{
+		dirty = new boolean[maxLevel + 1][];
+		for (int level = 0; level <= maxLevel; level++)
+			dirty[level] = new boolean[levelColumns[level] * levelRows[level]];
+
+		for (int i = 0; i < leafHashes.length; i++)
+			dirty[maxLevel][i] = oldHashes == null || oldHashes[i] != leafHashes[i];
+
+		// A tile is dirty if any of the four tiles above it are
+		for (int level = maxLevel; level > 0; level--)
+		{
+			for (int y = 0; y < levelRows[level]; y++)
+			{
+				for (int x = 0; x < levelColumns[level]; x++)
+				{
+					if (dirty[level][y * levelColumns[level] + x])
+						dirty[level - 1][(y / 2) * levelColumns[level - 1] + x / 2] = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the file which holds a tile
+	 * @param level - The level of the tile
+	 * @param x - The column of the tile
+	 * @param y - The row of the tile
+	 * @return The tile's file
+	 */
+	private File getTileFile(int level, int x, int y)
+	{
+		return new File(new File(outputDirectory, Integer.toString(level)), x + "_" + y + ".png");
+	}
+
+	/**
+	 * Describes everything other than the cells which affects how the tiles look, so
+	 * that changing any of it regenerates the whole pyramid
+	 * @return The settings string stored in the manifest
+	 * @throws IOException If the tile sheet can't be encoded to be hashed
+	 */
+	private String getSettings() throws IOException
+	{
+		MapData map = renderer.getMap();
+
+		// Hash the tile sheet so a different sheet is noticed, which the sheet only works out once
+		long sheetHash = map.getTileSheet().getImageHash();
+
+		// The cell hashes only mix the IDs of the drawn layers, so which layers those are matters too
+		StringBuilder layers = new StringBuilder();
+		for (int layer : renderer.getDrawnLayers())
+			layers.append(layer).append(':').append(LayerStack.getTypeName(map.getLayerType(layer))).append(',');
+
+		return tileSize + " " + map.getWidthInTiles() + " " + map.getHeightInTiles() + " "
+				+ map.getTileSheet().getWidthOfTiles() + " " + map.getTileSheet().getHeightOfTiles() + " "
+				+ renderer.getLayers() + " " + layers + " " + Integer.toHexString(renderer.getCollisionColor().getRGB()) + " "
+				+ Long.toHexString(sheetHash);
+	}
+
+	/**
+	 * Reads the leaf hashes from the manifest of a previous export
+	 * @param file - The manifest file
+	 * @return The hashes, or null if there is no usable manifest
+	 */
+	private long[] readManifest(File file)
+	{
+		if (!file.isFile())
+			return null;
+
+		long[] hashes = new long[leafHashes.length];
+		BufferedReader reader = null;
+
+		try
+		{
+			reader = new BufferedReader(new FileReader(file));
+
+			// The pyramid has to be rebuilt if anything other than the cells changed
+			if (!MANIFEST_HEADER.equals(reader.readLine()) || !getSettings().equals(reader.readLine()))
+				return null;
+
+			for (int i = 0; i < hashes.length; i++)
+			{
+				String line = reader.readLine();
+				if (line == null)
+					return null;
+				hashes[i] = Long.parseUnsignedLong(line, 16);
+			}
+
+			return hashes;
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if (reader != null)
+					reader.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the settings and leaf hashes of this export to the manifest
+	 * @param file - The manifest file
+	 * @throws IOException If the manifest can't be written
+	 */
+	private void writeManifest(File file) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try
+		{
+			writer.println(MANIFEST_HEADER);
+			writer.println(getSettings());
+			for (long hash : leafHashes)
+				writer.println(Long.toHexString(hash));
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Mixes a value into an FNV-1a style hash
+	 * @param hash - The hash so far
+	 * @param value - The value to mix in
+	 * @return The new hash
+	 */
+	private static long mix(long hash, int value)
+	{
+		for (int i = 0; i < 4; i++)
+		{
+			hash ^= (value >>> (i * 8)) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Shrinks a tile to half its size by averaging each 2x2 block of pixels,
+	 * weighting the colors by their alpha
+	 * @param pixels - The ARGB pixels of the tile
+	 * @param size - The width and height of the tile
+	 * @return The pixels of the half size tile
+	 */
+	private static int[] downsample(int[] pixels, int size)
+	{
+		int half = size / 2;
+		int[] result = new int[half * half];
+
+		for (int y = 0; y < half; y++)
+		{
+			for (int x = 0; x < half; x++)
+			{
+				int index = (y * 2) * size + x * 2;
+				int a = 0, r = 0, g = 0, b = 0;
+
+				for (int i = 0; i < 4; i++)
+				{
+					int color = pixels[index + (i & 1) + (i >> 1) * size];
+					int alpha = color >>> 24;
+					a += alpha;
+					r += ((color >> 16) & 0xFF) * alpha;
+					g += ((color >> 8) & 0xFF) * alpha;
+					b += (color & 0xFF) * alpha;
+				}
+
+				if (a != 0)
+					result[y * half + x] = ((a + 2) / 4) << 24 | (r / a) << 16 | (g / a) << 8 | (b / a);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Builds a single tile of the pyramid along with all of the tiles above it
+	 * that are dirty, and returns the tile shrunk to half size for its parent
+	 */
+	class PyramidTask extends RecursiveTask<int[]>
+	{
+		private static final long serialVersionUID = -3187446010375914402L;
+		private int level, x, y;
+
+		/**
+		 * Creates a task for the tile at (x, y) on the specified level
+		 * @param level - The level of the tile
+		 * @param x - The column of the tile
+		 * @param y - The row of the tile
+		 */
+		PyramidTask(int level, int x, int y)
+		{
+			this.level = level;
+			this.x = x;
+			this.y = y;
+		}
+
+		protected int[] compute()
+		{
+			// Nothing exists outside of the map
+			if (x >= levelColumns[level] || y >= levelRows[level])
+				return null;
+
+			try
+			{
+				int[] pixels;
+
+				if (!dirty[level][y * levelColumns[level] + x])
+					pixels = readTile();
+				else
+				{
+					pixels = (level == maxLevel) ? renderTile() : combineChildren();
+					if (!writeTile(pixels))
+						pixels = null;
+				}
+
+				if (pixels == null || level == 0)
+					return null;
+				return downsample(pixels, tileSize);
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Renders a full resolution tile from the map's cells
+		 * @return The pixels of the tile
+		 */
+		private int[] renderTile()
+		{
+			int[] pixels = new int[tileSize * tileSize];
+			renderer.render(pixels, tileSize, tileSize, x * tileSize, y * tileSize);
+			return pixels;
+		}
+
+		/**
+		 * Builds the four tiles above this one in parallel and puts their halves together
+		 * @return The pixels of the tile
+		 */
+		private int[] combineChildren()
+		{
+			PyramidTask[] children = new PyramidTask[4];
+			for (int i = 0; i < 4; i++)
+				children[i] = new PyramidTask(level + 1, x * 2 + (i & 1), y * 2 + (i >> 1));
+			invokeAll(children);
+
+			int half = tileSize / 2;
+			int[] pixels = new int[tileSize * tileSize];
+
+			for (int i = 0; i < 4; i++)
+			{
+				int[] quarter = children[i].join();
+				if (quarter == null)
+					continue;
+
+				int offset = (i >> 1) * half * tileSize + (i & 1) * half;
+				for (int row = 0; row < half; row++)
+					System.arraycopy(quarter, row * half, pixels, offset + row * tileSize, half);
+			}
+
+			return pixels;
+		}
+
+		/**
+		 * Reads an unchanged tile back from the last export
+		 * @return The pixels of the tile, or null if it was empty
+		 * @throws IOException If the tile exists but can't be read
+		 */
+		private int[] readTile() throws IOException
+		{
+			File file = getTileFile(level, x, y);
+			if (!file.isFile())
+				return null;
+
+			BufferedImage image = ImageIO.read(file);
+			return image.getRGB(0, 0, tileSize, tileSize, null, 0, tileSize);
+		}
+
+		/**
+		 * Writes the tile to its file, or deletes the file if the tile is empty
+		 * @param pixels - The pixels of the tile
+		 * @return True if the tile was written, false if it was empty
+		 * @throws IOException If the tile can't be written
+		 */
+		private boolean writeTile(int[] pixels) throws IOException
+		{
+			File file = getTileFile(level, x, y);
+
+			// Skip tiles with nothing drawn on them
+			boolean empty = true;
+			for (int i = 0; i < pixels.length && empty; i++)
+				empty = (pixels[i] >>> 24) == 0;
+
+			if (empty)
+			{
+				if (file.delete())
+					tilesRemoved.incrementAndGet();
+				return false;
+			}
+
+			file.getParentFile().mkdirs();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try
+			{
+				PngWriter writer = new PngWriter(out, tileSize, tileSize);
+				writer.writeRows(pixels, 0, tileSize, tileSize);
+				writer.finish();
+			}
+			finally
+			{
+				out.close();
+			}
+
+			tilesWritten.incrementAndGet();
+			return true;
+		}
+	}
+}
@@ -1,16 +1,37 @@
 package menu;
 
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
+import java.util.Map;
 
 import javax.swing.ButtonGroup;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JLabel;
+import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
+import core.AutoTileRuleSet;
+import core.CollisionPlanes;
+import core.LayerStack;
+import core.MapObject;
+import core.MapPanel;
 import core.MapperFrame;
+import core.TileAnimation;
+import core.TileSheet;
+import core.TileTransform;
 
 /**
  * The Draw menu of the GUI
@@ -24,6 +45,9 @@ public class DrawMenu extends Menu
 	private JRadioButtonMenuItem button3;
 	private JRadioButtonMenuItem button5;
 	private JRadioButtonMenuItem button10;
+	private JMenu autoTileMenu;
+	private JCheckBoxMenuItem placementItem;
+	private int collisionFlag;
 	
 	/**
 	 * Creates the Draw menu
@@ -32,7 +56,7 @@ public class DrawMenu extends Menu
 	 */
 	public DrawMenu(String name, MapperFrame parentFrame) 
 	{
-		super(name, parentFrame, -1);
+		super(name, parentFrame, 4);
 		this.parentFrame = parentFrame;
 	}
 
@@ -81,9 +105,96 @@ public class DrawMenu extends Menu
 		temp.add(button5);
 		temp.add(button10);
 		
+		// The auto-tile menu is filled in each time it is opened, since the sets belong to the loaded map
+		autoTileMenu = new JMenu("Auto-tile");
+		autoTileMenu.addMenuListener(new AutoTileMenuListener());
+		temp.add(autoTileMenu);
+		
+		JMenuItem animationItem = new JMenuItem("Animate selected tile..");
+		animationItem.addActionListener(new AnimationActionListener());
+		temp.add(animationItem);
+		
+		JMenuItem replaceItem = new JMenuItem("Replace all uses of selected tile..");
+		replaceItem.addActionListener(new ReplaceAllActionListener());
+		temp.add(replaceItem);
+		
+		// Flipping the brush draws mirrored and rotated tiles without copies of them in the sheet
+		JMenuItem flipHorizontalItem = new JMenuItem("Flip brush horizontally");
+		flipHorizontalItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, 0));
+		flipHorizontalItem.addActionListener(new BrushFlipActionListener(TileTransform.FLIP_HORIZONTAL));
+		temp.add(flipHorizontalItem);
+		
+		JMenuItem flipVerticalItem = new JMenuItem("Flip brush vertically");
+		flipVerticalItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, 0));
+		flipVerticalItem.addActionListener(new BrushFlipActionListener(TileTransform.FLIP_VERTICAL));
+		temp.add(flipVerticalItem);
+		
+		JMenuItem rotateItem = new JMenuItem("Rotate brush clockwise");
+		rotateItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, 0));
+		rotateItem.addActionListener(new BrushFlipActionListener(TileTransform.FLIP_DIAGONAL));
+		temp.add(rotateItem);
+		
+		JMenuItem resetItem = new JMenuItem("Reset brush orientation");
+		resetItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R, 0));
+		resetItem.addActionListener(new BrushFlipActionListener(0));
+		temp.add(resetItem);
+		
+		// Collision mode toggles one flag at a time, and a cell can have several
+		collisionFlag = CollisionPlanes.SOLID;
+		JMenu collisionFlagMenu = new JMenu("Collision flag");
+		ButtonGroup flagGroup = new ButtonGroup();
+		for (int flag = 0; flag < CollisionPlanes.FLAG_COUNT; flag++)
+		{
+			String name = CollisionPlanes.getFlagName(flag);
+			JRadioButtonMenuItem flagItem = new JRadioButtonMenuItem(Character.toUpperCase(name.charAt(0)) + name.substring(1), flag == 0);
+			flagItem.addActionListener(new CollisionFlagActionListener(CollisionPlanes.getFlagBit(flag)));
+			flagGroup.add(flagItem);
+			collisionFlagMenu.add(flagItem);
+		}
+		collisionFlagMenu.addSeparator();
+		
+		JMenuItem clearFlagItem = new JMenuItem("Clear flag from whole map");
+		clearFlagItem.addActionListener(new ClearCollisionFlagActionListener());
+		collisionFlagMenu.add(clearFlagItem);
+		temp.add(collisionFlagMenu);
+		
+		// Placement mode moves freely placed objects with the mouse instead of drawing
+		placementItem = new JCheckBoxMenuItem("Place objects", false);
+		placementItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_P, 0));
+		placementItem.addActionListener(new PlacementActionListener());
+		temp.add(placementItem);
+		
+		JMenuItem editObjectItem = new JMenuItem("Edit placed object..");
+		editObjectItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E, 0));
+		editObjectItem.addActionListener(new EditObjectActionListener());
+		temp.add(editObjectItem);
+		
+		JMenuItem deleteObjectItem = new JMenuItem("Delete placed object");
+		deleteObjectItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0));
+		deleteObjectItem.addActionListener(new DeleteObjectActionListener());
+		temp.add(deleteObjectItem);
+		
 		return temp;
 	}
 	
+	/**
+	 * Gets the collision flag which collision mode toggles
+	 * @return CollisionPlanes.SOLID, ONE_WAY, WATER or HAZARD
+	 */
+	public int getCollisionFlag()
+	{
+		return collisionFlag;
+	}
+	
+	/**
+	 * Gets whether or not clicking the map places objects
+	 * @return Whether or not placement mode is enabled
+	 */
+	public boolean getPlacementMode()
+	{
+		return placementItem.getState();
+	}
+	
 	/**
 	 * Gets the selected amount to be drawn
 	 * @return The amount of tiles to be drawn (amount x amount grid)
@@ -102,6 +213,45 @@ public class DrawMenu extends Menu
 			return 10;
 	}
 	
+	/**
+	 * Fills the auto-tile menu with the rule sets of the loaded map
+	 */
+	private void populateAutoTileMenu()
+	{
+		autoTileMenu.removeAll();
+		
+		MapPanel mapPanel = parentFrame.getMapPanel();
+		if (mapPanel == null)
+			return;
+		
+		ButtonGroup group = new ButtonGroup();
+		
+		// An item for turning auto-tiling off, and one for each rule set
+		JRadioButtonMenuItem offItem = new JRadioButtonMenuItem("Off", mapPanel.getAutoTileSet() == null);
+		offItem.addActionListener(new AutoTileSetActionListener(null));
+		group.add(offItem);
+		autoTileMenu.add(offItem);
+		
+		for (AutoTileRuleSet set : mapPanel.getTilePanel().getTileSheet().getAutoTileSets())
+		{
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(set.getName(), mapPanel.getAutoTileSet() == set);
+			item.addActionListener(new AutoTileSetActionListener(set));
+			group.add(item);
+			autoTileMenu.add(item);
+		}
+		
+		autoTileMenu.addSeparator();
+		
+		JMenuItem newSetItem = new JMenuItem("New 16 tile set from selected tile..");
+		newSetItem.addActionListener(new NewAutoTileSetActionListener());
+		autoTileMenu.add(newSetItem);
+		
+		JMenuItem applyItem = new JMenuItem("Auto-tile whole map");
+		applyItem.setEnabled(mapPanel.getAutoTileSet() != null);
+		applyItem.addActionListener(new AutoTileAllActionListener());
+		autoTileMenu.add(applyItem);
+	}
+	
 	/**
 	 * ActionListener which listens for menu clicks and sets the draw count accordingly
 	 */
@@ -111,8 +261,329 @@ public class DrawMenu extends Menu
 		public void actionPerformed(ActionEvent e) 
 		{
 			parentFrame.getMapPanel().setDrawCount(drawAmount());
-			parentFrame.getMapPanel().repaintProjectedTiles();
+			parentFrame.getMapPanel().repaintAllTiles();
+		}
+	}
+	
+	/**
+	 * MenuListener which refreshes the auto-tile menu whenever it is opened
+	 */
+	class AutoTileMenuListener implements MenuListener
+	{
+		public void menuSelected(MenuEvent e) 
+		{
+			populateAutoTileMenu();
 		}
+		
+		public void menuDeselected(MenuEvent e) {}
+		public void menuCanceled(MenuEvent e) {}
 	}
 	
+	/**
+	 * ActionListener which makes a rule set the active auto-tile set
+	 */
+	class AutoTileSetActionListener implements ActionListener
+	{
+		private AutoTileRuleSet set;
+		
+		/**
+		 * Creates the listener for a rule set
+		 * @param set - The rule set to activate, or null to turn auto-tiling off
+		 */
+		public AutoTileSetActionListener(AutoTileRuleSet set)
+		{
+			this.set = set;
+		}
+		
+		public void actionPerformed(ActionEvent e) 
+		{
+			parentFrame.getMapPanel().setAutoTileSet(set);
+		}
+	}
+	
+	/**
+	 * ActionListener which creates a 16 tile rule set starting at the selected tile
+	 */
+	class NewAutoTileSetActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e) 
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			int firstTile = mapPanel.getTilePanel().getSelectedTileIndex();
+			
+			String name = JOptionPane.showInputDialog(parentFrame, 
+					"The 16 tiles starting at the selected tile should be ordered by their\n"
+					+ "matching edges (north = 1, east = 2, south = 4, west = 8).\n\nName:", 
+					"New auto-tile set", JOptionPane.PLAIN_MESSAGE);
+			
+			if (name != null && name.trim().length() > 0)
+			{
+				AutoTileRuleSet set = AutoTileRuleSet.createEdgeSet(name.trim(), firstTile);
+				mapPanel.getTilePanel().getTileSheet().addAutoTileSet(set);
+				mapPanel.setAutoTileSet(set);
+			}
+		}
+	}
+	
+	/**
+	 * ActionListener which applies the active rule set to the whole map
+	 */
+	class AutoTileAllActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e) 
+		{
+			parentFrame.getMapPanel().autoTileAll();
+		}
+	}
+	
+	/**
+	 * ActionListener which makes the selected tile or object play an animation
+	 * through the tiles which follow it in the tile sheet
+	 */
+	class AnimationActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e) 
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			boolean objectLayer = mapPanel.objectPanelSelectedLast();
+			TileSheet sheet = mapPanel.getTilePanel().getTileSheet();
+			int baseId = objectLayer ? mapPanel.getObjectPanel().getSelectedTileIndex() : mapPanel.getTilePanel().getSelectedTileIndex();
+			
+			// Object IDs start at 1, since 0 erases
+			int lastId = objectLayer ? sheet.objects.size() : sheet.tiles.size() - 1;
+			if (objectLayer && baseId == 0)
+				return;
+			
+			TileAnimation current = sheet.getAnimation(objectLayer, baseId);
+			String defaultValue = (current == null) ? "4, 150" : current.getFrameCount() + ", " + current.getFrameDuration(0);
+			
+			String input = (String) JOptionPane.showInputDialog(parentFrame, 
+					"The selected tile will cycle through itself and the tiles after it.\n"
+					+ "Use 1 frame to remove its animation.\n\nFrames, milliseconds per frame:", 
+					"Animate selected tile", JOptionPane.PLAIN_MESSAGE, null, null, defaultValue);
+			
+			if (input == null)
+				return;
+			
+			try
+			{
+				String[] values = input.split(",");
+				int frames = Integer.parseInt(values[0].trim());
+				int duration = Integer.parseInt(values[1].trim());
+				
+				if (baseId + frames - 1 > lastId)
+				{
+					JOptionPane.showMessageDialog(parentFrame, "There aren't " + frames + " tiles after the selected tile.", 
+							"Animate selected tile", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				
+				if (frames <= 1)
+					sheet.removeAnimation(objectLayer, baseId);
+				else
+					sheet.addAnimation(TileAnimation.createSequence(objectLayer, baseId, frames, duration));
+				
+				mapPanel.refreshAnimations();
+			}
+			catch (RuntimeException ex)
+			{
+				JOptionPane.showMessageDialog(parentFrame, "Enter the number of frames and the milliseconds per frame, such as 4, 150.", 
+						"Animate selected tile", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+	
+	/**
+	 * ActionListener which chooses the collision flag that collision mode toggles
+	 */
+	class CollisionFlagActionListener implements ActionListener
+	{
+		private int flag;
+		
+		/**
+		 * Creates the listener for a collision flag
+		 * @param flag - CollisionPlanes.SOLID, ONE_WAY, WATER or HAZARD
+		 */
+		public CollisionFlagActionListener(int flag)
+		{
+			this.flag = flag;
+		}
+		
+		public void actionPerformed(ActionEvent e)
+		{
+			collisionFlag = flag;
+		}
+	}
+	
+	/**
+	 * ActionListener which clears the selected collision flag from the whole map
+	 */
+	class ClearCollisionFlagActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			if (parentFrame.getMapPanel() != null)
+				parentFrame.getMapPanel().clearCollisionFlag();
+		}
+	}
+	
+	/**
+	 * ActionListener which turns placement mode on or off
+	 */
+	class PlacementActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			if (parentFrame.getMapPanel() != null)
+				parentFrame.getMapPanel().placementModeChanged();
+		}
+	}
+	
+	/**
+	 * ActionListener which edits the type, size and properties of the selected placed object
+	 */
+	class EditObjectActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel == null || mapPanel.getSelectedObject() == null)
+				return;
+			
+			MapObject object = mapPanel.getSelectedObject();
+			JTextField typeField = new JTextField(object.getType());
+			JTextField widthField = new JTextField(Integer.toString(object.getWidth()));
+			JTextField heightField = new JTextField(Integer.toString(object.getHeight()));
+			
+			// Properties are edited as one name=value pair per line
+			StringBuilder text = new StringBuilder();
+			for (Map.Entry<String, String> property : object.getProperties().entrySet())
+				text.append(property.getKey()).append('=').append(property.getValue()).append('\n');
+			JTextArea propertiesArea = new JTextArea(text.toString(), 6, 24);
+			
+			JPanel fields = new JPanel(new GridLayout(3, 2));
+			fields.add(new JLabel("Type:"));
+			fields.add(typeField);
+			fields.add(new JLabel("Width:"));
+			fields.add(widthField);
+			fields.add(new JLabel("Height:"));
+			fields.add(heightField);
+			
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(fields, BorderLayout.NORTH);
+			panel.add(new JScrollPane(propertiesArea), BorderLayout.CENTER);
+			
+			if (JOptionPane.showConfirmDialog(parentFrame, panel, "Edit placed object", 
+					JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+			
+			try
+			{
+				String type = typeField.getText().trim();
+				mapPanel.editSelectedObject(type.isEmpty() ? object.getType() : type, 
+						Integer.parseInt(widthField.getText().trim()), Integer.parseInt(heightField.getText().trim()));
+				
+				object.getProperties().clear();
+				for (String line : propertiesArea.getText().split("\n"))
+				{
+					int equals = line.indexOf('=');
+					if (equals > 0)
+						object.getProperties().put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+				}
+			}
+			catch (NumberFormatException ex)
+			{
+				JOptionPane.showMessageDialog(parentFrame, "The width and height must be whole numbers of pixels.", 
+						"Edit placed object", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+	
+	/**
+	 * ActionListener which takes the selected placed object off the map
+	 */
+	class DeleteObjectActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			if (parentFrame.getMapPanel() != null)
+				parentFrame.getMapPanel().deleteSelectedObject();
+		}
+	}
+	
+	/**
+	 * ActionListener which replaces every use of the selected tile or object with another
+	 */
+	class ReplaceAllActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel == null)
+				return;
+			
+			boolean objectLayer = mapPanel.objectPanelSelectedLast();
+			int type = objectLayer ? LayerStack.OBJECT : LayerStack.TILE;
+			int fromId = objectLayer ? mapPanel.getObjectPanel().getSelectedTileIndex() : mapPanel.getTilePanel().getSelectedTileIndex();
+			int uses = mapPanel.getTileUsage().getUseCount(type, fromId);
+			String name = objectLayer ? "object" : "tile";
+			
+			String input = JOptionPane.showInputDialog(parentFrame, 
+					"The selected " + name + " (" + fromId + ") is used " + uses + " times.\n"
+					+ "Use -1 to erase it everywhere.\n\nReplace it with " + name + ":", 
+					"Replace all uses", JOptionPane.PLAIN_MESSAGE);
+			
+			if (input == null)
+				return;
+			
+			try
+			{
+				int toId = Integer.parseInt(input.trim());
+				int lastId = objectLayer ? mapPanel.getObjectPanel().getTileCount() - 1 : mapPanel.getTilePanel().getTileCount() - 1;
+				if (toId > lastId)
+					throw new NumberFormatException();
+				
+				int replaced = mapPanel.replaceAll(type, fromId, toId);
+				System.out.println("Replaced " + replaced + " uses of " + name + " " + fromId + " with " + toId + ".");
+			}
+			catch (NumberFormatException ex)
+			{
+				JOptionPane.showMessageDialog(parentFrame, "Enter the number of a " + name + " in the sheet, or -1.", 
+						"Replace all uses", JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+	
+	/**
+	 * Action listener which flips or rotates the brush, or resets it
+	 */
+	class BrushFlipActionListener implements ActionListener
+	{
+		private int flag;
+		
+		/**
+		 * Creates the listener for one of the brush's flips
+		 * @param flag - The TileTransform flag to toggle, FLIP_DIAGONAL to rotate, or 0 to reset
+		 */
+		public BrushFlipActionListener(int flag)
+		{
+			this.flag = flag;
+		}
+		
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel == null)
+				return;
+			
+			if (flag == TileTransform.FLIP_HORIZONTAL)
+				mapPanel.flipBrushHorizontally();
+			else if (flag == TileTransform.FLIP_VERTICAL)
+				mapPanel.flipBrushVertically();
+			else if (flag == TileTransform.FLIP_DIAGONAL)
+				mapPanel.rotateBrush();
+			else
+				mapPanel.setBrushFlags(0);
+		}
+	}
 }
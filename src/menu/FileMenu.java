@@ -1,24 +1,37 @@
 package menu;
 
+import java.awt.BorderLayout;
 import java.awt.Event;
-import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import javax.imageio.ImageIO;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.KeyStroke;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import core.MapIO;
-import core.MapTile;
 import core.MapperFrame;
-import core.MapPanel;
+import core.TileSheet;
+import export.ChunkMeshExporter;
+import export.CollisionRectangleExporter;
+import export.MapRenderer;
+import export.NavigationDataExporter;
+import export.PackedAtlas;
+import export.RuntimeMapExporter;
+import export.StripImageExporter;
+import export.TileAtlas;
+import export.TilePyramidExporter;
+import runtime.RuntimeMap;
 
 /**
  * The File menu of the GUI
@@ -30,6 +43,8 @@ public class FileMenu extends Menu
 	private ArrayList<JMenuItem> mapDependentItems;
 	private String currentMapFilePath;
 	private JMenuItem saveMapItem;
+	private JCheckBox atlasUsedOnlyBox;
+	private JSpinner atlasPaddingSpinner;
 	
 	/**
 	 * Constructs the file menu
@@ -54,9 +69,21 @@ public class FileMenu extends Menu
 		
 		JMenuItem saveAsMapItem = createSaveAsMapItem();
 		JMenuItem exportMapItem = createExportMapItem();
+		JMenuItem exportMaskItem = createExportMaskItem();
+		JMenuItem exportRectanglesItem = createExportRectanglesItem();
+		JMenuItem exportPyramidItem = createExportPyramidItem();
+		JMenuItem exportNavigationItem = createExportNavigationItem();
+		JMenuItem exportRuntimeItem = createExportRuntimeItem();
+		JMenuItem exportMeshesItem = createExportMeshesItem();
 		
 		mapDependentItems.add(saveAsMapItem);
 		mapDependentItems.add(exportMapItem);
+		mapDependentItems.add(exportMaskItem);
+		mapDependentItems.add(exportRectanglesItem);
+		mapDependentItems.add(exportPyramidItem);
+		mapDependentItems.add(exportNavigationItem);
+		mapDependentItems.add(exportRuntimeItem);
+		mapDependentItems.add(exportMeshesItem);
 		
 		// Create and add each JMenuItem to the Menu
 		ArrayList<JMenuItem> temp = new ArrayList<JMenuItem>();
@@ -65,6 +92,12 @@ public class FileMenu extends Menu
 		temp.add(saveAsMapItem);
 		temp.add(createLoadMapItem());
 		temp.add(exportMapItem);
+		temp.add(exportMaskItem);
+		temp.add(exportRectanglesItem);
+		temp.add(exportPyramidItem);
+		temp.add(exportNavigationItem);
+		temp.add(exportRuntimeItem);
+		temp.add(exportMeshesItem);
 		temp.add(createFileExitItem());
 		
 		return temp;
@@ -159,7 +192,7 @@ public class FileMenu extends Menu
 			{
 				JFileChooser dialog = new JFileChooser();
 				FileNameExtensionFilter filter = new FileNameExtensionFilter(
-						"Tile Mapper files", "tmf");
+						"Tile Mapper files", "tmf", "tmz");
 				dialog.setFileFilter(filter);	
 				
 				int response = dialog.showOpenDialog(parentFrame);
@@ -209,6 +242,207 @@ public class FileMenu extends Menu
 		return item;
 	}
 	
+	/**
+	 * Creates the File->Export collision mask menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportMaskItem()
+	{
+		JMenuItem item = new JMenuItem("Export collision mask..");
+		
+		class ExportMaskListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				FileNameExtensionFilter filter = new FileNameExtensionFilter(
+						"PNG images", "png");
+				dialog.setFileFilter(filter);
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION) 
+				{ 
+					exportCollisionMask(dialog.getSelectedFile().toString());
+				}
+			}	
+		}
+		item.addActionListener(new ExportMaskListener());
+		return item;
+	}
+	
+	/**
+	 * Creates the File->Export collision rectangles menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportRectanglesItem()
+	{
+		JMenuItem item = new JMenuItem("Export collision rectangles..");
+		
+		class ExportRectanglesListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				FileNameExtensionFilter filter = new FileNameExtensionFilter(
+						"XML files", "xml");
+				dialog.setFileFilter(filter);
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION) 
+				{ 
+					exportCollisionRectangles(dialog.getSelectedFile().toString());
+				}
+			}	
+		}
+		item.addActionListener(new ExportRectanglesListener());
+		return item;
+	}
+	
+	/**
+	 * Creates the File->Export tile pyramid menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportPyramidItem()
+	{
+		JMenuItem item = new JMenuItem("Export as tile pyramid..");
+		
+		class ExportPyramidListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				dialog.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION) 
+				{ 
+					exportTilePyramid(dialog.getSelectedFile());
+				}
+			}	
+		}
+		item.addActionListener(new ExportPyramidListener());
+		return item;
+	}
+	
+	/**
+	 * Creates the File->Export navigation data menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportNavigationItem()
+	{
+		JMenuItem item = new JMenuItem("Export navigation data..");
+		
+		class ExportNavigationListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				FileNameExtensionFilter filter = new FileNameExtensionFilter(
+						"Navigation data", "nav");
+				dialog.setFileFilter(filter);
+				
+				// Suggest the file next to the map, since that is where the game looks for it
+				if (currentMapFilePath != null)
+					dialog.setSelectedFile(new File(currentMapFilePath.replaceFirst("\\.tm[fz]$", "") + NavigationDataExporter.EXTENSION));
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION) 
+				{ 
+					exportNavigationData(dialog.getSelectedFile().toString());
+				}
+			}	
+		}
+		item.addActionListener(new ExportNavigationListener());
+		return item;
+	}
+	
+	/**
+	 * Creates the File->Export runtime map menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportRuntimeItem()
+	{
+		JMenuItem item = new JMenuItem("Export runtime map..");
+		
+		class ExportRuntimeListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				FileNameExtensionFilter filter = new FileNameExtensionFilter(
+						"Runtime map", "tmr");
+				dialog.setFileFilter(filter);
+				
+				if (currentMapFilePath != null)
+					dialog.setSelectedFile(new File(currentMapFilePath.replaceFirst("\\.tm[fz]$", "") + RuntimeMap.EXTENSION));
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION && showAtlasDialog()) 
+				{ 
+					exportRuntimeMap(dialog.getSelectedFile().toString());
+				}
+			}	
+		}
+		item.addActionListener(new ExportRuntimeListener());
+		return item;
+	}
+	
+	/**
+	 * Creates the File->Export chunk meshes menu item and sets its action listener.
+	 * @return The menu item
+	 */
+	public JMenuItem createExportMeshesItem()
+	{
+		JMenuItem item = new JMenuItem("Export chunk meshes..");
+		
+		class ExportMeshesListener implements ActionListener
+		{
+			public void actionPerformed(ActionEvent arg0) 
+			{
+				JFileChooser dialog = new JFileChooser();
+				FileNameExtensionFilter filter = new FileNameExtensionFilter(
+						"Chunk meshes", "tmm");
+				dialog.setFileFilter(filter);
+				
+				if (currentMapFilePath != null)
+					dialog.setSelectedFile(new File(currentMapFilePath.replaceFirst("\\.tm[fz]$", "") + ChunkMeshExporter.EXTENSION));
+				
+				int response = dialog.showSaveDialog(parentFrame); 
+				if (response == JFileChooser.APPROVE_OPTION && showAtlasDialog()) 
+				{ 
+					exportChunkMeshes(dialog.getSelectedFile().toString());
+				}
+			}	
+		}
+		item.addActionListener(new ExportMeshesListener());
+		return item;
+	}
+	
+	/**
+	 * Asks how the tiles of an export are packed into its atlas. The choices are
+	 * remembered for the next export.
+	 * @return True if the export should go ahead
+	 */
+	private boolean showAtlasDialog()
+	{
+		if (atlasUsedOnlyBox == null)
+		{
+			atlasUsedOnlyBox = new JCheckBox("Only pack the tiles the map uses", true);
+			atlasPaddingSpinner = new JSpinner(new SpinnerNumberModel(PackedAtlas.DEFAULT_PADDING, 0, 16, 1));
+		}
+		
+		JPanel paddingPanel = new JPanel(new BorderLayout());
+		paddingPanel.add(new JLabel("Extruded padding: "), BorderLayout.WEST);
+		paddingPanel.add(atlasPaddingSpinner, BorderLayout.CENTER);
+		
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(atlasUsedOnlyBox, BorderLayout.NORTH);
+		panel.add(paddingPanel, BorderLayout.SOUTH);
+		
+		return JOptionPane.showConfirmDialog(parentFrame, panel, "Tile atlas", 
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION;
+	}
+	
 	/**
 	 * Creates the File->Exit menu item and sets its action listener.
 	 * @return The menu item
@@ -228,48 +462,204 @@ public class FileMenu extends Menu
 	}
 	
 	/**
-	 * Exports the currently displayed map as an image
+	 * Describes how many images a renderer drew compared to how many were on the map
+	 * @param renderer - The renderer used for an export
+	 * @return A summary of the draw calls made and skipped
+	 */
+	private String describeDrawCalls(MapRenderer renderer)
+	{
+		long images = renderer.getImageCount();
+		long drawn = renderer.getDrawCallCount();
+		TileAtlas atlas = renderer.getAtlas();
+		String description = drawn + " of " + images + " tile images drawn (" + (images - drawn) + " hidden or empty images skipped), "
+				+ Math.round(atlas.getHitRate() * 100) + "% tile cache hits, " + atlas.getCachedBytes() / 1024 + " KB cached.";
+		
+		// How often the compressed tiles had to be inflated again
+		TileSheet sheet = renderer.getMap().getTileSheet();
+		if (sheet.isCompressed())
+			description += " " + sheet.describeMemoryUsage();
+		return description + " " + renderer.getMap().describeLayerMemoryUsage();
+	}
+	
+	/**
+	 * Creates a renderer for the currently displayed map which draws
+	 * only the layers that are currently shown in the View menu
+	 * @return The renderer
+	 */
+	private MapRenderer createVisibleLayerRenderer()
+	{
+		ViewMenu viewMenu = parentFrame.getMenuPanel().getViewMenu();
+		
+		// Determine which layers should be drawn
+		int layers = 0;
+		if (viewMenu.getTileLayerMode())
+			layers |= MapRenderer.TILE_LAYER;
+		if (viewMenu.getObjectLayerMode())
+			layers |= MapRenderer.OBJECT_LAYER;
+		if (viewMenu.getCollisionMode())
+			layers |= MapRenderer.COLLISION_LAYER;
+		
+		return new MapRenderer(parentFrame.getMapPanel().getMapData(), layers);
+	}
+	
+	/**
+	 * Exports the currently displayed map as an image. Only the layers that
+	 * are currently shown in the View menu are drawn.
 	 * @param filePath - The file path to write the image to
 	 */
 	private void exportMapImage(String filePath)
 	{
-		MapPanel mapPanel = parentFrame.getMapPanel();
+		MapRenderer renderer = createVisibleLayerRenderer();
+		StripImageExporter exporter = new StripImageExporter(renderer);
+		
+		try 
+		{
+			// Write the image to the destination file path
+			exporter.export(filePath + ".png");
+			System.out.println("Image exported: " + describeDrawCalls(renderer));
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting image.");
+		}
+	}
+	
+	/**
+	 * Exports the collision layer of the currently displayed map as a mask image
+	 * @param filePath - The file path to write the image to
+	 */
+	private void exportCollisionMask(String filePath)
+	{
+		MapRenderer renderer = new MapRenderer(parentFrame.getMapPanel().getMapData(), MapRenderer.COLLISION_LAYER);
+		renderer.setCollisionColor(MapRenderer.COLLISION_MASK_COLOR);
+		StripImageExporter exporter = new StripImageExporter(renderer);
 		
-		// Create a blank image
-		BufferedImage export = new BufferedImage(mapPanel.getWidth(), mapPanel.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		ArrayList<MapTile> tiles = mapPanel.getMapTiles();
+		try 
+		{
+			exporter.export(filePath + ".png");
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting collision mask.");
+		}
+	}
+	
+	/**
+	 * Exports the collision layer of the currently displayed map as merged rectangles
+	 * @param filePath - The file path to write the rectangles to
+	 */
+	private void exportCollisionRectangles(String filePath)
+	{
+		CollisionRectangleExporter exporter = new CollisionRectangleExporter(parentFrame.getMapPanel().getMapData());
 		
-		// Get the graphics context
-		Graphics g = export.getGraphics();
+		try 
+		{
+			exporter.export(filePath.endsWith(".xml") ? filePath : filePath + ".xml");
+			System.out.println("Collision rectangles exported: " + exporter.getCellCount() + " cells merged into " 
+					+ exporter.getRectangleCount() + " rectangles.");
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting collision rectangles.");
+		}
+	}
+	
+	/**
+	 * Exports the connected regions and distances to the nearest wall of the currently
+	 * displayed map. The file is left alone if the collision layer hasn't changed.
+	 * @param filePath - The file path to write the navigation data to
+	 */
+	private void exportNavigationData(String filePath)
+	{
+		NavigationDataExporter exporter = new NavigationDataExporter(parentFrame.getMapPanel().getMapData(), 
+				NavigationDataExporter.DEFAULT_REGION_SIZE, true);
 		
-		// Get map width and height
-		int mapWidth = mapPanel.getWidthInTiles();
-		int mapHeight = mapPanel.getHeightInTiles();
+		try 
+		{
+			String path = filePath.endsWith(NavigationDataExporter.EXTENSION) ? filePath : filePath + NavigationDataExporter.EXTENSION;
+			if (exporter.export(new File(path)))
+				System.out.println("Navigation data exported: " + exporter.getComponentCount() + " connected areas, " 
+						+ exporter.getRegionCount() + " regions, " + exporter.getEdgeCount() + " region edges.");
+			else
+				System.out.println("Navigation data is up to date, the collision layer hasn't changed.");
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting navigation data.");
+		}
+	}
+	
+	/**
+	 * Exports the currently displayed map in the runtime format, with its tile atlas next to it
+	 * @param filePath - The file path to write the runtime map to
+	 */
+	private void exportRuntimeMap(String filePath)
+	{
+		RuntimeMapExporter exporter = new RuntimeMapExporter(parentFrame.getMapPanel().getMapData(), 
+				atlasUsedOnlyBox.isSelected(), (Integer) atlasPaddingSpinner.getValue());
 		
-		// Get tile width and height
-		int tileWidth = parentFrame.getTilePanel().getTileSheet().getWidthOfTiles();
-		int tileHeight = parentFrame.getTilePanel().getTileSheet().getHeightOfTiles();
+		try 
+		{
+			File file = new File(filePath.endsWith(RuntimeMap.EXTENSION) ? filePath : filePath + RuntimeMap.EXTENSION);
+			exporter.export(file);
+			PackedAtlas atlas = exporter.getAtlas();
+			System.out.println("Runtime map exported: " + exporter.getFileLength() + " bytes, " + atlas.getTileCount() + " tiles and " 
+					+ atlas.getObjectCount() + " objects packed into a " + atlas.getWidth() + "x" + atlas.getHeight() + " atlas.");
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting runtime map.");
+		}
+	}
+	
+	/**
+	 * Exports the visible tile and object layers of the currently displayed map as
+	 * chunk meshes, with their tile atlas next to them
+	 * @param filePath - The file path to write the meshes to
+	 */
+	private void exportChunkMeshes(String filePath)
+	{
+		ChunkMeshExporter exporter = new ChunkMeshExporter(parentFrame.getMapPanel().getMapData(), 
+				atlasUsedOnlyBox.isSelected(), (Integer) atlasPaddingSpinner.getValue());
 		
-		int counter = 0;
-		// Iterate through each map tile and draw it to the image
-		for (int y = 0; y < mapHeight; y++)
+		try 
 		{
-			for (int x = 0; x < mapWidth; x++)
-			{
-				g.drawImage(tiles.get(counter).getTileImage(), x * tileWidth, y * tileHeight, null);
-				counter++;
-			}
+			exporter.export(new File(filePath.endsWith(ChunkMeshExporter.EXTENSION) ? filePath : filePath + ChunkMeshExporter.EXTENSION));
+			System.out.println("Chunk meshes exported: " + exporter.getMeshCount() + " meshes, " + exporter.getCellCount() 
+					+ " cells merged into " + exporter.getQuadCount() + " quads.");
+		} 
+		catch (IOException e) 
+		{
+			e.printStackTrace();
+			System.out.println("Error exporting chunk meshes.");
 		}
-			
+	}
+	
+	/**
+	 * Exports the currently displayed map as a tile pyramid. Exporting to the
+	 * same directory again only regenerates the tiles which changed.
+	 * @param directory - The directory to write the pyramid to
+	 */
+	private void exportTilePyramid(File directory)
+	{
+		MapRenderer renderer = createVisibleLayerRenderer();
+		TilePyramidExporter exporter = new TilePyramidExporter(renderer, TilePyramidExporter.DEFAULT_TILE_SIZE);
+		
 		try 
 		{
-			// Write the image to the destination file path
-			ImageIO.write(export, "png", new File(filePath + ".png"));
+			exporter.export(directory);
+			System.out.println("Tile pyramid exported: " + exporter.getTilesWritten() + " tiles written, " 
+					+ exporter.getTilesRemoved() + " removed, " + describeDrawCalls(renderer));
 		} 
 		catch (IOException e) 
 		{
 			e.printStackTrace();
-			System.out.println("Error exporting image.");
+			System.out.println("Error exporting tile pyramid.");
 		}
 	}
 	
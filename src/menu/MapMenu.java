@@ -0,0 +1,244 @@
+package menu;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+
+import javax.swing.ButtonGroup;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.JSpinner;
+import javax.swing.KeyStroke;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
+
+import core.MapPanel;
+import core.MapperFrame;
+
+/**
+ * The Map menu of the GUI, which resizes, crops and shifts the open map. Cells are
+ * selected for cropping by dragging over the map with shift held.
+ */
+public class MapMenu extends Menu
+{
+	private static final long serialVersionUID = 2290184468735921207L;
+	private static final int MAX_SIZE = 10000;
+	private MapperFrame parentFrame;
+	private ArrayList<JMenuItem> mapDependentItems;
+	private JMenuItem cropItem;
+	private JMenuItem clearSelectionItem;
+	private JMenuItem undoItem;
+	
+	/**
+	 * Creates the Map menu
+	 * @param name - The text to be displayed at the top of the menu
+	 * @param parentFrame - The frame on which the menu exists
+	 */
+	public MapMenu(String name, MapperFrame parentFrame)
+	{
+		super(name, parentFrame, 3);
+		this.parentFrame = parentFrame;
+		addMenuListener(new MapMenuListener());
+	}
+	
+	@Override
+	/**
+	 * Creates all of the menu items of the Map menu
+	 */
+	public ArrayList<JMenuItem> createMenuItems()
+	{
+		ArrayList<JMenuItem> temp = new ArrayList<JMenuItem>();
+		mapDependentItems = new ArrayList<JMenuItem>();
+		
+		JMenuItem resizeItem = new JMenuItem("Resize map..");
+		resizeItem.addActionListener(new ResizeActionListener());
+		temp.add(resizeItem);
+		
+		cropItem = new JMenuItem("Crop to selection");
+		cropItem.addActionListener(new CropActionListener());
+		temp.add(cropItem);
+		
+		JMenuItem shiftItem = new JMenuItem("Shift map..");
+		shiftItem.addActionListener(new ShiftActionListener());
+		temp.add(shiftItem);
+		
+		clearSelectionItem = new JMenuItem("Clear selection");
+		clearSelectionItem.addActionListener(new ClearSelectionActionListener());
+		temp.add(clearSelectionItem);
+		
+		undoItem = new JMenuItem("Undo map change");
+		undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, KeyEvent.CTRL_DOWN_MASK));
+		undoItem.addActionListener(new UndoActionListener());
+		temp.add(undoItem);
+		
+		mapDependentItems.add(resizeItem);
+		mapDependentItems.add(shiftItem);
+		
+		return temp;
+	}
+	
+	/**
+	 * Gets all of the map dependent menu items
+	 * @return Menu items which are dependent on the map being loaded
+	 */
+	public ArrayList<JMenuItem> getMapDependentItems()
+	{
+		return mapDependentItems;
+	}
+	
+	/**
+	 * Enables the items which depend on the state of the map, such as whether
+	 * any cells are selected
+	 */
+	private void updateItems()
+	{
+		MapPanel mapPanel = parentFrame.getMapPanel();
+		cropItem.setEnabled(mapPanel != null && mapPanel.getCellSelection() != null);
+		clearSelectionItem.setEnabled(mapPanel != null && mapPanel.getCellSelection() != null);
+		undoItem.setEnabled(mapPanel != null && mapPanel.canUndo());
+	}
+	
+	/**
+	 * MenuListener which updates the items whenever the menu is opened
+	 */
+	class MapMenuListener implements MenuListener
+	{
+		public void menuSelected(MenuEvent e)
+		{
+			updateItems();
+		}
+		
+		public void menuDeselected(MenuEvent e) {}
+		public void menuCanceled(MenuEvent e) {}
+	}
+	
+	/**
+	 * ActionListener which asks for a new size and which part of the map to keep in place
+	 */
+	class ResizeActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel == null)
+				return;
+			
+			JSpinner widthSpinner = new JSpinner(new SpinnerNumberModel(mapPanel.getWidthInTiles(), 1, MAX_SIZE, 1));
+			JSpinner heightSpinner = new JSpinner(new SpinnerNumberModel(mapPanel.getHeightInTiles(), 1, MAX_SIZE, 1));
+			
+			JPanel fields = new JPanel(new GridLayout(2, 2));
+			fields.add(new JLabel("Width:"));
+			fields.add(widthSpinner);
+			fields.add(new JLabel("Height:"));
+			fields.add(heightSpinner);
+			
+			// The anchor is the side, corner or middle of the map which stays where it is
+			JPanel anchorPanel = new JPanel(new GridLayout(3, 3));
+			ButtonGroup group = new ButtonGroup();
+			JRadioButton[] anchors = new JRadioButton[9];
+			for (int i = 0; i < anchors.length; i++)
+			{
+				anchors[i] = new JRadioButton();
+				group.add(anchors[i]);
+				anchorPanel.add(anchors[i]);
+			}
+			anchors[0].setSelected(true);
+			
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(fields, BorderLayout.NORTH);
+			panel.add(new JLabel("Keep in place:"), BorderLayout.CENTER);
+			panel.add(anchorPanel, BorderLayout.SOUTH);
+			
+			if (JOptionPane.showConfirmDialog(parentFrame, panel, "Resize map", 
+					JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+			
+			int anchor = 0;
+			while (!anchors[anchor].isSelected())
+				anchor++;
+			
+			mapPanel.resizeMap((Integer) widthSpinner.getValue(), (Integer) heightSpinner.getValue(), anchor % 3, anchor / 3);
+		}
+	}
+	
+	/**
+	 * ActionListener which crops the map to the selected cells
+	 */
+	class CropActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel != null)
+				mapPanel.cropToSelection();
+		}
+	}
+	
+	/**
+	 * ActionListener which asks how far to move everything on the map
+	 */
+	class ShiftActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel == null)
+				return;
+			
+			JSpinner xSpinner = new JSpinner(new SpinnerNumberModel(0, -MAX_SIZE, MAX_SIZE, 1));
+			JSpinner ySpinner = new JSpinner(new SpinnerNumberModel(0, -MAX_SIZE, MAX_SIZE, 1));
+			JCheckBox wrapBox = new JCheckBox("Wrap around the edges", true);
+			
+			JPanel fields = new JPanel(new GridLayout(2, 2));
+			fields.add(new JLabel("Cells right:"));
+			fields.add(xSpinner);
+			fields.add(new JLabel("Cells down:"));
+			fields.add(ySpinner);
+			
+			JPanel panel = new JPanel(new BorderLayout());
+			panel.add(fields, BorderLayout.NORTH);
+			panel.add(wrapBox, BorderLayout.SOUTH);
+			
+			if (JOptionPane.showConfirmDialog(parentFrame, panel, "Shift map", 
+					JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+				return;
+			
+			mapPanel.shiftMap((Integer) xSpinner.getValue(), (Integer) ySpinner.getValue(), wrapBox.isSelected());
+		}
+	}
+	
+	/**
+	 * ActionListener which deselects the selected cells
+	 */
+	class ClearSelectionActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel != null)
+				mapPanel.setCellSelection(null);
+		}
+	}
+	
+	/**
+	 * ActionListener which undoes the last resize, crop or shift
+	 */
+	class UndoActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent e)
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			if (mapPanel != null)
+				mapPanel.undo();
+		}
+	}
+}
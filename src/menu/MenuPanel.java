@@ -17,6 +17,7 @@ public class MenuPanel extends JMenuBar
 	private FileMenu fileMenu;
 	private ViewMenu viewMenu;
 	private DrawMenu drawMenu;
+	private MapMenu mapMenu;
 	
 	/**
 	 * Constructs the MenuPanel, which is a child of JMenuBar that holds all of the
@@ -47,9 +48,13 @@ public class MenuPanel extends JMenuBar
 		// Draw menu
 		drawMenu = new DrawMenu("Draw", parent);
 		
+		// Map menu
+		mapMenu = new MapMenu("Map", parent);
+		
 		menus.add(fileMenu);
 		menus.add(viewMenu);
 		menus.add(drawMenu);
+		menus.add(mapMenu);
 		
 		// Add all of the menus to the MenuBar
 		for (int i = 0; i < menus.size(); i++)
@@ -71,6 +76,7 @@ public class MenuPanel extends JMenuBar
 		// Get the map dependent items from the menus
 		ArrayList<JMenuItem> mapDependentItems = fileMenu.getMapDependentItems();
 		mapDependentItems.addAll(viewMenu.getMapDependentItems());
+		mapDependentItems.addAll(mapMenu.getMapDependentItems());
 		
 		// Set their status
 		for (JMenuItem item : mapDependentItems)
@@ -104,4 +110,13 @@ public class MenuPanel extends JMenuBar
 		return drawMenu;
 	}
 	
+	/**
+	 * Gets the map menu
+	 * @return The map menu
+	 */
+	public MapMenu getMapMenu()
+	{
+		return mapMenu;
+	}
+	
 }
\ No newline at end of file
@@ -5,11 +5,20 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 
+import javax.swing.ButtonGroup;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 
+import core.LayerStack;
+import core.MapPanel;
 import core.MapperFrame;
+import core.RepaintScheduler;
 
 /**
  * The View menu of the GUI
@@ -19,6 +28,13 @@ public class ViewMenu extends Menu
 	private static final long serialVersionUID = 5739872015701945346L;
 	private JCheckBoxMenuItem collisionItem, gridItem;
 	private JCheckBoxMenuItem tileLayerItem, objectLayerItem;
+	private JCheckBoxMenuItem animationItem, placedObjectsItem;
+	private JCheckBoxMenuItem highlightUsesItem, unusedTilesItem;
+	private JCheckBoxMenuItem pathPreviewItem;
+	private JMenu layersMenu;
+	private JMenu frameRateMenu;
+	private int frameRate;
+	private final int[] FRAME_RATES = {30, 60, 120};
 	private ArrayList<JMenuItem> mapDependentItems;
 	private MapperFrame parentFrame;
 
@@ -43,18 +59,50 @@ public class ViewMenu extends Menu
 		gridItem = new JCheckBoxMenuItem("Show Grid", true);
 		tileLayerItem = new JCheckBoxMenuItem("Show Tile Layer", true);
 		objectLayerItem = new JCheckBoxMenuItem("Show Object Layer", true);
+		animationItem = new JCheckBoxMenuItem("Animate Tiles", true);
+		placedObjectsItem = new JCheckBoxMenuItem("Show Placed Objects", true);
+		highlightUsesItem = new JCheckBoxMenuItem("Highlight Uses of Selected Tile", false);
+		unusedTilesItem = new JCheckBoxMenuItem("Dim Unused Tiles", false);
+		pathPreviewItem = new JCheckBoxMenuItem("Show Path Preview", false);
+		pathPreviewItem.setToolTipText("Right click a cell to measure distances from it, and shift right click a cell to find a path to it");
+		
+		// The layers menu is filled in each time it is opened, since the layers belong to the loaded map
+		layersMenu = new JMenu("Layers");
+		layersMenu.addMenuListener(new LayersMenuListener());
+		
+		// Create the frame rate menu, which limits how often the map is repainted
+		frameRate = RepaintScheduler.DEFAULT_FRAME_RATE;
+		frameRateMenu = new JMenu("Repaint Rate");
+		ButtonGroup frameRateGroup = new ButtonGroup();
+		for (int rate : FRAME_RATES)
+		{
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(rate + " Hz", rate == frameRate);
+			item.addActionListener(new FrameRateActionListener(rate));
+			frameRateGroup.add(item);
+			frameRateMenu.add(item);
+		}
 		
 		// Add repaint item listeners
 		collisionItem.addActionListener(new RepaintActionListener());
 		gridItem.addActionListener(new RepaintActionListener());
 		tileLayerItem.addActionListener(new RepaintActionListener());
 		objectLayerItem.addActionListener(new RepaintActionListener());
+		animationItem.addActionListener(new AnimationActionListener());
+		placedObjectsItem.addActionListener(new RepaintActionListener());
+		highlightUsesItem.addActionListener(new RepaintActionListener());
+		unusedTilesItem.addActionListener(new UnusedTilesActionListener());
+		pathPreviewItem.addActionListener(new RepaintActionListener());
 		
 		// Add accelerators (for key shortcuts)
 		collisionItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F1, 0 /* 0 means no modifier keys */));
 		gridItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0));
 		tileLayerItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
 		objectLayerItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0));
+		animationItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+		placedObjectsItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F6, 0));
+		highlightUsesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F7, 0));
+		unusedTilesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0));
+		pathPreviewItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F9, 0));
 		
 		// Add them to the ArrayList of map dependent items
 		mapDependentItems = new ArrayList<JMenuItem>();
@@ -62,6 +110,13 @@ public class ViewMenu extends Menu
 		mapDependentItems.add(gridItem);
 		mapDependentItems.add(tileLayerItem);
 		mapDependentItems.add(objectLayerItem);
+		mapDependentItems.add(layersMenu);
+		mapDependentItems.add(animationItem);
+		mapDependentItems.add(placedObjectsItem);
+		mapDependentItems.add(highlightUsesItem);
+		mapDependentItems.add(unusedTilesItem);
+		mapDependentItems.add(pathPreviewItem);
+		mapDependentItems.add(frameRateMenu);
 		
 		// Create and add each JMenuItem to the Menu
 		ArrayList<JMenuItem> temp = new ArrayList<JMenuItem>();
@@ -69,6 +124,13 @@ public class ViewMenu extends Menu
 		temp.add(gridItem);
 		temp.add(tileLayerItem);
 		temp.add(objectLayerItem);
+		temp.add(layersMenu);
+		temp.add(animationItem);
+		temp.add(placedObjectsItem);
+		temp.add(highlightUsesItem);
+		temp.add(unusedTilesItem);
+		temp.add(pathPreviewItem);
+		temp.add(frameRateMenu);
 		
 		return temp;
 	}
@@ -118,6 +180,117 @@ public class ViewMenu extends Menu
 		return tileLayerItem.getState();
 	}
 	
+	/**
+	 * Gets whether or not animated tiles are played
+	 * @return Whether or not animation mode is enabled
+	 */
+	public boolean getAnimationMode()
+	{
+		return animationItem.getState();
+	}
+	
+	/**
+	 * Gets whether or not the placed objects are shown
+	 * @return Whether or not placed object mode is enabled
+	 */
+	public boolean getPlacedObjectMode()
+	{
+		return placedObjectsItem.getState();
+	}
+	
+	/**
+	 * Gets whether or not every use of the selected tile is highlighted
+	 * @return Whether or not highlight uses mode is enabled
+	 */
+	public boolean getHighlightUsesMode()
+	{
+		return highlightUsesItem.getState();
+	}
+	
+	/**
+	 * Gets whether or not the tile panels dim the tiles which aren't used on the map
+	 * @return Whether or not unused tiles mode is enabled
+	 */
+	public boolean getUnusedTilesMode()
+	{
+		return unusedTilesItem.getState();
+	}
+	
+	/**
+	 * Gets whether or not the distances from the path start and the path to the target are shown
+	 * @return Whether or not path preview mode is enabled
+	 */
+	public boolean getPathPreviewMode()
+	{
+		return pathPreviewItem.getState();
+	}
+	
+	/**
+	 * Gets how many times per second the map may be repainted
+	 * @return The selected frame rate
+	 */
+	public int getFrameRate()
+	{
+		return frameRate;
+	}
+	
+	/**
+	 * Fills the layers menu with the layers of the loaded map, the top one first
+	 */
+	private void populateLayersMenu()
+	{
+		layersMenu.removeAll();
+		
+		MapPanel mapPanel = parentFrame.getMapPanel();
+		if (mapPanel == null)
+			return;
+		
+		LayerStack layers = mapPanel.getLayerStack();
+		for (int layer = layers.getLayerCount() - 1; layer >= 0; layer--)
+		{
+			int type = layers.getType(layer);
+			boolean editing = mapPanel.getEditLayer(type) == layer;
+			JMenu layerMenu = new JMenu(layers.getName(layer) + " (" + LayerStack.getTypeName(type) + (editing ? ", drawing" : "") + ")");
+			
+			JCheckBoxMenuItem visibleItem = new JCheckBoxMenuItem("Visible", layers.isVisible(layer));
+			visibleItem.addActionListener(new LayerActionListener(layer, LayerActionListener.TOGGLE_VISIBLE));
+			layerMenu.add(visibleItem);
+			
+			JCheckBoxMenuItem editItem = new JCheckBoxMenuItem("Draw on this layer", editing);
+			editItem.addActionListener(new LayerActionListener(layer, LayerActionListener.EDIT));
+			layerMenu.add(editItem);
+			
+			JMenuItem upItem = new JMenuItem("Move up");
+			upItem.setEnabled(layer < layers.getLayerCount() - 1);
+			upItem.addActionListener(new LayerActionListener(layer, LayerActionListener.MOVE_UP));
+			layerMenu.add(upItem);
+			
+			JMenuItem downItem = new JMenuItem("Move down");
+			downItem.setEnabled(layer > 0);
+			downItem.addActionListener(new LayerActionListener(layer, LayerActionListener.MOVE_DOWN));
+			layerMenu.add(downItem);
+			
+			JMenuItem renameItem = new JMenuItem("Rename..");
+			renameItem.addActionListener(new LayerActionListener(layer, LayerActionListener.RENAME));
+			layerMenu.add(renameItem);
+			
+			JMenuItem removeItem = new JMenuItem("Remove");
+			removeItem.addActionListener(new LayerActionListener(layer, LayerActionListener.REMOVE));
+			layerMenu.add(removeItem);
+			
+			layersMenu.add(layerMenu);
+		}
+		
+		layersMenu.addSeparator();
+		
+		for (int type = 0; type < LayerStack.TYPE_COUNT; type++)
+		{
+			JMenuItem addItem = new JMenuItem("Add " + LayerStack.getTypeName(type) + " layer..");
+			addItem.addActionListener(new AddLayerActionListener(type));
+			layersMenu.add(addItem);
+		}
+	}
+	
 	/**
 	 * ActionListener which repaints all tiles on the map panel
 	 */
@@ -127,5 +300,147 @@ public class ViewMenu extends Menu
 		{
 			parentFrame.getMapPanel().repaintAllTiles();	
 		}
-	}	
+	}
+	
+	/**
+	 * ActionListener which sets how often the map panel may be repainted
+	 */
+	class FrameRateActionListener implements ActionListener
+	{
+		private int rate;
+		
+		/**
+		 * Creates the listener for a frame rate
+		 * @param rate - The frame rate to use when selected
+		 */
+		public FrameRateActionListener(int rate)
+		{
+			this.rate = rate;
+		}
+		
+		public void actionPerformed(ActionEvent arg0) 
+		{
+			frameRate = rate;
+			parentFrame.getMapPanel().setFrameRate(rate);
+		}
+	}
+	
+	/**
+	 * MenuListener which refreshes the layers menu whenever it is opened
+	 */
+	class LayersMenuListener implements MenuListener
+	{
+		public void menuSelected(MenuEvent e) 
+		{
+			populateLayersMenu();
+		}
+		
+		public void menuDeselected(MenuEvent e) {}
+		public void menuCanceled(MenuEvent e) {}
+	}
+	
+	/**
+	 * ActionListener which shows, hides, selects, moves, renames or removes a layer
+	 */
+	class LayerActionListener implements ActionListener
+	{
+		public static final int TOGGLE_VISIBLE = 0;
+		public static final int EDIT = 1;
+		public static final int MOVE_UP = 2;
+		public static final int MOVE_DOWN = 3;
+		public static final int RENAME = 4;
+		public static final int REMOVE = 5;
+		private int layer, action;
+		
+		/**
+		 * Creates the listener for an action on a layer
+		 * @param layer - The index of the layer
+		 * @param action - What to do to the layer, such as MOVE_UP
+		 */
+		public LayerActionListener(int layer, int action)
+		{
+			this.layer = layer;
+			this.action = action;
+		}
+		
+		public void actionPerformed(ActionEvent e) 
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			LayerStack layers = mapPanel.getLayerStack();
+			
+			if (action == TOGGLE_VISIBLE)
+				mapPanel.setLayerVisible(layer, !layers.isVisible(layer));
+			else if (action == EDIT)
+				mapPanel.setEditLayer(layer);
+			else if (action == MOVE_UP)
+				mapPanel.moveLayer(layer, layer + 1);
+			else if (action == MOVE_DOWN)
+				mapPanel.moveLayer(layer, layer - 1);
+			else if (action == RENAME)
+			{
+				String name = (String) JOptionPane.showInputDialog(parentFrame, "Name:", "Rename layer", 
+						JOptionPane.PLAIN_MESSAGE, null, null, layers.getName(layer));
+				if (name != null && name.trim().length() > 0)
+					layers.setName(layer, name.trim());
+			}
+			else if (action == REMOVE)
+			{
+				int answer = JOptionPane.showConfirmDialog(parentFrame, "Remove the layer " + layers.getName(layer) + " and everything drawn on it?", 
+						"Remove layer", JOptionPane.OK_CANCEL_OPTION);
+				if (answer == JOptionPane.OK_OPTION)
+					mapPanel.removeLayer(layer);
+			}
+		}
+	}
+	
+	/**
+	 * ActionListener which adds a new layer to the top of the map
+	 */
+	class AddLayerActionListener implements ActionListener
+	{
+		private int type;
+		
+		/**
+		 * Creates the listener for a type of layer
+		 * @param type - LayerStack.TILE, OBJECT or FLAG
+		 */
+		public AddLayerActionListener(int type)
+		{
+			this.type = type;
+		}
+		
+		public void actionPerformed(ActionEvent e) 
+		{
+			MapPanel mapPanel = parentFrame.getMapPanel();
+			String defaultName = "Layer " + (mapPanel.getLayerStack().getLayerCount() + 1);
+			String name = (String) JOptionPane.showInputDialog(parentFrame, "Name:", "Add " + LayerStack.getTypeName(type) + " layer", 
+					JOptionPane.PLAIN_MESSAGE, null, null, defaultName);
+			
+			if (name != null && name.trim().length() > 0)
+				mapPanel.addLayer(name.trim(), type);
+		}
+	}
+	
+	/**
+	 * ActionListener which repaints the tile panels when unused tiles are dimmed or not
+	 */
+	class UnusedTilesActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent arg0) 
+		{
+			parentFrame.getTilePanel().repaint();
+			parentFrame.getObjectPanel().repaint();
+		}
+	}
+	
+	/**
+	 * ActionListener which starts or stops the animated tiles on the map panel
+	 */
+	class AnimationActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent arg0) 
+		{
+			parentFrame.getMapPanel().getAnimationPlayer().animationModeChanged();
+		}
+	}
 }
@@ -0,0 +1,15 @@
+package runtime;
+
+/**
+ * Receives the cells of a RuntimeMap which are visited by forEachCell
+ */
+public interface CellVisitor
+{
+	/**
+	 * Called for each cell which has something on it
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @param id - The ID of the cell, including any flip flags
+	 */
+	public void visit(int x, int y, int id);
+}
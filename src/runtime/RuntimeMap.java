@@ -0,0 +1,456 @@
+package runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A map exported in the runtime format, mapped straight into memory. This class
+ * only depends on the JDK, so it can be copied into a game without the rest of
+ * the editor.
+ *
+ * The file is little endian. It starts with a header and a table of layers, each
+ * followed by its name. Every layer is stored as square chunks in row major order,
+ * with the cells of each chunk in row major order too, so that the cells near each
+ * other on the map are near each other in the file. Edge chunks are padded with the
+ * empty ID of their layer. The collision flags follow as one bitplane per flag, each
+ * row of which is a whole number of longs.
+ *
+ * The tiles are drawn from an atlas image laid out as a grid of equal cells, each
+ * holding a tile with a border of padding around it. Tiles come first and objects
+ * after them, so a tile ID n is drawn from atlas index n and an object ID n from
+ * atlas index getTileCount() + n - 1. Layer data and collision data start on
+ * page boundaries, and with the default chunk size every chunk is exactly a page.
+ *
+ * Nothing is copied or parsed when a map is opened: looking up a cell is a little
+ * arithmetic and one read from the mapped file.
+ */
+public class RuntimeMap
+{
+	public static final String EXTENSION = ".tmr";
+	public static final int MAGIC = 0x54524D54;
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 80;
+	public static final int LAYER_ENTRY_SIZE = 24;
+	public static final int PAGE_SIZE = 4096;
+	public static final int TILE = 0, OBJECT = 1, FLAG = 2;
+	public static final int VISIBLE = 1;
+	public static final int FLIP_HORIZONTAL = 0x40000000;
+	public static final int FLIP_VERTICAL = 0x20000000;
+	public static final int FLIP_DIAGONAL = 0x10000000;
+	public static final int ID_MASK = 0x0FFFFFFF;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private MappedByteBuffer buffer;
+	private IntBuffer cells;
+	private LongBuffer collision;
+	private int width, height, tileWidth, tileHeight;
+	private int chunkShift, chunkMask, chunksAcross, chunksDown;
+	private int tileCount, objectCount;
+	private int wordsPerRow, flagCount;
+	private String atlasReference;
+	private int atlasColumns, atlasPadding, atlasWidth, atlasHeight;
+	private int[] layerTypes, layerFlags, layerStarts;
+	private String[] layerNames;
+
+	/**
+	 * Maps a runtime map file into memory
+	 * @param file - The file, as written by the exporter
+	 * @return The map
+	 * @throws IOException If the file can't be read or isn't a runtime map
+	 */
+	public static RuntimeMap open(File file) throws IOException
+	{
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try
+		{
+			// The mapping stays valid after the channel is closed
+			FileChannel channel = input.getChannel();
+			return new RuntimeMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			input.close();
+		}
+	}
+
+	/**
+	 * Reads the header and layer table of a mapped file
+	 * @param buffer - The whole file
+	 * @throws IOException If the buffer doesn't hold a runtime map
+	 */
+	private RuntimeMap(MappedByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a runtime map");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported runtime map version " + buffer.getInt(4));
+
+		width = buffer.getInt(8);
+		height = buffer.getInt(12);
+		tileWidth = buffer.getInt(16);
+		tileHeight = buffer.getInt(20);
+		chunkShift = buffer.getInt(24);
+		int layerCount = buffer.getInt(28);
+		tileCount = buffer.getInt(32);
+		objectCount = buffer.getInt(36);
+		wordsPerRow = buffer.getInt(40);
+		flagCount = buffer.getInt(44);
+		atlasReference = readString(buffer.getInt(48));
+		atlasColumns = buffer.getInt(52);
+		atlasPadding = buffer.getInt(56);
+		atlasWidth = buffer.getInt(60);
+		atlasHeight = buffer.getInt(64);
+		long collisionOffset = buffer.getLong(72);
+
+		chunkMask = (1 << chunkShift) - 1;
+		chunksAcross = (width + chunkMask) >> chunkShift;
+		chunksDown = (height + chunkMask) >> chunkShift;
+
+		layerTypes = new int[layerCount];
+		layerFlags = new int[layerCount];
+		layerStarts = new int[layerCount];
+		layerNames = new String[layerCount];
+		for (int i = 0; i < layerCount; i++)
+		{
+			int entry = HEADER_SIZE + i * LAYER_ENTRY_SIZE;
+			layerTypes[i] = buffer.getInt(entry);
+			layerFlags[i] = buffer.getInt(entry + 4);
+			layerNames[i] = readString(buffer.getInt(entry + 8));
+			layerStarts[i] = (int) (buffer.getLong(entry + 16) / 4);
+		}
+
+		cells = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) collisionOffset);
+		collision = view.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+	}
+
+	/**
+	 * Reads a string, stored as its length in bytes followed by its UTF-8 bytes
+	 * @param offset - The offset of the length in the file
+	 * @return The string
+	 */
+	private String readString(int offset)
+	{
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(offset + 4 + i);
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Gets the width of the map
+	 * @return The width in cells
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the height of the map
+	 * @return The height in cells
+	 */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Gets the width of the tiles
+	 * @return The width in pixels
+	 */
+	public int getTileWidth()
+	{
+		return tileWidth;
+	}
+
+	/**
+	 * Gets the height of the tiles
+	 * @return The height in pixels
+	 */
+	public int getTileHeight()
+	{
+		return tileHeight;
+	}
+
+	/**
+	 * Gets the width and height of the chunks the layers are stored in
+	 * @return The size in cells, which is a power of two
+	 */
+	public int getChunkSize()
+	{
+		return 1 << chunkShift;
+	}
+
+	/**
+	 * Gets the number of tiles in the atlas. Objects come after the tiles in it.
+	 * @return The number of tiles
+	 */
+	public int getTileCount()
+	{
+		return tileCount;
+	}
+
+	/**
+	 * Gets the number of objects in the atlas
+	 * @return The number of objects
+	 */
+	public int getObjectCount()
+	{
+		return objectCount;
+	}
+
+	/**
+	 * Gets the image the tiles and objects are drawn from
+	 * @return The path of the image, relative to the map file
+	 */
+	public String getAtlasReference()
+	{
+		return atlasReference;
+	}
+
+	/**
+	 * Gets the width of the atlas image
+	 * @return The width in pixels
+	 */
+	public int getAtlasWidth()
+	{
+		return atlasWidth;
+	}
+
+	/**
+	 * Gets the height of the atlas image
+	 * @return The height in pixels
+	 */
+	public int getAtlasHeight()
+	{
+		return atlasHeight;
+	}
+
+	/**
+	 * Gets the padding around each tile of the atlas
+	 * @return The padding in pixels
+	 */
+	public int getAtlasPadding()
+	{
+		return atlasPadding;
+	}
+
+	/**
+	 * Gets the atlas index a cell is drawn from
+	 * @param type - The type of the cell's layer
+	 * @param id - The ID of the cell, with or without flip flags
+	 * @return The atlas index, or -1 if the cell isn't drawn
+	 */
+	public int getAtlasIndex(int type, int id)
+	{
+		if (type == FLAG || isEmpty(type, id))
+			return -1;
+
+		id &= ID_MASK;
+		if (type == TILE)
+			return (id < tileCount) ? id : -1;
+		return (id <= objectCount) ? tileCount + id - 1 : -1;
+	}
+
+	/**
+	 * Gets the x coordinate of the top left pixel of a tile in the atlas, inside its padding
+	 * @param index - The atlas index of the tile
+	 * @return The x coordinate in pixels
+	 */
+	public int getAtlasX(int index)
+	{
+		return (index % atlasColumns) * (tileWidth + 2 * atlasPadding) + atlasPadding;
+	}
+
+	/**
+	 * Gets the y coordinate of the top left pixel of a tile in the atlas, inside its padding
+	 * @param index - The atlas index of the tile
+	 * @return The y coordinate in pixels
+	 */
+	public int getAtlasY(int index)
+	{
+		return (index / atlasColumns) * (tileHeight + 2 * atlasPadding) + atlasPadding;
+	}
+
+	/**
+	 * Gets the number of layers
+	 * @return The number of layers
+	 */
+	public int getLayerCount()
+	{
+		return layerTypes.length;
+	}
+
+	/**
+	 * Gets the type of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return TILE, OBJECT or FLAG
+	 */
+	public int getLayerType(int layer)
+	{
+		return layerTypes[layer];
+	}
+
+	/**
+	 * Gets the name of a layer
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return The name
+	 */
+	public String getLayerName(int layer)
+	{
+		return layerNames[layer];
+	}
+
+	/**
+	 * Tells whether a layer was shown in the editor
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @return True if it is visible
+	 */
+	public boolean isLayerVisible(int layer)
+	{
+		return (layerFlags[layer] & VISIBLE) != 0;
+	}
+
+	/**
+	 * Finds the bottom layer of a type
+	 * @param type - TILE, OBJECT or FLAG
+	 * @return The index of the layer, or -1 if there is none
+	 */
+	public int findLayer(int type)
+	{
+		for (int i = 0; i < layerTypes.length; i++)
+		{
+			if (layerTypes[i] == type)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells whether an ID leaves a cell empty on a type of layer. Object 0 is the eraser.
+	 * @param type - TILE, OBJECT or FLAG
+	 * @param id - The ID
+	 * @return True if nothing is on the cell
+	 */
+	public static boolean isEmpty(int type, int id)
+	{
+		if (type == TILE)
+			return id < 0;
+		if (type == OBJECT)
+			return id <= 0;
+		return id == 0;
+	}
+
+	/**
+	 * Gets the ID of a cell
+	 * @param layer - The index of the layer, from the bottom one up
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return The ID, including any flip flags
+	 */
+	public int get(int layer, int x, int y)
+	{
+		return cells.get(getCellIndex(layer, x, y));
+	}
+
+	/**
+	 * Gets the index of a cell in the file, counted in ints
+	 * @param layer - The index of the layer
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return The index
+	 */
+	private int getCellIndex(int layer, int x, int y)
+	{
+		int chunk = (y >> chunkShift) * chunksAcross + (x >> chunkShift);
+		return layerStarts[layer] + (chunk << (2 * chunkShift)) + (((y & chunkMask) << chunkShift) | (x & chunkMask));
+	}
+
+	/**
+	 * Tells whether a collision flag is set on a cell
+	 * @param flag - The index of the flag, 0 being solid
+	 * @param x - The column of the cell
+	 * @param y - The row of the cell
+	 * @return True if the flag is set
+	 */
+	public boolean isFlagSet(int flag, int x, int y)
+	{
+		if (flag >= flagCount)
+			return false;
+		long word = collision.get((flag * height + y) * wordsPerRow + (x >> 6));
+		return (word & (1L << x)) != 0;
+	}
+
+	/**
+	 * Gets the cells of one chunk of a layer, without copying them
+	 * @param layer - The index of the layer
+	 * @param chunkX - The column of the chunk
+	 * @param chunkY - The row of the chunk
+	 * @return A read only view of the chunk's cells in row major order, including
+	 * any padding past the edge of the map
+	 */
+	public IntBuffer getChunk(int layer, int chunkX, int chunkY)
+	{
+		int start = getCellIndex(layer, chunkX << chunkShift, chunkY << chunkShift);
+		IntBuffer chunk = cells.duplicate();
+		chunk.position(start);
+		chunk.limit(start + (1 << (2 * chunkShift)));
+		return chunk.slice();
+	}
+
+	/**
+	 * Visits the cells of a layer which have something on them within a rectangle,
+	 * such as the cells in view. The cells are read from the mapped file chunk by
+	 * chunk, so each chunk's cells are read together.
+	 * @param layer - The index of the layer
+	 * @param x - The column of the left edge of the rectangle
+	 * @param y - The row of the top edge of the rectangle
+	 * @param columns - The width of the rectangle in cells
+	 * @param rows - The height of the rectangle in cells
+	 * @param visitor - The visitor to give each cell to
+	 */
+	public void forEachCell(int layer, int x, int y, int columns, int rows, CellVisitor visitor)
+	{
+		int left = Math.max(0, x);
+		int top = Math.max(0, y);
+		int right = Math.min(width, x + columns);
+		int bottom = Math.min(height, y + rows);
+		if (left >= right || top >= bottom)
+			return;
+
+		int type = layerTypes[layer];
+		for (int chunkY = top >> chunkShift; chunkY <= (bottom - 1) >> chunkShift; chunkY++)
+		{
+			for (int chunkX = left >> chunkShift; chunkX <= (right - 1) >> chunkShift; chunkX++)
+			{
+				int startX = Math.max(left, chunkX << chunkShift);
+				int endX = Math.min(right, (chunkX + 1) << chunkShift);
+				int startY = Math.max(top, chunkY << chunkShift);
+				int endY = Math.min(bottom, (chunkY + 1) << chunkShift);
+
+				for (int row = startY; row < endY; row++)
+				{
+					int index = getCellIndex(layer, startX, row);
+					for (int column = startX; column < endX; column++, index++)
+					{
+						int id = cells.get(index);
+						if (!isEmpty(type, id))
+							visitor.visit(column, row, id);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,587 @@
+package util;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a 32 bit RGBA PNG image a few scanlines at a time, so that the whole
+ * image never has to be held in memory.
+ *
+ * Each batch of rows is filtered and then split into blocks which are deflated
+ * concurrently on a ForkJoinPool, the same way pigz does it: every block is a
+ * raw deflate stream primed with the last 32K of the data before it and ended
+ * with a sync flush, so the blocks can simply be written one after another and
+ * still form a single standard zlib stream. The Adler-32 checksums of the
+ * blocks are combined at the end.
+ */
+public class PngWriter
+{
+	public static final int FILTER_NONE = 0;
+	public static final int FILTER_SUB = 1;
+	public static final int FILTER_UP = 2;
+	public static final int FILTER_AVERAGE = 3;
+	public static final int FILTER_PAETH = 4;
+	public static final int FILTER_ADAPTIVE = 5;
+
+	public static final int DEFAULT_FILTER = FILTER_SUB;
+	public static final int DEFAULT_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+	private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int BYTES_PER_PIXEL = 4;
+	private static final int ADLER_BASE = 65521;
+
+	private DataOutputStream out;
+	private ForkJoinPool pool;
+	private CRC32 crc;
+	private int width, height;
+	private int level, filter;
+	private int rowBytes;
+	private int rowsWritten;
+	private long adler;
+	private byte[] previousRow;
+	private byte[] dictionary;
+	private byte[] chunkBuffer;
+	private int chunkLength;
+
+	/**
+	 * Creates a PngWriter with the default compression level and filter, which
+	 * compresses on the common ForkJoinPool, and writes the PNG header to the stream
+	 * @param stream - The stream to write the image to
+	 * @param width - The width of the image in pixels
+	 * @param height - The height of the image in pixels
+	 * @throws IOException If the header can't be written
+	 */
+	public PngWriter(OutputStream stream, int width, int height) throws IOException
+	{
+		this(stream, width, height, DEFAULT_LEVEL, DEFAULT_FILTER, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a PngWriter and writes the PNG header to the stream
+	 * @param stream - The stream to write the image to
+	 * @param width - The width of the image in pixels
+	 * @param height - The height of the image in pixels
+	 * @param level - The deflate compression level (0-9, or -1 for the default)
+	 * @param filter - The row filter to use (one of the FILTER_ constants)
+	 * @param pool - The pool to filter and compress blocks on
+	 * @throws IOException If the header can't be written
+	 */
+	public PngWriter(OutputStream stream, int width, int height, int level, int filter, ForkJoinPool pool) throws IOException
+	{
+		if (filter < FILTER_NONE || filter > FILTER_ADAPTIVE)
+			throw new IllegalArgumentException("Unknown PNG filter: " + filter);
+		if (level < -1 || level > 9)
+			throw new IllegalArgumentException("Compression level must be between -1 and 9: " + level);
+
+		this.width = width;
+		this.height = height;
+		this.level = level;
+		this.filter = filter;
+		this.pool = pool;
+		out = new DataOutputStream(stream);
+		crc = new CRC32();
+		rowBytes = width * BYTES_PER_PIXEL;
+		rowsWritten = 0;
+		adler = 1;
+
+		// The row above the first row is treated as all zeros
+		previousRow = new byte[rowBytes];
+		dictionary = new byte[0];
+		chunkBuffer = new byte[CHUNK_SIZE];
+		chunkLength = 0;
+
+		// Write the signature and the image header
+		out.write(SIGNATURE);
+
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8;	// Bit depth
+		header[9] = 6;	// Color type (RGBA)
+		header[10] = 0;	// Compression method
+		header[11] = 0;	// Filter method
+		header[12] = 0;	// Interlace method
+		writeChunk("IHDR", header, header.length);
+
+		// Start the zlib stream (deflate, 32K window, no preset dictionary)
+		writeCompressed(new byte[] {0x78, (byte) 0x9C}, 2);
+	}
+
+	/**
+	 * Encodes a whole image as a PNG
+	 * @param image - The image to encode
+	 * @param stream - The stream to write the PNG to
+	 * @param level - The deflate compression level (0-9, or -1 for the default)
+	 * @param filter - The row filter to use (one of the FILTER_ constants)
+	 * @throws IOException If the image can't be written
+	 */
+	public static void write(BufferedImage image, OutputStream stream, int level, int filter) throws IOException
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		PngWriter writer = new PngWriter(stream, width, height, level, filter, ForkJoinPool.commonPool());
+
+		// getRGB converts to ARGB for us whatever type the image is
+		int rowsPerBatch = Math.max(1, (4 * 1024 * 1024) / Math.max(1, width));
+		int[] argb = new int[width * Math.min(height, rowsPerBatch)];
+
+		for (int y = 0; y < height; y += rowsPerBatch)
+		{
+			int rows = Math.min(rowsPerBatch, height - y);
+			image.getRGB(0, y, width, rows, argb, 0, width);
+			writer.writeRows(argb, 0, width, rows);
+		}
+
+		writer.finish();
+	}
+
+	/**
+	 * Writes a number of scanlines to the image
+	 * @param argb - Packed ARGB pixels, as stored in a TYPE_INT_ARGB raster
+	 * @param offset - The index in argb of the first pixel of the first row
+	 * @param scanline - The distance in argb between the start of two rows
+	 * @param rows - The number of rows to write
+	 * @throws IOException If the rows can't be written
+	 */
+	public void writeRows(int[] argb, int offset, int scanline, int rows) throws IOException
+	{
+		if (rowsWritten + rows > height)
+			throw new IllegalStateException("Too many rows written to the image (" + (rowsWritten + rows) + " of " + height + ")");
+		if (rows == 0)
+			return;
+
+		// Filter every row, one extra byte at the start of each holds the filter type
+		int filteredRowBytes = rowBytes + 1;
+		byte[] filtered = new byte[rows * filteredRowBytes];
+		pool.invoke(new FilterTask(argb, offset, scanline, 0, rows, filtered));
+
+		// Remember the last row for filtering the first row of the next batch
+		toRGBA(argb, offset + (rows - 1) * scanline, previousRow);
+
+		// Split the filtered data into blocks of whole rows and deflate them concurrently
+		boolean lastBatch = rowsWritten + rows == height;
+		int rowsPerBlock = Math.max(1, BLOCK_SIZE / filteredRowBytes);
+		ArrayList<DeflateTask> tasks = new ArrayList<DeflateTask>();
+
+		for (int row = 0; row < rows; row += rowsPerBlock)
+		{
+			int start = row * filteredRowBytes;
+			int end = Math.min(rows, row + rowsPerBlock) * filteredRowBytes;
+			boolean lastBlock = lastBatch && end == filtered.length;
+
+			DeflateTask task = new DeflateTask(filtered, start, end, lastBlock);
+			tasks.add(task);
+			pool.execute(task);
+		}
+
+		// Collect the blocks in order
+		for (DeflateTask task : tasks)
+		{
+			byte[] compressed = task.join();
+			writeCompressed(compressed, compressed.length);
+			adler = combineAdler32(adler, task.getAdler(), task.getLength());
+		}
+
+		// The tail of this batch primes the first block of the next one
+		int dictionaryLength = Math.min(DICTIONARY_SIZE, filtered.length);
+		dictionary = new byte[dictionaryLength];
+		System.arraycopy(filtered, filtered.length - dictionaryLength, dictionary, 0, dictionaryLength);
+
+		rowsWritten += rows;
+	}
+
+	/**
+	 * Writes the zlib checksum and the end of the image. The
+	 * underlying stream is flushed but not closed.
+	 * @throws IOException If the image is incomplete or can't be written
+	 */
+	public void finish() throws IOException
+	{
+		if (rowsWritten != height)
+			throw new IllegalStateException("Image is incomplete (" + rowsWritten + " of " + height + " rows written)");
+
+		// End the zlib stream with the Adler-32 of all of the uncompressed data
+		byte[] checksum = new byte[4];
+		writeInt(checksum, 0, (int) adler);
+		writeCompressed(checksum, 4);
+
+		// Write whatever is left over, then the end chunk
+		if (chunkLength > 0)
+			writeChunk("IDAT", chunkBuffer, chunkLength);
+		writeChunk("IEND", chunkBuffer, 0);
+		out.flush();
+	}
+
+	/**
+	 * Adds compressed data to the chunk buffer, writing out an
+	 * IDAT chunk each time the buffer fills
+	 * @param data - The compressed data
+	 * @param length - The number of bytes to add
+	 * @throws IOException If a chunk can't be written
+	 */
+	private void writeCompressed(byte[] data, int length) throws IOException
+	{
+		int position = 0;
+
+		while (position < length)
+		{
+			int count = Math.min(length - position, CHUNK_SIZE - chunkLength);
+			System.arraycopy(data, position, chunkBuffer, chunkLength, count);
+			chunkLength += count;
+			position += count;
+
+			if (chunkLength == CHUNK_SIZE)
+			{
+				writeChunk("IDAT", chunkBuffer, chunkLength);
+				chunkLength = 0;
+			}
+		}
+	}
+
+	/**
+	 * Writes a single PNG chunk along with its length and CRC
+	 * @param type - The four letter chunk type
+	 * @param data - The chunk data
+	 * @param length - The number of bytes of data to write
+	 * @throws IOException If the chunk can't be written
+	 */
+	private void writeChunk(String type, byte[] data, int length) throws IOException
+	{
+		byte[] typeBytes = type.getBytes("US-ASCII");
+
+		crc.reset();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Converts a row of ARGB pixels into RGBA bytes
+	 * @param argb - The pixels to convert
+	 * @param offset - The index of the first pixel in the row
+	 * @param row - The array to store the bytes in
+	 */
+	private void toRGBA(int[] argb, int offset, byte[] row)
+	{
+		for (int x = 0, i = 0; x < width; x++, i += BYTES_PER_PIXEL)
+		{
+			int color = argb[offset + x];
+			row[i] = (byte) (color >> 16);
+			row[i + 1] = (byte) (color >> 8);
+			row[i + 2] = (byte) color;
+			row[i + 3] = (byte) (color >>> 24);
+		}
+	}
+
+	/**
+	 * Filters a single row with the specified filter type
+	 * @param type - The filter type (FILTER_NONE through FILTER_PAETH)
+	 * @param row - The raw row
+	 * @param above - The raw row above it
+	 * @param dest - Where to write the filter type followed by the filtered row
+	 * @param offset - The index in dest to start writing at
+	 */
+	private static void filterRow(int type, byte[] row, byte[] above, byte[] dest, int offset)
+	{
+		dest[offset++] = (byte) type;
+
+		for (int i = 0; i < row.length; i++)
+		{
+			int current = row[i] & 0xFF;
+			int left = (i >= BYTES_PER_PIXEL) ? row[i - BYTES_PER_PIXEL] & 0xFF : 0;
+			int up = above[i] & 0xFF;
+			int upLeft = (i >= BYTES_PER_PIXEL) ? above[i - BYTES_PER_PIXEL] & 0xFF : 0;
+			int predicted;
+
+			switch (type)
+			{
+				case FILTER_SUB:
+					predicted = left;
+					break;
+				case FILTER_UP:
+					predicted = up;
+					break;
+				case FILTER_AVERAGE:
+					predicted = (left + up) >> 1;
+					break;
+				case FILTER_PAETH:
+					predicted = paeth(left, up, upLeft);
+					break;
+				default:
+					predicted = 0;
+			}
+
+			dest[offset + i] = (byte) (current - predicted);
+		}
+	}
+
+	/**
+	 * The Paeth predictor from the PNG specification
+	 * @param a - The byte to the left
+	 * @param b - The byte above
+	 * @param c - The byte above and to the left
+	 * @return Whichever of a, b, or c is closest to a + b - c
+	 */
+	private static int paeth(int a, int b, int c)
+	{
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+
+		if (pa <= pb && pa <= pc)
+			return a;
+		if (pb <= pc)
+			return b;
+		return c;
+	}
+
+	/**
+	 * Sums the filtered bytes of a row as signed values, which is the usual
+	 * heuristic for guessing which filter will compress best
+	 * @param data - The filtered data
+	 * @param offset - The index of the row's filter type byte
+	 * @param length - The number of bytes in the row, not counting the filter type
+	 * @return The sum of the absolute values of the row's bytes
+	 */
+	private static long filterCost(byte[] data, int offset, int length)
+	{
+		long sum = 0;
+		for (int i = offset + 1; i <= offset + length; i++)
+			sum += Math.abs(data[i]);
+		return sum;
+	}
+
+	/**
+	 * Combines the Adler-32 checksums of two adjacent pieces of data, as
+	 * adler32_combine does in zlib
+	 * @param adler1 - The checksum of the first piece
+	 * @param adler2 - The checksum of the second piece
+	 * @param length2 - The length of the second piece
+	 * @return The checksum of both pieces one after the other
+	 */
+	private static long combineAdler32(long adler1, long adler2, long length2)
+	{
+		long remainder = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (remainder * sum1) % ADLER_BASE;
+
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - remainder;
+
+		if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+		if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+		if (sum2 >= ((long) ADLER_BASE << 1)) sum2 -= ((long) ADLER_BASE << 1);
+		if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+
+		return sum1 | (sum2 << 16);
+	}
+
+	/**
+	 * Stores an int in big endian order
+	 * @param buffer - The buffer to write to
+	 * @param offset - Where in the buffer to write the int
+	 * @param value - The value to write
+	 */
+	private static void writeInt(byte[] buffer, int offset, int value)
+	{
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Converts and filters a range of rows, splitting the range in half
+	 * until it is small enough to do directly
+	 */
+	class FilterTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = -2468155383066012571L;
+		private static final int THRESHOLD = 16;
+		private int[] argb;
+		private int offset, scanline;
+		private int firstRow, lastRow;
+		private byte[] dest;
+
+		/**
+		 * Creates a task which filters rows [firstRow, lastRow)
+		 * @param argb - The pixels of the batch
+		 * @param offset - The index of the batch's first pixel
+		 * @param scanline - The distance between the start of two rows
+		 * @param firstRow - The first row to filter
+		 * @param lastRow - One past the last row to filter
+		 * @param dest - Where to write the filtered rows
+		 */
+		FilterTask(int[] argb, int offset, int scanline, int firstRow, int lastRow, byte[] dest)
+		{
+			this.argb = argb;
+			this.offset = offset;
+			this.scanline = scanline;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+			this.dest = dest;
+		}
+
+		protected void compute()
+		{
+			if (lastRow - firstRow > THRESHOLD)
+			{
+				int middle = (firstRow + lastRow) >>> 1;
+				invokeAll(new FilterTask(argb, offset, scanline, firstRow, middle, dest),
+						new FilterTask(argb, offset, scanline, middle, lastRow, dest));
+				return;
+			}
+
+			byte[] row = new byte[rowBytes];
+			byte[] above = new byte[rowBytes];
+			byte[] candidate = (filter == FILTER_ADAPTIVE) ? new byte[rowBytes + 1] : null;
+
+			// The row above the batch comes from the previous batch
+			if (firstRow == 0)
+				System.arraycopy(previousRow, 0, above, 0, rowBytes);
+			else
+				toRGBA(argb, offset + (firstRow - 1) * scanline, above);
+
+			for (int y = firstRow; y < lastRow; y++)
+			{
+				int destOffset = y * (rowBytes + 1);
+				toRGBA(argb, offset + y * scanline, row);
+
+				if (filter != FILTER_ADAPTIVE)
+					filterRow(filter, row, above, dest, destOffset);
+				else
+				{
+					// Try each filter and keep whichever looks cheapest
+					long bestCost = Long.MAX_VALUE;
+					for (int type = FILTER_NONE; type <= FILTER_PAETH; type++)
+					{
+						filterRow(type, row, above, candidate, 0);
+						long cost = filterCost(candidate, 0, rowBytes);
+						if (cost < bestCost)
+						{
+							bestCost = cost;
+							System.arraycopy(candidate, 0, dest, destOffset, rowBytes + 1);
+						}
+					}
+				}
+
+				// Swap the rows so this one becomes the row above
+				byte[] temp = above;
+				above = row;
+				row = temp;
+			}
+		}
+	}
+
+	/**
+	 * Deflates a single block of filtered data into a raw deflate stream
+	 */
+	class DeflateTask extends RecursiveTask<byte[]>
+	{
+		private static final long serialVersionUID = 8412707761946153620L;
+		private byte[] data;
+		private int start, end;
+		private boolean lastBlock;
+		private long blockAdler;
+
+		/**
+		 * Creates a task which deflates data[start, end)
+		 * @param data - The filtered data of the whole batch
+		 * @param start - The index of the first byte of the block
+		 * @param end - One past the index of the last byte of the block
+		 * @param lastBlock - Whether this block ends the zlib stream
+		 */
+		DeflateTask(byte[] data, int start, int end, boolean lastBlock)
+		{
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.lastBlock = lastBlock;
+		}
+
+		/**
+		 * Gets the Adler-32 checksum of the uncompressed block, once it has been computed
+		 * @return The checksum of the block
+		 */
+		long getAdler()
+		{
+			return blockAdler;
+		}
+
+		/**
+		 * Gets the number of uncompressed bytes in the block
+		 * @return The length of the block
+		 */
+		int getLength()
+		{
+			return end - start;
+		}
+
+		protected byte[] compute()
+		{
+			Adler32 checksum = new Adler32();
+			checksum.update(data, start, end - start);
+			blockAdler = checksum.getValue();
+
+			Deflater deflater = new Deflater(level, true);
+
+			// Prime the deflater with the data just before this block so matches can reach back into it
+			if (start > 0)
+			{
+				int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+				deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+			}
+			else if (dictionary.length > 0)
+				deflater.setDictionary(dictionary);
+
+			deflater.setInput(data, start, end - start);
+			if (lastBlock)
+				deflater.finish();
+
+			// Sync flush so the next block starts on a byte boundary
+			int flush = lastBlock ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+			byte[] buffer = new byte[Math.max(1024, (end - start) / 2)];
+			int length = 0;
+
+			while (true)
+			{
+				if (length == buffer.length)
+				{
+					byte[] larger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					buffer = larger;
+				}
+
+				int available = buffer.length - length;
+				int count = deflater.deflate(buffer, length, available, flush);
+				length += count;
+
+				// Done once the stream is finished, or a sync flush didn't fill up the buffer
+				if (lastBlock ? deflater.finished() : count < available)
+					break;
+			}
+			deflater.end();
+
+			byte[] result = new byte[length];
+			System.arraycopy(buffer, 0, result, 0, length);
+			return result;
+		}
+	}
+}